@@ -0,0 +1,64 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Class BenchmarkRunner runs the benchmarks of this module with the JMH
+ * allocation profiler attached so that every result reports the bytes
+ * allocated per operation (gc.alloc.rate.norm) alongside the time. The
+ * results are also written as JSON so that runs can be compared.<p>
+ * Usage: BenchmarkRunner [include regex] [result file]<p>
+ * The regex defaults to every benchmark in the bench package and the result
+ * file to jmh-result.json. The same profiling is obtained from the JMH
+ * command line main (org.openjdk.jmh.Main) with the -prof gc option.
+ */
+public class BenchmarkRunner
+{
+  public static void main (String[] args) throws Exception
+  {
+    String theInclude = "bench\\..*";
+    String theResultFile = "jmh-result.json";
+
+    if (args.length > 0)
+    {
+      theInclude = args[0];
+    } // if
+    if (args.length > 1)
+    {
+      theResultFile = args[1];
+    } // if
+    Options theOptions = new OptionsBuilder ()
+      .include (theInclude)
+      .addProfiler (GCProfiler.class)
+      .resultFormat (ResultFormatType.JSON)
+      .result (theResultFile)
+      .build ();
+    new Runner (theOptions).run ();
+  } // main
+
+} // class BenchmarkRunner
@@ -0,0 +1,151 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ashkel.javalib.concurrency.CriticalSection;
+
+/**
+ * Class CriticalSectionBenchmark measures an acquire and release of a
+ * CriticalSection by a single thread and by four threads competing for the
+ * same instance. A ReentrantLock is measured in the same way as a baseline.
+ * Each acquire protects the increment of a counter.
+ */
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class CriticalSectionBenchmark
+{
+  /**
+   * Class Locks holds the locks and the counter they protect. It is used
+   * per thread for the uncontended benchmarks and shared for the
+   * contended ones.
+   */
+  public static class Locks
+  {
+    protected CriticalSection m_theCriticalSection = new CriticalSection ();
+    protected ReentrantLock m_theLock = new ReentrantLock ();
+    protected long m_theCount = 0;
+
+    public long criticalSection ()
+    {
+      m_theCriticalSection.acquire ();
+      try
+      {
+        return ++m_theCount;
+      } // try
+      finally
+      {
+        m_theCriticalSection.release ();
+      } // finally
+    } // criticalSection
+
+    public long nestedCriticalSection ()
+    {
+      m_theCriticalSection.acquire ();
+      try
+      {
+        return criticalSection ();
+      } // try
+      finally
+      {
+        m_theCriticalSection.release ();
+      } // finally
+    } // nestedCriticalSection
+
+    public long reentrantLock ()
+    {
+      m_theLock.lock ();
+      try
+      {
+        return ++m_theCount;
+      } // try
+      finally
+      {
+        m_theLock.unlock ();
+      } // finally
+    } // reentrantLock
+
+  } // class Locks
+
+  @State (Scope.Thread)
+  public static class ThreadLocks extends Locks
+  {
+  } // class ThreadLocks
+
+  @State (Scope.Benchmark)
+  public static class SharedLocks extends Locks
+  {
+  } // class SharedLocks
+
+  @Benchmark
+  public long uncontended (ThreadLocks theLocks)
+  {
+    return theLocks.criticalSection ();
+  } // uncontended
+
+  /**
+   * Method uncontendedNested measures the owner acquiring the critical
+   * section a second time.
+   */
+  @Benchmark
+  public long uncontendedNested (ThreadLocks theLocks)
+  {
+    return theLocks.nestedCriticalSection ();
+  } // uncontendedNested
+
+  @Benchmark
+  public long uncontendedBaseline (ThreadLocks theLocks)
+  {
+    return theLocks.reentrantLock ();
+  } // uncontendedBaseline
+
+  @Benchmark
+  @Threads (4)
+  public long contended (SharedLocks theLocks)
+  {
+    return theLocks.criticalSection ();
+  } // contended
+
+  @Benchmark
+  @Threads (4)
+  public long contendedBaseline (SharedLocks theLocks)
+  {
+    return theLocks.reentrantLock ();
+  } // contendedBaseline
+
+} // class CriticalSectionBenchmark
@@ -0,0 +1,143 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class DispatchBenchmark measures the cost of invoking a work method the
+ * way ThreadIt does, through Method.invoke with a new argument array, against
+ * the alternatives: a MethodHandle, a table of handler objects indexed by
+ * instruction and a direct call.
+ */
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+@State (Scope.Thread)
+public class DispatchBenchmark
+{
+  /** ECHO_HANDLE is the handle to Target.echo. */
+  private static final MethodHandle ECHO_HANDLE = findEcho ();
+
+  /**
+   * Interface WorkHandler is a work method held as an object.
+   */
+  public interface WorkHandler
+  {
+    WorkPackIt handle (WorkPackIt theWorkPack);
+  } // interface WorkHandler
+
+  /**
+   * Class Target provides the work method being dispatched.
+   */
+  public static class Target
+  {
+    public WorkPackIt echo (WorkPackIt theWorkPack)
+    {
+      return theWorkPack;
+    } // echo
+  } // class Target
+
+  protected Target m_theTarget = new Target ();
+  protected WorkPackIt m_theWorkPack = new WorkPackIt ();
+  protected Method m_theMethod = null;
+  protected WorkHandler[] m_theHandlers = null;
+
+  @Setup
+  public void setUp () throws Exception
+  {
+    m_theMethod = Target.class.getMethod ("echo", new Class<?>[] {WorkPackIt.class});
+    m_theHandlers = new WorkHandler[1];
+    m_theHandlers[EchoThreadIt.ECHO] = new WorkHandler ()
+    {
+      public WorkPackIt handle (WorkPackIt theWorkPack)
+      {
+        return m_theTarget.echo (theWorkPack);
+      } // handle
+    };
+  } // setUp
+
+  /**
+   * Method reflective invokes the work method as ThreadIt does.
+   */
+  @Benchmark
+  public Object reflective () throws Exception
+  {
+    return m_theMethod.invoke (m_theTarget, new Object[] {m_theWorkPack});
+  } // reflective
+
+  @Benchmark
+  public WorkPackIt methodHandle () throws Throwable
+  {
+    return (WorkPackIt) ECHO_HANDLE.invokeExact (m_theTarget, m_theWorkPack);
+  } // methodHandle
+
+  @Benchmark
+  public WorkPackIt handlerTable ()
+  {
+    return m_theHandlers[m_theWorkPack.m_Instruction].handle (m_theWorkPack);
+  } // handlerTable
+
+  @Benchmark
+  public WorkPackIt direct ()
+  {
+    return m_theTarget.echo (m_theWorkPack);
+  } // direct
+
+  /**
+   * Method findEcho looks up the handle for Target.echo.
+   */
+  private static MethodHandle findEcho ()
+  {
+    MethodHandle theHandle = null;
+
+    try
+    {
+      theHandle = MethodHandles.lookup ().findVirtual (Target.class, "echo", MethodType.methodType (WorkPackIt.class, WorkPackIt.class));
+    } // try
+    catch (Exception anException)
+    {
+      throw new IllegalStateException ("Target.echo not found", anException);
+    } // catch
+    return theHandle;
+  } // findEcho
+
+} // class DispatchBenchmark
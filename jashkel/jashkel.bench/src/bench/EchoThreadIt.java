@@ -0,0 +1,75 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.io.IOException;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class EchoThreadIt is a ThreadIt whose only work method returns the work
+ * package it is given. Benchmarks use it to measure the cost of the ThreadIt
+ * machinery without any work being done.
+ */
+public class EchoThreadIt extends ThreadIt
+{
+  /** ECHO is the instruction associated with the echo method. */
+  public static final int ECHO = 0;
+
+  public EchoThreadIt (String theThreadName) throws IOException
+  {
+    super (theThreadName);
+    setWorkerMethod ("echo", ECHO);
+  } // EchoThreadIt
+
+  /**
+   * Method echo returns the work package as the work done.
+   */
+  public WorkPackIt echo (WorkPackIt theWorkPack)
+  {
+    return theWorkPack;
+  } // echo
+
+  /**
+   * Method newRequest returns a work package for the echo method that asks
+   * for the result to be returned in the default work done queue.
+   */
+  public static WorkPackIt newRequest ()
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.m_Instruction = ECHO;
+    theWorkPack.m_SendResult = true;
+    return theWorkPack;
+  } // newRequest
+
+  /**
+   * Method stopIt stops the thread and waits for it to exit.
+   */
+  public void stopIt ()
+  {
+    stopThread ();
+    waitForThreadToStop (1000);
+  } // stopIt
+
+} // class EchoThreadIt
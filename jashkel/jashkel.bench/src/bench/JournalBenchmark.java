@@ -0,0 +1,115 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ashkel.javalib.threads.JournaledQueue;
+
+/**
+ * Class JournalBenchmark measures round trips to a ThreadIt whose work is
+ * held in the default work queue, in a JournaledQueue that commits every
+ * millisecond without waiting and in one that waits for each commit. Each
+ * invocation sends BATCH requests and then takes BATCH replies, so the
+ * producer waiting for a commit does not share it with others.
+ */
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+@State (Scope.Benchmark)
+public class JournalBenchmark
+{
+  /** BATCH is the number of requests sent per invocation. */
+  public static final int BATCH = 64;
+
+  /** m_theQueue selects the work queue of the ThreadIt. */
+  @Param ({"memory", "journal", "journal-sync"})
+  public String m_theQueue;
+
+  protected EchoThreadIt m_theEcho = null;
+  protected JournaledQueue m_theJournal = null;
+  protected File m_theDirectory = null;
+
+  @Setup (Level.Trial)
+  public void setUp () throws Exception
+  {
+    m_theEcho = new EchoThreadIt ("JournalEcho");
+    if (m_theQueue.startsWith ("journal"))
+    {
+      m_theDirectory = Files.createTempDirectory ("journal").toFile ();
+      m_theJournal = new JournaledQueue (m_theDirectory, null, JournaledQueue.DEFAULT_SEGMENT_SIZE, 1, m_theQueue.equals ("journal-sync"));
+      m_theEcho.setWorkQ (m_theJournal);
+    } // if
+  } // setUp
+
+  @TearDown (Level.Trial)
+  public void tearDown ()
+  {
+    m_theEcho.stopIt ();
+    if (m_theJournal != null)
+    {
+      m_theJournal.close ();
+      for (File theFile : m_theDirectory.listFiles ())
+      {
+        theFile.delete ();
+      } // for
+      m_theDirectory.delete ();
+    } // if
+  } // tearDown
+
+  /**
+   * Method roundTrip sends BATCH requests and waits for their replies.
+   */
+  @Benchmark
+  @BenchmarkMode (Mode.Throughput)
+  @OutputTimeUnit (TimeUnit.MILLISECONDS)
+  @OperationsPerInvocation (BATCH)
+  public void roundTrip ()
+  {
+    for (int i = 0; i < BATCH; i++)
+    {
+      m_theEcho.startWork (EchoThreadIt.newRequest ());
+    } // for
+    for (int i = 0; i < BATCH; i++)
+    {
+      m_theEcho.getWork (1000);
+    } // for
+  } // roundTrip
+
+} // class JournalBenchmark
@@ -0,0 +1,206 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.SignalQueue;
+
+/**
+ * Class QueueBenchmark measures the insert and poll throughput of the
+ * ProtectedQueue and the SignalQueue with a single consumer and one, two
+ * or four producers. Other producer counts can be run by overriding the
+ * group thread distribution on the command line, for example -tg 8,1.
+ * The producers hold back while the queue is deeper than MAX_DEPTH so
+ * that a slow consumer measures contention rather than heap growth.
+ */
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class QueueBenchmark
+{
+  /** MAX_DEPTH is the queue depth above which the producers hold back. */
+  public static final int MAX_DEPTH = 65536;
+
+  /** ITEM is the item inserted by the producers. */
+  private static final Object ITEM = new Object ();
+
+  /**
+   * Class QueueState holds the queue shared by the producers and the
+   * consumer of a benchmark group.
+   */
+  @State (Scope.Group)
+  public static class QueueState
+  {
+    /** m_theQueueType selects the queue implementation measured. */
+    @Param ({"ProtectedQueue", "SignalQueue"})
+    public String m_theQueueType;
+
+    protected ProtectedQueue m_theProtectedQ = null;
+    protected SignalQueue m_theSignalQ = null;
+
+    /**
+     * Method setUp creates a new queue for every iteration so that nothing
+     * is carried over between iterations.
+     */
+    @Setup (Level.Iteration)
+    public void setUp ()
+    {
+      m_theProtectedQ = null;
+      m_theSignalQ = null;
+      if (m_theQueueType.equals ("SignalQueue"))
+      {
+        m_theSignalQ = new SignalQueue ();
+      }
+      else
+      {
+        m_theProtectedQ = new ProtectedQueue ();
+      } // if
+    } // setUp
+
+    /**
+     * Method insert adds an item to the queue once the queue depth is below
+     * MAX_DEPTH or the measurement has stopped.
+     */
+    public void insert (Control theControl)
+    {
+      while ((size () > MAX_DEPTH) && (!theControl.stopMeasurement))
+      {
+        Thread.yield ();
+      } // while
+      if (m_theSignalQ != null)
+      {
+        m_theSignalQ.insertItem (ITEM);
+      }
+      else
+      {
+        m_theProtectedQ.insertItem (ITEM);
+      } // if
+    } // insert
+
+    /**
+     * Method poll removes the item at the head of the queue without waiting.
+     * It returns null when the queue is empty.
+     */
+    public Object poll ()
+    {
+      Object anItem = null;
+
+      if (m_theSignalQ != null)
+      {
+        anItem = m_theSignalQ.waitItem (0);
+      }
+      else
+      {
+        anItem = m_theProtectedQ.waitItem (0);
+      } // if
+      return anItem;
+    } // poll
+
+    /**
+     * Method size returns the depth of the queue.
+     */
+    public long size ()
+    {
+      long theSize = 0;
+
+      if (m_theSignalQ != null)
+      {
+        theSize = m_theSignalQ.size ();
+      }
+      else
+      {
+        theSize = m_theProtectedQ.getDepth ();
+      } // if
+      return theSize;
+    } // size
+
+  } // class QueueState
+
+  @Benchmark
+  @Group ("p1")
+  @GroupThreads (1)
+  public void p1Insert (QueueState theState, Control theControl)
+  {
+    theState.insert (theControl);
+  } // p1Insert
+
+  @Benchmark
+  @Group ("p1")
+  @GroupThreads (1)
+  public Object p1Poll (QueueState theState)
+  {
+    return theState.poll ();
+  } // p1Poll
+
+  @Benchmark
+  @Group ("p2")
+  @GroupThreads (2)
+  public void p2Insert (QueueState theState, Control theControl)
+  {
+    theState.insert (theControl);
+  } // p2Insert
+
+  @Benchmark
+  @Group ("p2")
+  @GroupThreads (1)
+  public Object p2Poll (QueueState theState)
+  {
+    return theState.poll ();
+  } // p2Poll
+
+  @Benchmark
+  @Group ("p4")
+  @GroupThreads (4)
+  public void p4Insert (QueueState theState, Control theControl)
+  {
+    theState.insert (theControl);
+  } // p4Insert
+
+  @Benchmark
+  @Group ("p4")
+  @GroupThreads (1)
+  public Object p4Poll (QueueState theState)
+  {
+    return theState.poll ();
+  } // p4Poll
+
+} // class QueueBenchmark
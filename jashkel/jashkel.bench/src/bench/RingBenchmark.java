@@ -0,0 +1,112 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+import au.com.ashkel.javalib.threads.WorkPackRing;
+
+/**
+ * Class RingBenchmark measures one way messages to a ThreadIt that asks
+ * for no reply, sent through the default work queue with a new work
+ * package each and through a WorkPackRing. Each invocation sends BATCH
+ * messages and waits for the ThreadIt to take them. Run it with the gc
+ * profiler to compare the allocation per message.
+ */
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+@State (Scope.Benchmark)
+public class RingBenchmark
+{
+  /** BATCH is the number of messages sent per invocation. */
+  public static final int BATCH = 256;
+
+  /** m_theQueue selects the work queue of the ThreadIt. */
+  @Param ({"queue", "ring"})
+  public String m_theQueue;
+
+  protected EchoThreadIt m_theEcho = null;
+  protected WorkPackRing m_theRing = null;
+  protected ProtectedQueue m_theWorkQ = null;
+
+  @Setup (Level.Trial)
+  public void setUp () throws Exception
+  {
+    m_theEcho = new EchoThreadIt ("RingEcho");
+    if (m_theQueue.equals ("ring"))
+    {
+      m_theRing = new WorkPackRing (BATCH * 4);
+      m_theEcho.setWorkQ (m_theRing);
+    } // if
+    m_theWorkQ = m_theEcho.getWorkQ ();
+  } // setUp
+
+  @TearDown (Level.Trial)
+  public void tearDown ()
+  {
+    m_theEcho.stopIt ();
+  } // tearDown
+
+  /**
+   * Method oneWay sends BATCH messages and waits for them to be taken.
+   */
+  @Benchmark
+  @BenchmarkMode (Mode.Throughput)
+  @OutputTimeUnit (TimeUnit.MICROSECONDS)
+  @OperationsPerInvocation (BATCH)
+  public void oneWay ()
+  {
+    for (int i = 0; i < BATCH; i++)
+    {
+      if (m_theRing != null)
+      {
+        m_theRing.send (EchoThreadIt.ECHO, null);
+      }
+      else
+      {
+        m_theEcho.startWork (new WorkPackIt ());
+      } // if
+    } // for
+    while (m_theWorkQ.getDepth () > 0)
+    {
+      Thread.yield ();
+    } // while
+  } // oneWay
+
+} // class RingBenchmark
@@ -0,0 +1,127 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import au.com.ashkel.javalib.threads.BlockingWaitStrategy;
+import au.com.ashkel.javalib.threads.BusySpinWaitStrategy;
+import au.com.ashkel.javalib.threads.SpinParkWaitStrategy;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ThreadItBenchmark measures the round trip of a work package through
+ * a ThreadIt, from startWork to the reply being taken with getWork. The
+ * latency benchmark sends one request at a time and samples the round trip.
+ * The throughput benchmark keeps BATCH requests in flight before collecting
+ * the replies. Both are run for each of the wait strategies.
+ */
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+@State (Scope.Benchmark)
+public class ThreadItBenchmark
+{
+  /** BATCH is the number of requests in flight in the throughput benchmark. */
+  public static final int BATCH = 64;
+
+  /** TIMEOUT is the time (in milliseconds) to wait for a reply. */
+  public static final long TIMEOUT = 1000;
+
+  /** m_theStrategy selects the wait strategy of the ThreadIt. */
+  @Param ({"block", "spin-park", "busy-spin"})
+  public String m_theStrategy;
+
+  protected EchoThreadIt m_theEcho = null;
+
+  @Setup (Level.Trial)
+  public void setUp () throws Exception
+  {
+    m_theEcho = new EchoThreadIt ("EchoThreadIt");
+    if (m_theStrategy.equals ("busy-spin"))
+    {
+      m_theEcho.setWaitStrategy (new BusySpinWaitStrategy ());
+    }
+    else if (m_theStrategy.equals ("spin-park"))
+    {
+      m_theEcho.setWaitStrategy (new SpinParkWaitStrategy ());
+    }
+    else
+    {
+      m_theEcho.setWaitStrategy (new BlockingWaitStrategy ());
+    } // if
+  } // setUp
+
+  @TearDown (Level.Trial)
+  public void tearDown ()
+  {
+    m_theEcho.stopIt ();
+  } // tearDown
+
+  /**
+   * Method roundTrip sends a single request and waits for its reply.
+   */
+  @Benchmark
+  @BenchmarkMode (Mode.SampleTime)
+  @OutputTimeUnit (TimeUnit.MICROSECONDS)
+  public WorkPackIt roundTrip ()
+  {
+    m_theEcho.startWork (EchoThreadIt.newRequest ());
+    return m_theEcho.getWork (TIMEOUT);
+  } // roundTrip
+
+  /**
+   * Method throughput sends BATCH requests and then collects their replies.
+   */
+  @Benchmark
+  @BenchmarkMode (Mode.Throughput)
+  @OutputTimeUnit (TimeUnit.MICROSECONDS)
+  @OperationsPerInvocation (BATCH)
+  public void throughput (Blackhole theBlackhole)
+  {
+    for (int i = 0; i < BATCH; i++)
+    {
+      m_theEcho.startWork (EchoThreadIt.newRequest ());
+    } // for
+    for (int i = 0; i < BATCH; i++)
+    {
+      theBlackhole.consume (m_theEcho.getWork (TIMEOUT));
+    } // for
+  } // throughput
+
+} // class ThreadItBenchmark
@@ -0,0 +1,92 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package bench;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ashkel.javalib.concurrency.WaitForObjects;
+
+/**
+ * Class WaitForObjectsBenchmark measures the latency from a semaphore being
+ * signalled to waitForObjects returning its identity. The signal is passed
+ * through the signaller thread WaitForObjects keeps for each semaphore so
+ * the measurement includes that hand off. The number of semaphores waited
+ * on is varied and the last one is always signalled.
+ */
+@BenchmarkMode (Mode.SampleTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+@State (Scope.Thread)
+public class WaitForObjectsBenchmark
+{
+  /** TIMEOUT is the time (in milliseconds) to wait for the signal. */
+  public static final long TIMEOUT = 1000;
+
+  /** m_theObjectCount is the number of semaphores waited on. */
+  @Param ({"1", "4", "16"})
+  public int m_theObjectCount;
+
+  protected WaitForObjects m_theWaiter = null;
+
+  @Setup (Level.Trial)
+  public void setUp ()
+  {
+    Semaphore[] theObjects = new Semaphore[m_theObjectCount];
+
+    for (int i = 0; i < m_theObjectCount; i++)
+    {
+      theObjects[i] = new Semaphore (0);
+    } // for
+    m_theWaiter = new WaitForObjects (theObjects);
+  } // setUp
+
+  @TearDown (Level.Trial)
+  public void tearDown ()
+  {
+    m_theWaiter.stopWaiting ();
+  } // tearDown
+
+  @Benchmark
+  public int signalAndWait ()
+  {
+    m_theWaiter.signal (m_theObjectCount - 1);
+    return m_theWaiter.waitForObjects (TIMEOUT);
+  } // signalAndWait
+
+} // class WaitForObjectsBenchmark
@@ -0,0 +1,223 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package test.load;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class LoadConfig holds the settings of a load test run. Settings are given
+ * on the command line as name=value pairs:<p>
+ * topology : single, chain, fanin or fanout (default single).<p>
+ * width    : the length of a chain or the width of a fan (default 3).<p>
+ * rate     : the arrival rate in requests per second. A comma separated
+ *            list runs the test once for each rate (default 1000).<p>
+ * duration : the measured time in seconds at each rate (default 10).<p>
+ * warmup   : the time in seconds run before measuring (default 2).<p>
+ * drain    : the time in seconds allowed for outstanding replies (default 5).<p>
+ * work     : the time in microseconds each stage works on a request (default 0).<p>
+ * strategy : the wait strategy of the stages: block, spin-park or busy-spin (default block).<p>
+ * format   : csv or json (default csv).<p>
+ * out      : the file the results are written to (default standard output).
+ */
+public class LoadConfig
+{
+  public static final String USAGE =
+    "usage: ThreadItLoadTest [topology=single|chain|fanin|fanout] [width=n] [rate=r1,r2,...]"
+  + " [duration=s] [warmup=s] [drain=s] [work=us] [strategy=block|spin-park|busy-spin]"
+  + " [format=csv|json] [out=file]";
+
+  protected String m_theTopology = LoadTopology.SINGLE;
+  protected int m_theWidth = 3;
+  protected List<Long> m_theRates = new ArrayList<Long> ();
+  protected long m_theDuration = 10;
+  protected long m_theWarmup = 2;
+  protected long m_theDrain = 5;
+  protected long m_theWork = 0;
+  protected String m_theStrategy = "block";
+  protected String m_theFormat = "csv";
+  protected String m_theOut = null;
+
+  /**
+   * Method LoadConfig parses the settings in theArgs. An
+   * IllegalArgumentException is thrown for a setting that is not
+   * recognised or has an invalid value.
+   */
+  public LoadConfig (String[] theArgs)
+  {
+    for (int i = 0; i < theArgs.length; i++)
+    {
+      int theSplit = theArgs[i].indexOf ('=');
+      if (theSplit <= 0)
+      {
+        throw new IllegalArgumentException ("Expected name=value: " + theArgs[i]);
+      } // if
+      set (theArgs[i].substring (0, theSplit), theArgs[i].substring (theSplit + 1));
+    } // for
+    if (m_theRates.isEmpty ())
+    {
+      m_theRates.add (Long.valueOf (1000));
+    } // if
+    // Check the names now so that no stages are created for a bad setting.
+    LoadTopology.validate (m_theTopology, m_theStrategy);
+  } // LoadConfig
+
+  public String getTopology ()
+  {
+    return m_theTopology;
+  } // getTopology
+
+  public int getWidth ()
+  {
+    return m_theWidth;
+  } // getWidth
+
+  public List<Long> getRates ()
+  {
+    return m_theRates;
+  } // getRates
+
+  public long getDuration ()
+  {
+    return m_theDuration;
+  } // getDuration
+
+  public long getWarmup ()
+  {
+    return m_theWarmup;
+  } // getWarmup
+
+  public long getDrain ()
+  {
+    return m_theDrain;
+  } // getDrain
+
+  public long getWork ()
+  {
+    return m_theWork;
+  } // getWork
+
+  public String getStrategy ()
+  {
+    return m_theStrategy;
+  } // getStrategy
+
+  public String getFormat ()
+  {
+    return m_theFormat;
+  } // getFormat
+
+  public String getOut ()
+  {
+    return m_theOut;
+  } // getOut
+
+  /**
+   * Method set applies a single setting.
+   */
+  private void set (String theName, String theValue)
+  {
+    if (theName.equals ("topology"))
+    {
+      m_theTopology = theValue;
+    }
+    else if (theName.equals ("width"))
+    {
+      m_theWidth = (int) toPositive (theName, theValue);
+    }
+    else if (theName.equals ("rate"))
+    {
+      String[] theRates = theValue.split (",");
+      for (int i = 0; i < theRates.length; i++)
+      {
+        m_theRates.add (Long.valueOf (toPositive (theName, theRates[i].trim ())));
+      } // for
+    }
+    else if (theName.equals ("duration"))
+    {
+      m_theDuration = toPositive (theName, theValue);
+    }
+    else if (theName.equals ("warmup"))
+    {
+      m_theWarmup = toLong (theName, theValue);
+    }
+    else if (theName.equals ("drain"))
+    {
+      m_theDrain = toLong (theName, theValue);
+    }
+    else if (theName.equals ("work"))
+    {
+      m_theWork = toLong (theName, theValue);
+    }
+    else if (theName.equals ("strategy"))
+    {
+      m_theStrategy = theValue;
+    }
+    else if (theName.equals ("format"))
+    {
+      if (!theValue.equals ("csv") && !theValue.equals ("json"))
+      {
+        throw new IllegalArgumentException ("Unknown format: " + theValue);
+      } // if
+      m_theFormat = theValue;
+    }
+    else if (theName.equals ("out"))
+    {
+      m_theOut = theValue;
+    }
+    else
+    {
+      throw new IllegalArgumentException ("Unknown setting: " + theName);
+    } // if
+  } // set
+
+  private static long toLong (String theName, String theValue)
+  {
+    long theResult = 0;
+
+    try
+    {
+      theResult = Long.parseLong (theValue);
+    } // try
+    catch (NumberFormatException anException)
+    {
+      throw new IllegalArgumentException ("Invalid " + theName + ": " + theValue);
+    } // catch
+    if (theResult < 0)
+    {
+      throw new IllegalArgumentException ("Invalid " + theName + ": " + theValue);
+    } // if
+    return theResult;
+  } // toLong
+
+  private static long toPositive (String theName, String theValue)
+  {
+    long theResult = toLong (theName, theValue);
+
+    if (theResult == 0)
+    {
+      throw new IllegalArgumentException ("Invalid " + theName + ": " + theValue);
+    } // if
+    return theResult;
+  } // toPositive
+
+} // class LoadConfig
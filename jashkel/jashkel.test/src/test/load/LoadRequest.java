@@ -0,0 +1,61 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package test.load;
+
+/**
+ * Class LoadRequest is the payload carried by the work packages of the load
+ * harness. It records when the request was due to be sent, according to the
+ * arrival schedule, and when it was actually sent. Latency measured from the
+ * intended time includes any time the request spent waiting to be sent
+ * because the system (or the generator) fell behind, which is the
+ * correction for coordinated omission.
+ */
+public class LoadRequest
+{
+  /** m_theIntendedTime is the time (System.nanoTime) the request was scheduled to be sent. */
+  protected final long m_theIntendedTime;
+  /** m_theSendTime is the time (System.nanoTime) the request was sent. */
+  protected long m_theSendTime = 0;
+  /**
+   * m_thePending is the number of replies each stage is still waiting for,
+   * indexed by stage. Each element is only accessed by the thread of the
+   * stage that owns it.
+   */
+  protected final int[] m_thePending;
+
+  public LoadRequest (long theIntendedTime, int theStageCount)
+  {
+    m_theIntendedTime = theIntendedTime;
+    m_thePending = new int[theStageCount];
+  } // LoadRequest
+
+  public long getIntendedTime ()
+  {
+    return m_theIntendedTime;
+  } // getIntendedTime
+
+  public long getSendTime ()
+  {
+    return m_theSendTime;
+  } // getSendTime
+
+} // class LoadRequest
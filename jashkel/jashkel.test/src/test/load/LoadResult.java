@@ -0,0 +1,216 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package test.load;
+
+import java.util.Locale;
+
+import au.com.ashkel.javalib.metrics.LatencyHistogram;
+
+/**
+ * Class LoadResult is the outcome of running a topology at one arrival rate.
+ * Latencies are reported in microseconds. The corrected latencies are
+ * measured from the time each request was due to be sent, the uncorrected
+ * ones from the time it was actually sent. A run is marked saturated when
+ * the topology completed less than SATURATION_RATIO of the offered rate or
+ * failed to reply to more than one percent of the requests in the drain
+ * time.
+ */
+public class LoadResult
+{
+  /** SATURATION_RATIO is the fraction of the offered rate a topology must complete. */
+  public static final double SATURATION_RATIO = 0.95;
+
+  /** NAMES are the names of the values of a result in the order they are written. */
+  public static final String[] NAMES =
+  {
+    "topology", "width", "strategy", "workUs", "offeredRate", "achievedRate",
+    "sent", "completed", "outstanding", "maxSendLagUs", "maxQueueDepth",
+    "meanUs", "p50Us", "p90Us", "p99Us", "p999Us", "maxUs",
+    "uncorrectedP50Us", "uncorrectedP99Us", "uncorrectedMaxUs", "saturated"
+  };
+
+  protected String m_theTopology;
+  protected int m_theWidth;
+  protected String m_theStrategy;
+  protected long m_theWork;
+  protected long m_theOfferedRate;
+  protected double m_theAchievedRate;
+  protected long m_theSent;
+  protected long m_theCompleted;
+  protected long m_theMaxSendLag;
+  protected long m_theMaxQueueDepth;
+  protected LatencyHistogram.Snapshot m_theCorrected;
+  protected LatencyHistogram.Snapshot m_theUncorrected;
+
+  public LoadResult (LoadConfig theConfig, long theOfferedRate, double theAchievedRate, long theSent, long theCompleted,
+                     long theMaxSendLag, long theMaxQueueDepth,
+                     LatencyHistogram.Snapshot theCorrected, LatencyHistogram.Snapshot theUncorrected)
+  {
+    m_theTopology = theConfig.getTopology ();
+    m_theWidth = theConfig.getWidth ();
+    m_theStrategy = theConfig.getStrategy ();
+    m_theWork = theConfig.getWork ();
+    m_theOfferedRate = theOfferedRate;
+    m_theAchievedRate = theAchievedRate;
+    m_theSent = theSent;
+    m_theCompleted = theCompleted;
+    m_theMaxSendLag = theMaxSendLag;
+    m_theMaxQueueDepth = theMaxQueueDepth;
+    m_theCorrected = theCorrected;
+    m_theUncorrected = theUncorrected;
+  } // LoadResult
+
+  public double getAchievedRate ()
+  {
+    return m_theAchievedRate;
+  } // getAchievedRate
+
+  public long getOutstanding ()
+  {
+    return m_theSent - m_theCompleted;
+  } // getOutstanding
+
+  public LatencyHistogram.Snapshot getCorrected ()
+  {
+    return m_theCorrected;
+  } // getCorrected
+
+  public LatencyHistogram.Snapshot getUncorrected ()
+  {
+    return m_theUncorrected;
+  } // getUncorrected
+
+  public boolean isSaturated ()
+  {
+    return (m_theAchievedRate < (m_theOfferedRate * SATURATION_RATIO)) || (getOutstanding () * 100 > m_theSent);
+  } // isSaturated
+
+  /**
+   * Method getValues returns the values of the result in the order of NAMES.
+   * Text values are returned as strings and numbers as Number instances.
+   */
+  public Object[] getValues ()
+  {
+    return new Object[]
+    {
+      m_theTopology, Integer.valueOf (m_theWidth), m_theStrategy, Long.valueOf (m_theWork),
+      Long.valueOf (m_theOfferedRate), Double.valueOf (m_theAchievedRate),
+      Long.valueOf (m_theSent), Long.valueOf (m_theCompleted), Long.valueOf (getOutstanding ()),
+      toMicros (m_theMaxSendLag), Long.valueOf (m_theMaxQueueDepth),
+      Double.valueOf (m_theCorrected.getMean () / 1000.0),
+      toMicros (m_theCorrected.getPercentile (50)), toMicros (m_theCorrected.getPercentile (90)),
+      toMicros (m_theCorrected.getPercentile (99)), toMicros (m_theCorrected.getPercentile (99.9)),
+      toMicros (m_theCorrected.getMax ()),
+      toMicros (m_theUncorrected.getPercentile (50)), toMicros (m_theUncorrected.getPercentile (99)),
+      toMicros (m_theUncorrected.getMax ()),
+      Boolean.valueOf (isSaturated ())
+    };
+  } // getValues
+
+  /**
+   * Method toCsvHeader returns the header line of the CSV output.
+   */
+  public static String toCsvHeader ()
+  {
+    StringBuilder theLine = new StringBuilder ();
+
+    for (int i = 0; i < NAMES.length; i++)
+    {
+      if (i > 0)
+      {
+        theLine.append (',');
+      } // if
+      theLine.append (NAMES[i]);
+    } // for
+    return theLine.toString ();
+  } // toCsvHeader
+
+  /**
+   * Method toCsv returns the result as a line of CSV.
+   */
+  public String toCsv ()
+  {
+    StringBuilder theLine = new StringBuilder ();
+    Object[] theValues = getValues ();
+
+    for (int i = 0; i < theValues.length; i++)
+    {
+      if (i > 0)
+      {
+        theLine.append (',');
+      } // if
+      theLine.append (format (theValues[i]));
+    } // for
+    return theLine.toString ();
+  } // toCsv
+
+  /**
+   * Method toJson returns the result as a JSON object.
+   */
+  public String toJson ()
+  {
+    StringBuilder theObject = new StringBuilder ("{");
+    Object[] theValues = getValues ();
+
+    for (int i = 0; i < theValues.length; i++)
+    {
+      if (i > 0)
+      {
+        theObject.append (", ");
+      } // if
+      theObject.append ('"').append (NAMES[i]).append ("\": ");
+      if (theValues[i] instanceof String)
+      {
+        theObject.append ('"').append (theValues[i]).append ('"');
+      }
+      else
+      {
+        theObject.append (format (theValues[i]));
+      } // if
+    } // for
+    return theObject.append ('}').toString ();
+  } // toJson
+
+  public String toString ()
+  {
+    return m_theTopology + " rate=" + m_theOfferedRate + "/s achieved=" + format (Double.valueOf (m_theAchievedRate))
+         + "/s outstanding=" + getOutstanding () + " corrected[" + m_theCorrected + "] uncorrected["
+         + m_theUncorrected + "]" + (isSaturated () ? " SATURATED" : "");
+  } // toString
+
+  private static Double toMicros (long theNanos)
+  {
+    return Double.valueOf (theNanos / 1000.0);
+  } // toMicros
+
+  private static String format (Object theValue)
+  {
+    String theText = String.valueOf (theValue);
+
+    if (theValue instanceof Double)
+    {
+      theText = String.format (Locale.ROOT, "%.1f", theValue);
+    } // if
+    return theText;
+  } // format
+
+} // class LoadResult
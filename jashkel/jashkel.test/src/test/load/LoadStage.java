@@ -0,0 +1,178 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package test.load;
+
+import java.io.IOException;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class LoadStage is a ThreadIt used as one stage of a load topology. A
+ * request is worked on for a fixed time and then either answered or
+ * forwarded to every downstream stage. A stage that forwards a request
+ * answers it once all of its downstream stages have replied. Replies go to
+ * the stage the request came from or, for requests from the generator, to
+ * the collector queue. A stage that forwards work has a single upstream
+ * stage so it replies to that stage; a stage that does not forward work
+ * replies to the sender of each request.
+ */
+public class LoadStage extends ThreadIt
+{
+  /** REQUEST is the instruction for a request sent to the stage. */
+  public static final int REQUEST = 0;
+  /** REPLY is the instruction for a reply from a downstream stage. */
+  public static final int REPLY = 1;
+
+  /** m_theIndex is the position of the stage in the topology. */
+  protected int m_theIndex = 0;
+  /** m_theWorkTime is the time (in nanoseconds) spent working on each request. */
+  protected long m_theWorkTime = 0;
+  /** m_theNext are the stages requests are forwarded to. */
+  protected LoadStage[] m_theNext = new LoadStage[0];
+  /** m_theUpstream is the stage that sends requests to this one or null for the generator. */
+  protected LoadStage m_theUpstream = null;
+  /** m_theCollectorQ is the queue completed requests are returned in. */
+  protected ProtectedQueue m_theCollectorQ = null;
+
+  public LoadStage (String theThreadName, int theIndex, long theWorkTime, ProtectedQueue theCollectorQ) throws IOException
+  {
+    super (theThreadName);
+    m_theIndex = theIndex;
+    m_theWorkTime = theWorkTime;
+    m_theCollectorQ = theCollectorQ;
+    setWorkerMethod ("request", REQUEST);
+    setWorkerMethod ("reply", REPLY);
+  } // LoadStage
+
+  /**
+   * Method setNext sets the stages that requests are forwarded to and makes
+   * this stage their upstream stage. It is called before any load is sent.
+   */
+  public void setNext (LoadStage[] theNext)
+  {
+    m_theNext = theNext;
+    for (int i = 0; i < theNext.length; i++)
+    {
+      theNext[i].m_theUpstream = this;
+    } // for
+  } // setNext
+
+  /**
+   * Method send sends a request to theStage on behalf of theSender. A null
+   * sender is the generator.
+   */
+  public static void send (LoadStage theStage, LoadRequest theRequest, int theInstruction, LoadStage theSender)
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.m_Instruction = theInstruction;
+    theWorkPack.m_Object = theRequest;
+    theWorkPack.m_ptheSource = theSender;
+    theStage.startWork (theWorkPack);
+  } // send
+
+  /**
+   * Method request works on a request and then answers or forwards it.
+   */
+  public WorkPackIt request (WorkPackIt theWorkPack)
+  {
+    LoadRequest theRequest = (LoadRequest) theWorkPack.m_Object;
+
+    doWork ();
+    if (m_theNext.length == 0)
+    {
+      reply (theRequest, (LoadStage) theWorkPack.m_ptheSource);
+    }
+    else
+    {
+      theRequest.m_thePending[m_theIndex] = m_theNext.length;
+      for (int i = 0; i < m_theNext.length; i++)
+      {
+        send (m_theNext[i], theRequest, REQUEST, this);
+      } // for
+    } // if
+    theWorkPack.m_SendResult = false;
+    return theWorkPack;
+  } // request
+
+  /**
+   * Method reply counts a reply from a downstream stage and answers the
+   * request once every downstream stage has replied.
+   */
+  public WorkPackIt reply (WorkPackIt theWorkPack)
+  {
+    LoadRequest theRequest = (LoadRequest) theWorkPack.m_Object;
+
+    theRequest.m_thePending[m_theIndex]--;
+    if (theRequest.m_thePending[m_theIndex] == 0)
+    {
+      reply (theRequest, m_theUpstream);
+    } // if
+    theWorkPack.m_SendResult = false;
+    return theWorkPack;
+  } // reply
+
+  /**
+   * Method stopIt stops the thread and waits for it to exit.
+   */
+  public void stopIt ()
+  {
+    stopThread ();
+    waitForThreadToStop (1000);
+  } // stopIt
+
+  /**
+   * Method reply answers theRequest to theStage or to the collector if
+   * theStage is null.
+   */
+  private void reply (LoadRequest theRequest, LoadStage theStage)
+  {
+    if (theStage == null)
+    {
+      m_theCollectorQ.insertItem (theRequest);
+    }
+    else
+    {
+      send (theStage, theRequest, REPLY, this);
+    } // if
+  } // reply
+
+  /**
+   * Method doWork keeps the processor busy for the work time of the stage.
+   */
+  private void doWork ()
+  {
+    long theEndTime = 0;
+
+    if (m_theWorkTime > 0)
+    {
+      theEndTime = System.nanoTime () + m_theWorkTime;
+      while (System.nanoTime () < theEndTime)
+      {
+        // Busy work.
+      } // while
+    } // if
+  } // doWork
+
+} // class LoadStage
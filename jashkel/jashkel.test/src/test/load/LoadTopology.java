@@ -0,0 +1,193 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package test.load;
+
+import java.io.IOException;
+
+import au.com.ashkel.javalib.threads.BlockingWaitStrategy;
+import au.com.ashkel.javalib.threads.BusySpinWaitStrategy;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.SpinParkWaitStrategy;
+import au.com.ashkel.javalib.threads.WaitStrategy;
+
+/**
+ * Class LoadTopology creates and connects the stages of a load test. The
+ * topologies supported are:<p>
+ * single  : one stage.<p>
+ * chain   : a request/reply chain of width stages.<p>
+ * fanin   : width entry stages all forwarding to one sink stage.<p>
+ * fanout  : one entry stage forwarding to width stages.<p>
+ * The generator spreads the load over the entry stages.
+ */
+public class LoadTopology
+{
+  public static final String SINGLE = "single";
+  public static final String CHAIN = "chain";
+  public static final String FAN_IN = "fanin";
+  public static final String FAN_OUT = "fanout";
+
+  /** m_theStages are all the stages of the topology. */
+  protected LoadStage[] m_theStages = null;
+  /** m_theEntries are the stages the generator sends requests to. */
+  protected LoadStage[] m_theEntries = null;
+
+  /**
+   * Method LoadTopology creates the stages of theName topology.<p>
+   * theWidth     : is the length of a chain or the width of a fan.<p>
+   * theWorkTime  : is the time (in nanoseconds) each stage works on a request.<p>
+   * theStrategy  : is the name of the wait strategy the stages use.<p>
+   * theCollectorQ: is the queue completed requests are returned in.
+   */
+  public LoadTopology (String theName, int theWidth, long theWorkTime, String theStrategy, ProtectedQueue theCollectorQ) throws IOException
+  {
+    if (theName.equals (SINGLE))
+    {
+      m_theStages = createStages (theName, 1, theWorkTime, theStrategy, theCollectorQ);
+      m_theEntries = new LoadStage[] {m_theStages[0]};
+    }
+    else if (theName.equals (CHAIN))
+    {
+      m_theStages = createStages (theName, theWidth, theWorkTime, theStrategy, theCollectorQ);
+      for (int i = 0; i < (theWidth - 1); i++)
+      {
+        m_theStages[i].setNext (new LoadStage[] {m_theStages[i + 1]});
+      } // for
+      m_theEntries = new LoadStage[] {m_theStages[0]};
+    }
+    else if (theName.equals (FAN_IN))
+    {
+      m_theStages = createStages (theName, theWidth + 1, theWorkTime, theStrategy, theCollectorQ);
+      m_theEntries = new LoadStage[theWidth];
+      for (int i = 0; i < theWidth; i++)
+      {
+        m_theEntries[i] = m_theStages[i];
+        m_theStages[i].m_theNext = new LoadStage[] {m_theStages[theWidth]};
+      } // for
+    }
+    else if (theName.equals (FAN_OUT))
+    {
+      m_theStages = createStages (theName, theWidth + 1, theWorkTime, theStrategy, theCollectorQ);
+      LoadStage[] theLeaves = new LoadStage[theWidth];
+      for (int i = 0; i < theWidth; i++)
+      {
+        theLeaves[i] = m_theStages[i + 1];
+      } // for
+      m_theStages[0].setNext (theLeaves);
+      m_theEntries = new LoadStage[] {m_theStages[0]};
+    }
+    else
+    {
+      throw new IllegalArgumentException ("Unknown topology: " + theName);
+    } // if
+  } // LoadTopology
+
+  public LoadStage[] getStages ()
+  {
+    return m_theStages;
+  } // getStages
+
+  public LoadStage[] getEntries ()
+  {
+    return m_theEntries;
+  } // getEntries
+
+  /**
+   * Method getHighWaterMark returns the largest work queue depth reached by
+   * any stage.
+   */
+  public long getHighWaterMark ()
+  {
+    long theMark = 0;
+
+    for (int i = 0; i < m_theStages.length; i++)
+    {
+      theMark = Math.max (theMark, m_theStages[i].getWorkQ ().getHighWaterMark ());
+    } // for
+    return theMark;
+  } // getHighWaterMark
+
+  /**
+   * Method stop stops every stage.
+   */
+  public void stop ()
+  {
+    for (int i = 0; i < m_theStages.length; i++)
+    {
+      m_theStages[i].stopIt ();
+    } // for
+  } // stop
+
+  /**
+   * Method validate throws an IllegalArgumentException if theName is not a
+   * known topology or theStrategy is not a known wait strategy.
+   */
+  public static void validate (String theName, String theStrategy)
+  {
+    if (!theName.equals (SINGLE) && !theName.equals (CHAIN) && !theName.equals (FAN_IN) && !theName.equals (FAN_OUT))
+    {
+      throw new IllegalArgumentException ("Unknown topology: " + theName);
+    } // if
+    toWaitStrategy (theStrategy);
+  } // validate
+
+  /**
+   * Method toWaitStrategy returns a new wait strategy of the given name.
+   */
+  public static WaitStrategy toWaitStrategy (String theStrategy)
+  {
+    WaitStrategy theWaitStrategy = null;
+
+    if (theStrategy.equals ("busy-spin"))
+    {
+      theWaitStrategy = new BusySpinWaitStrategy ();
+    }
+    else if (theStrategy.equals ("spin-park"))
+    {
+      theWaitStrategy = new SpinParkWaitStrategy ();
+    }
+    else if (theStrategy.equals ("block"))
+    {
+      theWaitStrategy = new BlockingWaitStrategy ();
+    }
+    else
+    {
+      throw new IllegalArgumentException ("Unknown wait strategy: " + theStrategy);
+    } // if
+    return theWaitStrategy;
+  } // toWaitStrategy
+
+  /**
+   * Method createStages creates theCount stages.
+   */
+  private static LoadStage[] createStages (String theName, int theCount, long theWorkTime, String theStrategy, ProtectedQueue theCollectorQ) throws IOException
+  {
+    LoadStage[] theStages = new LoadStage[theCount];
+
+    for (int i = 0; i < theCount; i++)
+    {
+      theStages[i] = new LoadStage ("Load-" + theName + "-" + i, i, theWorkTime, theCollectorQ);
+      theStages[i].setWaitStrategy (toWaitStrategy (theStrategy));
+    } // for
+    return theStages;
+  } // createStages
+
+} // class LoadTopology
@@ -21,130 +21,282 @@
 /*--------------------------------------------------------------------------*/
 package test.load;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 import org.apache.log4j.Logger;
 
+import au.com.ashkel.javalib.metrics.LatencyHistogram;
 import au.com.ashkel.javalib.threads.ProtectedQueue;
-import au.com.ashkel.javalib.concurrency.CriticalSection;
 
-public class ThreadItLoadTest 
+/**
+ * Class ThreadItLoadTest drives a topology of ThreadIts with an open-loop
+ * load. Requests are sent on a fixed schedule for the arrival rate whether
+ * or not earlier requests have been answered, so a slow topology builds up
+ * a queue rather than slowing down the load. The latency of every request is
+ * measured from the time it was scheduled to be sent, so time the generator
+ * spent behind schedule is counted rather than hidden (coordinated
+ * omission). Each rate given is run on a new topology and the results are
+ * written as CSV or JSON, one record per rate, so that builds can be
+ * compared and the rate at which a topology saturates can be found.
+ * Requests still unanswered after the drain time are counted in the
+ * corrected latencies at the time they had waited when the run ended.
+ * See LoadConfig for the settings.
+ */
+public class ThreadItLoadTest
 {
-      /** Logger for this class */
-    private static final Logger m_theLogger = Logger.getLogger (ThreadItLoadTest.class);
-    
-    private ProtectedQueue q;
-    private static int WRITE_COUNT = 400000;
-    private volatile boolean m_isInserting = true;
-    private volatile boolean m_isRetrieving = true;
-    
-    public ThreadItLoadTest ()
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (ThreadItLoadTest.class);
+
+  /** NANOS_PER_SECOND is the number of nanoseconds in a second. */
+  private static final long NANOS_PER_SECOND = 1000000000L;
+  /** SPIN_TIME is the time (in nanoseconds) before a send that the generator stops parking. */
+  private static final long SPIN_TIME = 100000L;
+  /** START_DELAY is the time (in nanoseconds) between creating the schedule and the first send. */
+  private static final long START_DELAY = 10000000L;
+  /** COLLECT_WAIT is the time (in milliseconds) the collector waits for a reply. */
+  private static final long COLLECT_WAIT = 100;
+
+  protected LoadConfig m_theConfig = null;
+  /** m_theCollectorQ is the queue the topology returns completed requests in. */
+  protected ProtectedQueue m_theCollectorQ = new ProtectedQueue ();
+  /** m_theCorrected is the latency measured from the intended send time. */
+  protected LatencyHistogram m_theCorrected = new LatencyHistogram ();
+  /** m_theUncorrected is the latency measured from the actual send time. */
+  protected LatencyHistogram m_theUncorrected = new LatencyHistogram ();
+  /** m_theCompleted is the number of measured requests that have been answered. */
+  protected AtomicLong m_theCompleted = new AtomicLong ();
+  /** m_theCompletedInWindow is the number of requests answered during the measured time. */
+  protected AtomicLong m_theCompletedInWindow = new AtomicLong ();
+  protected volatile boolean m_isCollecting = false;
+  protected volatile long m_theMeasureStart = 0;
+  protected volatile long m_theMeasureEnd = 0;
+
+  public ThreadItLoadTest (LoadConfig theConfig)
+  {
+    m_theConfig = theConfig;
+  } // ThreadItLoadTest
+
+  /**
+   * Method run builds the topology, drives it at theRate requests per second
+   * and returns the result.
+   */
+  public LoadResult run (long theRate) throws IOException, InterruptedException
+  {
+    long theCount = 0;
+    long theSent = 0;
+    long theMaxSendLag = 0;
+    long theIntendedTime = 0;
+    long theDrainTime = 0;
+    LoadRequest theRequest = null;
+    LoadTopology theTopology = null;
+    LoadStage[] theEntries = null;
+    Thread theCollector = null;
+
+    theTopology = new LoadTopology (m_theConfig.getTopology (), m_theConfig.getWidth (),
+                                    m_theConfig.getWork () * 1000L, m_theConfig.getStrategy (), m_theCollectorQ);
+    theEntries = theTopology.getEntries ();
+    m_theCollectorQ.clear ();
+    m_theCorrected.reset ();
+    m_theUncorrected.reset ();
+    m_theCompleted.set (0);
+    m_theCompletedInWindow.set (0);
+    // Establish the schedule.
+    long theStartTime = System.nanoTime () + START_DELAY;
+    m_theMeasureStart = theStartTime + (m_theConfig.getWarmup () * NANOS_PER_SECOND);
+    m_theMeasureEnd = m_theMeasureStart + (m_theConfig.getDuration () * NANOS_PER_SECOND);
+    // Start collecting replies.
+    m_isCollecting = true;
+    theCollector = new Thread (new Runnable ()
     {
-        q = new ProtectedQueue();
-        
-        //thread to insert objects in queue
-        Runnable r = new Runnable ()
-        {
-            public void run ()
-            {
-                insert();
-            }
-        };
-        Thread inserter = new Thread (r, "Inserter");       
-
-        
-        try
-        {
-            Thread.sleep(100);
-        }
-        catch (Exception ex)
-        {
-            
-        }
-        
-        //thread to retrieve objects from queue
-        r = new Runnable ()
+      public void run ()
+      {
+        collect ();
+      } // run
+    }, "LoadCollector");
+    theCollector.start ();
+    // Send the requests on schedule.
+    try
+    {
+      theIntendedTime = theStartTime;
+      while (theIntendedTime < m_theMeasureEnd)
+      {
+        waitUntil (theIntendedTime);
+        theRequest = new LoadRequest (theIntendedTime, theTopology.getStages ().length);
+        theRequest.m_theSendTime = System.nanoTime ();
+        if (theIntendedTime >= m_theMeasureStart)
         {
-            public void run ()
-            {
-                retrieve();
-            }
-        };
-        Thread retriever = new Thread (r, "Retriever");     
-        retriever.start();
-        inserter.start();
-        try
+          theSent++;
+          theMaxSendLag = Math.max (theMaxSendLag, theRequest.m_theSendTime - theIntendedTime);
+        } // if
+        LoadStage.send (theEntries[(int) (theCount % theEntries.length)], theRequest, LoadStage.REQUEST, null);
+        theCount++;
+        theIntendedTime = theStartTime + ((theCount * NANOS_PER_SECOND) / theRate);
+      } // while
+      // Allow time for the outstanding replies.
+      theDrainTime = System.nanoTime () + (m_theConfig.getDrain () * NANOS_PER_SECOND);
+      while ((m_theCompleted.get () < theSent) && (System.nanoTime () < theDrainTime))
+      {
+        Thread.sleep (10);
+      } // while
+    } // try
+    finally
+    {
+      m_isCollecting = false;
+      theCollector.join ();
+      theTopology.stop ();
+    } // finally
+    // Requests not answered in the drain time have waited at least since
+    // the end of the schedule. Count them at that lower bound so that a
+    // saturated topology does not report only its fastest replies.
+    theDrainTime = System.nanoTime () - m_theMeasureEnd;
+    for (long i = m_theCompleted.get (); i < theSent; i++)
+    {
+      m_theCorrected.record (theDrainTime);
+    } // for
+    return new LoadResult (m_theConfig, theRate,
+                           m_theCompletedInWindow.get () / (double) m_theConfig.getDuration (),
+                           theSent, m_theCompleted.get (), theMaxSendLag, theTopology.getHighWaterMark (),
+                           m_theCorrected.snapshot (), m_theUncorrected.snapshot ());
+  } // run
+
+  /**
+   * Method collect records the latency of the replies returned by the
+   * topology. It is the only thread that records in the histograms.
+   */
+  protected void collect ()
+  {
+    long theTimeNow = 0;
+    LoadRequest theRequest = null;
+
+    while (m_isCollecting)
+    {
+      theRequest = (LoadRequest) m_theCollectorQ.waitItem (COLLECT_WAIT);
+      if (theRequest != null)
+      {
+        theTimeNow = System.nanoTime ();
+        if ((theTimeNow >= m_theMeasureStart) && (theTimeNow < m_theMeasureEnd))
         {
-            Thread.sleep(60000);
-        }
-        catch (Exception ex)
+          m_theCompletedInWindow.incrementAndGet ();
+        } // if
+        if ((theRequest.m_theIntendedTime >= m_theMeasureStart) && (theRequest.m_theIntendedTime < m_theMeasureEnd))
         {
-            
-        }
-        //m_isInserting = false;
-        //m_isRetrieving = false;
-        try
+          m_theCorrected.record (theTimeNow - theRequest.m_theIntendedTime);
+          m_theUncorrected.record (theTimeNow - theRequest.m_theSendTime);
+          m_theCompleted.incrementAndGet ();
+        } // if
+      } // if
+    } // while
+  } // collect
+
+  /**
+   * Method waitUntil returns at theTime. It parks while the time is far off
+   * and yields the processor for the last SPIN_TIME nanoseconds so that
+   * requests are sent close to their schedule.
+   */
+  private static void waitUntil (long theTime)
+  {
+    long theRemaining = theTime - System.nanoTime ();
+
+    while (theRemaining > 0)
+    {
+      if (theRemaining > SPIN_TIME)
+      {
+        LockSupport.parkNanos (theRemaining - SPIN_TIME);
+      }
+      else
+      {
+        Thread.yield ();
+      } // if
+      theRemaining = theTime - System.nanoTime ();
+    } // while
+  } // waitUntil
+
+  /**
+   * Method write writes theResults in the configured format.
+   */
+  protected void write (List<LoadResult> theResults) throws IOException
+  {
+    PrintStream theOut = System.out;
+
+    if (m_theConfig.getOut () != null)
+    {
+      theOut = new PrintStream (new FileOutputStream (m_theConfig.getOut ()), false, "UTF-8");
+    } // if
+    try
+    {
+      if (m_theConfig.getFormat ().equals ("json"))
+      {
+        theOut.println ("[");
+        for (int i = 0; i < theResults.size (); i++)
         {
-            Thread.sleep(1000);
-        }
-        catch (Exception ex)
+          theOut.println ("  " + theResults.get (i).toJson () + ((i < (theResults.size () - 1)) ? "," : ""));
+        } // for
+        theOut.println ("]");
+      }
+      else
+      {
+        theOut.println (LoadResult.toCsvHeader ());
+        for (int i = 0; i < theResults.size (); i++)
         {
-            
-        }
-    }
-    
-    private void insert ()
+          theOut.println (theResults.get (i).toCsv ());
+        } // for
+      } // if
+    } // try
+    finally
     {
-        long theCount = 0;
-        while (m_isInserting)
-        {   
-            theCount++;
-            if (theCount >= WRITE_COUNT)
-            {
-              m_theLogger.debug ("inserting item into queue of size: " + q.size());
-            } // if 
-            q.insertItem (new Object());
-            if (theCount >= WRITE_COUNT) 
-            {
-              m_theLogger.debug ("inserted item into queue of size: " + q.size());
-              theCount = 0;
-              try
-              {
-                Thread.sleep(300);
-              }
-              catch (Exception ex)
-              {
-                m_theLogger.debug ("insert exception " +  ex.getMessage ());                  
-              }
-
-            } // if 
-            theCount++;
-        }
-        m_theLogger.debug ("exited from insert thread with " + q.size());
-    }
-    
-    private void retrieve ()
+      theOut.flush ();
+      if (theOut != System.out)
+      {
+        theOut.close ();
+      } // if
+    } // finally
+  } // write
+
+  public static void main (String args[]) throws Exception
+  {
+    LoadConfig theConfig = null;
+    ThreadItLoadTest theLoadTest = null;
+    LoadResult theResult = null;
+    List<LoadResult> theResults = new ArrayList<LoadResult> ();
+    long theSaturationRate = -1;
+
+    try
+    {
+      theConfig = new LoadConfig (args);
+    } // try
+    catch (IllegalArgumentException anException)
     {
-        long theCount = 0;
-        Object anItem = null; 
-        while (m_isRetrieving)
-        {   
-            theCount++;
-            if (theCount >= WRITE_COUNT) 
-            {
-              m_theLogger.debug ("retrieving item from queue of size: " + q.size());
-            } // if 
-            anItem = q.waitItem (100001);
-            if ((theCount >= WRITE_COUNT) || (q.size () < 5))
-            {
-              m_theLogger.debug("retrieved item from queue of size: " + q.size());
-              theCount = 0;
-            } // if 
-            theCount++;
-        }   
-        m_theLogger.debug ("exited from retrieve thread with " + q.size());
+      System.err.println (anException.getMessage ());
+      System.err.println (LoadConfig.USAGE);
+      System.exit (1);
+    } // catch
+    theLoadTest = new ThreadItLoadTest (theConfig);
+    for (int i = 0; i < theConfig.getRates ().size (); i++)
+    {
+      long theRate = theConfig.getRates ().get (i).longValue ();
+      theResult = theLoadTest.run (theRate);
+      m_theLogger.info (theResult);
+      theResults.add (theResult);
+      if ((theSaturationRate < 0) && theResult.isSaturated ())
+      {
+        theSaturationRate = theRate;
+      } // if
+    } // for
+    theLoadTest.write (theResults);
+    if (theSaturationRate < 0)
+    {
+      m_theLogger.info ("The " + theConfig.getTopology () + " topology did not saturate at the rates given");
     }
-    
-    public static void main (String args[])
+    else
     {
-        new ThreadItLoadTest ();
-    }   
-}
\ No newline at end of file
+      m_theLogger.info ("The " + theConfig.getTopology () + " topology saturated at " + theSaturationRate + " requests per second");
+    } // if
+  } // main
+
+} // class ThreadItLoadTest
@@ -0,0 +1,182 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.pipeline.AdaptiveStageController;
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.pipeline.ThreadItPool;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class AdaptiveStageControllerTest is the junit test suite for resizing
+ * pools from their observed load.
+ */
+public class AdaptiveStageControllerTest
+{
+  protected static final int WORK = 0;
+  protected static final long WORK_TIME = 10;
+
+  protected ThreadItPool m_thePool = null;
+  protected AdaptiveStageController m_theController = null;
+  protected ProtectedQueue m_theReplyQ = new ProtectedQueue ();
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Sleeper takes WORK_TIME milliseconds over each work package.
+   */
+  public static class Sleeper extends ThreadIt
+  {
+    public Sleeper (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("work", WORK);
+    } // Sleeper
+
+    public WorkPackIt work (WorkPackIt theWorkPack) throws InterruptedException
+    {
+      Thread.sleep (WORK_TIME);
+      return null;
+    } // work
+  } // class Sleeper
+
+  /**
+   * Class SleeperFactory creates the members of a pool of sleepers.
+   */
+  public static class SleeperFactory implements ThreadItFactory
+  {
+    public ThreadIt newThreadIt (String theThreadName) throws IOException
+    {
+      return new Sleeper (theThreadName);
+    } // newThreadIt
+  } // class SleeperFactory
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_thePool = new ThreadItPool ("Sleepers", new SleeperFactory (), 1);
+    // Sampling is driven by the test.
+    m_theController = new AdaptiveStageController ("Controller", 0);
+    m_theController.addStage (m_thePool, WORK, 1, 4, 5000);
+    m_theController.setHysteresis (0.5, 1, 0);
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    m_theController.stopIt ();
+    m_thePool.stopPool (1000);
+  } // tearDown
+
+  /**
+   * Method send gives theCount work packages to the pool.
+   */
+  private void send (int theCount)
+  {
+    for (int i = 0; i < theCount; i++)
+    {
+      WorkPackIt theWorkPack = new WorkPackIt ();
+      theWorkPack.setWorkInstruction (WORK);
+      theWorkPack.m_SendResult = true;
+      theWorkPack.m_UseDefaultQ = false;
+      theWorkPack.m_WorkDoneQ = m_theReplyQ;
+      m_thePool.startWork (theWorkPack);
+    } // for
+  } // send
+
+  /**
+   * Test that a backlog grows the pool up to its maximum, that an idle
+   * pool shrinks to its minimum and that no work is lost on the way.
+   */
+  @Test
+  public void testResize () throws Exception
+  {
+    int theCount = 60;
+    List<AdaptiveStageController.ResizeEvent> theEvents = null;
+
+    send (theCount);
+    Thread.sleep (5 * WORK_TIME);
+    m_theController.evaluate ();
+    assertEquals ("doubled", 2, m_thePool.getSize ());
+    Thread.sleep (5 * WORK_TIME);
+    m_theController.evaluate ();
+    assertEquals ("maximum", 4, m_thePool.getSize ());
+    // Members are removed while work is still waiting for them.
+    m_thePool.removeMember (1000);
+    m_thePool.removeMember (1000);
+    for (int i = 0; i < theCount; i++)
+    {
+      assertNotNull ("reply " + i, m_theReplyQ.waitItem (m_theWaitTime));
+    } // for
+    // Nothing is completed while the pool is idle so it shrinks. The
+    // metrics of the last replies are recorded just after they are sent.
+    Thread.sleep (5 * WORK_TIME);
+    m_theController.evaluate ();
+    Thread.sleep (5 * WORK_TIME);
+    m_theController.evaluate ();
+    assertEquals ("minimum", 1, m_thePool.getSize ());
+    m_theController.evaluate ();
+    assertEquals ("bounded", 1, m_thePool.getSize ());
+    theEvents = m_theController.getEvents ();
+    assertEquals ("events", 3, theEvents.size ());
+    assertEquals ("grow", 1, theEvents.get (0).getOldSize ());
+    assertEquals ("grown", 2, theEvents.get (0).getNewSize ());
+    assertTrue ("latency", theEvents.get (0).getLatency () > theEvents.get (0).getTargetLatency ());
+    assertEquals ("shrink", 2, theEvents.get (2).getOldSize ());
+    assertEquals ("shrunk", 1, theEvents.get (2).getNewSize ());
+  } // testResize
+
+  /**
+   * Test that a condition must hold for the sustain count before a pool is
+   * resized and that no decision is made during the cooldown.
+   */
+  @Test
+  public void testHysteresis () throws Exception
+  {
+    m_theController.setHysteresis (0.5, 2, 1);
+    send (40);
+    Thread.sleep (5 * WORK_TIME);
+    m_theController.evaluate ();
+    assertEquals ("sustain", 1, m_thePool.getSize ());
+    m_theController.evaluate ();
+    assertEquals ("grown", 2, m_thePool.getSize ());
+    m_theController.evaluate ();
+    assertEquals ("cooldown", 2, m_thePool.getSize ());
+    for (int i = 0; i < 40; i++)
+    {
+      assertNotNull ("reply " + i, m_theReplyQ.waitItem (m_theWaitTime));
+    } // for
+  } // testHysteresis
+
+} // class AdaptiveStageControllerTest
@@ -7,7 +7,30 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses (
 		{WaitForObjectsTest.class,
 		 ThreadItInterfaceTest.class,
-		 ThreadItTest.class})
+		 ThreadItTest.class,
+		 WaitStrategyTest.class,
+		 ThreadItMetricsTest.class,
+		 ThreadItRegistryTest.class,
+		 ThreadItNotifierTest.class,
+		 ThreadItBusTest.class,
+		 ThreadItRouterTest.class,
+		 PipelineTest.class,
+		 AdaptiveStageControllerTest.class,
+		 ShardedThreadItGroupTest.class,
+		 WorkStealingTest.class,
+		 BalancedThreadItGroupTest.class,
+		 ConflatingQueueTest.class,
+		 QueueSelectorTest.class,
+		 CallbackDeliveryTest.class,
+		 WorkResultCallbackTest.class,
+		 ExpiringQueueTest.class,
+		 TypedWorkerTest.class,
+		 WorkPackRingTest.class,
+		 OffHeapQueueTest.class,
+		 SpillingQueueTest.class,
+		 JournaledQueueTest.class,
+		 RetryPolicyTest.class,
+		 CircuitBreakerTest.class})
 public class AllTests 
 {
 } // class AllTests
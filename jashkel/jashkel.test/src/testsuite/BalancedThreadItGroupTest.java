@@ -0,0 +1,238 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.group.BalancedThreadItGroup;
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItMessage;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class BalancedThreadItGroupTest is the junit test suite for the group
+ * that balances work across identical ThreadIt replicas.
+ */
+public class BalancedThreadItGroupTest
+{
+  protected static final int WORK = 0;
+
+  protected BalancedThreadItGroup m_theGroup = null;
+  protected ProtectedQueue m_theDoneQ = new ProtectedQueue ();
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Replica sleeps for the number of milliseconds in the work
+   * package, or a millisecond if there is none.
+   */
+  public static class Replica extends ThreadIt
+  {
+    public Replica (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("work", WORK);
+    } // Replica
+
+    public WorkPackIt work (WorkPackIt theWorkPack) throws InterruptedException
+    {
+      Thread.sleep ((theWorkPack.m_Object == null) ? 1 : (Integer) theWorkPack.m_Object);
+      return null;
+    } // work
+  } // class Replica
+
+  /**
+   * Class ReplicaFactory creates the replicas of the group.
+   */
+  public static class ReplicaFactory implements ThreadItFactory
+  {
+    public ThreadIt newThreadIt (String theThreadName) throws IOException
+    {
+      return new Replica (theThreadName);
+    } // newThreadIt
+  } // class ReplicaFactory
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theGroup != null)
+    {
+      m_theGroup.stopGroup (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Method newWork returns a work package taking theTime milliseconds that
+   * replies to the test work done queue.
+   */
+  private WorkPackIt newWork (int theTime)
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.setWorkInstruction (WORK);
+    theWorkPack.m_Object = theTime;
+    theWorkPack.m_SendResult = true;
+    theWorkPack.m_UseDefaultQ = false;
+    theWorkPack.m_WorkDoneQ = m_theDoneQ;
+    return theWorkPack;
+  } // newWork
+
+  /**
+   * Method awaitReplies waits for theCount replies.
+   */
+  private void awaitReplies (int theCount)
+  {
+    for (int i = 0; i < theCount; i++)
+    {
+      assertNotNull ("reply " + i, m_theDoneQ.waitItem (m_theWaitTime));
+    } // for
+  } // awaitReplies
+
+  /**
+   * Method loadFirst gives every replica a short work package so that its
+   * service time is known and then gives the first replica a backlog of
+   * long work packages.
+   */
+  private void loadFirst () throws InterruptedException
+  {
+    ThreadIt[] theReplicas = m_theGroup.getReplicas ();
+
+    for (int i = 0; i < theReplicas.length; i++)
+    {
+      theReplicas[i].startWork (newWork (1));
+    } // for
+    awaitReplies (theReplicas.length);
+    // The service time is recorded just after the reply is sent.
+    for (int i = 0; i < theReplicas.length; i++)
+    {
+      long theDeadline = System.currentTimeMillis () + m_theWaitTime;
+      while ((theReplicas[i].getMetrics ().getRecentServiceTime () == 0) &&
+             (System.currentTimeMillis () < theDeadline))
+      {
+        Thread.sleep (1);
+      } // while
+      assertTrue ("service time", theReplicas[i].getMetrics ().getRecentServiceTime () > 0);
+    } // for
+    for (int i = 0; i < 10; i++)
+    {
+      theReplicas[0].startWork (newWork (20));
+    } // for
+  } // loadFirst
+
+  /**
+   * Test that least loaded dispatch avoids the replica with a backlog.
+   */
+  @Test
+  public void testLeastLoaded () throws Exception
+  {
+    m_theGroup = new BalancedThreadItGroup ("Least", new ReplicaFactory (), 4,
+                                            BalancedThreadItGroup.POLICY_LEAST_LOADED);
+    loadFirst ();
+    for (int i = 0; i < 6; i++)
+    {
+      m_theGroup.startWork (newWork (1));
+    } // for
+    assertEquals ("backlogged replica", 0, m_theGroup.getSelectCounts ()[0]);
+    awaitReplies (16);
+  } // testLeastLoaded
+
+  /**
+   * Test that two choices dispatch mostly avoids the replica with a
+   * backlog and that ThreadItMessage senders can send to the group.
+   */
+  @Test
+  public void testTwoChoices () throws Exception
+  {
+    int theCount = 12;
+    long theTotal = 0;
+    long[] theCounts = null;
+
+    m_theGroup = new BalancedThreadItGroup ("TwoChoices", new ReplicaFactory (), 4,
+                                            BalancedThreadItGroup.POLICY_TWO_CHOICES);
+    loadFirst ();
+    for (int i = 0; i < theCount; i++)
+    {
+      m_theGroup.startWork (newWork (1));
+    } // for
+    theCounts = m_theGroup.getSelectCounts ();
+    for (int i = 0; i < theCounts.length; i++)
+    {
+      theTotal += theCounts[i];
+    } // for
+    assertEquals ("selected", theCount, theTotal);
+    assertTrue ("backlogged replica", theCounts[0] < theCount / theCounts.length);
+    awaitReplies (theCount + 10);
+    // A message sent to the chosen replica replies to it.
+    ThreadIt theReplica = m_theGroup.select ();
+    new ThreadItMessage (WORK).sendTo (theReplica);
+    assertNotNull ("message reply", theReplica.getWork (m_theWaitTime));
+  } // testTwoChoices
+
+  /**
+   * Test that replies to the default work done queue are found at the
+   * group whichever replica performed the work.
+   */
+  @Test
+  public void testDefaultQueue () throws Exception
+  {
+    List<Long> theWorkPackIDs = new ArrayList<Long> ();
+    List<Long> theReplyIDs = new ArrayList<Long> ();
+    ThreadIt[] theReplicas = null;
+    int theCount = 20;
+
+    m_theGroup = new BalancedThreadItGroup ("Default", new ReplicaFactory (), 3,
+                                            BalancedThreadItGroup.POLICY_TWO_CHOICES);
+    for (int i = 0; i < theCount; i++)
+    {
+      WorkPackIt theWorkPack = new WorkPackIt ();
+      theWorkPack.setWorkInstruction (WORK);
+      theWorkPack.m_SendResult = true;
+      theWorkPackIDs.add (m_theGroup.startWork (theWorkPack));
+    } // for
+    for (int i = 0; i < theCount; i++)
+    {
+      WorkPackIt theWorkDone = m_theGroup.getWork (m_theWaitTime);
+      assertNotNull ("reply " + i, theWorkDone);
+      theReplyIDs.add (theWorkDone.m_WorkPackID);
+    } // for
+    Collections.sort (theWorkPackIDs);
+    Collections.sort (theReplyIDs);
+    assertEquals ("identities", theWorkPackIDs, theReplyIDs);
+    theReplicas = m_theGroup.getReplicas ();
+    for (int i = 0; i < theReplicas.length; i++)
+    {
+      assertEquals ("replica " + i, 0, theReplicas[i].getWorkDoneQ ().getDepth ());
+    } // for
+  } // testDefaultQueue
+
+} // class BalancedThreadItGroupTest
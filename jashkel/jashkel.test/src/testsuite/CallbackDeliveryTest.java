@@ -0,0 +1,323 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.BatchWorkDoneCallback;
+import au.com.ashkel.javalib.threads.CallbackDelivery;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkDoneCallback;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class CallbackDeliveryTest is the junit test suite for delivering work
+ * done callbacks off the thread of the ThreadIt.
+ */
+public class CallbackDeliveryTest
+{
+  protected static final int WORK = 0;
+
+  protected Worker m_theWorker = null;
+  protected CallbackDelivery m_theDelivery = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Worker completes work immediately.
+   */
+  public static class Worker extends ThreadIt
+  {
+    public Worker (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("work", WORK);
+    } // Worker
+
+    public WorkPackIt work (WorkPackIt theWorkPack)
+    {
+      return null;
+    } // work
+  } // class Worker
+
+  /**
+   * Class GatedCallback records the completions it is given. Its first call
+   * waits for the gate to be opened.
+   */
+  public static class GatedCallback implements BatchWorkDoneCallback
+  {
+    protected final Semaphore m_theEntered = new Semaphore (0);
+    protected final Semaphore m_theGate = new Semaphore (0);
+    protected final List<Long> m_theWorkItemIds = new ArrayList<Long> ();
+    protected final List<Thread> m_theThreads = new ArrayList<Thread> ();
+    protected boolean m_isFirst = true;
+
+    public void onWorkDone (String theThreadName, long theWorkItemId)
+    {
+      onWorkDoneBatch (new String[] {theThreadName}, new long[] {theWorkItemId});
+    } // onWorkDone
+
+    public void onWorkDoneBatch (String[] theThreadNames, long[] theWorkItemIds)
+    {
+      boolean isFirst = false;
+
+      synchronized (this)
+      {
+        isFirst = m_isFirst;
+        m_isFirst = false;
+      } // synchronized
+      if (isFirst)
+      {
+        m_theEntered.release ();
+        m_theGate.acquireUninterruptibly ();
+      } // if
+      synchronized (this)
+      {
+        for (int i = 0; i < theWorkItemIds.length; i++)
+        {
+          m_theWorkItemIds.add (theWorkItemIds[i]);
+          m_theThreads.add (Thread.currentThread ());
+        } // for
+        notifyAll ();
+      } // synchronized
+    } // onWorkDoneBatch
+
+    /**
+     * Method awaitCount waits up to theWaitTime milliseconds for theCount
+     * completions and returns the number recorded.
+     */
+    public synchronized int awaitCount (int theCount, long theWaitTime) throws InterruptedException
+    {
+      long theDeadline = System.currentTimeMillis () + theWaitTime;
+
+      while ((m_theWorkItemIds.size () < theCount) && (System.currentTimeMillis () < theDeadline))
+      {
+        wait (10);
+      } // while
+      return m_theWorkItemIds.size ();
+    } // awaitCount
+  } // class GatedCallback
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theWorker != null)
+    {
+      m_theWorker.stopThread ();
+      m_theWorker.waitForThreadToStop (1000);
+    } // if
+    if (m_theDelivery != null)
+    {
+      m_theDelivery.shutdown ();
+    } // if
+  } // tearDown
+
+  /**
+   * Method newMarker returns work without a callback whose reply goes to
+   * the default work done queue.
+   */
+  private WorkPackIt newMarker ()
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.setWorkInstruction (WORK);
+    theWorkPack.m_SendResult = true;
+    return theWorkPack;
+  } // newMarker
+
+  /**
+   * Test that a blocked callback does not hold up the ThreadIt and that
+   * the completions waiting for it are coalesced into one batch.
+   */
+  @Test
+  public void testCoalesced () throws Exception
+  {
+    GatedCallback theCallback = new GatedCallback ();
+    ProtectedQueue theDoneQ = new ProtectedQueue ();
+    int theCount = 20;
+
+    m_theDelivery = new CallbackDelivery ("Delivery", 100);
+    m_theWorker = new Worker ("Delivered");
+    m_theWorker.setCallbackDelivery (m_theDelivery);
+    for (int i = 0; i < theCount; i++)
+    {
+      WorkPackIt theWorkPack = new WorkPackIt ();
+      theWorkPack.setWorkInstruction (WORK);
+      theWorkPack.m_SendResult = true;
+      theWorkPack.m_UseDefaultQ = false;
+      theWorkPack.m_WorkDoneQ = theDoneQ;
+      theWorkPack.m_NotifyWithCallback = true;
+      theWorkPack.m_Callback = theCallback;
+      m_theWorker.startWork (theWorkPack);
+    } // for
+    assertTrue ("entered", theCallback.m_theEntered.tryAcquire (m_theWaitTime, TimeUnit.MILLISECONDS));
+    // The work is all done while the callback is blocked.
+    for (int i = 0; i < theCount; i++)
+    {
+      assertNotNull ("reply " + i, theDoneQ.waitItem (m_theWaitTime));
+    } // for
+    // The reply is queued just before the callback is handed over, so the
+    // reply to work sent after the rest shows that they have all reached
+    // the delivery.
+    m_theWorker.startWork (newMarker ());
+    assertNotNull ("marker", m_theWorker.getWork (m_theWaitTime));
+    theCallback.m_theGate.release ();
+    assertEquals ("delivered", theCount, theCallback.awaitCount (theCount, m_theWaitTime));
+    for (int i = 0; i < theCount; i++)
+    {
+      assertEquals ("order", i + 1, (long) theCallback.m_theWorkItemIds.get (i));
+    } // for
+    assertEquals ("delivered count", theCount, m_theDelivery.getDeliveredCount ());
+    assertTrue ("coalesced", m_theDelivery.getBatchCount () <= 2);
+    assertEquals ("lag", theCount, m_theDelivery.getLag ().getCount ());
+    assertEquals ("pending", 0, m_theDelivery.getPendingCount ());
+  } // testCoalesced
+
+  /**
+   * Test that a completion beyond the capacity waits for room and is still
+   * delivered in order by the delivery.
+   */
+  @Test
+  public void testOverflow () throws Exception
+  {
+    final GatedCallback theCallback = new GatedCallback ();
+    Thread theProducer = null;
+
+    m_theDelivery = new CallbackDelivery ("Overflow", 2);
+    m_theDelivery.deliver (theCallback, "test", 1);
+    assertTrue ("entered", theCallback.m_theEntered.tryAcquire (m_theWaitTime, TimeUnit.MILLISECONDS));
+    m_theDelivery.deliver (theCallback, "test", 2);
+    m_theDelivery.deliver (theCallback, "test", 3);
+    assertEquals ("pending", 2, m_theDelivery.getPendingCount ());
+    theProducer = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        m_theDelivery.deliver (theCallback, "test", 4);
+      } // run
+    });
+    theProducer.start ();
+    for (int i = 0; (i < 500) && (m_theDelivery.getOverflowCount () == 0); i++)
+    {
+      Thread.sleep (1);
+    } // for
+    assertEquals ("overflow", 1, m_theDelivery.getOverflowCount ());
+    assertTrue ("waiting", theProducer.isAlive ());
+    theCallback.m_theGate.release ();
+    theProducer.join (m_theWaitTime);
+    assertEquals ("delivered", 4, theCallback.awaitCount (4, m_theWaitTime));
+    for (int i = 0; i < 4; i++)
+    {
+      assertEquals ("order", i + 1, (long) theCallback.m_theWorkItemIds.get (i));
+      assertTrue ("delivery thread", theCallback.m_theThreads.get (i) != Thread.currentThread ());
+      assertTrue ("not producer", theCallback.m_theThreads.get (i) != theProducer);
+    } // for
+  } // testOverflow
+
+  /**
+   * Test that a failing callback does not stop the rest of its batch.
+   */
+  @Test
+  public void testFailingCallback () throws Exception
+  {
+    final GatedCallback theGated = new GatedCallback ();
+    final List<Long> theWorkItemIds = new ArrayList<Long> ();
+    WorkDoneCallback theCallback = new WorkDoneCallback ()
+    {
+      public void onWorkDone (String theThreadName, long theWorkItemId)
+      {
+        if (theWorkItemId == 1)
+        {
+          theGated.onWorkDone (theThreadName, theWorkItemId);
+        } // if
+        synchronized (theWorkItemIds)
+        {
+          theWorkItemIds.add (theWorkItemId);
+        } // synchronized
+        if (theWorkItemId == 2)
+        {
+          throw new IllegalStateException ("failed");
+        } // if
+      } // onWorkDone
+    };
+
+    m_theDelivery = new CallbackDelivery ("Failing", 10);
+    m_theDelivery.deliver (theCallback, "test", 1);
+    assertTrue ("entered", theGated.m_theEntered.tryAcquire (m_theWaitTime, TimeUnit.MILLISECONDS));
+    m_theDelivery.deliver (theCallback, "test", 2);
+    m_theDelivery.deliver (theCallback, "test", 3);
+    theGated.m_theGate.release ();
+    m_theDelivery.deliver (theCallback, "test", 4);
+    for (int i = 0; (i < 500) && (m_theDelivery.getDeliveredCount () < 4); i++)
+    {
+      Thread.sleep (1);
+    } // for
+    Thread.sleep (10);
+    synchronized (theWorkItemIds)
+    {
+      assertEquals ("delivered", 4, theWorkItemIds.size ());
+      assertEquals ("after failure", 3, (long) theWorkItemIds.get (2));
+    } // synchronized
+  } // testFailingCallback
+
+  /**
+   * Test that a delivery whose executor rejects a batch gives its room back,
+   * so that rejected completions neither hold the room nor join a batch that
+   * never runs.
+   */
+  @Test
+  public void testRejected () throws Exception
+  {
+    GatedCallback theCallback = new GatedCallback ();
+    int theRejectedCount = 0;
+
+    m_theDelivery = new CallbackDelivery ("Rejected", 2);
+    m_theDelivery.shutdown ();
+    for (int i = 0; i < 5; i++)
+    {
+      try
+      {
+        m_theDelivery.deliver (theCallback, "test", i);
+      }
+      catch (RejectedExecutionException anException)
+      {
+        theRejectedCount++;
+      } // catch
+    } // for
+    assertEquals ("rejected", 5, theRejectedCount);
+    assertEquals ("pending", 0, m_theDelivery.getPendingCount ());
+    assertEquals ("overflow", 0, m_theDelivery.getOverflowCount ());
+  } // testRejected
+
+} // class CallbackDeliveryTest
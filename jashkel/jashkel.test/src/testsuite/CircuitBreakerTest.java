@@ -0,0 +1,197 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.CircuitBreaker;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItNotification;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class CircuitBreakerTest is the junit test suite for the circuit breakers
+ * of work instructions.
+ */
+public class CircuitBreakerTest
+{
+  protected static final int FAIL = 1;
+  protected static final int WORK = 2;
+  protected static final int NOTIFIED = 3;
+
+  protected Worker m_theWorker = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Worker has a method that always fails, one that never does and
+   * one that keeps the state changes it is notified of.
+   */
+  public static class Worker extends ThreadIt
+  {
+    public final LinkedBlockingQueue<CircuitBreaker.StateChange> m_theChanges = new LinkedBlockingQueue<CircuitBreaker.StateChange> ();
+
+    public Worker (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("fail", FAIL);
+      setWorkerMethod ("work", WORK);
+      setWorkerMethod ("notified", NOTIFIED);
+    } // Worker
+
+    public WorkPackIt fail (WorkPackIt theWorkPack)
+    {
+      throw new IllegalStateException ("backend down");
+    } // fail
+
+    public WorkPackIt work (WorkPackIt theWorkPack)
+    {
+      return theWorkPack;
+    } // work
+
+    public WorkPackIt notified (WorkPackIt theWorkPack)
+    {
+      m_theChanges.add ((CircuitBreaker.StateChange) ((ThreadItNotification) theWorkPack.m_Object).getData ());
+      return null;
+    } // notified
+  } // class Worker
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theWorker = new Worker ("BreakerWorker");
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    m_theWorker.stopThread ();
+    m_theWorker.waitForThreadToStop (1000);
+  } // tearDown
+
+  /**
+   * Method call sends work for theInstruction and returns the status of
+   * the reply.
+   */
+  private long call (int theInstruction)
+  {
+    WorkPackIt theWork = new WorkPackIt ();
+    WorkPackIt theReply = null;
+
+    theWork.setWorkInstruction (theInstruction);
+    theWork.m_SendResult = true;
+    m_theWorker.startWork (theWork);
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertNotNull ("reply", theReply);
+    return theReply.m_Status;
+  } // call
+
+  /**
+   * Test that the breaker opens at the failure rate, half opens after the
+   * open time and closes once the probes succeed.
+   */
+  @Test
+  public void testStates () throws Exception
+  {
+    CircuitBreaker theBreaker = new CircuitBreaker (4, 4, 0.5, 0, 20, 2);
+
+    theBreaker.record (false, 0);
+    theBreaker.record (true, 0);
+    theBreaker.record (false, 0);
+    assertEquals ("closed", CircuitBreaker.CLOSED, theBreaker.getState ());
+    theBreaker.record (true, 0);
+    assertEquals ("open", CircuitBreaker.OPEN, theBreaker.getState ());
+    assertTrue ("not permitted", !theBreaker.isCallPermitted ());
+    assertEquals ("short circuits", 1, theBreaker.getShortCircuitCount ());
+    Thread.sleep (30);
+    assertTrue ("probe", theBreaker.isCallPermitted ());
+    assertEquals ("half open", CircuitBreaker.HALF_OPEN, theBreaker.getState ());
+    theBreaker.record (false, 0);
+    assertEquals ("one probe", CircuitBreaker.HALF_OPEN, theBreaker.getState ());
+    theBreaker.record (false, 0);
+    assertEquals ("closed again", CircuitBreaker.CLOSED, theBreaker.getState ());
+    assertEquals ("rate", 0.0, theBreaker.getFailureRate (), 0.0);
+    assertEquals ("opened", 1, theBreaker.getOpenCount ());
+  } // testStates
+
+  /**
+   * Test that a failed probe opens the breaker again and that slow calls
+   * count as failures.
+   */
+  @Test
+  public void testSlowCalls () throws Exception
+  {
+    CircuitBreaker theBreaker = new CircuitBreaker (2, 2, 1.0, 1, 20, 1);
+
+    theBreaker.record (false, TimeUnit.MILLISECONDS.toNanos (5));
+    theBreaker.record (false, TimeUnit.MILLISECONDS.toNanos (5));
+    assertEquals ("open", CircuitBreaker.OPEN, theBreaker.getState ());
+    Thread.sleep (30);
+    assertTrue ("probe", theBreaker.isCallPermitted ());
+    theBreaker.record (true, 0);
+    assertEquals ("open again", CircuitBreaker.OPEN, theBreaker.getState ());
+    assertEquals ("opened", 2, theBreaker.getOpenCount ());
+  } // testSlowCalls
+
+  /**
+   * Test that the ThreadIt answers work for an open circuit without calling
+   * the method, does the other work and notifies the state changes.
+   */
+  @Test
+  public void testShortCircuit () throws Exception
+  {
+    CircuitBreaker theBreaker = new CircuitBreaker (3, 3, 1.0, 0, 50, 1);
+    CircuitBreaker.StateChange theChange = null;
+
+    m_theWorker.setCircuitBreaker (FAIL, theBreaker);
+    m_theWorker.getCircuitNotifier ().attach (m_theWorker, NOTIFIED);
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals ("failed", ThreadIt.THREADIT_NO_RESULT, call (FAIL));
+    } // for
+    assertEquals ("short circuit", ThreadIt.THREADIT_CIRCUIT_OPEN, call (FAIL));
+    assertEquals ("failures", 3, m_theWorker.getFailureCount (FAIL));
+    assertEquals ("other work", 0, call (WORK));
+    theChange = m_theWorker.m_theChanges.poll (m_theWaitTime, TimeUnit.MILLISECONDS);
+    assertNotNull ("opened", theChange);
+    assertEquals ("instruction", FAIL, theChange.getInstruction ());
+    assertEquals ("from", CircuitBreaker.CLOSED, theChange.getPreviousState ());
+    assertEquals ("to", CircuitBreaker.OPEN, theChange.getState ());
+    Thread.sleep (60);
+    // The probe fails so the breaker half opens and opens again.
+    assertEquals ("probe", ThreadIt.THREADIT_NO_RESULT, call (FAIL));
+    theChange = m_theWorker.m_theChanges.poll (m_theWaitTime, TimeUnit.MILLISECONDS);
+    assertEquals ("half open", CircuitBreaker.HALF_OPEN, theChange.getState ());
+    theChange = m_theWorker.m_theChanges.poll (m_theWaitTime, TimeUnit.MILLISECONDS);
+    assertEquals ("open again", CircuitBreaker.OPEN, theChange.getState ());
+  } // testShortCircuit
+
+} // class CircuitBreakerTest
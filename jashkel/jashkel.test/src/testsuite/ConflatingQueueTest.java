@@ -0,0 +1,223 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.ConflatingQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ConflatingQueueTest is the junit test suite for the work queue
+ * that keeps only the latest pending work package for a key.
+ */
+public class ConflatingQueueTest
+{
+  protected static final int WORK = 0;
+  protected static final int EVENT = 1;
+
+  protected Recorder m_theRecorder = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Recorder records the data of the work and events it performs.
+   * Work with the data "gate" waits for the gate to be opened.
+   */
+  public static class Recorder extends ThreadIt
+  {
+    protected final List<Object> m_theRecord = new ArrayList<Object> ();
+    protected final Semaphore m_theEntered = new Semaphore (0);
+    protected final Semaphore m_theGate = new Semaphore (0);
+
+    public Recorder (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("work", WORK);
+      setWorkerMethod ("event", EVENT);
+    } // Recorder
+
+    public WorkPackIt work (WorkPackIt theWorkPack) throws InterruptedException
+    {
+      if ("gate".equals (theWorkPack.m_Object))
+      {
+        m_theEntered.release ();
+        m_theGate.acquire ();
+      } // if
+      record (theWorkPack.m_Object);
+      return null;
+    } // work
+
+    public WorkPackIt event (WorkPackIt theWorkPack)
+    {
+      record ("event " + theWorkPack.m_Object);
+      return null;
+    } // event
+
+    private void record (Object theData)
+    {
+      synchronized (m_theRecord)
+      {
+        m_theRecord.add (theData);
+        m_theRecord.notifyAll ();
+      } // synchronized
+    } // record
+
+    /**
+     * Method awaitRecord waits up to theWaitTime milliseconds for theCount
+     * records and returns a copy of them.
+     */
+    public List<Object> awaitRecord (int theCount, long theWaitTime) throws InterruptedException
+    {
+      long theDeadline = System.currentTimeMillis () + theWaitTime;
+
+      synchronized (m_theRecord)
+      {
+        while ((m_theRecord.size () < theCount) && (System.currentTimeMillis () < theDeadline))
+        {
+          m_theRecord.wait (10);
+        } // while
+        return new ArrayList<Object> (m_theRecord);
+      } // synchronized
+    } // awaitRecord
+  } // class Recorder
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theRecorder != null)
+    {
+      m_theRecorder.m_theGate.release (100);
+      m_theRecorder.stopThread ();
+      m_theRecorder.waitForThreadToStop (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Method newWork returns a work package for theData with theKey.
+   */
+  private WorkPackIt newWork (Object theData, Object theKey)
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.setWorkInstruction (WORK);
+    theWorkPack.m_Object = theData;
+    theWorkPack.m_theConflationKey = theKey;
+    return theWorkPack;
+  } // newWork
+
+  /**
+   * Test that a work package replaces the pending one with the same
+   * instruction and key in its place, and that work without a key or with
+   * another key is queued as it is.
+   */
+  @Test
+  public void testQueue ()
+  {
+    ConflatingQueue theQ = new ConflatingQueue ();
+    WorkPackIt theFirst = newWork (1, "A");
+    WorkPackIt theUnkeyed = newWork (2, null);
+    WorkPackIt theLatest = newWork (3, "A");
+    WorkPackIt theOther = newWork (4, "B");
+    WorkPackIt theOtherInstruction = newWork (5, "A");
+
+    theOtherInstruction.setWorkInstruction (EVENT);
+    theQ.insertItem (theFirst);
+    theQ.insertItem (theUnkeyed);
+    theQ.insertItem (theLatest);
+    theQ.insertItem (theOther);
+    theQ.insertItem (theOtherInstruction);
+    assertEquals ("conflated", 1, theQ.getConflatedCount ());
+    assertEquals ("depth", 4, theQ.getDepth ());
+    assertSame ("latest in place", theLatest, theQ.pollItem ());
+    // Once taken the key is queued again.
+    theQ.insertItem (theFirst);
+    assertSame ("unkeyed", theUnkeyed, theQ.pollItem ());
+    assertSame ("other key", theOther, theQ.pollItem ());
+    assertSame ("other instruction", theOtherInstruction, theQ.waitItem (10));
+    assertSame ("requeued", theFirst, theQ.pollItem ());
+    assertNull ("empty", theQ.waitItem (10));
+    assertEquals ("depth", 0, theQ.getDepth ());
+  } // testQueue
+
+  /**
+   * Test that work whose sender waits for a reply is never replaced.
+   */
+  @Test
+  public void testReplyNotConflated ()
+  {
+    ConflatingQueue theQ = new ConflatingQueue ();
+    WorkPackIt theFirst = newWork (1, "A");
+    WorkPackIt theSecond = newWork (2, "A");
+    WorkPackIt theThird = newWork (3, "A");
+
+    theFirst.m_SendResult = true;
+    theQ.insertItem (theFirst);
+    theQ.insertItem (theSecond);
+    theThird.m_SendResult = true;
+    theQ.insertItem (theThird);
+    assertEquals ("conflated", 0, theQ.getConflatedCount ());
+    assertSame ("first", theFirst, theQ.pollItem ());
+    assertSame ("second", theSecond, theQ.pollItem ());
+    assertSame ("third", theThird, theQ.pollItem ());
+  } // testReplyNotConflated
+
+  /**
+   * Test that a ThreadIt behind a burst of work and events for the same
+   * key performs only the latest of each.
+   */
+  @Test
+  public void testThreadIt () throws Exception
+  {
+    ConflatingQueue theQ = new ConflatingQueue ();
+    int theBurst = 50;
+
+    m_theRecorder = new Recorder ("Conflating");
+    m_theRecorder.setWorkQ (theQ);
+    m_theRecorder.startWork (newWork ("gate", null));
+    assertTrue ("entered", m_theRecorder.m_theEntered.tryAcquire (m_theWaitTime, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < theBurst; i++)
+    {
+      m_theRecorder.startWork (newWork (i, "state"));
+      m_theRecorder.notifyEvent (EVENT, i, "state");
+    } // for
+    assertEquals ("conflated", 2 * (theBurst - 1), theQ.getConflatedCount ());
+    m_theRecorder.m_theGate.release ();
+    // Events are queued at the head so the event is performed first.
+    assertEquals ("performed", Arrays.asList ((Object) "gate", "event " + (theBurst - 1), theBurst - 1),
+                  m_theRecorder.awaitRecord (3, m_theWaitTime));
+  } // testThreadIt
+
+} // class ConflatingQueueTest
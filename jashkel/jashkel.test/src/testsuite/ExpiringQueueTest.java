@@ -0,0 +1,173 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.ExpiringQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItMessage;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ExpiringQueueTest is the junit test suite for the expiry of the
+ * replies nobody collects.
+ */
+public class ExpiringQueueTest
+{
+  protected static final int WORK = 0;
+
+  protected Worker m_theWorker = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Worker answers every work package.
+   */
+  public static class Worker extends ThreadIt
+  {
+    public Worker (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("work", WORK);
+    } // Worker
+
+    public WorkPackIt work (WorkPackIt theWorkPack)
+    {
+      return null;
+    } // work
+  } // class Worker
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theWorker != null)
+    {
+      m_theWorker.stopThread ();
+      m_theWorker.waitForThreadToStop (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Method newReply returns a reply for theInstruction that expired
+   * theAge milliseconds ago, or that never expires if theAge is 0.
+   */
+  private WorkPackIt newReply (int theInstruction, long theAge)
+  {
+    WorkPackIt theReply = new WorkPackIt ();
+
+    theReply.setWorkInstruction (theInstruction);
+    if (theAge != 0)
+    {
+      theReply.m_ReplyDeadline = System.nanoTime () - (theAge * 1000000L);
+    } // if
+    return theReply;
+  } // newReply
+
+  /**
+   * Test that inserts evict the expired replies at the head a few at a time.
+   */
+  @Test
+  public void testEvictOnInsert ()
+  {
+    ExpiringQueue theQ = new ExpiringQueue ();
+
+    for (int i = 0; i < 3; i++)
+    {
+      theQ.insertItem (newReply (1, 10));
+    } // for
+    // An expired reply inserted into an empty queue is at the head and is
+    // evicted by its own insert.
+    theQ.insertItem (newReply (1, 0));
+    assertEquals ("depth", 1, theQ.getDepth ());
+    assertEquals ("evicted", 3, theQ.getEvictedCount ());
+  } // testEvictOnInsert
+
+  /**
+   * Test that an expired reply is not returned by a take.
+   */
+  @Test
+  public void testSkipOnTake ()
+  {
+    ExpiringQueue theQ = new ExpiringQueue ();
+    WorkPackIt theLive = newReply (2, 0);
+
+    theQ.insertItem (theLive);
+    theQ.insertItem (newReply (2, 10));
+    assertSame ("live", theLive, theQ.waitItem (0));
+    assertNull ("expired", theQ.pollItem ());
+    assertEquals ("evicted", 1, theQ.getEvictedCount ());
+  } // testSkipOnTake
+
+  /**
+   * Test that the sweep evicts the expired replies held behind a live one
+   * and counts them by instruction.
+   */
+  @Test
+  public void testSweep ()
+  {
+    ExpiringQueue theQ = new ExpiringQueue ();
+
+    theQ.insertItem (newReply (1, 0));
+    theQ.insertItem (newReply (2, 10));
+    theQ.insertItem (newReply (3, 10));
+    theQ.insertItem (newReply (3, 10));
+    assertEquals ("held", 4, theQ.getDepth ());
+    assertEquals ("swept", 3, theQ.evictExpired ());
+    assertEquals ("depth", 1, theQ.getDepth ());
+    assertEquals ("instruction 2", Long.valueOf (1), theQ.getEvictedCounts ().get (2));
+    assertEquals ("instruction 3", Long.valueOf (2), theQ.getEvictedCounts ().get (3));
+  } // testSweep
+
+  /**
+   * Test that the replies of a ThreadIt expire after its time to live and
+   * that a work package can set its own.
+   */
+  @Test
+  public void testReplyTimeToLive () throws Exception
+  {
+    ThreadItMessage theMessage = null;
+
+    m_theWorker = new Worker ("ExpiringReplies");
+    m_theWorker.setReplyTimeToLive (20);
+    new ThreadItMessage (WORK).sendTo (m_theWorker);
+    theMessage = new ThreadItMessage (WORK);
+    theMessage.getWork ().m_ReplyTimeToLive = m_theWaitTime * 10;
+    theMessage.sendTo (m_theWorker);
+    while (m_theWorker.getWorkDoneQ ().getDepth () < 2)
+    {
+      Thread.sleep (1);
+    } // while
+    Thread.sleep (50);
+    assertNotNull ("kept", m_theWorker.getWork (0));
+    assertNull ("expired", m_theWorker.getWork (0));
+    assertEquals ("expired count", 1, m_theWorker.getExpiredReplyCount ());
+  } // testReplyTimeToLive
+
+} // class ExpiringQueueTest
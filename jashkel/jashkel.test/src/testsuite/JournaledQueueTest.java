@@ -0,0 +1,342 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.JournaledQueue;
+import au.com.ashkel.javalib.threads.RetryPolicy;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class JournaledQueueTest is the junit test suite for the work queue that
+ * journals its work so that it survives a restart.
+ */
+public class JournaledQueueTest
+{
+  protected File m_theDirectory = null;
+  protected JournaledQueue m_theQ = null;
+  protected OffHeapQueueTest.Doubler m_theDoubler = null;
+  protected RetryPolicyTest.Worker m_theRetrier = null;
+  protected long m_theWaitTime = 5000;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theDirectory = Files.createTempDirectory ("journal").toFile ();
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theDoubler != null)
+    {
+      m_theDoubler.stopThread ();
+      m_theDoubler.waitForThreadToStop (1000);
+    } // if
+    if (m_theRetrier != null)
+    {
+      m_theRetrier.stopThread ();
+      m_theRetrier.waitForThreadToStop (1000);
+    } // if
+    if (m_theQ != null)
+    {
+      m_theQ.close ();
+    } // if
+    for (File theFile : m_theDirectory.listFiles ())
+    {
+      theFile.delete ();
+    } // for
+    m_theDirectory.delete ();
+  } // tearDown
+
+  /**
+   * Method newWork returns a work package for theInstruction with theObject.
+   */
+  private WorkPackIt newWork (int theInstruction, Object theObject)
+  {
+    WorkPackIt theWork = new WorkPackIt ();
+
+    theWork.setWorkInstruction (theInstruction);
+    theWork.m_Object = theObject;
+    theWork.m_SendResult = true;
+    return theWork;
+  } // newWork
+
+  /**
+   * Method reopen closes the queue, as if the process stopped, and opens a
+   * new queue on the journal.
+   */
+  private void reopen (int theSegmentSize, boolean isSyncCommit)
+  {
+    m_theQ.close ();
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), theSegmentSize, 5, isSyncCommit);
+  } // reopen
+
+  /**
+   * Test that work that is not done is read back in order, and that work
+   * taken but not released is treated as not done.
+   */
+  @Test
+  public void testRecovery ()
+  {
+    Object theTaken = null;
+
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 5, false);
+    for (int i = 0; i < 5; i++)
+    {
+      m_theQ.insertItem (newWork (1, i));
+    } // for
+    assertEquals ("journaled", 5, m_theQ.getJournaledCount ());
+    theTaken = m_theQ.pollItem ();
+    m_theQ.releaseItem (theTaken);
+    m_theQ.pollItem ();
+    assertEquals ("pending", 4, m_theQ.getPendingCount ());
+    reopen (4096, false);
+    assertEquals ("recovered", 4, m_theQ.getRecoveredCount ());
+    assertEquals ("size", 4, m_theQ.size ());
+    for (int i = 1; i < 5; i++)
+    {
+      WorkPackIt theWork = (WorkPackIt) m_theQ.pollItem ();
+      assertEquals ("order", i, theWork.m_Object);
+      assertTrue ("send result", theWork.m_SendResult);
+      m_theQ.releaseItem (theWork);
+    } // for
+    assertEquals ("pending", 0, m_theQ.getPendingCount ());
+    reopen (4096, false);
+    assertEquals ("all done", 0, m_theQ.getRecoveredCount ());
+  } // testRecovery
+
+  /**
+   * Test that recovery stops at an entry whose bytes did not all reach the
+   * disk.
+   */
+  @Test
+  public void testDamagedEntry () throws Exception
+  {
+    File[] theFiles = null;
+    RandomAccessFile theFile = null;
+    int theEntrySize = 0;
+
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 5, false);
+    for (int i = 0; i < 3; i++)
+    {
+      m_theQ.insertItem (newWork (1, i));
+    } // for
+    m_theQ.close ();
+    theFiles = m_theDirectory.listFiles ();
+    assertEquals ("files", 1, theFiles.length);
+    theFile = new RandomAccessFile (theFiles[0], "rw");
+    try
+    {
+      // The length of the first record follows the state, checksum and
+      // sequence of its entry. Damage the instruction of the second.
+      theFile.seek (16);
+      theEntrySize = 16 + 4 + theFile.readInt ();
+      theFile.seek (theEntrySize + 16 + 8);
+      theFile.writeInt (99);
+    }
+    finally
+    {
+      theFile.close ();
+    } // finally
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 5, false);
+    assertEquals ("recovered", 1, m_theQ.getRecoveredCount ());
+    assertEquals ("first", 0, ((WorkPackIt) m_theQ.pollItem ()).m_Object);
+    assertNull ("damaged", m_theQ.pollItem ());
+  } // testDamagedEntry
+
+  /**
+   * Test that releasing work that was never taken does not mark the entry
+   * of a copy that is still queued done.
+   */
+  @Test
+  public void testReleaseNotTaken ()
+  {
+    WorkPackIt theWork = newWork (1, 5);
+
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 5, false);
+    m_theQ.insertItem (theWork);
+    m_theQ.insertItem (theWork);
+    m_theQ.releaseItem (theWork);
+    assertEquals ("pending", 2, m_theQ.getPendingCount ());
+    m_theQ.releaseItem (m_theQ.pollItem ());
+    assertEquals ("released", 1, m_theQ.getPendingCount ());
+    reopen (4096, false);
+    assertEquals ("recovered", 1, m_theQ.getRecoveredCount ());
+  } // testReleaseNotTaken
+
+  /**
+   * Test that a segment file is deleted once its work is done, and that a
+   * segment read back is not written to again.
+   */
+  @Test
+  public void testSegments ()
+  {
+    int theSegmentCount = 0;
+
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 256, 5, false);
+    for (int i = 0; i < 20; i++)
+    {
+      m_theQ.insertItem (newWork (1, i));
+    } // for
+    assertTrue ("segments", m_theQ.getSegmentCount () > 2);
+    assertEquals ("files", m_theQ.getSegmentCount (), m_theDirectory.listFiles ().length);
+    theSegmentCount = m_theQ.getSegmentCount ();
+    for (int i = 0; i < 10; i++)
+    {
+      m_theQ.releaseItem (m_theQ.pollItem ());
+    } // for
+    assertTrue ("deleted", m_theQ.getSegmentCount () < theSegmentCount);
+    assertEquals ("files", m_theQ.getSegmentCount (), m_theDirectory.listFiles ().length);
+    reopen (256, false);
+    assertEquals ("recovered", 10, m_theQ.getRecoveredCount ());
+    m_theQ.insertItem (newWork (1, 20));
+    for (int i = 10; i < 21; i++)
+    {
+      Object theWork = m_theQ.pollItem ();
+      assertEquals ("order", i, ((WorkPackIt) theWork).m_Object);
+      m_theQ.releaseItem (theWork);
+    } // for
+    assertNull ("empty", m_theQ.pollItem ());
+    assertEquals ("files", 1, m_theDirectory.listFiles ().length);
+  } // testSegments
+
+  /**
+   * Test that a synchronous commit is done before insertItem returns and
+   * that items that cannot be recorded are queued without a journal entry.
+   */
+  @Test
+  public void testSyncCommit ()
+  {
+    WorkPackIt theKeyed = newWork (2, 99);
+
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 1000, true);
+    m_theQ.insertItem (newWork (1, 0));
+    assertTrue ("committed", m_theQ.getCommitCount () > 0);
+    theKeyed.m_theConflationKey = "key";
+    m_theQ.insertItem (theKeyed);
+    assertEquals ("journaled", 1, m_theQ.getJournaledCount ());
+    assertEquals ("size", 2, m_theQ.size ());
+  } // testSyncCommit
+
+  /**
+   * Test that a ThreadIt does the work left in the journal on startup and
+   * marks the work done once it has replied.
+   */
+  @Test
+  public void testThreadIt () throws Exception
+  {
+    long theDeadline = 0;
+
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 5, false);
+    for (int i = 0; i < 5; i++)
+    {
+      m_theQ.insertItem (newWork (OffHeapQueueTest.DOUBLE, i));
+    } // for
+    reopen (4096, false);
+    m_theDoubler = new OffHeapQueueTest.Doubler ("JournalDoubler");
+    m_theDoubler.setWorkQ (m_theQ);
+    for (int i = 0; i < 5; i++)
+    {
+      WorkPackIt theReply = m_theDoubler.getWork (m_theWaitTime);
+      assertNotNull ("reply", theReply);
+      assertEquals ("result", i * 2, theReply.m_Object);
+    } // for
+    // The work is released just after the reply is sent.
+    theDeadline = System.currentTimeMillis () + m_theWaitTime;
+    while ((m_theQ.getPendingCount () > 0) && (System.currentTimeMillis () < theDeadline))
+    {
+      Thread.sleep (1);
+    } // while
+    assertEquals ("pending", 0, m_theQ.getPendingCount ());
+  } // testThreadIt
+
+  /**
+   * Test that the control work of a ThreadIt is not journaled, so that
+   * nothing is left pending once it stops and nothing is recovered.
+   */
+  @Test
+  public void testControlWork () throws Exception
+  {
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 5, false);
+    m_theDoubler = new OffHeapQueueTest.Doubler ("JournalControl");
+    m_theDoubler.setWorkQ (m_theQ);
+    m_theDoubler.requestPeriod (10);
+    Thread.sleep (50);
+    m_theDoubler.stopThread ();
+    assertTrue ("stopped", m_theDoubler.waitForThreadToStop (m_theWaitTime));
+    assertEquals ("drained", 0, m_theDoubler.drainWork ().size ());
+    assertEquals ("journaled", 0, m_theQ.getJournaledCount ());
+    assertEquals ("pending", 0, m_theQ.getPendingCount ());
+    reopen (4096, false);
+    assertEquals ("recovered", 0, m_theQ.getRecoveredCount ());
+    assertNull ("no work", m_theQ.pollItem ());
+  } // testControlWork
+
+  /**
+   * Test that work waiting to be retried keeps its one entry and that the
+   * entry records how many times the work has been retried.
+   */
+  @Test
+  public void testRetry () throws Exception
+  {
+    WorkPackIt theWork = newWork (RetryPolicyTest.FAIL, 7);
+    long theDeadline = System.currentTimeMillis () + m_theWaitTime;
+
+    theWork.m_SendResult = false;
+    m_theQ = new JournaledQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 4096, 5, false);
+    m_theRetrier = new RetryPolicyTest.Worker ("JournalRetrier");
+    m_theRetrier.setRetryPolicy (RetryPolicyTest.FAIL, new RetryPolicy (5, 200, 10000, 0));
+    m_theRetrier.setWorkQ (m_theQ);
+    m_theRetrier.startWork (theWork);
+    while ((m_theRetrier.getFailureCount (RetryPolicyTest.FAIL) < 2) && (System.currentTimeMillis () < theDeadline))
+    {
+      Thread.sleep (1);
+    } // while
+    assertEquals ("failures", 2, m_theRetrier.getFailureCount (RetryPolicyTest.FAIL));
+    assertEquals ("waiting", 1, m_theRetrier.getPendingRetryCount ());
+    assertEquals ("journaled", 1, m_theQ.getJournaledCount ());
+    assertEquals ("pending", 1, m_theQ.getPendingCount ());
+    // Stopping puts the work waiting to be retried back in the queue.
+    m_theRetrier.stopThread ();
+    assertTrue ("stopped", m_theRetrier.waitForThreadToStop (m_theWaitTime));
+    assertEquals ("pending", 1, m_theQ.getPendingCount ());
+    reopen (4096, false);
+    assertEquals ("recovered", 1, m_theQ.getRecoveredCount ());
+    theWork = (WorkPackIt) m_theQ.pollItem ();
+    assertEquals ("object", 7, theWork.m_Object);
+    assertEquals ("retry count", 2, theWork.m_RetryCount);
+  } // testRetry
+
+} // class JournaledQueueTest
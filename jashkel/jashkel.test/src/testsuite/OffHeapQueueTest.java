@@ -0,0 +1,215 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.OffHeapQueue;
+import au.com.ashkel.javalib.threads.PayloadCodec;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class OffHeapQueueTest is the junit test suite for the work queue that
+ * holds its work packages off the heap.
+ */
+public class OffHeapQueueTest
+{
+  protected static final int DOUBLE = 1;
+
+  protected Doubler m_theDoubler = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class IntegerCodec encodes Integer objects only.
+   */
+  public static class IntegerCodec implements PayloadCodec
+  {
+    public void encode (Object theObject, ByteBuffer theBuffer)
+    {
+      theBuffer.putInt (((Integer) theObject).intValue ());
+    } // encode
+
+    public Object decode (ByteBuffer theBuffer)
+    {
+      return theBuffer.getInt ();
+    } // decode
+  } // class IntegerCodec
+
+  /**
+   * Class Doubler doubles the Integer it is given.
+   */
+  public static class Doubler extends ThreadIt
+  {
+    public Doubler (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("doubleIt", DOUBLE);
+    } // Doubler
+
+    public WorkPackIt doubleIt (WorkPackIt theWorkPack)
+    {
+      theWorkPack.m_Object = ((Integer) theWorkPack.m_Object) * 2;
+      return theWorkPack;
+    } // doubleIt
+  } // class Doubler
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theDoubler != null)
+    {
+      m_theDoubler.stopThread ();
+      m_theDoubler.waitForThreadToStop (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Method newWork returns a work package for theInstruction with theObject.
+   */
+  private WorkPackIt newWork (int theInstruction, Object theObject)
+  {
+    WorkPackIt theWork = new WorkPackIt ();
+
+    theWork.setWorkInstruction (theInstruction);
+    theWork.m_Object = theObject;
+    theWork.m_SendResult = true;
+    return theWork;
+  } // newWork
+
+  /**
+   * Test that work packages are decoded in order with their fields, and
+   * that those that cannot be recorded keep their place on the heap.
+   */
+  @Test
+  public void testRoundTrip ()
+  {
+    OffHeapQueue theQ = new OffHeapQueue (new IntegerCodec ());
+    WorkPackIt theFirst = newWork (3, 7);
+    WorkPackIt theString = newWork (4, "not an integer");
+    WorkPackIt theEvent = newWork (5, null);
+    WorkPackIt theTaken = null;
+
+    theFirst.m_WorkPackID = 42;
+    theFirst.m_theReplyInstructionId = 9;
+    theFirst.m_ReplyTimeToLive = 100;
+    theQ.insertItem (theFirst);
+    theQ.insertItem (theString);
+    theQ.insertItem (newWork (6, null));
+    theQ.insertPriorityItem (theEvent);
+    assertEquals ("size", 4, theQ.size ());
+    assertEquals ("heap", 2, theQ.getHeapCount ());
+    assertTrue ("off heap", theQ.getOffHeapBytes () > 0);
+    assertSame ("priority", theEvent, theQ.pollItem ());
+    theTaken = (WorkPackIt) theQ.pollItem ();
+    assertEquals ("instruction", 3, theTaken.getWorkInstruction ());
+    assertEquals ("identity", 42, theTaken.m_WorkPackID);
+    assertEquals ("reply instruction", 9, theTaken.m_theReplyInstructionId);
+    assertEquals ("time to live", 100, theTaken.m_ReplyTimeToLive);
+    assertTrue ("send result", theTaken.m_SendResult);
+    assertEquals ("object", 7, theTaken.m_Object);
+    assertSame ("held", theString, theQ.pollItem ());
+    theTaken = (WorkPackIt) theQ.waitItem (0);
+    assertEquals ("no object", 6, theTaken.getWorkInstruction ());
+    assertNull ("no object", theTaken.m_Object);
+    assertNull ("empty", theQ.pollItem ());
+    assertEquals ("bytes", 0, theQ.getOffHeapBytes ());
+    assertEquals ("depth", 0, theQ.getDepth ());
+  } // testRoundTrip
+
+  /**
+   * Test that the records spread over segments that are given up once read.
+   */
+  @Test
+  public void testSegments ()
+  {
+    OffHeapQueue theQ = new OffHeapQueue (new IntegerCodec (), 256);
+
+    for (int i = 0; i < 100; i++)
+    {
+      theQ.insertItem (newWork (1, i));
+    } // for
+    assertTrue ("segments", theQ.getSegmentCount () > 10);
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals ("order", i, ((WorkPackIt) theQ.pollItem ()).m_Object);
+    } // for
+    assertEquals ("segments", 1, theQ.getSegmentCount ());
+    assertEquals ("heap", 0, theQ.getHeapCount ());
+  } // testSegments
+
+  /**
+   * Test that a ThreadIt works from the queue.
+   */
+  @Test
+  public void testThreadIt () throws Exception
+  {
+    m_theDoubler = new Doubler ("OffHeapDoubler");
+    m_theDoubler.setWorkQ (new OffHeapQueue (new IntegerCodec ()));
+    for (int i = 0; i < 10; i++)
+    {
+      m_theDoubler.startWork (newWork (DOUBLE, i));
+    } // for
+    for (int i = 0; i < 10; i++)
+    {
+      WorkPackIt theReply = m_theDoubler.getWork (m_theWaitTime);
+      assertNotNull ("reply", theReply);
+      assertEquals ("result", i * 2, theReply.m_Object);
+    } // for
+  } // testThreadIt
+
+  /**
+   * Test that the control work of a stopped ThreadIt keeps its identity,
+   * so that only real work is drained.
+   */
+  @Test
+  public void testDrainAfterStop () throws Exception
+  {
+    List<WorkPackIt> theWork = null;
+
+    m_theDoubler = new Doubler ("OffHeapDrain");
+    m_theDoubler.setWorkQ (new OffHeapQueue (new IntegerCodec ()));
+    m_theDoubler.stopThread ();
+    assertTrue ("stopped", m_theDoubler.waitForThreadToStop (m_theWaitTime));
+    m_theDoubler.startWork (newWork (DOUBLE, 1));
+    m_theDoubler.startWork (newWork (DOUBLE, 2));
+    theWork = m_theDoubler.drainWork ();
+    assertEquals ("drained", 2, theWork.size ());
+    for (int i = 0; i < theWork.size (); i++)
+    {
+      assertEquals ("instruction", DOUBLE, theWork.get (i).getWorkInstruction ());
+      assertEquals ("object", i + 1, theWork.get (i).m_Object);
+    } // for
+  } // testDrainAfterStop
+
+} // class OffHeapQueueTest
@@ -0,0 +1,246 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.pipeline.Pipeline;
+import au.com.ashkel.javalib.pipeline.PipelineBuilder;
+import au.com.ashkel.javalib.pipeline.PipelineStage;
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.pipeline.ThreadItPool;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.RetryPolicy;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class PipelineTest is the junit test suite for pipelines of ThreadIt
+ * stages.
+ */
+public class PipelineTest
+{
+  protected static final int ADD = 0;
+
+  protected Pipeline m_thePipeline = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Adder adds one to the Integer it is given. It can be held up to
+   * act as a slow stage.
+   */
+  public static class Adder extends ThreadIt
+  {
+    protected Semaphore m_theGate = null;
+    protected int m_theCount = 0;
+    protected int m_theFailures = 0;
+
+    public Adder (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("add", ADD);
+    } // Adder
+
+    public WorkPackIt add (WorkPackIt theWorkPack)
+    {
+      if (m_theGate != null)
+      {
+        m_theGate.acquireUninterruptibly ();
+        m_theGate.release ();
+      } // if
+      if (m_theFailures > 0)
+      {
+        m_theFailures--;
+        throw new IllegalStateException ("failed");
+      } // if
+      m_theCount++;
+      theWorkPack.m_Object = Integer.valueOf (((Integer) theWorkPack.m_Object).intValue () + 1);
+      return null;
+    } // add
+  } // class Adder
+
+  /**
+   * Class AdderFactory creates the members of a pool of adders.
+   */
+  public static class AdderFactory implements ThreadItFactory
+  {
+    public ThreadIt newThreadIt (String theThreadName) throws IOException
+    {
+      return new Adder (theThreadName);
+    } // newThreadIt
+  } // class AdderFactory
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_thePipeline != null)
+    {
+      m_thePipeline.stop (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Test that every work package passes through every stage, including a
+   * stage performed by a pool.
+   */
+  @Test
+  public void testPipeline () throws Exception
+  {
+    ThreadItPool thePool = new ThreadItPool ("PipelinePool", new AdderFactory (), 3);
+    int theCount = 200;
+    long theTotal = 0;
+
+    m_thePipeline = new PipelineBuilder ("Pipeline")
+      .addStage (new Adder ("PipelineFirst"), ADD, 4)
+      .addStage (thePool, ADD, 8)
+      .addStage (new Adder ("PipelineLast"), ADD, 4)
+      .build ();
+    for (int i = 0; i < theCount; i++)
+    {
+      assertTrue ("submit " + i, m_thePipeline.submit (Integer.valueOf (i), m_theWaitTime));
+    } // for
+    for (int i = 0; i < theCount; i++)
+    {
+      WorkPackIt theResult = m_thePipeline.getResult (m_theWaitTime);
+      assertNotNull ("result " + i, theResult);
+      theTotal += ((Integer) theResult.m_Object).intValue ();
+    } // for
+    assertEquals ("total", (long) theCount * (theCount - 1) / 2 + 3L * theCount, theTotal);
+    // Every member of the pool took a share of the work.
+    ThreadIt[] theMembers = thePool.getMembers ();
+    for (int i = 0; i < theMembers.length; i++)
+    {
+      assertTrue ("member " + i, ((Adder) theMembers[i]).m_theCount > 0);
+    } // for
+    PipelineStage[] theStages = m_thePipeline.getStages ();
+    for (int i = 0; i < theStages.length; i++)
+    {
+      assertEquals ("completed " + i, theCount, theStages[i].getCompletedCount ());
+    } // for
+  } // testPipeline
+
+  /**
+   * Test that a slow stage holds up the stages before it once its credits
+   * are used, and that it is reported as the bottleneck.
+   */
+  @Test
+  public void testBackpressure () throws Exception
+  {
+    Adder theSlow = new Adder ("PipelineSlow");
+    Semaphore theGate = new Semaphore (0);
+    int theAccepted = 0;
+
+    theSlow.m_theGate = theGate;
+    m_thePipeline = new PipelineBuilder ("Backpressure")
+      .addStage (new Adder ("PipelineFast"), ADD, 2)
+      .addStage (theSlow, ADD, 2)
+      .addStage (new Adder ("PipelineEnd"), ADD, 2)
+      .build ();
+    while ((theAccepted < 20) && (m_thePipeline.submit (Integer.valueOf (0), 200)))
+    {
+      theAccepted++;
+    } // while
+    // The first two stages are full and the last is empty.
+    assertEquals ("accepted", 4, theAccepted);
+    PipelineStage[] theStages = m_thePipeline.getStages ();
+    assertEquals ("fast", 2, theStages[0].getOccupancy ());
+    assertEquals ("slow", 2, theStages[1].getOccupancy ());
+    assertEquals ("end", 0, theStages[2].getOccupancy ());
+    assertSame ("bottleneck", theStages[1], m_thePipeline.getBottleneck ());
+    assertTrue ("blocked", theStages[1].getBlockedCount () > 0);
+    assertTrue ("report", m_thePipeline.getReport ().contains ("bottleneck"));
+    theGate.release ();
+    for (int i = 0; i < theAccepted; i++)
+    {
+      assertNotNull ("result " + i, m_thePipeline.getResult (m_theWaitTime));
+    } // for
+    assertNull ("drained", m_thePipeline.getBottleneck ());
+  } // testBackpressure
+
+  /**
+   * Test that a member removed while it is busy hands on the work it puts
+   * back as it stops, here work waiting to be retried, once it has stopped.
+   */
+  @Test
+  public void testRemoveBusyMember () throws Exception
+  {
+    ThreadItPool thePool = new ThreadItPool ("RemovePool", new AdderFactory (), 2);
+    ProtectedQueue theDoneQ = new ProtectedQueue ();
+    Adder theMember = (Adder) thePool.getMembers ()[1];
+    Semaphore theGate = new Semaphore (0);
+    WorkPackIt theWorkPack = new WorkPackIt ();
+    WorkPackIt theGated = new WorkPackIt ();
+    WorkPackIt theResult = null;
+
+    try
+    {
+      // The work fails once and waits a long time to be retried.
+      theMember.setRetryPolicy (ADD, new RetryPolicy (2, 60000, 60000, 0));
+      theMember.m_theFailures = 1;
+      theWorkPack.setWorkInstruction (ADD);
+      theWorkPack.m_Object = Integer.valueOf (1);
+      theWorkPack.m_SendResult = true;
+      theWorkPack.m_UseDefaultQ = false;
+      theWorkPack.m_WorkDoneQ = theDoneQ;
+      theMember.startWork (theWorkPack);
+      for (int i = 0; (i < 500) && (theMember.getPendingRetryCount () == 0); i++)
+      {
+        Thread.sleep (1);
+      } // for
+      assertEquals ("pending retry", 1, theMember.getPendingRetryCount ());
+      // The member is busy when it is removed and does not stop in time.
+      theMember.m_theGate = theGate;
+      theGated.setWorkInstruction (ADD);
+      theGated.m_Object = Integer.valueOf (0);
+      theMember.startWork (theGated);
+      for (int i = 0; (i < 500) && (!theGate.hasQueuedThreads ()); i++)
+      {
+        Thread.sleep (1);
+      } // for
+      assertSame ("removed", theMember, thePool.removeMember (50));
+      assertEquals ("size", 1, thePool.getSize ());
+      assertNull ("not yet", theDoneQ.waitItem (100));
+      theGate.release ();
+      // The retry is done by the remaining member.
+      theResult = (WorkPackIt) theDoneQ.waitItem (m_theWaitTime);
+      assertNotNull ("result", theResult);
+      assertEquals ("value", 2, ((Integer) theResult.m_Object).intValue ());
+      assertEquals ("remaining", 1, ((Adder) thePool.getMembers ()[0]).m_theCount);
+    }
+    finally
+    {
+      theGate.release ();
+      thePool.stopPool (1000);
+    } // finally
+  } // testRemoveBusyMember
+
+} // class PipelineTest
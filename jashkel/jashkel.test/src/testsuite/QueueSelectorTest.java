@@ -0,0 +1,141 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.QueueSelector;
+import au.com.ashkel.javalib.threads.SignalQueue;
+import au.com.ashkel.javalib.threads.SignalQueueTyped;
+import au.com.ashkel.javalib.threads.TestResultQ;
+import au.com.ashkel.javalib.threads.ThreadItMessage;
+
+/**
+ * Class QueueSelectorTest is the junit test suite for waiting on several
+ * queues at once and for the signalled queues.
+ */
+public class QueueSelectorTest
+{
+  protected ProtectedQueue m_theProtectedQ = new ProtectedQueue ();
+  protected SignalQueue m_theSignalQ = new SignalQueue ();
+  protected SignalQueueTyped<String> m_theTypedQ = new SignalQueueTyped<String> ();
+  protected QueueSelector m_theSelector = new QueueSelector (m_theProtectedQ, m_theSignalQ, m_theTypedQ);
+  protected ThreadItA m_theImplA = null;
+  protected long m_theWaitTime = 5000;
+
+  @After
+  public void tearDown () throws Exception
+  {
+    m_theSelector.close ();
+    if (m_theImplA != null)
+    {
+      m_theImplA.stopIt ();
+    } // if
+  } // tearDown
+
+  /**
+   * Test that the first queue with an item is selected and that the wait
+   * times out when there is none.
+   */
+  @Test
+  public void testSelect ()
+  {
+    long theStart = System.currentTimeMillis ();
+
+    assertEquals ("timed out", QueueSelector.SELECT_TIMEDOUT, m_theSelector.select (50));
+    assertTrue ("elapsed", System.currentTimeMillis () - theStart >= 45);
+    m_theTypedQ.insertItem ("typed");
+    assertEquals ("typed", 2, m_theSelector.select (m_theWaitTime));
+    m_theProtectedQ.insertItem ("protected");
+    assertEquals ("first queue first", 0, m_theSelector.selectNow ());
+    assertSame ("queue", m_theProtectedQ, m_theSelector.getQueue (0));
+    assertEquals ("item", "protected", m_theProtectedQ.pollItem ());
+    assertEquals ("typed", 2, m_theSelector.selectNow ());
+    assertEquals ("item", "typed", m_theTypedQ.pollItem ());
+    assertEquals ("empty", QueueSelector.SELECT_TIMEDOUT, m_theSelector.selectNow ());
+  } // testSelect
+
+  /**
+   * Test that an insert by another thread wakes the selecting thread.
+   */
+  @Test
+  public void testWakeup () throws Exception
+  {
+    Thread theProducer = new Thread ()
+    {
+      public void run ()
+      {
+        try
+        {
+          Thread.sleep (50);
+        }
+        catch (InterruptedException anException)
+        {
+        } // catch
+        m_theSignalQ.insertItem ("signal");
+      } // run
+    };
+    long theStart = System.currentTimeMillis ();
+
+    theProducer.start ();
+    assertEquals ("signal", 1, m_theSelector.select (m_theWaitTime));
+    assertTrue ("woken", System.currentTimeMillis () - theStart < m_theWaitTime);
+    assertTrue ("parked", m_theSelector.getParkCount () > 0);
+    assertEquals ("item", "signal", m_theSignalQ.waitItem (0));
+    theProducer.join ();
+  } // testWakeup
+
+  /**
+   * Test that the work done queue of a ThreadIt can be selected on and that
+   * the signal queue keeps no count of its own beyond its items.
+   */
+  @Test
+  public void testWorkDoneQ () throws Exception
+  {
+    QueueSelector theSelector = null;
+
+    m_theImplA = new ThreadItA ("SelectorA", new TestResultQ ());
+    theSelector = new QueueSelector (m_theSignalQ, m_theImplA.getWorkDoneQ ());
+    new ThreadItMessage (ComponentA.FUNCTION_A).sendTo (m_theImplA);
+    assertEquals ("work done", 1, theSelector.select (m_theWaitTime));
+    assertNotNull ("reply", m_theImplA.getWork (0));
+    theSelector.close ();
+    for (int i = 0; i < 3; i++)
+    {
+      m_theSignalQ.insertItem (i);
+    } // for
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals ("item", i, m_theSignalQ.getItem ());
+    } // for
+    assertEquals ("depth", 0, m_theSignalQ.getDepth ());
+    assertTrue ("empty", m_theSignalQ.isEmpty ());
+  } // testWorkDoneQ
+
+} // class QueueSelectorTest
@@ -0,0 +1,224 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.RetryPolicy;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class RetryPolicyTest is the junit test suite for the retry of failed
+ * work and the dead letter queue.
+ */
+public class RetryPolicyTest
+{
+  protected static final int FLAKY = 1;
+  protected static final int FAIL = 2;
+  protected static final int WORK = 3;
+
+  protected Worker m_theWorker = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Worker has a method that fails until it has been called a number
+   * of times, one that always fails and one that never does.
+   */
+  public static class Worker extends ThreadIt
+  {
+    private int m_theFlakyCount = 0;
+
+    public Worker (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("flaky", FLAKY);
+      setWorkerMethod ("fail", FAIL);
+      setWorkerMethod ("work", WORK);
+    } // Worker
+
+    public WorkPackIt flaky (WorkPackIt theWorkPack)
+    {
+      m_theFlakyCount++;
+      if (m_theFlakyCount < 3)
+      {
+        throw new IllegalStateException ("attempt " + m_theFlakyCount);
+      } // if
+      theWorkPack.m_Object = m_theFlakyCount;
+      return theWorkPack;
+    } // flaky
+
+    public WorkPackIt fail (WorkPackIt theWorkPack)
+    {
+      throw new IllegalStateException ("always");
+    } // fail
+
+    public WorkPackIt work (WorkPackIt theWorkPack)
+    {
+      return theWorkPack;
+    } // work
+  } // class Worker
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theWorker = new Worker ("RetryWorker");
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    m_theWorker.stopThread ();
+    m_theWorker.waitForThreadToStop (1000);
+  } // tearDown
+
+  /**
+   * Method send sends work for theInstruction that asks for a reply.
+   */
+  private void send (int theInstruction)
+  {
+    WorkPackIt theWork = new WorkPackIt ();
+
+    theWork.setWorkInstruction (theInstruction);
+    theWork.m_SendResult = true;
+    m_theWorker.startWork (theWork);
+  } // send
+
+  /**
+   * Test that the backoff doubles up to its maximum and that the jitter
+   * only shortens it.
+   */
+  @Test
+  public void testBackoff ()
+  {
+    RetryPolicy thePolicy = new RetryPolicy (4, 10, 50, 0);
+    RetryPolicy theJittered = new RetryPolicy (4, 100, 100, 0.5);
+
+    assertEquals ("first", 10, thePolicy.getBackoff (0));
+    assertEquals ("second", 20, thePolicy.getBackoff (1));
+    assertEquals ("third", 40, thePolicy.getBackoff (2));
+    assertEquals ("maximum", 50, thePolicy.getBackoff (3));
+    assertTrue ("allowed", thePolicy.isRetryAllowed (2));
+    assertTrue ("used up", !thePolicy.isRetryAllowed (3));
+    for (int i = 0; i < 20; i++)
+    {
+      long theBackoff = theJittered.getBackoff (i);
+      assertTrue ("jitter", (theBackoff > 50) && (theBackoff <= 100));
+    } // for
+  } // testBackoff
+
+  /**
+   * Test that failed work is retried until it succeeds and that only the
+   * final reply is sent.
+   */
+  @Test
+  public void testRetry ()
+  {
+    WorkPackIt theReply = null;
+
+    m_theWorker.setRetryPolicy (FLAKY, new RetryPolicy (3, 5, 20, 0.5));
+    send (FLAKY);
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertNotNull ("reply", theReply);
+    assertEquals ("result", 3, theReply.m_Object);
+    assertEquals ("no failure", null, theReply.m_Failure);
+    assertEquals ("retries", 2, theReply.m_RetryCount);
+    assertEquals ("failures", 2, m_theWorker.getFailureCount (FLAKY));
+    assertEquals ("retry count", 2, m_theWorker.getRetryCount (FLAKY));
+    assertEquals ("dead letters", 0, m_theWorker.getDeadLetterCount (FLAKY));
+    assertEquals ("pending", 0, m_theWorker.getPendingRetryCount ());
+  } // testRetry
+
+  /**
+   * Test that work that has used its attempts is dead lettered and its
+   * reply carries the failure.
+   */
+  @Test
+  public void testDeadLetter ()
+  {
+    WorkPackIt theReply = null;
+    WorkPackIt theDeadLetter = null;
+
+    m_theWorker.setRetryPolicy (FAIL, new RetryPolicy (2, 5, 5, 0));
+    send (FAIL);
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertNotNull ("reply", theReply);
+    assertEquals ("status", ThreadIt.THREADIT_NO_RESULT, theReply.m_Status);
+    assertTrue ("cause", theReply.m_Failure instanceof IllegalStateException);
+    theDeadLetter = (WorkPackIt) m_theWorker.getDeadLetterQ ().waitItem (m_theWaitTime);
+    assertNotNull ("dead letter", theDeadLetter);
+    assertEquals ("instruction", FAIL, theDeadLetter.getWorkInstruction ());
+    assertSame ("dead letter cause", theReply.m_Failure, theDeadLetter.m_Failure);
+    assertEquals ("failures", 2, m_theWorker.getFailureCount (FAIL));
+    assertEquals ("dead letters", 1, m_theWorker.getDeadLetterCount (FAIL));
+  } // testDeadLetter
+
+  /**
+   * Test that the failure is recorded on the reply of an instruction with
+   * no retry policy.
+   */
+  @Test
+  public void testNoPolicy ()
+  {
+    WorkPackIt theReply = null;
+
+    send (FAIL);
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertNotNull ("reply", theReply);
+    assertEquals ("message", "always", theReply.m_Failure.getMessage ());
+    assertEquals ("failures", 1, m_theWorker.getFailureCount (FAIL));
+    assertEquals ("retries", 0, m_theWorker.getRetryCount (FAIL));
+    assertEquals ("dead letters", 0, m_theWorker.getDeadLetterQ ().getDepth ());
+  } // testNoPolicy
+
+  /**
+   * Test that other work is done while failed work waits for its retry.
+   */
+  @Test
+  public void testBackoffDoesNotBlock ()
+  {
+    WorkPackIt theReply = null;
+    long theStart = 0;
+
+    m_theWorker.setRetryPolicy (FAIL, new RetryPolicy (2, 500, 500, 0));
+    send (FAIL);
+    send (WORK);
+    theStart = System.currentTimeMillis ();
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertEquals ("work first", WORK, theReply.getWorkInstruction ());
+    assertTrue ("not blocked", System.currentTimeMillis () - theStart < 400);
+    assertEquals ("pending", 1, m_theWorker.getPendingRetryCount ());
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertEquals ("retried", FAIL, theReply.getWorkInstruction ());
+    assertTrue ("backoff", System.currentTimeMillis () - theStart >= 450);
+  } // testBackoffDoesNotBlock
+
+} // class RetryPolicyTest
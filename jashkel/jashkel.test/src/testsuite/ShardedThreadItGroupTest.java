@@ -0,0 +1,210 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.group.KeyExtractor;
+import au.com.ashkel.javalib.group.ShardedThreadItGroup;
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ShardedThreadItGroupTest is the junit test suite for groups that
+ * send work to a shard by key.
+ */
+public class ShardedThreadItGroupTest
+{
+  protected static final int RECORD = 0;
+
+  protected ShardedThreadItGroup m_theGroup = null;
+  protected ProtectedQueue m_theReplyQ = new ProtectedQueue ();
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Keyed is the payload of the test work: a key and its sequence.
+   */
+  public static class Keyed
+  {
+    protected final String m_theKey;
+    protected final int m_theSequence;
+    protected ThreadIt m_thePerformer = null;
+
+    public Keyed (String theKey, int theSequence)
+    {
+      m_theKey = theKey;
+      m_theSequence = theSequence;
+    } // Keyed
+  } // class Keyed
+
+  /**
+   * Class Recorder notes the shard that performed the work.
+   */
+  public static class Recorder extends ThreadIt
+  {
+    public Recorder (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("record", RECORD);
+    } // Recorder
+
+    public WorkPackIt record (WorkPackIt theWorkPack)
+    {
+      ((Keyed) theWorkPack.m_Object).m_thePerformer = this;
+      return null;
+    } // record
+  } // class Recorder
+
+  /**
+   * Class RecorderFactory creates the shards of the group.
+   */
+  public static class RecorderFactory implements ThreadItFactory
+  {
+    public ThreadIt newThreadIt (String theThreadName) throws IOException
+    {
+      return new Recorder (theThreadName);
+    } // newThreadIt
+  } // class RecorderFactory
+
+  /**
+   * Class KeyedExtractor returns the key of the payload.
+   */
+  public static class KeyedExtractor implements KeyExtractor
+  {
+    public Object getKey (WorkPackIt theWorkPack)
+    {
+      return ((Keyed) theWorkPack.m_Object).m_theKey;
+    } // getKey
+  } // class KeyedExtractor
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theGroup != null)
+    {
+      m_theGroup.stopGroup (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Method send sends the work for theKey with theSequence to the group.
+   */
+  private void send (String theKey, int theSequence)
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.setWorkInstruction (RECORD);
+    theWorkPack.m_Object = new Keyed (theKey, theSequence);
+    theWorkPack.m_SendResult = true;
+    theWorkPack.m_UseDefaultQ = false;
+    theWorkPack.m_WorkDoneQ = m_theReplyQ;
+    m_theGroup.startWork (theWorkPack);
+  } // send
+
+  /**
+   * Test that the work for a key is performed in order by a single shard
+   * and that the keys are spread over the shards.
+   */
+  @Test
+  public void testOrdering () throws Exception
+  {
+    Map<String, ThreadIt> thePerformers = new HashMap<String, ThreadIt> ();
+    Map<String, Integer> theSequences = new HashMap<String, Integer> ();
+    int theKeyCount = 64;
+    int theRounds = 20;
+    int theUsed = 0;
+
+    m_theGroup = new ShardedThreadItGroup ("Sharded", new RecorderFactory (), 4, new KeyedExtractor ());
+    for (int i = 0; i < theRounds; i++)
+    {
+      for (int j = 0; j < theKeyCount; j++)
+      {
+        send ("key" + j, i);
+      } // for
+    } // for
+    for (int i = 0; i < theRounds * theKeyCount; i++)
+    {
+      WorkPackIt theWorkDone = (WorkPackIt) m_theReplyQ.waitItem (m_theWaitTime);
+      assertNotNull ("reply " + i, theWorkDone);
+      Keyed theKeyed = (Keyed) theWorkDone.m_Object;
+      ThreadIt thePerformer = thePerformers.get (theKeyed.m_theKey);
+      Integer theLast = theSequences.get (theKeyed.m_theKey);
+      if (thePerformer == null)
+      {
+        thePerformers.put (theKeyed.m_theKey, theKeyed.m_thePerformer);
+      }
+      else
+      {
+        assertTrue ("shard of " + theKeyed.m_theKey, thePerformer == theKeyed.m_thePerformer);
+      } // if
+      assertEquals ("order of " + theKeyed.m_theKey, (theLast == null) ? 0 : theLast.intValue () + 1, theKeyed.m_theSequence);
+      theSequences.put (theKeyed.m_theKey, Integer.valueOf (theKeyed.m_theSequence));
+    } // for
+    long[] theCounts = m_theGroup.getShardCounts ();
+    for (int i = 0; i < theCounts.length; i++)
+    {
+      theUsed += (theCounts[i] > 0) ? 1 : 0;
+    } // for
+    assertEquals ("shards used", 4, theUsed);
+    assertTrue ("skew", m_theGroup.getSkew () < 2.0);
+    assertEquals ("fixed shard", m_theGroup.getShard ("key7"), m_theGroup.getShard (new String ("key7")));
+  } // testOrdering
+
+  /**
+   * Test that a hot key is reported along with the skew it causes.
+   */
+  @Test
+  public void testHotKey () throws Exception
+  {
+    List<ShardedThreadItGroup.HotKey> theHotKeys = null;
+    int theCount = 1600;
+
+    m_theGroup = new ShardedThreadItGroup ("Skewed", new RecorderFactory (), 4, new KeyedExtractor ());
+    for (int i = 0; i < theCount; i++)
+    {
+      send (((i % 10) < 7) ? "hot" : "key" + i, i);
+    } // for
+    for (int i = 0; i < theCount; i++)
+    {
+      assertNotNull ("reply " + i, m_theReplyQ.waitItem (m_theWaitTime));
+    } // for
+    theHotKeys = m_theGroup.getHotKeys (3);
+    assertEquals ("hot key", "hot", theHotKeys.get (0).getKey ());
+    assertEquals ("hot shard", m_theGroup.getShard ("hot"), theHotKeys.get (0).getShard ());
+    assertTrue ("share", theHotKeys.get (0).getCount () > m_theGroup.getSampleCount () / 2);
+    assertTrue ("skew", m_theGroup.getSkew () > 2.0);
+    assertTrue ("report", m_theGroup.getReport ().contains ("key hot"));
+  } // testHotKey
+
+} // class ShardedThreadItGroupTest
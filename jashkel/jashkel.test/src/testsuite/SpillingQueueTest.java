@@ -0,0 +1,220 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.SpillingQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.TypedWorkerMethod;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class SpillingQueueTest is the junit test suite for the work queue that
+ * spills its tail to segment files.
+ */
+public class SpillingQueueTest
+{
+  protected File m_theDirectory = null;
+  protected SpillingQueue m_theQ = null;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theDirectory = Files.createTempDirectory ("spill").toFile ();
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theQ != null)
+    {
+      m_theQ.close ();
+    } // if
+    for (File theFile : m_theDirectory.listFiles ())
+    {
+      theFile.delete ();
+    } // for
+    m_theDirectory.delete ();
+  } // tearDown
+
+  /**
+   * Method newWork returns a work package for theInstruction with theObject.
+   */
+  private WorkPackIt newWork (int theInstruction, Object theObject)
+  {
+    WorkPackIt theWork = new WorkPackIt ();
+
+    theWork.setWorkInstruction (theInstruction);
+    theWork.m_Object = theObject;
+    return theWork;
+  } // newWork
+
+  /**
+   * Method checkOrder takes theCount work packages and checks that their
+   * objects count up from theFirst.
+   */
+  private void checkOrder (int theFirst, int theCount)
+  {
+    for (int i = theFirst; i < theFirst + theCount; i++)
+    {
+      assertEquals ("order", i, ((WorkPackIt) m_theQ.pollItem ()).m_Object);
+    } // for
+  } // checkOrder
+
+  /**
+   * Test that work beyond the item threshold is spilled and read back in
+   * order, and that the segment files are deleted once read.
+   */
+  @Test
+  public void testItemThreshold ()
+  {
+    int theSegmentCount = 0;
+
+    m_theQ = new SpillingQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 5, 0, 256);
+    for (int i = 0; i < 40; i++)
+    {
+      m_theQ.insertItem (newWork (1, i));
+    } // for
+    assertEquals ("memory", 5, m_theQ.getMemoryCount ());
+    assertEquals ("spilled", 35, m_theQ.getSpilledCount ());
+    assertEquals ("size", 40, m_theQ.size ());
+    assertTrue ("segments", m_theQ.getSegmentCount () > 1);
+    theSegmentCount = m_theQ.getSegmentCount ();
+    assertEquals ("files", theSegmentCount, m_theDirectory.listFiles ().length);
+    checkOrder (0, 20);
+    assertTrue ("deleted", m_theDirectory.listFiles ().length < theSegmentCount);
+    checkOrder (20, 20);
+    assertNull ("empty", m_theQ.pollItem ());
+    assertEquals ("files", 0, m_theDirectory.listFiles ().length);
+    // Once caught up, work is held in memory again.
+    m_theQ.insertItem (newWork (1, 40));
+    assertEquals ("memory again", 1, m_theQ.getMemoryCount ());
+  } // testItemThreshold
+
+  /**
+   * Test that the byte threshold spills once the records in memory would
+   * take more than it.
+   */
+  @Test
+  public void testByteThreshold ()
+  {
+    m_theQ = new SpillingQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 1000, 170, 4096);
+    for (int i = 0; i < 10; i++)
+    {
+      m_theQ.insertItem (newWork (1, i));
+    } // for
+    assertEquals ("memory", 3, m_theQ.getMemoryCount ());
+    checkOrder (0, 10);
+  } // testByteThreshold
+
+  /**
+   * Test that items that cannot be recorded keep their place among the
+   * spilled work, and that priority items are taken first.
+   */
+  @Test
+  public void testReferences ()
+  {
+    WorkPackIt theKeyed = newWork (2, 99);
+    WorkPackIt thePriority = newWork (3, null);
+
+    m_theQ = new SpillingQueue (m_theDirectory, new OffHeapQueueTest.IntegerCodec (), 1);
+    theKeyed.m_theConflationKey = "key";
+    m_theQ.insertItem (newWork (1, 0));
+    m_theQ.insertItem (newWork (1, 1));
+    m_theQ.insertItem (theKeyed);
+    m_theQ.insertItem (newWork (1, 2));
+    m_theQ.insertPriorityItem (thePriority);
+    assertSame ("priority", thePriority, m_theQ.pollItem ());
+    checkOrder (0, 2);
+    assertSame ("reference", theKeyed, m_theQ.pollItem ());
+    checkOrder (2, 1);
+  } // testReferences
+
+  /**
+   * Test that work is held on the heap in order if it cannot be spilled.
+   */
+  @Test
+  public void testSpillFailure ()
+  {
+    m_theQ = new SpillingQueue (new File (m_theDirectory, "missing"), new OffHeapQueueTest.IntegerCodec (), 2);
+    for (int i = 0; i < 5; i++)
+    {
+      m_theQ.insertItem (newWork (1, i));
+    } // for
+    assertEquals ("spilled", 0, m_theQ.getSpilledCount ());
+    assertEquals ("memory", 5, m_theQ.getMemoryCount ());
+    checkOrder (0, 5);
+  } // testSpillFailure
+
+  /**
+   * Test that the control work of a ThreadIt stopped while work is spilled
+   * is not spilled, so that only real work is drained.
+   */
+  @Test
+  public void testDrainAfterStop () throws Exception
+  {
+    final Semaphore theEntered = new Semaphore (0);
+    final Semaphore theGate = new Semaphore (0);
+    ThreadIt theWorker = new ThreadIt ("SpillingDrain");
+    List<WorkPackIt> theWork = null;
+
+    theWorker.setWorkerMethod (1, Void.class, new TypedWorkerMethod<Void, Object> ()
+    {
+      public Object doWork (Void theInput, WorkPackIt theWorkPack)
+      {
+        theEntered.release ();
+        theGate.acquireUninterruptibly ();
+        return null;
+      } // doWork
+    });
+    m_theQ = new SpillingQueue (m_theDirectory, null, 1);
+    theWorker.setWorkQ (m_theQ);
+    theWorker.startWork (newWork (1, null));
+    assertTrue ("entered", theEntered.tryAcquire (5000, TimeUnit.MILLISECONDS));
+    theWorker.startWork (newWork (2, null));
+    theWorker.startWork (newWork (3, null));
+    assertEquals ("spilled", 1, m_theQ.getSpilledCount ());
+    theWorker.stopThread ();
+    assertEquals ("spilled", 1, m_theQ.getSpilledCount ());
+    theGate.release ();
+    assertTrue ("stopped", theWorker.waitForThreadToStop (5000));
+    theWork = theWorker.drainWork ();
+    assertEquals ("drained", 2, theWork.size ());
+    assertEquals ("first", 2, theWork.get (0).getWorkInstruction ());
+    assertEquals ("second", 3, theWork.get (1).getWorkInstruction ());
+  } // testDrainAfterStop
+
+} // class SpillingQueueTest
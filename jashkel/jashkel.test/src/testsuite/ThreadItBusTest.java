@@ -0,0 +1,172 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.bus.ConflatingObserver;
+import au.com.ashkel.javalib.bus.ThreadItBus;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItNotification;
+import au.com.ashkel.javalib.threads.ThreadItObserver;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ThreadItBusTest is the junit test suite for the publish/subscribe
+ * bus between ThreadIts.
+ */
+public class ThreadItBusTest
+{
+  protected static final int ON_MESSAGE = 1;
+
+  protected ThreadItBus m_theBus = null;
+  protected Subscriber m_theSubscriberA = null;
+  protected Subscriber m_theSubscriberB = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Subscriber returns the notifications it receives in a queue. It
+   * can be held up to act as a slow subscriber.
+   */
+  public static class Subscriber extends ThreadIt
+  {
+    protected ProtectedQueue m_theReceived = new ProtectedQueue ();
+    protected Semaphore m_theGate = null;
+
+    public Subscriber (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("onMessage", ON_MESSAGE);
+    } // Subscriber
+
+    public WorkPackIt onMessage (WorkPackIt theWorkPack)
+    {
+      if (m_theGate != null)
+      {
+        m_theGate.acquireUninterruptibly ();
+        m_theGate.release ();
+      } // if
+      ThreadItNotification theNotification = ThreadItBus.getNotification (theWorkPack);
+      if (theNotification != null)
+      {
+        m_theReceived.insertItem (theNotification);
+      } // if
+      return theWorkPack;
+    } // onMessage
+
+    public ThreadItNotification waitReceived (long theWaitTime)
+    {
+      return (ThreadItNotification) m_theReceived.waitItem (theWaitTime);
+    } // waitReceived
+
+    public void stopIt ()
+    {
+      stopThread ();
+      waitForThreadToStop (1000);
+    } // stopIt
+  } // class Subscriber
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theBus = new ThreadItBus ();
+    m_theSubscriberA = new Subscriber ("SubscriberA");
+    m_theSubscriberB = new Subscriber ("SubscriberB");
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    m_theSubscriberA.stopIt ();
+    m_theSubscriberB.stopIt ();
+  } // tearDown
+
+  @Test
+  public void testPublishToSubscribers ()
+  {
+    ThreadItNotification theNotification = null;
+
+    m_theBus.subscribe ("prices", m_theSubscriberA, ON_MESSAGE);
+    m_theBus.subscribe ("prices", m_theSubscriberB, ON_MESSAGE);
+    m_theBus.subscribe ("orders", m_theSubscriberB, ON_MESSAGE);
+    assertEquals (2, m_theBus.getSubscriberCount ("prices"));
+    assertEquals (0, m_theBus.publish ("trades", "ignored"));
+    assertEquals (2, m_theBus.publish ("prices", "42"));
+    theNotification = m_theSubscriberA.waitReceived (m_theWaitTime);
+    assertNotNull (theNotification);
+    assertEquals ("prices", theNotification.getTopic ());
+    assertEquals ("42", theNotification.getData ());
+    assertEquals ("42", m_theSubscriberB.waitReceived (m_theWaitTime).getData ());
+    assertNull (m_theSubscriberA.waitReceived (100));
+    assertNull (m_theSubscriberB.waitReceived (100));
+  } // testPublishToSubscribers
+
+  @Test
+  public void testUnsubscribe ()
+  {
+    ThreadItObserver theSubscription = m_theBus.subscribe ("prices", m_theSubscriberA, ON_MESSAGE);
+
+    m_theBus.subscribe ("prices", m_theSubscriberB, ON_MESSAGE);
+    m_theBus.subscribe ("orders", m_theSubscriberB, ON_MESSAGE);
+    m_theBus.unsubscribe ("prices", theSubscription);
+    assertEquals (1, m_theBus.getSubscriberCount ("prices"));
+    m_theBus.unsubscribe (m_theSubscriberB);
+    assertEquals (0, m_theBus.getSubscriberCount ("prices"));
+    assertEquals (0, m_theBus.getSubscriberCount ("orders"));
+    assertEquals (0, m_theBus.publish ("prices", "42"));
+  } // testUnsubscribe
+
+  @Test
+  public void testConflatedSubscriberSeesLatest ()
+  {
+    ThreadItNotification theNotification = null;
+    ConflatingObserver theSubscription = null;
+    int theCount = 100;
+
+    m_theSubscriberA.m_theGate = new Semaphore (0);
+    theSubscription = (ConflatingObserver) m_theBus.subscribe ("prices", m_theSubscriberA, ON_MESSAGE, true);
+    for (int i = 0; i < theCount; i++)
+    {
+      m_theBus.publish ("prices", Integer.valueOf (i));
+    } // for
+    // At most one message is queued for the held up subscriber.
+    assertTrue (m_theSubscriberA.getWorkQ ().size () <= 1);
+    m_theSubscriberA.m_theGate.release ();
+    theNotification = m_theSubscriberA.waitReceived (m_theWaitTime);
+    assertNotNull (theNotification);
+    assertEquals (Integer.valueOf (theCount - 1), theNotification.getData ());
+    assertNull (m_theSubscriberA.waitReceived (100));
+    assertEquals (theCount - 1, theSubscription.getConflatedCount ());
+  } // testConflatedSubscriberSeesLatest
+
+} // class ThreadItBusTest
@@ -0,0 +1,133 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.metrics.LatencyHistogram;
+import au.com.ashkel.javalib.threads.TestResultQ;
+import au.com.ashkel.javalib.threads.ThreadItMessage;
+import au.com.ashkel.javalib.threads.ThreadItMetrics;
+
+/**
+ * Class ThreadItMetricsTest is the junit test suite for the latency
+ * histograms and queue metrics kept by ThreadIt.
+ */
+public class ThreadItMetricsTest
+{
+  /** MESSAGE_COUNT is the number of messages sent in each test. */
+  static final public int MESSAGE_COUNT = 20;
+
+  protected ThreadItA m_theImplA = null;
+  protected TestResultQ m_theResultQ = new TestResultQ ();
+  protected long m_theWaitTime = 5000;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theImplA = new ThreadItA ("MetricsA", m_theResultQ);
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theImplA != null)
+    {
+      m_theImplA.stopIt ();
+    } // if
+  } // tearDown
+
+  /**
+   * Test that the histogram reports percentiles to within its bucket
+   * precision and that reset discards earlier values.
+   */
+  @Test
+  public void testHistogram ()
+  {
+    LatencyHistogram theHistogram = new LatencyHistogram ();
+    LatencyHistogram.Snapshot theSnapshot = null;
+
+    for (long i = 1; i <= 1000; i++)
+    {
+      theHistogram.record (i * 1000);
+    } // for
+    theSnapshot = theHistogram.snapshot ();
+    assertEquals ("count", 1000, theSnapshot.getCount ());
+    assertTrue ("p50 low", theSnapshot.getPercentile (50) >= 500000);
+    assertTrue ("p50 high", theSnapshot.getPercentile (50) <= 500000 * 17 / 16);
+    assertTrue ("p99 low", theSnapshot.getPercentile (99) >= 990000);
+    assertTrue ("p99 high", theSnapshot.getPercentile (99) <= 990000 * 17 / 16);
+    assertTrue ("max", theSnapshot.getMax () >= 1000000);
+    assertEquals ("mean", 500500.0, theSnapshot.getMean (), 0.1);
+    theSnapshot = theHistogram.snapshotAndReset ();
+    assertEquals ("count", 1000, theSnapshot.getCount ());
+    assertEquals ("reset", 0, theHistogram.snapshot ().getCount ());
+    theHistogram.record (7);
+    assertEquals ("after reset", 1, theHistogram.snapshot ().getCount ());
+  } // testHistogram
+
+  /**
+   * Test that the work performed by a ThreadIt is recorded per instruction
+   * and in the queue statistics.
+   */
+  @Test
+  public void testThreadItMetrics () throws Exception
+  {
+    ThreadItMetrics.Snapshot theSnapshot = null;
+
+    for (int i = 0; i < MESSAGE_COUNT; i++)
+    {
+      new ThreadItMessage (ComponentA.FUNCTION_A).sendTo (m_theImplA);
+    } // for
+    for (int i = 0; i < MESSAGE_COUNT; i++)
+    {
+      assertNotNull ("reply", m_theImplA.getWork (m_theWaitTime));
+    } // for
+    // The metrics are recorded just after the reply is sent.
+    for (int i = 0; (i < 100) && (m_theImplA.getMetrics ().getEndToEndTime (ComponentA.FUNCTION_A).snapshot ().getCount () < MESSAGE_COUNT); i++)
+    {
+      Thread.sleep (10);
+    } // for
+    theSnapshot = m_theImplA.getMetrics ().snapshot (true);
+    assertEquals ("service", MESSAGE_COUNT, theSnapshot.getServiceTime (ComponentA.FUNCTION_A).getCount ());
+    assertEquals ("wait", MESSAGE_COUNT, theSnapshot.getWaitTime (ComponentA.FUNCTION_A).getCount ());
+    assertEquals ("end-to-end", MESSAGE_COUNT, theSnapshot.getEndToEndTime (ComponentA.FUNCTION_A).getCount ());
+    assertEquals ("unused", 0, theSnapshot.getServiceTime (ComponentA.FUNCTION_B).getCount ());
+    assertNull ("unregistered", theSnapshot.getServiceTime (ComponentA.FUNCTION_B + 1));
+    assertTrue ("enqueued", theSnapshot.getWorkQStats ().getEnqueueCount () >= MESSAGE_COUNT);
+    assertEquals ("replies", MESSAGE_COUNT, theSnapshot.getDoneQStats ().getEnqueueCount ());
+    assertEquals ("collected", MESSAGE_COUNT, theSnapshot.getDoneQStats ().getDequeueCount ());
+    assertTrue ("high water", theSnapshot.getDoneQStats ().getHighWaterMark () >= 1);
+    // The snapshot reset the metrics.
+    theSnapshot = m_theImplA.getMetrics ().snapshot (false);
+    assertEquals ("reset", 0, theSnapshot.getServiceTime (ComponentA.FUNCTION_A).getCount ());
+    assertEquals ("reset replies", 0, theSnapshot.getDoneQStats ().getEnqueueCount ());
+  } // testThreadItMetrics
+
+} // class ThreadItMetricsTest
@@ -0,0 +1,209 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItNotification;
+import au.com.ashkel.javalib.threads.ThreadItNotifier;
+import au.com.ashkel.javalib.threads.ThreadItObserver;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ThreadItNotifierTest is the junit test suite for the notifier and
+ * observers used to send notifications to ThreadIts.
+ */
+public class ThreadItNotifierTest
+{
+  protected static final int ON_NOTIFY = 1;
+
+  protected NotifiedThreadIt m_theObserverA = null;
+  protected NotifiedThreadIt m_theObserverB = null;
+  protected ThreadItNotifier m_theNotifier = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class NotifiedThreadIt returns the object of each notification it
+   * receives in a queue.
+   */
+  public static class NotifiedThreadIt extends ThreadIt
+  {
+    protected ProtectedQueue m_theReceived = new ProtectedQueue ();
+
+    public NotifiedThreadIt (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("onNotify", ON_NOTIFY);
+    } // NotifiedThreadIt
+
+    public WorkPackIt onNotify (WorkPackIt theWorkPack)
+    {
+      m_theReceived.insertItem ((theWorkPack.m_Object == null) ? "none" : theWorkPack.m_Object);
+      return theWorkPack;
+    } // onNotify
+
+    public Object waitReceived (long theWaitTime)
+    {
+      return m_theReceived.waitItem (theWaitTime);
+    } // waitReceived
+
+    public void stopIt ()
+    {
+      stopThread ();
+      waitForThreadToStop (1000);
+    } // stopIt
+  } // class NotifiedThreadIt
+
+  /**
+   * Class ExpiringObserver is an observer whose target can be made to
+   * expire without waiting for the garbage collector.
+   */
+  public static class ExpiringObserver extends ThreadItObserver
+  {
+    protected volatile boolean m_isExpired = false;
+
+    public ExpiringObserver (ThreadIt ptheThreadIt, int theWorkInstruction)
+    {
+      super (ptheThreadIt, theWorkInstruction);
+    } // ExpiringObserver
+
+    public ThreadIt getTarget ()
+    {
+      return m_isExpired ? null : super.getTarget ();
+    } // getTarget
+  } // class ExpiringObserver
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theObserverA = new NotifiedThreadIt ("NotifiedA");
+    m_theObserverB = new NotifiedThreadIt ("NotifiedB");
+    m_theNotifier = new ThreadItNotifier ();
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    m_theObserverA.stopIt ();
+    m_theObserverB.stopIt ();
+  } // tearDown
+
+  @Test
+  public void testAttachDetach ()
+  {
+    ThreadItObserver theObserver = new ThreadItObserver (m_theObserverA, ON_NOTIFY);
+
+    m_theNotifier.attach (theObserver);
+    m_theNotifier.attach (theObserver);
+    assertEquals (1, m_theNotifier.getNumberOfObservers ());
+    m_theNotifier.attach (m_theObserverB, ON_NOTIFY);
+    assertEquals (2, m_theNotifier.getNumberOfObservers ());
+    m_theNotifier.detach (theObserver);
+    assertEquals (1, m_theNotifier.getNumberOfObservers ());
+    assertSame (m_theObserverB, m_theNotifier.getObservers ()[0].getTarget ());
+    m_theNotifier.removeObservers ();
+    assertEquals (0, m_theNotifier.getNumberOfObservers ());
+  } // testAttachDetach
+
+  @Test
+  public void testDoNotify ()
+  {
+    m_theNotifier.attach (m_theObserverA, ON_NOTIFY);
+    m_theNotifier.attach (m_theObserverB, ON_NOTIFY);
+    assertEquals (2, m_theNotifier.doNotify ());
+    assertEquals ("none", m_theObserverA.waitReceived (m_theWaitTime));
+    assertEquals ("none", m_theObserverB.waitReceived (m_theWaitTime));
+  } // testDoNotify
+
+  @Test
+  public void testMulticastSharesNotification ()
+  {
+    Object theNotificationA = null;
+    Object theNotificationB = null;
+
+    m_theNotifier.attach (m_theObserverA, ON_NOTIFY);
+    m_theNotifier.attach (m_theObserverB, ON_NOTIFY);
+    assertEquals (2, m_theNotifier.multicast ("update"));
+    theNotificationA = m_theObserverA.waitReceived (m_theWaitTime);
+    theNotificationB = m_theObserverB.waitReceived (m_theWaitTime);
+    assertNotNull (theNotificationA);
+    assertSame (theNotificationA, theNotificationB);
+    assertEquals ("update", ((ThreadItNotification) theNotificationA).getData ());
+    assertEquals (1, ((ThreadItNotification) theNotificationA).getSequence ());
+  } // testMulticastSharesNotification
+
+  @Test
+  public void testExpiredObserversPruned ()
+  {
+    ExpiringObserver theObserver = new ExpiringObserver (m_theObserverA, ON_NOTIFY);
+
+    m_theNotifier.attach (theObserver);
+    m_theNotifier.attach (m_theObserverB, ON_NOTIFY);
+    theObserver.m_isExpired = true;
+    assertEquals (1, m_theNotifier.multicast ("update"));
+    assertEquals (1, m_theNotifier.getNumberOfObservers ());
+    assertNotNull (m_theObserverB.waitReceived (m_theWaitTime));
+    assertNull (m_theObserverA.waitReceived (100));
+  } // testExpiredObserversPruned
+
+  @Test
+  public void testAttachWhileNotifying () throws Exception
+  {
+    final int theCount = 1000;
+    Thread theAttacher = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        for (int i = 0; i < theCount; i++)
+        {
+          ThreadItObserver theObserver = m_theNotifier.attach (m_theObserverB, ON_NOTIFY);
+          m_theNotifier.detach (theObserver);
+        } // for
+      } // run
+    });
+
+    m_theNotifier.attach (m_theObserverA, ON_NOTIFY);
+    theAttacher.start ();
+    for (int i = 0; i < theCount; i++)
+    {
+      m_theNotifier.multicast (Integer.valueOf (i));
+    } // for
+    theAttacher.join ();
+    assertEquals (1, m_theNotifier.getNumberOfObservers ());
+    for (int i = 0; i < theCount; i++)
+    {
+      assertEquals (Integer.valueOf (i), ((ThreadItNotification) m_theObserverA.waitReceived (m_theWaitTime)).getData ());
+    } // for
+  } // testAttachWhileNotifying
+
+} // class ThreadItNotifierTest
@@ -0,0 +1,116 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.management.ThreadItRegistry;
+import au.com.ashkel.javalib.threads.TestResultQ;
+import au.com.ashkel.javalib.threads.ThreadIt;
+
+/**
+ * Class ThreadItRegistryTest is the junit test suite for the registry of
+ * ThreadIt instances and their JMX management interface.
+ */
+public class ThreadItRegistryTest
+{
+  protected ThreadItA m_theImplA = null;
+  protected TestResultQ m_theResultQ = new TestResultQ ();
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theImplA = new ThreadItA ("RegistryA", m_theResultQ);
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theImplA != null)
+    {
+      m_theImplA.stopIt ();
+    } // if
+  } // tearDown
+
+  /**
+   * Test that a ThreadIt is registered and published when it is created.
+   */
+  @Test
+  public void testRegistered () throws Exception
+  {
+    MBeanServer theServer = ManagementFactory.getPlatformMBeanServer ();
+    ObjectName theName = ThreadItRegistry.getObjectName (m_theImplA);
+
+    assertTrue ("registered", ThreadItRegistry.getThreadIts ().contains (m_theImplA));
+    assertNotNull ("published", theName);
+    assertEquals ("name", m_theImplA.getName (), theServer.getAttribute (theName, "Name"));
+    assertEquals ("work queue", 0L, theServer.getAttribute (theName, "WorkQSize"));
+    assertEquals ("idle", ThreadIt.THREADIT_IDLE_INSTRUCTION, theServer.getAttribute (theName, "CurrentInstruction"));
+  } // testRegistered
+
+  /**
+   * Test that the period is changed through JMX by the ThreadIt thread.
+   */
+  @Test
+  public void testSetPeriod () throws Exception
+  {
+    MBeanServer theServer = ManagementFactory.getPlatformMBeanServer ();
+    ObjectName theName = ThreadItRegistry.getObjectName (m_theImplA);
+
+    theServer.setAttribute (theName, new Attribute ("Period", 500L));
+    for (int i = 0; (i < 100) && (m_theImplA.getPeriod () != 500); i++)
+    {
+      Thread.sleep (10);
+    } // for
+    assertEquals ("period", 500L, theServer.getAttribute (theName, "Period"));
+  } // testSetPeriod
+
+  /**
+   * Test that a ThreadIt stopped through JMX leaves the registry.
+   */
+  @Test
+  public void testRequestStop () throws Exception
+  {
+    MBeanServer theServer = ManagementFactory.getPlatformMBeanServer ();
+    ObjectName theName = ThreadItRegistry.getObjectName (m_theImplA);
+
+    theServer.invoke (theName, "requestStop", null, null);
+    assertTrue ("stopped", m_theImplA.waitForThreadToStop (5000));
+    assertFalse ("unregistered", ThreadItRegistry.getThreadIts ().contains (m_theImplA));
+    assertFalse ("withdrawn", theServer.isRegistered (theName));
+    m_theImplA = null;
+  } // testRequestStop
+
+} // class ThreadItRegistryTest
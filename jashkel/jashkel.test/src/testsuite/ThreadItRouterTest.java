@@ -0,0 +1,237 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.TestResult;
+import au.com.ashkel.javalib.threads.TestResultQ;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItRouter;
+import au.com.ashkel.javalib.threads.ThreadItWorkTargets;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ThreadItRouterTest is the junit test suite for the route table and
+ * the router that forwards work packages between ThreadIts.
+ */
+public class ThreadItRouterTest
+{
+  protected static final int ROUTED_A = 100;
+
+  protected ThreadItA m_theImplA = null;
+  protected TestResultQ m_theResultQ = new TestResultQ ();
+  protected long m_theWaitTime = 5000;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theImplA = new ThreadItA ("RouterA", m_theResultQ);
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theImplA != null)
+    {
+      m_theImplA.stopIt ();
+    } // if
+  } // tearDown
+
+  /**
+   * Method newRequest returns a work package for theInstruction whose reply
+   * is placed in theReplyQ.
+   */
+  private WorkPackIt newRequest (int theInstruction, ProtectedQueue theReplyQ)
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.setWorkInstruction (theInstruction);
+    theWorkPack.m_SendResult = true;
+    theWorkPack.m_UseDefaultQ = false;
+    theWorkPack.m_WorkDoneQ = theReplyQ;
+    return theWorkPack;
+  } // newRequest
+
+  /**
+   * Test adding, finding and removing routes including keys that collide
+   * and negative keys.
+   */
+  @Test
+  public void testRouteTable ()
+  {
+    ThreadItWorkTargets theRoutes = new ThreadItWorkTargets (2);
+    int theCount = 1000;
+
+    for (int i = 0; i < theCount; i++)
+    {
+      theRoutes.setWorkTarget (i * 64L - 500, i, m_theImplA);
+    } // for
+    assertEquals ("size", theCount, theRoutes.size ());
+    for (int i = 0; i < theCount; i++)
+    {
+      assertEquals ("route " + i, i, theRoutes.getDestinationInstruction (i * 64L - 500));
+    } // for
+    // Remove every other route and check the rest are still found.
+    for (int i = 0; i < theCount; i += 2)
+    {
+      assertTrue ("removed " + i, theRoutes.removeWorkTarget (i * 64L - 500));
+    } // for
+    assertEquals ("size", theCount / 2, theRoutes.size ());
+    for (int i = 0; i < theCount; i++)
+    {
+      assertEquals ("route " + i, ((i % 2) == 0) ? -1 : i, theRoutes.getDestinationInstruction (i * 64L - 500));
+    } // for
+    assertFalse ("missing", theRoutes.removeWorkTarget (1));
+    assertNull ("destination", theRoutes.getDestination (1));
+    // Replacing a route keeps the size.
+    theRoutes.setWorkTarget (-436, 7, m_theImplA);
+    assertEquals ("replaced", 7, theRoutes.getDestinationInstruction (-436));
+    assertEquals ("size", theCount / 2, theRoutes.size ());
+  } // testRouteTable
+
+  /**
+   * Test that copies and combined tables are independent of the original.
+   */
+  @Test
+  public void testRouteTableCopy ()
+  {
+    ThreadItWorkTargets theRoutes = new ThreadItWorkTargets (1, 2, m_theImplA);
+    ThreadItWorkTargets theOther = new ThreadItWorkTargets (3, 4, m_theImplA);
+    ThreadItWorkTargets theCopy = new ThreadItWorkTargets (theRoutes);
+    ThreadItWorkTargets theBoth = theRoutes.plus (theOther);
+
+    theRoutes.reset ();
+    assertEquals ("reset", 0, theRoutes.size ());
+    assertEquals ("copy", 2, theCopy.getDestinationInstruction (1));
+    assertEquals ("both", 2, theBoth.size ());
+    assertEquals ("plus", 4, theBoth.getDestinationInstruction (3));
+    assertSame ("destination", m_theImplA, theBoth.getDestination (1));
+    theRoutes.setEqualTo (theBoth);
+    assertEquals ("equal", 2, theRoutes.size ());
+  } // testRouteTableCopy
+
+  /**
+   * Test that the router forwards a work package to its destination which
+   * replies to the requester, and counts work it has no route for.
+   */
+  @Test
+  public void testRoute ()
+  {
+    ThreadItRouter theRouter = new ThreadItRouter ();
+    ProtectedQueue theReplyQ = new ProtectedQueue ();
+    TestResult theResult = null;
+    WorkPackIt theWorkDone = null;
+
+    theRouter.setRoute (ROUTED_A, ComponentA.FUNCTION_A, m_theImplA);
+    assertTrue ("routed", theRouter.route (newRequest (ROUTED_A, theReplyQ)));
+    theResult = m_theResultQ.getResult (0, m_theWaitTime);
+    assertEquals ("result", true, theResult.isSuccess ());
+    theWorkDone = (WorkPackIt) theReplyQ.waitItem (m_theWaitTime);
+    assertNotNull ("reply", theWorkDone);
+    theRouter.removeRoute (ROUTED_A);
+    assertFalse ("unrouted", theRouter.route (newRequest (ROUTED_A, theReplyQ)));
+    assertEquals ("routed count", 1, theRouter.getRoutedCount ());
+    assertEquals ("unrouted count", 1, theRouter.getUnroutedCount ());
+  } // testRoute
+
+  /**
+   * Test that a ThreadIt forwards the work instructions it has no method
+   * for to the router set on it.
+   */
+  @Test
+  public void testThreadItRouter () throws Exception
+  {
+    ThreadItA theFront = new ThreadItA ("RouterFront", new TestResultQ ());
+    ThreadItRouter theRouter = new ThreadItRouter ();
+    ProtectedQueue theReplyQ = new ProtectedQueue ();
+    TestResult theResult = null;
+    WorkPackIt theWorkDone = null;
+
+    try
+    {
+      theRouter.setRoute (ROUTED_A, ComponentA.FUNCTION_B, m_theImplA);
+      theFront.setRouter (theRouter);
+      theFront.startWork (newRequest (ROUTED_A, theReplyQ));
+      theResult = m_theResultQ.getResult (0, m_theWaitTime);
+      assertEquals ("result", true, theResult.isSuccess ());
+      theWorkDone = (WorkPackIt) theReplyQ.waitItem (m_theWaitTime);
+      assertNotNull ("reply", theWorkDone);
+      assertSame ("replier", m_theImplA, theWorkDone.m_ptheSource);
+      // Work the front has no route for is rejected as before.
+      theFront.startWork (newRequest (ROUTED_A + 1, theReplyQ));
+      theWorkDone = (WorkPackIt) theReplyQ.waitItem (m_theWaitTime);
+      assertNotNull ("rejected", theWorkDone);
+      assertEquals ("status", ThreadIt.THREADIT_INVALID_INSTRUCTION, theWorkDone.m_Status);
+    } // try
+    finally
+    {
+      theFront.stopIt ();
+    } // finally
+  } // testThreadItRouter
+
+  /**
+   * Test that a reply to the default work done queue of a ThreadIt that
+   * forwards work reaches that ThreadIt with the identity it gave the work.
+   */
+  @Test
+  public void testDefaultQueueRoundTrip () throws Exception
+  {
+    ThreadItA theFront = new ThreadItA ("RouterDefault", new TestResultQ ());
+    ThreadItRouter theRouter = new ThreadItRouter ();
+    WorkPackIt theWorkPack = new WorkPackIt ();
+    WorkPackIt theWorkDone = null;
+    long theWorkPackID = 0;
+
+    try
+    {
+      theRouter.setRoute (ROUTED_A, ComponentA.FUNCTION_A, m_theImplA);
+      theFront.setRouter (theRouter);
+      // Give the destination a different identity to allocate.
+      m_theImplA.startWork (newRequest (ComponentA.FUNCTION_A, new ProtectedQueue ()));
+      m_theImplA.startWork (newRequest (ComponentA.FUNCTION_A, new ProtectedQueue ()));
+      theWorkPack.setWorkInstruction (ROUTED_A);
+      theWorkPack.m_SendResult = true;
+      theWorkPackID = theFront.startWork (theWorkPack);
+      theWorkDone = theFront.getWork (m_theWaitTime);
+      assertNotNull ("reply", theWorkDone);
+      assertEquals ("identity", theWorkPackID, theWorkDone.m_WorkPackID);
+      assertSame ("replier", m_theImplA, theWorkDone.m_ptheSource);
+      assertNull ("destination", m_theImplA.getWork (100));
+    } // try
+    finally
+    {
+      theFront.stopIt ();
+    } // finally
+  } // testDefaultQueueRoundTrip
+
+} // class ThreadItRouterTest
@@ -0,0 +1,208 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.TypedWorkerMethod;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+import au.com.ashkel.javalib.threads.WorkPackItTyped;
+
+/**
+ * Class TypedWorkerTest is the junit test suite for typed work packages and
+ * typed worker methods.
+ */
+public class TypedWorkerTest
+{
+  protected static final int LENGTH = 1;
+  protected static final int TICK = 2;
+  protected static final int CHECKED = 3;
+
+  protected Worker m_theWorker = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Worker registers typed workers that measure a string and count
+   * the ticks, which have no input, and a worker used through a raw type
+   * whose output is not of its output type.
+   */
+  public static class Worker extends ThreadIt
+  {
+    protected volatile int m_theCalls = 0;
+
+    @SuppressWarnings ({"unchecked", "rawtypes"})
+    public Worker (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod (LENGTH, String.class, new TypedWorkerMethod<String, Integer> ()
+      {
+        public Integer doWork (String theInput, WorkPackIt theWorkPack)
+        {
+          m_theCalls++;
+          return theInput.length ();
+        } // doWork
+      });
+      setWorkerMethod (TICK, Void.class, new TypedWorkerMethod<Void, Integer> ()
+      {
+        public Integer doWork (Void theInput, WorkPackIt theWorkPack)
+        {
+          return ++m_theCalls;
+        } // doWork
+      });
+      TypedWorkerMethod theRaw = new TypedWorkerMethod<String, String> ()
+      {
+        public String doWork (String theInput, WorkPackIt theWorkPack)
+        {
+          return theInput;
+        } // doWork
+      };
+      setWorkerMethod (CHECKED, String.class, Integer.class, theRaw);
+    } // Worker
+  } // class Worker
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theWorker = new Worker ("TypedWorker");
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    m_theWorker.stopThread ();
+    m_theWorker.waitForThreadToStop (1000);
+  } // tearDown
+
+  /**
+   * Test that a typed work package is its own reply and carries the output.
+   */
+  @Test
+  public void testTypedReply ()
+  {
+    WorkPackItTyped<String, Integer> theWork = new WorkPackItTyped<String, Integer> (LENGTH, "typed");
+    WorkPackIt theReply = null;
+
+    m_theWorker.startWork (theWork);
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertSame ("reply", theWork, theReply);
+    assertEquals ("status", ThreadIt.THREADIT_STATUS_OK, theWork.m_Status);
+    assertEquals ("input", "typed", theWork.getInput ());
+    assertEquals ("output", Integer.valueOf (5), theWork.getOutput ());
+  } // testTypedReply
+
+  /**
+   * Test that a typed worker answers a plain work package in m_Object.
+   */
+  @Test
+  public void testPlainWorkPack ()
+  {
+    WorkPackIt theWork = new WorkPackIt ();
+    WorkPackIt theReply = null;
+
+    theWork.setWorkInstruction (LENGTH);
+    theWork.m_Object = "plain";
+    theWork.m_SendResult = true;
+    m_theWorker.startWork (theWork);
+    theReply = m_theWorker.getWork (m_theWaitTime);
+    assertNotNull ("reply", theReply);
+    assertEquals ("output", Integer.valueOf (5), theReply.m_Object);
+  } // testPlainWorkPack
+
+  /**
+   * Test that work with an input of the wrong type or a missing input is
+   * not given to the worker.
+   */
+  @Test
+  public void testRejectedInput ()
+  {
+    WorkPackItTyped<Object, Integer> theWrongType = new WorkPackItTyped<Object, Integer> (LENGTH, 42);
+    WorkPackItTyped<Object, Integer> theMissing = new WorkPackItTyped<Object, Integer> (LENGTH, null);
+    WorkPackItTyped<Object, Integer> theUnexpected = new WorkPackItTyped<Object, Integer> (TICK, "data");
+
+    m_theWorker.startWork (theWrongType);
+    m_theWorker.startWork (theMissing);
+    m_theWorker.startWork (theUnexpected);
+    for (int i = 0; i < 3; i++)
+    {
+      WorkPackIt theReply = m_theWorker.getWork (m_theWaitTime);
+      assertNotNull ("reply", theReply);
+      assertTrue ("status", theReply.m_Status != ThreadIt.THREADIT_STATUS_OK);
+      assertEquals ("output", null, ((WorkPackItTyped<?, ?>) theReply).getOutput ());
+    } // for
+    assertEquals ("calls", 0, m_theWorker.m_theCalls);
+  } // testRejectedInput
+
+  /**
+   * Test that an output that is not of the output type is not set.
+   */
+  @Test
+  public void testCheckedOutput ()
+  {
+    WorkPackItTyped<String, Integer> theWork = new WorkPackItTyped<String, Integer> (CHECKED, "not a number");
+
+    m_theWorker.startWork (theWork);
+    assertSame ("reply", theWork, m_theWorker.getWork (m_theWaitTime));
+    assertTrue ("status", theWork.m_Status != ThreadIt.THREADIT_STATUS_OK);
+    assertEquals ("output", null, theWork.getOutput ());
+  } // testCheckedOutput
+
+  /**
+   * Test that work with no input is given to a worker registered for Void.
+   */
+  @Test
+  public void testNoInput ()
+  {
+    WorkPackItTyped<Void, Integer> theWork = new WorkPackItTyped<Void, Integer> (TICK, null);
+
+    m_theWorker.startWork (theWork);
+    assertSame ("reply", theWork, m_theWorker.getWork (m_theWaitTime));
+    assertEquals ("output", Integer.valueOf (1), theWork.getOutput ());
+  } // testNoInput
+
+  /**
+   * Test the validation that returns a status only.
+   */
+  @Test
+  public void testValidateParams ()
+  {
+    WorkPackIt theWork = new WorkPackIt ();
+
+    assertTrue ("null pack", m_theWorker.validateParams (null) != ThreadIt.THREADIT_STATUS_OK);
+    assertTrue ("no object", m_theWorker.validateParams (theWork) != ThreadIt.THREADIT_STATUS_OK);
+    assertEquals ("no data", ThreadIt.THREADIT_STATUS_OK, m_theWorker.validateParamsNoData (theWork));
+    theWork.m_Object = "data";
+    assertEquals ("object", ThreadIt.THREADIT_STATUS_OK, m_theWorker.validateParams (theWork));
+    assertEquals ("type", ThreadIt.THREADIT_STATUS_OK, m_theWorker.validateParams (theWork, CharSequence.class));
+    assertTrue ("wrong type", m_theWorker.validateParams (theWork, Integer.class) != ThreadIt.THREADIT_STATUS_OK);
+  } // testValidateParams
+
+} // class TypedWorkerTest
@@ -0,0 +1,154 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.BlockingWaitStrategy;
+import au.com.ashkel.javalib.threads.BusySpinWaitStrategy;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.SpinParkWaitStrategy;
+import au.com.ashkel.javalib.threads.TestResult;
+import au.com.ashkel.javalib.threads.TestResultQ;
+import au.com.ashkel.javalib.threads.ThreadItMessage;
+import au.com.ashkel.javalib.threads.WaitStrategy;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class WaitStrategyTest is the junit test suite for the wait strategies
+ * used by ThreadIt to wait for work.
+ */
+public class WaitStrategyTest
+{
+  protected ThreadItA m_theImplA = null;
+  protected TestResultQ m_theResultQ = new TestResultQ ();
+  protected long m_theWaitTime = 5000;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    m_theImplA = new ThreadItA ("WaitStrategyA", m_theResultQ);
+  } // setUp
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theImplA != null)
+    {
+      m_theImplA.stopIt ();
+    } // if
+  } // tearDown
+
+  /**
+   * Method checkRoundTrip sends a message to the ThreadIt using theStrategy
+   * and checks that the work is done and the reply is returned.
+   */
+  private void checkRoundTrip (WaitStrategy theStrategy)
+  {
+    TestResult theResult = null;
+    WorkPackIt theWorkDone = null;
+
+    m_theImplA.setWaitStrategy (theStrategy);
+    // The strategy applies from the next wait so the second message is
+    // always received through it.
+    for (int i = 0; i < 2; i++)
+    {
+      new ThreadItMessage (ComponentA.FUNCTION_A).sendTo (m_theImplA);
+      theResult = m_theResultQ.getResult (0, m_theWaitTime);
+      assertEquals ("result", true, theResult.isSuccess ());
+      theWorkDone = m_theImplA.getWork (m_theWaitTime);
+      assertNotNull ("reply", theWorkDone);
+    } // for
+    assertTrue ("waits", theStrategy.getWaitCount () > 0);
+  } // checkRoundTrip
+
+  @Test
+  public void testBlocking ()
+  {
+    checkRoundTrip (new BlockingWaitStrategy ());
+  } // testBlocking
+
+  @Test
+  public void testSpinPark ()
+  {
+    checkRoundTrip (new SpinParkWaitStrategy (100, 10));
+  } // testSpinPark
+
+  @Test
+  public void testBusySpin ()
+  {
+    checkRoundTrip (new BusySpinWaitStrategy ());
+  } // testBusySpin
+
+  /**
+   * Test that the spinning strategies honour the wait time on an empty queue.
+   */
+  @Test
+  public void testTimeOut ()
+  {
+    ProtectedQueue theQ = new ProtectedQueue ();
+    WaitStrategy theStrategy = new SpinParkWaitStrategy (10, 1);
+    long theStart = System.currentTimeMillis ();
+
+    assertNull ("spin-park", theStrategy.waitItem (theQ, 50));
+    assertEquals ("parked", 1, theStrategy.getParkCount ());
+    assertNull ("busy-spin", new BusySpinWaitStrategy ().waitItem (theQ, 50));
+    assertTrue ("elapsed", System.currentTimeMillis () - theStart >= 90);
+  } // testTimeOut
+
+  /**
+   * Test that a parked consumer woken by a producer is counted.
+   */
+  @Test
+  public void testProducerWakeup () throws Exception
+  {
+    final ProtectedQueue theQ = new ProtectedQueue ();
+    WaitStrategy theStrategy = new BlockingWaitStrategy ();
+    Thread theProducer = new Thread ()
+    {
+      public void run ()
+      {
+        try
+        {
+          Thread.sleep (50);
+        }
+        catch (InterruptedException anException)
+        {
+        } // catch
+        theQ.insertItem (new Object ());
+      } // run
+    };
+
+    theProducer.start ();
+    assertNotNull ("item", theStrategy.waitItem (theQ, m_theWaitTime));
+    assertEquals ("wakeups", 1, theStrategy.getProducerWakeupCount ());
+    theProducer.join ();
+  } // testProducerWakeup
+
+} // class WaitStrategyTest
@@ -0,0 +1,206 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+import au.com.ashkel.javalib.threads.WorkPackRing;
+
+/**
+ * Class WorkPackRingTest is the junit test suite for the ring of reused
+ * work package slots.
+ */
+public class WorkPackRingTest
+{
+  protected static final int COUNT = 1;
+  protected static final int MESSAGES = 10000;
+
+  protected Counter m_theCounter = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Counter counts the messages and checks that they arrive in order.
+   */
+  public static class Counter extends ThreadIt
+  {
+    protected volatile int m_theCount = 0;
+    protected volatile boolean m_isInOrder = true;
+
+    public Counter (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("count", COUNT);
+    } // Counter
+
+    public WorkPackIt count (WorkPackIt theWorkPack)
+    {
+      m_isInOrder = m_isInOrder && (((Integer) theWorkPack.m_Object).intValue () == m_theCount);
+      m_theCount++;
+      return null;
+    } // count
+  } // class Counter
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theCounter != null)
+    {
+      m_theCounter.stopThread ();
+      m_theCounter.waitForThreadToStop (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Test that messages sent through a small ring arrive in order while the
+   * slots are used many times over.
+   */
+  @Test
+  public void testSend () throws Exception
+  {
+    WorkPackRing theRing = new WorkPackRing (8);
+    Integer[] theValues = new Integer[MESSAGES];
+    long theEnd = System.currentTimeMillis () + m_theWaitTime;
+
+    for (int i = 0; i < MESSAGES; i++)
+    {
+      theValues[i] = i;
+    } // for
+    m_theCounter = new Counter ("RingCounter");
+    m_theCounter.setWorkQ (theRing);
+    for (int i = 0; i < MESSAGES; i++)
+    {
+      theRing.send (COUNT, theValues[i]);
+    } // for
+    while ((m_theCounter.m_theCount < MESSAGES) && (System.currentTimeMillis () < theEnd))
+    {
+      Thread.sleep (1);
+    } // while
+    assertEquals ("count", MESSAGES, m_theCounter.m_theCount);
+    assertTrue ("order", m_theCounter.m_isInOrder);
+    assertEquals ("depth", 0, theRing.getDepth ());
+  } // testSend
+
+  /**
+   * Test that the reply to work sent through the ring is a copy of the slot.
+   */
+  @Test
+  public void testReplyIsCopy () throws Exception
+  {
+    WorkPackRing theRing = new WorkPackRing (2);
+    long theSequence = 0;
+    WorkPackIt theReply = null;
+
+    m_theCounter = new Counter ("RingReply");
+    m_theCounter.setWorkQ (theRing);
+    theSequence = theRing.claim ();
+    theRing.getSlot (theSequence).setWorkInstruction (COUNT);
+    theRing.getSlot (theSequence).m_Object = 0;
+    theRing.getSlot (theSequence).m_SendResult = true;
+    theRing.publish (theSequence);
+    theReply = m_theCounter.getWork (m_theWaitTime);
+    assertNotNull ("reply", theReply);
+    assertFalse ("copy", theReply.isReused ());
+    assertEquals ("identity", theSequence + 1, theReply.m_WorkPackID);
+    // The slot is used again without changing the reply.
+    for (int i = 1; i < 5; i++)
+    {
+      theRing.send (COUNT, i);
+    } // for
+    assertEquals ("object", 0, theReply.m_Object);
+  } // testReplyIsCopy
+
+  /**
+   * Test that a full ring refuses a claim until its slots are released.
+   */
+  @Test
+  public void testTryClaim ()
+  {
+    WorkPackRing theRing = new WorkPackRing (2);
+
+    assertEquals ("capacity", 2, theRing.getCapacity ());
+    theRing.publish (theRing.tryClaim ());
+    theRing.publish (theRing.tryClaim ());
+    assertEquals ("full", -1, theRing.tryClaim ());
+    assertEquals ("depth", 2, theRing.getDepth ());
+    theRing.clear ();
+    assertTrue ("empty", theRing.isEmpty ());
+    assertEquals ("released", 2, theRing.tryClaim ());
+  } // testTryClaim
+
+  /**
+   * Test that a claim with a wait time gives up on a full ring.
+   */
+  @Test
+  public void testClaimTimeout ()
+  {
+    WorkPackRing theRing = new WorkPackRing (2);
+    long theStart = 0;
+
+    theRing.publish (theRing.claim (0));
+    theRing.publish (theRing.claim (0));
+    theStart = System.currentTimeMillis ();
+    assertEquals ("timed out", -1, theRing.claim (50));
+    assertTrue ("waited", System.currentTimeMillis () - theStart >= 40);
+    assertEquals ("waits", 1, theRing.getClaimWaitCount ());
+    theRing.clear ();
+    assertEquals ("claimed", 2, theRing.claim (50));
+  } // testClaimTimeout
+
+  /**
+   * Test that the slots left in the ring of a stopped ThreadIt are drained
+   * as copies and released to the producers.
+   */
+  @Test
+  public void testDrainReleases () throws Exception
+  {
+    WorkPackRing theRing = new WorkPackRing (2);
+    List<WorkPackIt> theWork = null;
+
+    m_theCounter = new Counter ("RingDrain");
+    m_theCounter.setWorkQ (theRing);
+    m_theCounter.stopThread ();
+    m_theCounter.waitForThreadToStop (m_theWaitTime);
+    theRing.send (COUNT, 0);
+    theRing.send (COUNT, 1);
+    assertEquals ("full", -1, theRing.tryClaim ());
+    theWork = m_theCounter.drainWork ();
+    assertEquals ("drained", 2, theWork.size ());
+    for (int i = 0; i < theWork.size (); i++)
+    {
+      assertFalse ("copy", theWork.get (i).isReused ());
+      assertEquals ("object", i, theWork.get (i).m_Object);
+    } // for
+    assertEquals ("released", 2, theRing.claim (m_theWaitTime));
+  } // testDrainReleases
+
+} // class WorkPackRingTest
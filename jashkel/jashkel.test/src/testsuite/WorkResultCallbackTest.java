@@ -0,0 +1,151 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.threads.CallbackDelivery;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItMessage;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+import au.com.ashkel.javalib.threads.WorkResultCallback;
+
+/**
+ * Class WorkResultCallbackTest is the junit test suite for callbacks that
+ * are given the result of the work.
+ */
+public class WorkResultCallbackTest
+{
+  protected static final int WORK = 0;
+
+  protected Worker m_theWorker = null;
+  protected CallbackDelivery m_theDelivery = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Worker answers "done" and the data of the work package.
+   */
+  public static class Worker extends ThreadIt
+  {
+    public Worker (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("work", WORK);
+    } // Worker
+
+    public WorkPackIt work (WorkPackIt theWorkPack)
+    {
+      theWorkPack.m_Object = "done " + theWorkPack.m_Object;
+      return null;
+    } // work
+  } // class Worker
+
+  /**
+   * Class ResultCallback queues the results it is given together with the
+   * source and the thread it was called on.
+   */
+  public static class ResultCallback implements WorkResultCallback
+  {
+    protected final ProtectedQueue m_theResults = new ProtectedQueue ();
+
+    public void onWorkDone (String theThreadName, long theWorkItemId)
+    {
+      m_theResults.insertItem ("not a result");
+    } // onWorkDone
+
+    public void onWorkResult (ThreadIt theSource, WorkPackIt theWorkDone)
+    {
+      m_theResults.insertItem (new Object[] {theSource, theWorkDone, Thread.currentThread ()});
+    } // onWorkResult
+  } // class ResultCallback
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theWorker != null)
+    {
+      m_theWorker.stopThread ();
+      m_theWorker.waitForThreadToStop (1000);
+    } // if
+    if (m_theDelivery != null)
+    {
+      m_theDelivery.shutdown ();
+    } // if
+  } // tearDown
+
+  /**
+   * Method sendAndCheck sends a message with the callback only and checks
+   * that the result reaches the callback and not a queue. The method
+   * returns the thread the callback was called on.
+   */
+  private Thread sendAndCheck (ResultCallback theCallback)
+  {
+    ThreadItMessage theMessage = new ThreadItMessage (WORK, theCallback);
+    Object[] theResult = null;
+    long theWorkPackID = 0;
+
+    theMessage.getWork ().m_Object = "message";
+    theWorkPackID = theMessage.sendWithCallbackTo (m_theWorker);
+    theResult = (Object[]) theCallback.m_theResults.waitItem (m_theWaitTime);
+    assertNotNull ("result", theResult);
+    assertSame ("source", m_theWorker, theResult[0]);
+    assertEquals ("result", "done message", ((WorkPackIt) theResult[1]).m_Object);
+    assertEquals ("identity", theWorkPackID, ((WorkPackIt) theResult[1]).m_WorkPackID);
+    assertEquals ("work done queue", 0, m_theWorker.getWorkDoneQ ().getDepth ());
+    return (Thread) theResult[2];
+  } // sendAndCheck
+
+  /**
+   * Test that the callback is given the result on the thread of the
+   * ThreadIt.
+   */
+  @Test
+  public void testInPlace () throws Exception
+  {
+    m_theWorker = new Worker ("ResultInPlace");
+    assertSame ("thread", m_theWorker, sendAndCheck (new ResultCallback ()));
+  } // testInPlace
+
+  /**
+   * Test that a callback delivery gives the callback the result on its
+   * own thread.
+   */
+  @Test
+  public void testDelivered () throws Exception
+  {
+    m_theDelivery = new CallbackDelivery ("ResultDelivery", 10);
+    m_theWorker = new Worker ("ResultDelivered");
+    m_theWorker.setCallbackDelivery (m_theDelivery);
+    assertNotSame ("thread", m_theWorker, sendAndCheck (new ResultCallback ()));
+    assertEquals ("delivered", 1, m_theDelivery.getDeliveredCount ());
+  } // testDelivered
+
+} // class WorkResultCallbackTest
@@ -0,0 +1,190 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2011 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/*--------------------------------------------------------------------------*/
+/* Package declaration.                                                     */
+/*--------------------------------------------------------------------------*/
+package testsuite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import au.com.ashkel.javalib.group.WorkStealingGroup;
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+import au.com.ashkel.javalib.threads.WorkStealingDeque;
+
+/**
+ * Class WorkStealingTest is the junit test suite for the work stealing
+ * deque and the group of ThreadIts that steal work from each other.
+ */
+public class WorkStealingTest
+{
+  protected static final int WORK = 0;
+
+  protected WorkStealingGroup m_theGroup = null;
+  protected long m_theWaitTime = 5000;
+
+  /**
+   * Class Performed is the payload of the test work. It records the
+   * member that performed the work.
+   */
+  public static class Performed
+  {
+    protected final int m_theSequence;
+    protected ThreadIt m_thePerformer = null;
+
+    public Performed (int theSequence)
+    {
+      m_theSequence = theSequence;
+    } // Performed
+  } // class Performed
+
+  /**
+   * Class Worker takes a millisecond over each work package.
+   */
+  public static class Worker extends ThreadIt
+  {
+    public Worker (String theThreadName) throws IOException
+    {
+      super (theThreadName);
+      setWorkerMethod ("work", WORK);
+    } // Worker
+
+    public WorkPackIt work (WorkPackIt theWorkPack) throws InterruptedException
+    {
+      Thread.sleep (1);
+      ((Performed) theWorkPack.m_Object).m_thePerformer = this;
+      return null;
+    } // work
+  } // class Worker
+
+  /**
+   * Class WorkerFactory creates the members of the group.
+   */
+  public static class WorkerFactory implements ThreadItFactory
+  {
+    public ThreadIt newThreadIt (String theThreadName) throws IOException
+    {
+      return new Worker (theThreadName);
+    } // newThreadIt
+  } // class WorkerFactory
+
+  @After
+  public void tearDown () throws Exception
+  {
+    if (m_theGroup != null)
+    {
+      m_theGroup.stopGroup (1000);
+    } // if
+  } // tearDown
+
+  /**
+   * Method newWork returns a work package with theSequence that replies to
+   * the default work done queue.
+   */
+  private WorkPackIt newWork (int theSequence, boolean isStealable)
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.setWorkInstruction (WORK);
+    theWorkPack.m_Object = new Performed (theSequence);
+    theWorkPack.m_SendResult = true;
+    theWorkPack.m_isStealable = isStealable;
+    return theWorkPack;
+  } // newWork
+
+  /**
+   * Test that the owner takes from the head and a thief takes the
+   * stealable work nearest the tail.
+   */
+  @Test
+  public void testDeque ()
+  {
+    WorkStealingDeque theDeque = new WorkStealingDeque ();
+    WorkPackIt[] theWork = new WorkPackIt[4];
+
+    for (int i = 0; i < theWork.length; i++)
+    {
+      theWork[i] = newWork (i, i < 2);
+      theDeque.insertItem (theWork[i]);
+    } // for
+    // The last two are not stealable.
+    assertSame ("stolen", theWork[1], theDeque.stealItem ());
+    assertSame ("owner", theWork[0], theDeque.pollItem ());
+    assertNull ("nothing stealable", theDeque.stealItem ());
+    assertEquals ("depth", 2, theDeque.getDepth ());
+    assertSame ("owner", theWork[2], theDeque.waitItem (10));
+    assertEquals ("stolen count", 1, theDeque.getStolenCount ());
+  } // testDeque
+
+  /**
+   * Test that idle members steal stealable work sent to one member, that
+   * replies still reach that member's work done queue and that work that
+   * is not stealable stays with its member and in order.
+   */
+  @Test
+  public void testGroup () throws Exception
+  {
+    Set<ThreadIt> thePerformers = new HashSet<ThreadIt> ();
+    ThreadIt theOwner = null;
+    int theCount = 200;
+    int theLast = -1;
+
+    m_theGroup = new WorkStealingGroup ("Stealing", new WorkerFactory (), 4);
+    theOwner = m_theGroup.getMembers ()[0];
+    for (int i = 0; i < theCount; i++)
+    {
+      m_theGroup.startWork (0, newWork (i, true));
+    } // for
+    for (int i = 0; i < theCount; i++)
+    {
+      WorkPackIt theWorkDone = theOwner.getWork (m_theWaitTime);
+      assertNotNull ("reply " + i, theWorkDone);
+      thePerformers.add (((Performed) theWorkDone.m_Object).m_thePerformer);
+    } // for
+    assertTrue ("stolen", m_theGroup.getStolenCount (0) > 0);
+    assertTrue ("performers", thePerformers.size () > 1);
+    // Work that is not stealable is performed by its member in order.
+    for (int i = 0; i < theCount; i++)
+    {
+      m_theGroup.startWork (0, newWork (i, false));
+    } // for
+    for (int i = 0; i < theCount; i++)
+    {
+      WorkPackIt theWorkDone = theOwner.getWork (m_theWaitTime);
+      assertNotNull ("reply " + i, theWorkDone);
+      Performed thePerformed = (Performed) theWorkDone.m_Object;
+      assertSame ("performer", theOwner, thePerformed.m_thePerformer);
+      assertEquals ("order", theLast + 1, thePerformed.m_theSequence);
+      theLast = thePerformed.m_theSequence;
+    } // for
+  } // testGroup
+
+} // class WorkStealingTest
@@ -0,0 +1,114 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ConflatingObserver
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ConflatingObserver is an observer that keeps at most one
+ * notification queued at its target. While a notification is waiting to be
+ * processed, later notifications replace it rather than being queued behind
+ * it, so a slow subscriber sees the latest value and its backlog is bounded
+ * no matter how fast notifications are published.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.bus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItNotification;
+import au.com.ashkel.javalib.threads.ThreadItObserver;
+
+/**
+ * Class ConflatingObserver holds the latest notification for its target.
+ * The work package sent to the target carries the observer itself and the
+ * target takes the latest notification when it processes the work package,
+ * normally through ThreadItBus.getNotification. A new work package is only
+ * sent once the previous one has been taken.
+ */
+public class ConflatingObserver extends ThreadItObserver
+{
+  /** m_theLatest is the notification waiting to be taken or null. */
+  private final AtomicReference<ThreadItNotification> m_theLatest = new AtomicReference<ThreadItNotification> ();
+  /** m_theConflatedCount is the number of notifications replaced before being taken. */
+  private final AtomicLong m_theConflatedCount = new AtomicLong ();
+
+  /**
+   * Method ConflatingObserver is the constructor for the instance.<p>
+   * ptheSource         : is the source reported in the work packages or null.<p>
+   * ptheThreadIt       : is the target of the notifications.<p>
+   * theWorkInstruction : is the work instruction invoked at the target.
+   */
+  public ConflatingObserver (ThreadIt ptheSource, ThreadIt ptheThreadIt, int theWorkInstruction)
+  {
+    super (ptheSource, ptheThreadIt, theWorkInstruction);
+  } // ConflatingObserver
+
+  /**
+   * Method deliver makes theNotification the latest notification and sends
+   * a work package to the target if none is waiting. The method returns
+   * false if the target no longer exists.
+   */
+  public boolean deliver (ThreadItNotification theNotification)
+  {
+    boolean isSuccess = isValid ();
+
+    if (isSuccess)
+    {
+      if (m_theLatest.getAndSet (theNotification) == null)
+      {
+        isSuccess = send (m_theWorkInstruction, this);
+      }
+      else
+      {
+        m_theConflatedCount.incrementAndGet ();
+      } // if
+    } // if
+    return isSuccess;
+  } // deliver
+
+  /**
+   * Method take returns the latest notification and clears it so that the
+   * next notification sends a new work package. It returns null if the
+   * notification has already been taken.
+   */
+  public ThreadItNotification take ()
+  {
+    return m_theLatest.getAndSet (null);
+  } // take
+
+  /**
+   * Method getConflatedCount returns the number of notifications that were
+   * replaced by a later one before the target took them.
+   */
+  public long getConflatedCount ()
+  {
+    return m_theConflatedCount.get ();
+  } // getConflatedCount
+
+} // class ConflatingObserver
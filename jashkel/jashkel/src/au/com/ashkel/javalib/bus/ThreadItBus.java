@@ -0,0 +1,218 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItBus
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ThreadItBus is an in-process publish/subscribe bus between
+ * ThreadIts. A ThreadIt subscribes to a topic with the work instruction that
+ * is to be invoked for each message published on the topic. Publishers name
+ * the topic only and need no reference to the subscribers. Each topic is a
+ * ThreadItNotifier, so a publish is a lock-free lookup of the topic followed
+ * by a walk over its subscriber array and one shared ThreadItNotification
+ * is delivered to all of them.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.bus;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItNotification;
+import au.com.ashkel.javalib.threads.ThreadItNotifier;
+import au.com.ashkel.javalib.threads.ThreadItObserver;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ThreadItBus maps topics to their subscribers. Subscribers receive a
+ * work package whose object is the ThreadItNotification published and
+ * should retrieve it with getNotification, which also handles conflated
+ * subscriptions. Subscribers are held by weak references and are removed
+ * from a topic once they no longer exist. All methods are thread safe.
+ */
+public class ThreadItBus
+{
+  /** m_theTopics is the subscription index, the notifier for each topic. */
+  private final ConcurrentHashMap<String, ThreadItNotifier> m_theTopics = new ConcurrentHashMap<String, ThreadItNotifier> ();
+
+  /**
+   * Method subscribe subscribes ptheSubscriber to theTopic. Every message
+   * published on the topic is queued at the subscriber.<p>
+   * theTopic           : is the topic subscribed to.<p>
+   * ptheSubscriber     : is the ThreadIt receiving the messages.<p>
+   * theWorkInstruction : is the work instruction invoked for each message.<p>
+   * The method returns the subscription used to unsubscribe.
+   */
+  public ThreadItObserver subscribe (String theTopic, ThreadIt ptheSubscriber, int theWorkInstruction)
+  {
+    return subscribe (theTopic, ptheSubscriber, theWorkInstruction, false);
+  } // subscribe
+
+  /**
+   * Method subscribe subscribes ptheSubscriber to theTopic.<p>
+   * isConflated : if true at most one message is queued at the subscriber
+   *               for this topic and later messages replace it, so a slow
+   *               subscriber only sees the latest message.<p>
+   * See subscribe (String, ThreadIt, int) for the other parameters.
+   */
+  public ThreadItObserver subscribe (String theTopic, ThreadIt ptheSubscriber, int theWorkInstruction, boolean isConflated)
+  {
+    ThreadItObserver theSubscription = null;
+
+    if (isConflated)
+    {
+      theSubscription = new ConflatingObserver (null, ptheSubscriber, theWorkInstruction);
+    }
+    else
+    {
+      theSubscription = new ThreadItObserver (null, ptheSubscriber, theWorkInstruction);
+    } // if
+    getTopic (theTopic).attach (theSubscription);
+    return theSubscription;
+  } // subscribe
+
+  /**
+   * Method unsubscribe removes theSubscription from theTopic.
+   */
+  public void unsubscribe (String theTopic, ThreadItObserver theSubscription)
+  {
+    ThreadItNotifier theNotifier = m_theTopics.get (theTopic);
+
+    if (theNotifier != null)
+    {
+      theNotifier.detach (theSubscription);
+    } // if
+  } // unsubscribe
+
+  /**
+   * Method unsubscribe removes every subscription of ptheSubscriber.
+   */
+  public void unsubscribe (ThreadIt ptheSubscriber)
+  {
+    Iterator<ThreadItNotifier> theTopics = m_theTopics.values ().iterator ();
+
+    while (theTopics.hasNext ())
+    {
+      ThreadItNotifier theNotifier = theTopics.next ();
+      ThreadItObserver[] theSubscriptions = theNotifier.getObservers ();
+      for (int i = 0; i < theSubscriptions.length; i++)
+      {
+        if (theSubscriptions[i].getTarget () == ptheSubscriber)
+        {
+          theNotifier.detach (theSubscriptions[i]);
+        } // if
+      } // for
+    } // while
+  } // unsubscribe
+
+  /**
+   * Method publish sends theData to every subscriber of theTopic. theData
+   * is shared by all subscribers and must not be modified once published.
+   * The method returns the number of subscribers the message was sent to.
+   */
+  public int publish (String theTopic, Object theData)
+  {
+    return publish (null, theTopic, theData);
+  } // publish
+
+  /**
+   * Method publish sends theData to every subscriber of theTopic reporting
+   * ptheSource as the publisher. See publish (String, Object).
+   */
+  public int publish (ThreadIt ptheSource, String theTopic, Object theData)
+  {
+    int theCount = 0;
+    ThreadItNotifier theNotifier = m_theTopics.get (theTopic);
+
+    if (theNotifier != null)
+    {
+      theCount = theNotifier.multicast (ptheSource, theData);
+    } // if
+    return theCount;
+  } // publish
+
+  /**
+   * Method getSubscriberCount returns the number of subscribers of theTopic.
+   */
+  public int getSubscriberCount (String theTopic)
+  {
+    ThreadItNotifier theNotifier = m_theTopics.get (theTopic);
+
+    return (theNotifier == null) ? 0 : theNotifier.getNumberOfObservers ();
+  } // getSubscriberCount
+
+  /**
+   * Method getTopics returns the topics that have been subscribed to.
+   */
+  public Set<String> getTopics ()
+  {
+    return Collections.unmodifiableSet (m_theTopics.keySet ());
+  } // getTopics
+
+  /**
+   * Method getNotification returns the notification carried by a work
+   * package received from the bus. For a conflated subscription it returns
+   * the latest notification, or null if it has already been taken.
+   */
+  public static ThreadItNotification getNotification (WorkPackIt theWorkPack)
+  {
+    ThreadItNotification theNotification = null;
+
+    if (theWorkPack.m_Object instanceof ThreadItNotification)
+    {
+      theNotification = (ThreadItNotification) theWorkPack.m_Object;
+    }
+    else if (theWorkPack.m_Object instanceof ConflatingObserver)
+    {
+      theNotification = ((ConflatingObserver) theWorkPack.m_Object).take ();
+    } // if
+    return theNotification;
+  } // getNotification
+
+  /**
+   * Method getTopic returns the notifier of theTopic, creating it if needed.
+   */
+  private ThreadItNotifier getTopic (String theTopic)
+  {
+    ThreadItNotifier theNotifier = m_theTopics.get (theTopic);
+
+    if (theNotifier == null)
+    {
+      ThreadItNotifier theNewNotifier = new ThreadItNotifier (theTopic);
+      theNotifier = m_theTopics.putIfAbsent (theTopic, theNewNotifier);
+      if (theNotifier == null)
+      {
+        theNotifier = theNewNotifier;
+      } // if
+    } // if
+    return theNotifier;
+  } // getTopic
+
+} // class ThreadItBus
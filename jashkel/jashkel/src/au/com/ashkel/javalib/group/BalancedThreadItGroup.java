@@ -0,0 +1,306 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : BalancedThreadItGroup
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class BalancedThreadItGroup owns a number of identical ThreadIt instances,
+ * its replicas, and gives each work package to the replica that is expected
+ * to finish the work waiting for it soonest. The choice is made between two
+ * replicas picked at random, or between all of them, by the depth of the
+ * work queue and the recent service time of each replica.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.group;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class BalancedThreadItGroup balances work across replicas. The load of a
+ * replica is the time it is expected to take to clear its work queue: the
+ * number of work packages waiting, plus the new one, times the moving
+ * average of its service time. A replica that has not yet performed any
+ * work is weighed by its queue depth alone.<p>
+ * With POLICY_TWO_CHOICES two different replicas are picked at random and
+ * the less loaded one is given the work, so the cost of a decision does
+ * not grow with the number of replicas and no replica is read by every
+ * sender. With POLICY_LEAST_LOADED every replica is looked at.<p>
+ * Work given to startWork that replies to the default work done queue
+ * replies to the work done queue of the group instead, so that the reply
+ * is found with getWork whichever replica performed the work. The replica
+ * that replied is the source of the reply.<p>
+ * Senders that use ThreadItMessage send to the replica returned by
+ * select, for instance new ThreadItMessage (X).sendTo (theGroup.select ()).
+ * Replies go to the work done queue of that replica unless the message
+ * names its source.
+ */
+public class BalancedThreadItGroup
+{
+  /** POLICY_TWO_CHOICES chooses the less loaded of two random replicas. */
+  public static final int POLICY_TWO_CHOICES = 0;
+  /** POLICY_LEAST_LOADED chooses the least loaded of all the replicas. */
+  public static final int POLICY_LEAST_LOADED = 1;
+
+  /** m_theName is the name of the group. Replicas are named after it. */
+  protected final String m_theName;
+  /** m_theReplicas are the members of the group. */
+  protected final ThreadIt[] m_theReplicas;
+  /** m_thePolicy is the way a replica is chosen. */
+  protected final int m_thePolicy;
+  /** m_theSelectCounts are the number of times each replica was chosen. */
+  private final AtomicLongArray m_theSelectCounts;
+  /** m_theDoneQ receives the replies to the default work done queue. */
+  private final ProtectedQueue m_theDoneQ = new ProtectedQueue ();
+
+  /**
+   * Method BalancedThreadItGroup creates a group of theSize replicas using
+   * theFactory. Replicas are named theName.n where n is the number of the
+   * replica.
+   */
+  public BalancedThreadItGroup (String theName, ThreadItFactory theFactory, int theSize,
+                                int thePolicy) throws IOException
+  {
+    this (theName, newReplicas (theName, theFactory, theSize), thePolicy);
+  } // BalancedThreadItGroup
+
+  /**
+   * Method BalancedThreadItGroup creates a group of the existing ThreadIt
+   * instances theReplicas.
+   */
+  public BalancedThreadItGroup (String theName, ThreadIt[] theReplicas, int thePolicy)
+  {
+    if (theReplicas.length == 0)
+    {
+      throw new IllegalArgumentException ("a group needs at least one replica");
+    } // if
+    if ((thePolicy != POLICY_TWO_CHOICES) && (thePolicy != POLICY_LEAST_LOADED))
+    {
+      throw new IllegalArgumentException ("unknown policy: " + thePolicy);
+    } // if
+    m_theName = theName;
+    m_theReplicas = theReplicas.clone ();
+    m_thePolicy = thePolicy;
+    m_theSelectCounts = new AtomicLongArray (theReplicas.length);
+  } // BalancedThreadItGroup
+
+  /**
+   * Method select chooses the replica the next work package should be
+   * sent to.
+   */
+  public ThreadIt select ()
+  {
+    int theReplica = (m_thePolicy == POLICY_TWO_CHOICES) ? selectOfTwo () : selectOfAll ();
+
+    m_theSelectCounts.incrementAndGet (theReplica);
+    return m_theReplicas[theReplica];
+  } // select
+
+  /**
+   * Method startWork gives theWorkPack to the replica chosen by select. A
+   * reply to the default work done queue is sent to the work done queue of
+   * the group. The method returns the work package identity given by the
+   * replica.
+   */
+  public long startWork (WorkPackIt theWorkPack)
+  {
+    if (theWorkPack.m_UseDefaultQ)
+    {
+      theWorkPack.m_UseDefaultQ = false;
+      theWorkPack.m_WorkDoneQ = m_theDoneQ;
+    } // if
+    return select ().startWork (theWorkPack);
+  } // startWork
+
+  /**
+   * Method getWork waits up to theTimeOut (in milliseconds) for a reply to
+   * work given to startWork and returns it, or null if there is none.
+   */
+  public WorkPackIt getWork (long theTimeOut)
+  {
+    return (WorkPackIt) m_theDoneQ.waitItem (theTimeOut);
+  } // getWork
+
+  /**
+   * Method getWorkDoneQ returns the work done queue of the group.
+   */
+  public ProtectedQueue getWorkDoneQ ()
+  {
+    return m_theDoneQ;
+  } // getWorkDoneQ
+
+  /**
+   * Method getLoad returns the expected time (in nanoseconds) for the
+   * replica numbered theReplica to clear its work queue and a new work
+   * package, or the number of work packages if it has not yet performed
+   * any work.
+   */
+  public long getLoad (int theReplica)
+  {
+    ThreadIt theMember = m_theReplicas[theReplica];
+
+    return (theMember.getWorkQ ().getDepth () + 1) * Math.max (1, theMember.getMetrics ().getRecentServiceTime ());
+  } // getLoad
+
+  public String getName ()
+  {
+    return m_theName;
+  } // getName
+
+  public int getPolicy ()
+  {
+    return m_thePolicy;
+  } // getPolicy
+
+  /**
+   * Method getReplicas returns a copy of the replica list.
+   */
+  public ThreadIt[] getReplicas ()
+  {
+    return m_theReplicas.clone ();
+  } // getReplicas
+
+  /**
+   * Method getSelectCounts returns the number of times each replica was
+   * chosen.
+   */
+  public long[] getSelectCounts ()
+  {
+    long[] theCounts = new long[m_theReplicas.length];
+
+    for (int i = 0; i < theCounts.length; i++)
+    {
+      theCounts[i] = m_theSelectCounts.get (i);
+    } // for
+    return theCounts;
+  } // getSelectCounts
+
+  /**
+   * Method getReport returns the number of times each replica was chosen,
+   * its queue depth and its recent service time in microseconds.
+   */
+  public String getReport ()
+  {
+    StringBuilder theReport = new StringBuilder ();
+
+    theReport.append (String.format ("%s policy=%s%n", m_theName,
+                                     (m_thePolicy == POLICY_TWO_CHOICES) ? "two-choices" : "least-loaded"));
+    for (int i = 0; i < m_theReplicas.length; i++)
+    {
+      theReport.append (String.format ("replica %d chosen=%d depth=%d service=%dus%n", i, m_theSelectCounts.get (i),
+                                       m_theReplicas[i].getWorkQ ().getDepth (),
+                                       m_theReplicas[i].getMetrics ().getRecentServiceTime () / 1000));
+    } // for
+    return theReport.toString ();
+  } // getReport
+
+  /**
+   * Method stopGroup stops every replica and waits up to theWaitTime (in
+   * milliseconds) for each of them to exit.
+   */
+  public void stopGroup (long theWaitTime)
+  {
+    for (int i = 0; i < m_theReplicas.length; i++)
+    {
+      m_theReplicas[i].stopThread ();
+    } // for
+    for (int i = 0; i < m_theReplicas.length; i++)
+    {
+      m_theReplicas[i].waitForThreadToStop (theWaitTime);
+    } // for
+  } // stopGroup
+
+  /**
+   * Method selectOfTwo returns the less loaded of two different replicas
+   * picked at random, or the first of them if they are equally loaded.
+   */
+  private int selectOfTwo ()
+  {
+    ThreadLocalRandom theRandom = ThreadLocalRandom.current ();
+    int theFirst = 0;
+    int theSecond = 0;
+    int theReplica = 0;
+
+    if (m_theReplicas.length > 1)
+    {
+      theFirst = theRandom.nextInt (m_theReplicas.length);
+      // Pick from the others so that the two are different.
+      theSecond = theRandom.nextInt (m_theReplicas.length - 1);
+      if (theSecond >= theFirst)
+      {
+        theSecond++;
+      } // if
+      theReplica = (getLoad (theSecond) < getLoad (theFirst)) ? theSecond : theFirst;
+    } // if
+    return theReplica;
+  } // selectOfTwo
+
+  /**
+   * Method selectOfAll returns the least loaded replica. Equally loaded
+   * replicas are chosen from a random starting point so that they share
+   * the work.
+   */
+  private int selectOfAll ()
+  {
+    int theStart = ThreadLocalRandom.current ().nextInt (m_theReplicas.length);
+    int theReplica = theStart;
+    long theLowest = getLoad (theStart);
+
+    for (int i = 1; i < m_theReplicas.length; i++)
+    {
+      int theCandidate = (theStart + i) % m_theReplicas.length;
+      long theLoad = getLoad (theCandidate);
+      if (theLoad < theLowest)
+      {
+        theLowest = theLoad;
+        theReplica = theCandidate;
+      } // if
+    } // for
+    return theReplica;
+  } // selectOfAll
+
+  /**
+   * Method newReplicas creates theSize replicas named after the group.
+   */
+  private static ThreadIt[] newReplicas (String theName, ThreadItFactory theFactory, int theSize) throws IOException
+  {
+    ThreadIt[] theReplicas = new ThreadIt[Math.max (0, theSize)];
+
+    for (int i = 0; i < theReplicas.length; i++)
+    {
+      theReplicas[i] = theFactory.newThreadIt (theName + "." + i);
+    } // for
+    return theReplicas;
+  } // newReplicas
+
+} // class BalancedThreadItGroup
@@ -0,0 +1,53 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : KeyExtractor
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface KeyExtractor returns the key of a work package. Work packages
+ * with equal keys are performed in order by the same member of a
+ * ShardedThreadItGroup.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.group;
+
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Interface KeyExtractor is implemented by the sender of the work to a
+ * sharded group, typically by reading an entity identity from the payload.
+ */
+public interface KeyExtractor
+{
+
+  /**
+   * Method getKey returns the key of theWorkPack. Keys are compared with
+   * equals and hashed with hashCode. A null key is sent to the first shard.
+   */
+  public Object getKey (WorkPackIt theWorkPack);
+
+} // interface KeyExtractor
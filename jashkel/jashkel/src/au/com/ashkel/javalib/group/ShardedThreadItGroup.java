@@ -0,0 +1,423 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ShardedThreadItGroup
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ShardedThreadItGroup owns a fixed number of ThreadIt instances, its
+ * shards, and sends each work package to the shard its key hashes to. Work
+ * for one key is performed in order by one shard while work for different
+ * keys is performed in parallel. The group reports how evenly the work is
+ * spread across the shards and which keys receive the most work.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.group;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ShardedThreadItGroup maps keys to shards with a consistent hash
+ * ring. Each shard owns a number of points on the ring and a key belongs to
+ * the shard owning the first point at or after the hash of the key. The
+ * ring depends only on the number of shards, so a key always goes to the
+ * same shard, and a group built with one more shard moves only the share
+ * of the keys that the new shard takes.<p>
+ * The number of work packages sent to each shard is counted exactly. The
+ * keys receiving the most work are estimated from a sample of the work
+ * packages using the space-saving algorithm, which keeps a fixed number of
+ * counters however many keys there are.
+ */
+public class ShardedThreadItGroup
+{
+  /** POINTS_PER_SHARD is the number of points each shard owns on the ring. */
+  public static final int POINTS_PER_SHARD = 64;
+  /** HOT_KEY_COUNTERS is the number of keys tracked for the hot key report. */
+  public static final int HOT_KEY_COUNTERS = 64;
+  /** SAMPLE_MASK selects one work package in SAMPLE_MASK + 1 for key tracking. */
+  private static final long SAMPLE_MASK = 15;
+
+  /** m_theName is the name of the group. Shards are named after it. */
+  protected final String m_theName;
+  /** m_theKeyExtractor returns the key of each work package. */
+  protected final KeyExtractor m_theKeyExtractor;
+  /** m_theShards are the members of the group. */
+  protected final ThreadIt[] m_theShards;
+  /** m_theRingPoints are the points on the ring in ascending order. */
+  private final long[] m_theRingPoints;
+  /** m_theRingShards are the shards owning each point. */
+  private final int[] m_theRingShards;
+  /** m_theShardCounts are the numbers of work packages sent to each shard. */
+  private final AtomicLongArray m_theShardCounts;
+  /** m_theSendCount is the number of work packages sent to the group. */
+  private final AtomicLong m_theSendCount = new AtomicLong ();
+  /** m_theKeyCounters are the space-saving counters of the sampled keys. */
+  private final Map<Object, HotKey> m_theKeyCounters = new HashMap<Object, HotKey> ();
+
+  /**
+   * Class HotKey is the estimated share of the work of a key.
+   */
+  public static class HotKey
+  {
+    protected final Object m_theKey;
+    protected final int m_theShard;
+    /** m_theCount is the estimated number of sampled work packages. */
+    protected long m_theCount = 0;
+    /** m_theError is the amount by which m_theCount may overstate the key. */
+    protected long m_theError = 0;
+
+    HotKey (Object theKey, int theShard)
+    {
+      m_theKey = theKey;
+      m_theShard = theShard;
+    } // HotKey
+
+    HotKey (HotKey theOriginal)
+    {
+      m_theKey = theOriginal.m_theKey;
+      m_theShard = theOriginal.m_theShard;
+      m_theCount = theOriginal.m_theCount;
+      m_theError = theOriginal.m_theError;
+    } // HotKey
+
+    public Object getKey ()
+    {
+      return m_theKey;
+    } // getKey
+
+    public int getShard ()
+    {
+      return m_theShard;
+    } // getShard
+
+    /**
+     * Method getCount returns the estimated number of work packages for the
+     * key in the sample. It may overstate the count by up to getError.
+     */
+    public long getCount ()
+    {
+      return m_theCount;
+    } // getCount
+
+    public long getError ()
+    {
+      return m_theError;
+    } // getError
+  } // class HotKey
+
+  /**
+   * Method ShardedThreadItGroup creates a group of theShardCount shards using
+   * theFactory. Shards are named theName.n where n is the number of the shard.
+   */
+  public ShardedThreadItGroup (String theName, ThreadItFactory theFactory, int theShardCount,
+                               KeyExtractor theKeyExtractor) throws IOException
+  {
+    if (theShardCount <= 0)
+    {
+      throw new IllegalArgumentException ("shard count must be positive: " + theShardCount);
+    } // if
+    m_theName = theName;
+    m_theKeyExtractor = theKeyExtractor;
+    m_theShards = new ThreadIt[theShardCount];
+    for (int i = 0; i < theShardCount; i++)
+    {
+      m_theShards[i] = theFactory.newThreadIt (theName + "." + i);
+    } // for
+    m_theShardCounts = new AtomicLongArray (theShardCount);
+    m_theRingPoints = new long[theShardCount * POINTS_PER_SHARD];
+    m_theRingShards = new int[m_theRingPoints.length];
+    buildRing ();
+  } // ShardedThreadItGroup
+
+  /**
+   * Method startWork sends theWorkPack to the shard of its key. The method
+   * returns the work package identity given by the shard.
+   */
+  public long startWork (WorkPackIt theWorkPack)
+  {
+    Object theKey = m_theKeyExtractor.getKey (theWorkPack);
+    int theShard = getShard (theKey);
+
+    m_theShardCounts.incrementAndGet (theShard);
+    if ((m_theSendCount.getAndIncrement () & SAMPLE_MASK) == 0)
+    {
+      sampleKey (theKey, theShard);
+    } // if
+    return m_theShards[theShard].startWork (theWorkPack);
+  } // startWork
+
+  /**
+   * Method getShard returns the number of the shard theKey belongs to.
+   */
+  public int getShard (Object theKey)
+  {
+    int theShard = 0;
+    int theIndex = 0;
+
+    if ((theKey != null) && (m_theShards.length > 1))
+    {
+      theIndex = Arrays.binarySearch (m_theRingPoints, mix (theKey.hashCode ()));
+      if (theIndex < 0)
+      {
+        theIndex = -theIndex - 1;
+      } // if
+      // The ring wraps to its first point.
+      theShard = m_theRingShards[(theIndex == m_theRingPoints.length) ? 0 : theIndex];
+    } // if
+    return theShard;
+  } // getShard
+
+  public String getName ()
+  {
+    return m_theName;
+  } // getName
+
+  /**
+   * Method getShards returns a copy of the shard list.
+   */
+  public ThreadIt[] getShards ()
+  {
+    return m_theShards.clone ();
+  } // getShards
+
+  /**
+   * Method getShardCounts returns the number of work packages sent to each
+   * shard.
+   */
+  public long[] getShardCounts ()
+  {
+    long[] theCounts = new long[m_theShards.length];
+
+    for (int i = 0; i < theCounts.length; i++)
+    {
+      theCounts[i] = m_theShardCounts.get (i);
+    } // for
+    return theCounts;
+  } // getShardCounts
+
+  /**
+   * Method getShardDepths returns the number of work packages waiting at
+   * each shard.
+   */
+  public long[] getShardDepths ()
+  {
+    long[] theDepths = new long[m_theShards.length];
+
+    for (int i = 0; i < theDepths.length; i++)
+    {
+      theDepths[i] = m_theShards[i].getWorkQ ().getDepth ();
+    } // for
+    return theDepths;
+  } // getShardDepths
+
+  /**
+   * Method getSkew returns the work sent to the busiest shard divided by
+   * the average work per shard. A group with evenly spread work has a skew
+   * near 1; a skew equal to the number of shards means one shard receives
+   * all the work.
+   */
+  public double getSkew ()
+  {
+    long[] theCounts = getShardCounts ();
+    long theTotal = 0;
+    long theHighest = 0;
+
+    for (int i = 0; i < theCounts.length; i++)
+    {
+      theTotal += theCounts[i];
+      theHighest = Math.max (theHighest, theCounts[i]);
+    } // for
+    return (theTotal == 0) ? 1.0 : (double) theHighest * theCounts.length / theTotal;
+  } // getSkew
+
+  /**
+   * Method getHotKeys returns up to theCount of the keys estimated to
+   * receive the most work, busiest first.
+   */
+  public List<HotKey> getHotKeys (int theCount)
+  {
+    List<HotKey> theHotKeys = new ArrayList<HotKey> ();
+
+    synchronized (m_theKeyCounters)
+    {
+      Iterator<HotKey> theCounters = m_theKeyCounters.values ().iterator ();
+      while (theCounters.hasNext ())
+      {
+        theHotKeys.add (new HotKey (theCounters.next ()));
+      } // while
+    } // synchronized
+    Collections.sort (theHotKeys, new Comparator<HotKey> ()
+    {
+      public int compare (HotKey theFirst, HotKey theSecond)
+      {
+        return Long.compare (theSecond.m_theCount, theFirst.m_theCount);
+      } // compare
+    });
+    return theHotKeys.subList (0, Math.min (theCount, theHotKeys.size ()));
+  } // getHotKeys
+
+  /**
+   * Method getSampleCount returns the number of work packages whose keys
+   * were sampled for the hot key report.
+   */
+  public long getSampleCount ()
+  {
+    return (m_theSendCount.get () + SAMPLE_MASK) / (SAMPLE_MASK + 1);
+  } // getSampleCount
+
+  /**
+   * Method getReport returns the work sent to and waiting at each shard,
+   * the skew and the hottest keys with their estimated share of the work.
+   */
+  public String getReport ()
+  {
+    StringBuilder theReport = new StringBuilder ();
+    long[] theCounts = getShardCounts ();
+    long[] theDepths = getShardDepths ();
+    long theSamples = Math.max (1, getSampleCount ());
+    List<HotKey> theHotKeys = getHotKeys (5);
+
+    theReport.append (String.format ("%s skew=%.2f%n", m_theName, getSkew ()));
+    for (int i = 0; i < theCounts.length; i++)
+    {
+      theReport.append (String.format ("shard %d sent=%d depth=%d%n", i, theCounts[i], theDepths[i]));
+    } // for
+    for (int i = 0; i < theHotKeys.size (); i++)
+    {
+      HotKey theHotKey = theHotKeys.get (i);
+      theReport.append (String.format ("key %s shard=%d share=%.1f%%%n", theHotKey.m_theKey, theHotKey.m_theShard,
+                                       100.0 * theHotKey.m_theCount / theSamples));
+    } // for
+    return theReport.toString ();
+  } // getReport
+
+  /**
+   * Method stopGroup stops every shard and waits up to theWaitTime (in
+   * milliseconds) for each of them to exit.
+   */
+  public void stopGroup (long theWaitTime)
+  {
+    for (int i = 0; i < m_theShards.length; i++)
+    {
+      m_theShards[i].stopThread ();
+    } // for
+    for (int i = 0; i < m_theShards.length; i++)
+    {
+      m_theShards[i].waitForThreadToStop (theWaitTime);
+    } // for
+  } // stopGroup
+
+  /**
+   * Method sampleKey counts theKey using the space-saving algorithm. When
+   * all counters are in use the key with the lowest count is replaced and
+   * the new key inherits its count as the error of its estimate.
+   */
+  private void sampleKey (Object theKey, int theShard)
+  {
+    synchronized (m_theKeyCounters)
+    {
+      HotKey theCounter = m_theKeyCounters.get (theKey);
+      if (theCounter == null)
+      {
+        HotKey theLowest = null;
+        theCounter = new HotKey (theKey, theShard);
+        if (m_theKeyCounters.size () >= HOT_KEY_COUNTERS)
+        {
+          Iterator<HotKey> theCounters = m_theKeyCounters.values ().iterator ();
+          while (theCounters.hasNext ())
+          {
+            HotKey aCounter = theCounters.next ();
+            if ((theLowest == null) || (aCounter.m_theCount < theLowest.m_theCount))
+            {
+              theLowest = aCounter;
+            } // if
+          } // while
+          m_theKeyCounters.remove (theLowest.m_theKey);
+          theCounter.m_theCount = theLowest.m_theCount;
+          theCounter.m_theError = theLowest.m_theCount;
+        } // if
+        m_theKeyCounters.put (theKey, theCounter);
+      } // if
+      theCounter.m_theCount++;
+    } // synchronized
+  } // sampleKey
+
+  /**
+   * Method buildRing places the points of every shard on the ring.
+   */
+  private void buildRing ()
+  {
+    long[][] thePoints = new long[m_theRingPoints.length][];
+
+    for (int i = 0; i < m_theShards.length; i++)
+    {
+      for (int j = 0; j < POINTS_PER_SHARD; j++)
+      {
+        thePoints[i * POINTS_PER_SHARD + j] = new long[] {mix (((long) i << 32) | j), i};
+      } // for
+    } // for
+    Arrays.sort (thePoints, new Comparator<long[]> ()
+    {
+      public int compare (long[] theFirst, long[] theSecond)
+      {
+        return Long.compare (theFirst[0], theSecond[0]);
+      } // compare
+    });
+    for (int i = 0; i < thePoints.length; i++)
+    {
+      m_theRingPoints[i] = thePoints[i][0];
+      m_theRingShards[i] = (int) thePoints[i][1];
+    } // for
+  } // buildRing
+
+  /**
+   * Method mix spreads the bits of theValue over a long so that keys with
+   * similar hash codes land on distant parts of the ring.
+   */
+  private static long mix (long theValue)
+  {
+    long theHash = theValue + 0x9E3779B97F4A7C15L;
+
+    theHash = (theHash ^ (theHash >>> 30)) * 0xBF58476D1CE4E5B9L;
+    theHash = (theHash ^ (theHash >>> 27)) * 0x94D049BB133111EBL;
+    return theHash ^ (theHash >>> 31);
+  } // mix
+
+} // class ShardedThreadItGroup
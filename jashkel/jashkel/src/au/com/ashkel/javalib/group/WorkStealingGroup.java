@@ -0,0 +1,231 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WorkStealingGroup
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class WorkStealingGroup is a group of ThreadIts of the same kind in which
+ * a member that runs out of work takes stealable work from the tail of the
+ * queue of a busy sibling. Work is still sent to particular members, so
+ * statically partitioned work keeps its partition unless it is marked as
+ * stealable.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.group;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import au.com.ashkel.javalib.pipeline.ThreadItFactory;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+import au.com.ashkel.javalib.threads.WorkStealingDeque;
+
+/**
+ * Class WorkStealingGroup gives each member a WorkStealingDeque as its work
+ * queue and a WorkStealingWaitStrategy. Stealing is opt-in per work
+ * package through WorkPackIt.m_isStealable. A thief steals from the
+ * sibling with the most work waiting. When an insert leaves a backlog at a
+ * member and another member is idle, the idle member is woken so that it
+ * can steal, so idle members do not poll their siblings.<p>
+ * Stolen work is performed by the thief, so it must not depend on the
+ * state of the member it was sent to. A reply to the default work done
+ * queue is redirected to the work done queue of the member the work was
+ * sent to, so the sender finds it where it expects.
+ */
+public class WorkStealingGroup implements WorkStealingDeque.BacklogListener
+{
+  /** m_theName is the name of the group. Members are named after it. */
+  protected final String m_theName;
+  /** m_theMembers are the members of the group. */
+  protected final ThreadIt[] m_theMembers;
+  /** m_theDeques are the work queues of the members. */
+  protected final WorkStealingDeque[] m_theDeques;
+  /** m_theIdleCount is the number of members parked waiting for work. */
+  private final AtomicInteger m_theIdleCount = new AtomicInteger ();
+
+  /**
+   * Method WorkStealingGroup creates a group of theSize members using
+   * theFactory. Members are named theName.n where n is the number of the
+   * member.
+   */
+  public WorkStealingGroup (String theName, ThreadItFactory theFactory, int theSize) throws IOException
+  {
+    m_theName = theName;
+    m_theMembers = new ThreadIt[theSize];
+    m_theDeques = new WorkStealingDeque[theSize];
+    // Every queue exists before a member can try to steal from it.
+    for (int i = 0; i < theSize; i++)
+    {
+      m_theDeques[i] = new WorkStealingDeque ();
+      m_theDeques[i].setBacklogListener (this);
+    } // for
+    for (int i = 0; i < theSize; i++)
+    {
+      m_theMembers[i] = theFactory.newThreadIt (theName + "." + i);
+      m_theMembers[i].setWorkQ (m_theDeques[i]);
+      m_theMembers[i].setWaitStrategy (new WorkStealingWaitStrategy (this));
+      // End the current wait so that the next one uses the strategy.
+      m_theDeques[i].wake ();
+    } // for
+  } // WorkStealingGroup
+
+  /**
+   * Method startWork sends theWorkPack to the member numbered theMember.
+   * The method returns the work package identity given by the member.
+   */
+  public long startWork (int theMember, WorkPackIt theWorkPack)
+  {
+    return m_theMembers[theMember].startWork (theWorkPack);
+  } // startWork
+
+  /**
+   * Method steal takes a stealable work package for the member owning
+   * theThief from the sibling with the most work waiting, or from any
+   * other sibling if that one has nothing stealable. The method returns
+   * null if there is nothing to steal.
+   */
+  WorkPackIt steal (WorkStealingDeque theThief)
+  {
+    WorkPackIt theStolen = null;
+    int theVictim = -1;
+    long theDeepest = 0;
+
+    for (int i = 0; i < m_theDeques.length; i++)
+    {
+      long theDepth = m_theDeques[i].getDepth ();
+      if ((m_theDeques[i] != theThief) && (theDepth > theDeepest))
+      {
+        theDeepest = theDepth;
+        theVictim = i;
+      } // if
+    } // for
+    if (theVictim >= 0)
+    {
+      theStolen = stealFrom (theVictim);
+      for (int i = 0; (i < m_theDeques.length) && (theStolen == null); i++)
+      {
+        if ((i != theVictim) && (m_theDeques[i] != theThief) && (m_theDeques[i].getDepth () > 0))
+        {
+          theStolen = stealFrom (i);
+        } // if
+      } // for
+    } // if
+    return theStolen;
+  } // steal
+
+  /**
+   * Method setIdle counts the members parked waiting for work.
+   */
+  void setIdle (boolean isIdle)
+  {
+    if (isIdle)
+    {
+      m_theIdleCount.incrementAndGet ();
+    }
+    else
+    {
+      m_theIdleCount.decrementAndGet ();
+    } // if
+  } // setIdle
+
+  /**
+   * Method onBacklog wakes one idle member so that it can steal from the
+   * member owning theDeque.
+   */
+  public void onBacklog (WorkStealingDeque theDeque)
+  {
+    boolean isWoken = false;
+
+    if (m_theIdleCount.get () > 0)
+    {
+      for (int i = 0; (i < m_theDeques.length) && (!isWoken); i++)
+      {
+        if ((m_theDeques[i] != theDeque) && (m_theDeques[i].isWaiting ()))
+        {
+          m_theDeques[i].wake ();
+          isWoken = true;
+        } // if
+      } // for
+    } // if
+  } // onBacklog
+
+  public String getName ()
+  {
+    return m_theName;
+  } // getName
+
+  /**
+   * Method getMembers returns a copy of the member list.
+   */
+  public ThreadIt[] getMembers ()
+  {
+    return m_theMembers.clone ();
+  } // getMembers
+
+  /**
+   * Method getStolenCount returns the number of work packages stolen from
+   * the member numbered theMember.
+   */
+  public long getStolenCount (int theMember)
+  {
+    return m_theDeques[theMember].getStolenCount ();
+  } // getStolenCount
+
+  /**
+   * Method stopGroup stops every member and waits up to theWaitTime (in
+   * milliseconds) for each of them to exit.
+   */
+  public void stopGroup (long theWaitTime)
+  {
+    for (int i = 0; i < m_theMembers.length; i++)
+    {
+      m_theMembers[i].stopThread ();
+    } // for
+    for (int i = 0; i < m_theMembers.length; i++)
+    {
+      m_theMembers[i].waitForThreadToStop (theWaitTime);
+    } // for
+  } // stopGroup
+
+  /**
+   * Method stealFrom steals from the member numbered theVictim and
+   * redirects a reply to the default work done queue to that member.
+   */
+  private WorkPackIt stealFrom (int theVictim)
+  {
+    WorkPackIt theStolen = m_theDeques[theVictim].stealItem ();
+
+    if ((theStolen != null) && (theStolen.m_UseDefaultQ))
+    {
+      theStolen.m_UseDefaultQ = false;
+      theStolen.m_WorkDoneQ = m_theMembers[theVictim].getWorkDoneQ ();
+    } // if
+    return theStolen;
+  } // stealFrom
+
+} // class WorkStealingGroup
@@ -0,0 +1,98 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WorkStealingWaitStrategy
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class WorkStealingWaitStrategy is the wait strategy of a member of a
+ * WorkStealingGroup. A member with no work of its own steals work from a
+ * busy sibling before it waits.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.group;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.WaitStrategy;
+import au.com.ashkel.javalib.threads.WorkStealingDeque;
+
+/**
+ * Class WorkStealingWaitStrategy takes work from the member's own queue
+ * first and otherwise tries to steal from its siblings. If there is
+ * nothing to steal it parks in its own queue until work arrives or the
+ * group wakes it because a sibling has a backlog. Work stolen is counted
+ * as a spin.
+ */
+public class WorkStealingWaitStrategy extends WaitStrategy
+{
+  /** m_theGroup is the group the member belongs to. */
+  protected final WorkStealingGroup m_theGroup;
+
+  public WorkStealingWaitStrategy (WorkStealingGroup theGroup)
+  {
+    m_theGroup = theGroup;
+  } // WorkStealingWaitStrategy
+
+  /**
+   * Method waitItem waits for work for the member. A queue that is not a
+   * WorkStealingDeque is simply blocked on.
+   */
+  public Object waitItem (ProtectedQueue theQ, long theWaitTime)
+  {
+    long theDeadline = toDeadline (theWaitTime);
+    long theRemaining = theWaitTime;
+    Object anItem = theQ.pollItem ();
+
+    m_theWaitCount.incrementAndGet ();
+    if (!(theQ instanceof WorkStealingDeque))
+    {
+      theRemaining = 0;
+      anItem = (anItem != null) ? anItem : parkItem (theQ, theWaitTime);
+    } // if
+    while ((anItem == null) && (theRemaining > 0))
+    {
+      anItem = m_theGroup.steal ((WorkStealingDeque) theQ);
+      if (anItem != null)
+      {
+        m_theSpinCount.incrementAndGet ();
+      }
+      else
+      {
+        m_theGroup.setIdle (true);
+        anItem = parkItem (theQ, theRemaining);
+        m_theGroup.setIdle (false);
+        theRemaining = remainingTime (theDeadline);
+      } // if
+    } // while
+    return anItem;
+  } // waitItem
+
+  public String getName ()
+  {
+    return "work-stealing";
+  } // getName
+
+} // class WorkStealingWaitStrategy
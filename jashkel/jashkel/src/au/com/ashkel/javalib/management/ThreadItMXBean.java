@@ -0,0 +1,116 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItMXBean
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface ThreadItMXBean is the management interface published for every
+ * ThreadIt. It allows the active objects of a process to be inspected with
+ * any JMX console: their state, queue sizes, the work instruction being
+ * executed and for how long and the period settings. The period can be
+ * changed and the thread asked to stop.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.management;
+
+/**
+ * Interface ThreadItMXBean specifies the attributes and operations of a
+ * ThreadIt that are available through JMX.
+ */
+public interface ThreadItMXBean
+{
+  /**
+   * Method getName returns the name of the ThreadIt thread.
+   */
+  public String getName ();
+
+  /**
+   * Method getState returns the state of the ThreadIt thread. This is the
+   * java.lang.Thread.State name or STOPPING once a stop has been requested
+   * and the thread has not yet terminated.
+   */
+  public String getState ();
+
+  /**
+   * Method getWorkQSize returns the number of work packages waiting in the
+   * work queue.
+   */
+  public long getWorkQSize ();
+
+  /**
+   * Method getWorkQHighWaterMark returns the largest depth of the work
+   * queue since the metrics were last reset.
+   */
+  public long getWorkQHighWaterMark ();
+
+  /**
+   * Method getDoneQSize returns the number of results waiting in the work
+   * done queue.
+   */
+  public long getDoneQSize ();
+
+  /**
+   * Method getCurrentInstruction returns the work instruction being
+   * executed, ThreadIt.THREADIT_THREADIT_PERIOD_TIMER while the periodic
+   * method runs or ThreadIt.THREADIT_IDLE_INSTRUCTION when idle.
+   */
+  public int getCurrentInstruction ();
+
+  /**
+   * Method getCurrentInstructionTime returns how long (in milliseconds)
+   * the current work instruction has been executing or zero when idle.
+   */
+  public long getCurrentInstructionTime ();
+
+  /**
+   * Method getPeriod returns the period (in milliseconds) at which the
+   * periodic method is invoked.
+   */
+  public long getPeriod ();
+
+  /**
+   * Method setPeriod changes the period (in milliseconds) at which the
+   * periodic method is invoked. The change is made by the ThreadIt thread.
+   */
+  public void setPeriod (long thePeriod);
+
+  /**
+   * Method isPeriodicMethodSet returns true if a periodic method is set.
+   */
+  public boolean isPeriodicMethodSet ();
+
+  /**
+   * Method getWaitStrategy returns the name of the wait strategy in use.
+   */
+  public String getWaitStrategy ();
+
+  /**
+   * Method requestStop asks the ThreadIt thread to stop.
+   */
+  public void requestStop ();
+
+} // interface ThreadItMXBean
@@ -0,0 +1,151 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItMonitor
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ThreadItMonitor implements the ThreadItMXBean for one ThreadIt.
+ * The ThreadIt is held by a weak reference so that publishing it through
+ * JMX does not keep it alive.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.management;
+
+import java.lang.ref.WeakReference;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+
+/**
+ * Class ThreadItMonitor is the MXBean published for a ThreadIt. Every
+ * attribute reports a neutral value once the ThreadIt has been collected.
+ */
+public class ThreadItMonitor implements ThreadItMXBean
+{
+  /** m_wptheThreadIt is the ThreadIt being monitored. */
+  private final WeakReference<ThreadIt> m_wptheThreadIt;
+  /** m_theName is the name of the ThreadIt when it was registered. */
+  private final String m_theName;
+
+  /**
+   * Method ThreadItMonitor is the constructor for the class.<p>
+   * theThreadIt : is the ThreadIt to monitor.
+   */
+  public ThreadItMonitor (ThreadIt theThreadIt)
+  {
+    m_wptheThreadIt = new WeakReference<ThreadIt> (theThreadIt);
+    m_theName = theThreadIt.getName ();
+  } // constructor ThreadItMonitor
+
+  public String getName ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? m_theName : theThreadIt.getName ();
+  } // getName
+
+  public String getState ()
+  {
+    String theState = Thread.State.TERMINATED.name ();
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+
+    if (theThreadIt != null)
+    {
+      theState = theThreadIt.getState ().name ();
+      if ((theThreadIt.exitThread ()) && (theThreadIt.isAlive ()))
+      {
+        theState = "STOPPING";
+      } // if
+    } // if
+    return theState;
+  } // getState
+
+  public long getWorkQSize ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? 0 : theThreadIt.getWorkQ ().size ();
+  } // getWorkQSize
+
+  public long getWorkQHighWaterMark ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? 0 : theThreadIt.getWorkQ ().getHighWaterMark ();
+  } // getWorkQHighWaterMark
+
+  public long getDoneQSize ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? 0 : theThreadIt.getWorkDoneQ ().size ();
+  } // getDoneQSize
+
+  public int getCurrentInstruction ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? ThreadIt.THREADIT_IDLE_INSTRUCTION : theThreadIt.getCurrentInstruction ();
+  } // getCurrentInstruction
+
+  public long getCurrentInstructionTime ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? 0 : theThreadIt.getCurrentInstructionTime ();
+  } // getCurrentInstructionTime
+
+  public long getPeriod ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? 0 : theThreadIt.getPeriod ();
+  } // getPeriod
+
+  public void setPeriod (long thePeriod)
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    if (theThreadIt != null)
+    {
+      theThreadIt.requestPeriod (thePeriod);
+    } // if
+  } // setPeriod
+
+  public boolean isPeriodicMethodSet ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt != null) && (theThreadIt.isPeriodicMethodSet ());
+  } // isPeriodicMethodSet
+
+  public String getWaitStrategy ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    return (theThreadIt == null) ? "" : theThreadIt.getWaitStrategy ().getName ();
+  } // getWaitStrategy
+
+  public void requestStop ()
+  {
+    ThreadIt theThreadIt = m_wptheThreadIt.get ();
+    if (theThreadIt != null)
+    {
+      theThreadIt.stopThread ();
+    } // if
+  } // requestStop
+
+} // class ThreadItMonitor
@@ -0,0 +1,239 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItRegistry
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ThreadItRegistry keeps track of every ThreadIt in the process and
+ * publishes a ThreadItMXBean for each of them with the platform MBean
+ * server. The ThreadIt instances are held by weak references so that the
+ * registry never keeps a stopped instance alive. A ThreadIt registers
+ * itself when it is created and unregisters when its thread exits.
+ * Publishing through JMX can be turned off with the system property
+ * au.com.ashkel.threadit.jmx=false.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.management;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+
+/**
+ * Class ThreadItRegistry is the process wide registry of ThreadIt instances.
+ * All methods are static and thread safe.
+ */
+public class ThreadItRegistry
+{
+  /** JMX_DOMAIN is the JMX domain the ThreadIt MXBeans are published in. */
+  public static final String JMX_DOMAIN = "au.com.ashkel.threadit";
+  /** JMX_PROPERTY is the system property that turns JMX publishing off. */
+  public static final String JMX_PROPERTY = "au.com.ashkel.threadit.jmx";
+
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (ThreadItRegistry.class);
+
+  /** m_theEntries holds an entry for every registered ThreadIt by its thread id. */
+  private static final ConcurrentHashMap<Long, Entry> m_theEntries = new ConcurrentHashMap<Long, Entry> ();
+  /** m_theCollected receives the entries of ThreadIt instances that have been collected. */
+  private static final ReferenceQueue<ThreadIt> m_theCollected = new ReferenceQueue<ThreadIt> ();
+  /** m_isPublishing is true if MXBeans are published with the platform MBean server. */
+  private static volatile boolean m_isPublishing = !"false".equalsIgnoreCase (System.getProperty (JMX_PROPERTY));
+
+  /**
+   * Method ThreadItRegistry is private as the class only has static methods.
+   */
+  private ThreadItRegistry ()
+  {
+  } // constructor ThreadItRegistry
+
+  /**
+   * Method register adds theThreadIt to the registry and publishes its
+   * MXBean. Registering an instance a second time has no effect.
+   */
+  public static void register (ThreadIt theThreadIt)
+  {
+    Entry theEntry = null;
+
+    expungeCollected ();
+    theEntry = new Entry (theThreadIt, m_theCollected);
+    if (m_theEntries.putIfAbsent (theEntry.m_theId, theEntry) == null)
+    {
+      if (m_isPublishing)
+      {
+        publish (theEntry, theThreadIt);
+      } // if
+    } // if
+  } // register
+
+  /**
+   * Method unregister removes theThreadIt from the registry and withdraws
+   * its MXBean.
+   */
+  public static void unregister (ThreadIt theThreadIt)
+  {
+    Entry theEntry = m_theEntries.get (theThreadIt.getId ());
+
+    if ((theEntry != null) && (theEntry.get () == theThreadIt))
+    {
+      remove (theEntry);
+    } // if
+    expungeCollected ();
+  } // unregister
+
+  /**
+   * Method getThreadIts returns the ThreadIt instances currently registered.
+   * The list holds strong references and should not be kept.
+   */
+  public static List<ThreadIt> getThreadIts ()
+  {
+    ThreadIt theThreadIt = null;
+    List<ThreadIt> theList = new ArrayList<ThreadIt> ();
+    Iterator<Entry> theIterator = null;
+
+    expungeCollected ();
+    theIterator = m_theEntries.values ().iterator ();
+    while (theIterator.hasNext ())
+    {
+      theThreadIt = theIterator.next ().get ();
+      if (theThreadIt != null)
+      {
+        theList.add (theThreadIt);
+      } // if
+    } // while
+    return theList;
+  } // getThreadIts
+
+  /**
+   * Method getObjectName returns the JMX name published for theThreadIt or
+   * null if it is not published.
+   */
+  public static ObjectName getObjectName (ThreadIt theThreadIt)
+  {
+    Entry theEntry = m_theEntries.get (theThreadIt.getId ());
+    return ((theEntry != null) && (theEntry.get () == theThreadIt)) ? theEntry.m_theName : null;
+  } // getObjectName
+
+  /**
+   * Method setPublishing turns the publishing of MXBeans for ThreadIt
+   * instances registered from now on on or off.
+   */
+  public static void setPublishing (boolean isPublishing)
+  {
+    m_isPublishing = isPublishing;
+  } // setPublishing
+
+  /**
+   * Method publish registers the MXBean of theThreadIt with the platform
+   * MBean server. A failure is logged and does not affect the ThreadIt.
+   */
+  private static void publish (Entry theEntry, ThreadIt theThreadIt)
+  {
+    ObjectName theName = null;
+    MBeanServer theServer = null;
+
+    try
+    {
+      theName = new ObjectName (JMX_DOMAIN + ":type=ThreadIt,name=" + ObjectName.quote (theThreadIt.getName ()) + ",id=" + theEntry.m_theId);
+      theServer = ManagementFactory.getPlatformMBeanServer ();
+      theServer.registerMBean (new ThreadItMonitor (theThreadIt), theName);
+      theEntry.m_theName = theName;
+    } // try
+    catch (Exception anException)
+    {
+      m_theLogger.warn ("Unable to publish ThreadIt " + theThreadIt.getName (), anException);
+    } // catch
+  } // publish
+
+  /**
+   * Method remove removes theEntry from the registry and withdraws its MXBean.
+   */
+  private static void remove (Entry theEntry)
+  {
+    ObjectName theName = null;
+
+    if (m_theEntries.remove (theEntry.m_theId, theEntry))
+    {
+      theName = theEntry.m_theName;
+      if (theName != null)
+      {
+        try
+        {
+          ManagementFactory.getPlatformMBeanServer ().unregisterMBean (theName);
+        } // try
+        catch (Exception anException)
+        {
+          m_theLogger.debug ("Unable to withdraw " + theName, anException);
+        } // catch
+      } // if
+    } // if
+  } // remove
+
+  /**
+   * Method expungeCollected removes the entries of ThreadIt instances that
+   * have been collected without being unregistered.
+   */
+  private static void expungeCollected ()
+  {
+    Entry theEntry = (Entry) m_theCollected.poll ();
+
+    while (theEntry != null)
+    {
+      remove (theEntry);
+      theEntry = (Entry) m_theCollected.poll ();
+    } // while
+  } // expungeCollected
+
+  /**
+   * Class Entry is the weak reference to a registered ThreadIt together with
+   * its identity and the name of its MXBean.
+   */
+  private static class Entry extends WeakReference<ThreadIt>
+  {
+    final Long m_theId;
+    volatile ObjectName m_theName = null;
+
+    Entry (ThreadIt theThreadIt, ReferenceQueue<ThreadIt> theQueue)
+    {
+      super (theThreadIt, theQueue);
+      m_theId = theThreadIt.getId ();
+    } // constructor Entry
+
+  } // class Entry
+
+} // class ThreadItRegistry
@@ -0,0 +1,349 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : LatencyHistogram
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class LatencyHistogram records time intervals (in nanoseconds) in buckets
+ * whose width grows with the magnitude of the value. Each power of two is
+ * split into sixteen sub-buckets so every recorded value, and so every
+ * percentile, is known to within 6.25%. Recording a value does not allocate and does not lock. Snapshots
+ * are taken without stopping the writer and reset is implemented by
+ * remembering the counts at the time of the reset.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class LatencyHistogram is a log-bucketed histogram of latencies. The
+ * record method is intended to be called by a single thread, normally the
+ * thread of a ThreadIt, while any thread may take snapshots or reset it.
+ */
+public class LatencyHistogram
+{
+  /** SUB_BUCKET_BITS is the number of bits used to split each power of two. */
+  private static final int SUB_BUCKET_BITS = 4;
+  /** SUB_BUCKET_COUNT is the number of sub-buckets in each power of two. */
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  /** SUB_BUCKET_MASK selects the sub-bucket bits of a value. */
+  private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+  /**
+   * MAX_MAGNITUDE is the highest power of two tracked. Larger values are
+   * counted in the last bucket. 2^40 nanoseconds is about 18 minutes.
+   */
+  private static final int MAX_MAGNITUDE = 40;
+  /**
+   * BUCKET_COUNT is the number of buckets in the histogram including the
+   * overflow bucket. The values below SUB_BUCKET_COUNT each have a bucket
+   * and each power of two from there to MAX_MAGNITUDE has SUB_BUCKET_COUNT.
+   */
+  public static final int BUCKET_COUNT = ((MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT) + 1;
+
+  /** m_theCounts is the number of values recorded in each bucket. */
+  private final AtomicLongArray m_theCounts = new AtomicLongArray (BUCKET_COUNT);
+  /** m_theSum is the sum of all values recorded. */
+  private final AtomicLong m_theSum = new AtomicLong ();
+  /** m_theBaseline is the snapshot taken at the last reset. */
+  private volatile Snapshot m_theBaseline = null;
+
+  /**
+   * Method LatencyHistogram is the constructor for the class and creates
+   * an empty histogram.
+   */
+  public LatencyHistogram ()
+  {
+    m_theBaseline = new Snapshot (new long[BUCKET_COUNT], 0);
+  } // constructor LatencyHistogram
+
+  /**
+   * Method record adds a value to the histogram. The method must only be
+   * called by one thread at a time.<p>
+   * theValue : is the value to record in nanoseconds. Negative values are
+   *            recorded as zero.
+   */
+  public void record (long theValue)
+  {
+    int theIndex = 0;
+
+    if (theValue < 0)
+    {
+      theValue = 0;
+    } // if
+    theIndex = toIndex (theValue);
+    // Single writer: an ordered store is enough to publish the new count.
+    m_theCounts.lazySet (theIndex, m_theCounts.get (theIndex) + 1);
+    m_theSum.lazySet (m_theSum.get () + theValue);
+  } // record
+
+  /**
+   * Method snapshot returns the values recorded since the last reset.
+   */
+  public Snapshot snapshot ()
+  {
+    Snapshot theBaseline = m_theBaseline;
+    long[] theCounts = new long[BUCKET_COUNT];
+
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      theCounts[i] = m_theCounts.get (i) - theBaseline.m_theCounts[i];
+    } // for
+    return new Snapshot (theCounts, m_theSum.get () - theBaseline.m_theSum);
+  } // snapshot
+
+  /**
+   * Method reset discards the values recorded so far. The writer is not
+   * disturbed: the current counts become the baseline of later snapshots.
+   */
+  public void reset ()
+  {
+    long[] theCounts = new long[BUCKET_COUNT];
+
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      theCounts[i] = m_theCounts.get (i);
+    } // for
+    m_theBaseline = new Snapshot (theCounts, m_theSum.get ());
+  } // reset
+
+  /**
+   * Method snapshotAndReset returns the values recorded since the last
+   * reset and then resets the histogram.
+   */
+  public Snapshot snapshotAndReset ()
+  {
+    Snapshot theSnapshot = snapshot ();
+    Snapshot theBaseline = m_theBaseline;
+    long[] theCounts = new long[BUCKET_COUNT];
+
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      theCounts[i] = theBaseline.m_theCounts[i] + theSnapshot.m_theCounts[i];
+    } // for
+    m_theBaseline = new Snapshot (theCounts, theBaseline.m_theSum + theSnapshot.m_theSum);
+    return theSnapshot;
+  } // snapshotAndReset
+
+  /**
+   * Method toIndex returns the bucket that theValue is counted in.
+   */
+  static int toIndex (long theValue)
+  {
+    int theIndex = 0;
+    int theMagnitude = 0;
+
+    if (theValue < SUB_BUCKET_COUNT)
+    {
+      theIndex = (int) theValue;
+    }
+    else
+    {
+      theMagnitude = 63 - Long.numberOfLeadingZeros (theValue);
+      if (theMagnitude > MAX_MAGNITUDE)
+      {
+        theIndex = BUCKET_COUNT - 1;
+      }
+      else
+      {
+        theIndex = ((theMagnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT)
+                 + (int) ((theValue >>> (theMagnitude - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK);
+      } // if
+    } // if
+    return theIndex;
+  } // toIndex
+
+  /**
+   * Method lowerBound returns the smallest value counted in bucket theIndex.
+   */
+  static long lowerBound (int theIndex)
+  {
+    long theBound = theIndex;
+    int theMagnitude = 0;
+
+    if (theIndex >= SUB_BUCKET_COUNT)
+    {
+      theMagnitude = (theIndex / SUB_BUCKET_COUNT) + SUB_BUCKET_BITS - 1;
+      theBound = ((long) (SUB_BUCKET_COUNT + (theIndex & SUB_BUCKET_MASK))) << (theMagnitude - SUB_BUCKET_BITS);
+    } // if
+    return theBound;
+  } // lowerBound
+
+  /**
+   * Method upperBound returns the largest value counted in bucket theIndex.
+   */
+  static long upperBound (int theIndex)
+  {
+    long theBound = Long.MAX_VALUE;
+
+    if (theIndex < BUCKET_COUNT - 1)
+    {
+      theBound = lowerBound (theIndex + 1) - 1;
+    } // if
+    return theBound;
+  } // upperBound
+
+  /**
+   * Class Snapshot is an immutable copy of the counts of a LatencyHistogram.
+   * Percentiles are reported as the upper bound of the bucket that holds
+   * them so they are never understated.
+   */
+  public static class Snapshot
+  {
+    /** m_theCounts is the number of values in each bucket. */
+    private final long[] m_theCounts;
+    /** m_theSum is the sum of the values in the snapshot. */
+    private final long m_theSum;
+    /** m_theCount is the number of values in the snapshot. */
+    private final long m_theCount;
+
+    /**
+     * Method Snapshot is the constructor for the class.
+     */
+    Snapshot (long[] theCounts, long theSum)
+    {
+      long theCount = 0;
+
+      for (int i = 0; i < theCounts.length; i++)
+      {
+        theCount += theCounts[i];
+      } // for
+      m_theCounts = theCounts;
+      m_theSum = theSum;
+      m_theCount = theCount;
+    } // constructor Snapshot
+
+    /**
+     * Method getCount returns the number of values recorded.
+     */
+    public long getCount ()
+    {
+      return m_theCount;
+    } // getCount
+
+    /**
+     * Method getSum returns the sum of the values recorded.
+     */
+    public long getSum ()
+    {
+      return m_theSum;
+    } // getSum
+
+    /**
+     * Method getMean returns the average of the values recorded or zero if
+     * there are none.
+     */
+    public double getMean ()
+    {
+      double theMean = 0;
+
+      if (m_theCount > 0)
+      {
+        theMean = (double) m_theSum / (double) m_theCount;
+      } // if
+      return theMean;
+    } // getMean
+
+    /**
+     * Method getMin returns the lower bound of the smallest value recorded.
+     */
+    public long getMin ()
+    {
+      long theMin = 0;
+
+      for (int i = 0; i < m_theCounts.length; i++)
+      {
+        if (m_theCounts[i] > 0)
+        {
+          theMin = lowerBound (i);
+          break;
+        } // if
+      } // for
+      return theMin;
+    } // getMin
+
+    /**
+     * Method getMax returns the upper bound of the largest value recorded.
+     */
+    public long getMax ()
+    {
+      return getPercentile (100.0);
+    } // getMax
+
+    /**
+     * Method getPercentile returns the value below which thePercentile
+     * percent of the recorded values fall.<p>
+     * thePercentile : is the percentile in the range 0 to 100.
+     */
+    public long getPercentile (double thePercentile)
+    {
+      long theRank = 0;
+      long theSeen = 0;
+      long theValue = 0;
+
+      if (m_theCount > 0)
+      {
+        theRank = (long) Math.ceil ((Math.min (100.0, Math.max (0.0, thePercentile)) / 100.0) * m_theCount);
+        theRank = Math.max (1, theRank);
+        for (int i = 0; i < m_theCounts.length; i++)
+        {
+          theSeen += m_theCounts[i];
+          if (theSeen >= theRank)
+          {
+            theValue = upperBound (i);
+            break;
+          } // if
+        } // for
+      } // if
+      return theValue;
+    } // getPercentile
+
+    /**
+     * Method getBucketCount returns the number of values in bucket theIndex.
+     */
+    public long getBucketCount (int theIndex)
+    {
+      return m_theCounts[theIndex];
+    } // getBucketCount
+
+    /**
+     * Method toString returns a one line summary of the snapshot with the
+     * values in microseconds.
+     */
+    public String toString ()
+    {
+      return "count=" + m_theCount
+           + " mean=" + (long) (getMean () / 1000.0)
+           + "us p50=" + (getPercentile (50) / 1000)
+           + "us p99=" + (getPercentile (99) / 1000)
+           + "us max=" + (getMax () / 1000) + "us";
+    } // toString
+
+  } // class Snapshot
+
+} // class LatencyHistogram
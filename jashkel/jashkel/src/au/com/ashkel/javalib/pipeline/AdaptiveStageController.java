@@ -0,0 +1,494 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : AdaptiveStageController
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class AdaptiveStageController resizes the pools of pipeline stages as the
+ * load moves between them. It samples the queue depth and the service and
+ * end-to-end times of each pool periodically and adds or removes members,
+ * within the bounds given for the pool, to hold the latency of the pool at
+ * a target. Every resize is recorded in an event log.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import au.com.ashkel.javalib.metrics.LatencyHistogram;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.ThreadItMetrics;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class AdaptiveStageController is a ThreadIt whose periodic method samples
+ * the pools it manages. The latency of a pool is estimated as the larger of
+ * the mean end-to-end time of the work completed since the last sample and
+ * the time a new work package would take given the queue depth and the
+ * mean service time. A pool grows when the estimate is above the target
+ * and work is waiting, since more members do not shorten the service time
+ * itself. A pool shrinks when the estimate is well below the target or no
+ * work is waiting, provided the remaining members would not be overloaded. To avoid oscillation a condition must hold for
+ * several samples in a row before the pool is resized, there is a band
+ * between the grow and shrink thresholds, and no decision is made for a
+ * number of samples after a resize.
+ */
+public class AdaptiveStageController extends ThreadIt
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (AdaptiveStageController.class);
+
+  /** DEFAULT_EVENT_LOG_SIZE is the number of resize events kept by default. */
+  public static final int DEFAULT_EVENT_LOG_SIZE = 256;
+
+  /** m_theStages are the pools managed. */
+  protected final List<ManagedStage> m_theStages = new CopyOnWriteArrayList<ManagedStage> ();
+  /** m_theEvents are the most recent resize events, oldest first. */
+  private final ArrayDeque<ResizeEvent> m_theEvents = new ArrayDeque<ResizeEvent> ();
+  /** m_theEventLogSize is the number of resize events kept. */
+  protected int m_theEventLogSize = DEFAULT_EVENT_LOG_SIZE;
+  /** m_theShrinkRatio is the fraction of the target below which a pool may shrink. */
+  protected double m_theShrinkRatio = 0.5;
+  /** m_theUtilisationLimit is the busiest the members may be after a pool shrinks. */
+  protected double m_theUtilisationLimit = 0.7;
+  /** m_theSustainCount is the number of samples in a row needed to resize. */
+  protected int m_theSustainCount = 3;
+  /** m_theCooldownCount is the number of samples skipped after a resize. */
+  protected int m_theCooldownCount = 3;
+  /** m_theStopTime is the time (in milliseconds) a removed member is given to finish. */
+  protected long m_theStopTime = 1000;
+
+  /**
+   * Class ManagedStage holds the bounds of a pool and the state carried
+   * from one sample to the next.
+   */
+  protected static class ManagedStage
+  {
+    protected final ThreadItPool m_thePool;
+    protected final int m_theWorkInstruction;
+    protected final int m_theMinSize;
+    protected final int m_theMaxSize;
+    /** m_theTargetLatency is the target latency in nanoseconds. */
+    protected final long m_theTargetLatency;
+    /** m_theLastCounts are the count and sums of each member at the last sample. */
+    protected IdentityHashMap<ThreadIt, long[]> m_theLastCounts = new IdentityHashMap<ThreadIt, long[]> ();
+    protected long m_theLastSampleTime = System.nanoTime ();
+    /** m_theMeanServiceTime is the last known mean service time in nanoseconds. */
+    protected double m_theMeanServiceTime = 0;
+    protected int m_theHighCount = 0;
+    protected int m_theLowCount = 0;
+    protected int m_theCooldown = 0;
+
+    ManagedStage (ThreadItPool thePool, int theWorkInstruction, int theMinSize, int theMaxSize, long theTargetLatency)
+    {
+      m_thePool = thePool;
+      m_theWorkInstruction = theWorkInstruction;
+      m_theMinSize = theMinSize;
+      m_theMaxSize = theMaxSize;
+      m_theTargetLatency = theTargetLatency * 1000L;
+    } // ManagedStage
+  } // class ManagedStage
+
+  /**
+   * Class ResizeEvent records a resize decision and the sample it was
+   * based on. Times are in microseconds.
+   */
+  public static class ResizeEvent
+  {
+    protected final long m_theTime = System.currentTimeMillis ();
+    protected final String m_theStageName;
+    protected final int m_theOldSize;
+    protected final int m_theNewSize;
+    protected final String m_theReason;
+    protected final long m_theLatency;
+    protected final long m_theTargetLatency;
+    protected final long m_theServiceTime;
+    protected final long m_theDepth;
+    protected final double m_theUtilisation;
+
+    ResizeEvent (String theStageName, int theOldSize, int theNewSize, String theReason, long theLatency,
+                 long theTargetLatency, long theServiceTime, long theDepth, double theUtilisation)
+    {
+      m_theStageName = theStageName;
+      m_theOldSize = theOldSize;
+      m_theNewSize = theNewSize;
+      m_theReason = theReason;
+      m_theLatency = theLatency;
+      m_theTargetLatency = theTargetLatency;
+      m_theServiceTime = theServiceTime;
+      m_theDepth = theDepth;
+      m_theUtilisation = theUtilisation;
+    } // ResizeEvent
+
+    /** Method getTime returns the System.currentTimeMillis of the decision. */
+    public long getTime ()
+    {
+      return m_theTime;
+    } // getTime
+
+    public String getStageName ()
+    {
+      return m_theStageName;
+    } // getStageName
+
+    public int getOldSize ()
+    {
+      return m_theOldSize;
+    } // getOldSize
+
+    public int getNewSize ()
+    {
+      return m_theNewSize;
+    } // getNewSize
+
+    public String getReason ()
+    {
+      return m_theReason;
+    } // getReason
+
+    /** Method getLatency returns the estimated latency in microseconds. */
+    public long getLatency ()
+    {
+      return m_theLatency;
+    } // getLatency
+
+    public long getTargetLatency ()
+    {
+      return m_theTargetLatency;
+    } // getTargetLatency
+
+    /** Method getServiceTime returns the mean service time in microseconds. */
+    public long getServiceTime ()
+    {
+      return m_theServiceTime;
+    } // getServiceTime
+
+    public long getDepth ()
+    {
+      return m_theDepth;
+    } // getDepth
+
+    /** Method getUtilisation returns the fraction of the time the members were busy. */
+    public double getUtilisation ()
+    {
+      return m_theUtilisation;
+    } // getUtilisation
+
+    public String toString ()
+    {
+      return String.format ("%s %d -> %d (%s) latency=%dus target=%dus service=%dus depth=%d utilisation=%.2f",
+                            m_theStageName, m_theOldSize, m_theNewSize, m_theReason, m_theLatency,
+                            m_theTargetLatency, m_theServiceTime, m_theDepth, m_theUtilisation);
+    } // toString
+  } // class ResizeEvent
+
+  /**
+   * Method AdaptiveStageController creates a controller that samples its
+   * pools every theSamplePeriod milliseconds. A period of zero turns off
+   * sampling; evaluate can then be called directly.
+   */
+  public AdaptiveStageController (String theThreadName, long theSamplePeriod) throws IOException
+  {
+    super (theThreadName);
+    requestPeriod (theSamplePeriod);
+    setPeriodicMethod ("sample");
+  } // AdaptiveStageController
+
+  /**
+   * Method addStage manages thePool.<p>
+   * theWorkInstruction : is the work instruction whose times are sampled.<p>
+   * theMinSize         : is the smallest size of the pool.<p>
+   * theMaxSize         : is the largest size of the pool.<p>
+   * theTargetLatency   : is the latency (in microseconds) to hold.
+   */
+  public void addStage (ThreadItPool thePool, int theWorkInstruction, int theMinSize, int theMaxSize, long theTargetLatency)
+  {
+    if (!thePool.isResizable ())
+    {
+      throw new IllegalArgumentException ("pool " + thePool.getName () + " has no factory");
+    } // if
+    if ((theMinSize < 1) || (theMaxSize < theMinSize))
+    {
+      throw new IllegalArgumentException ("invalid bounds " + theMinSize + ".." + theMaxSize);
+    } // if
+    m_theStages.add (new ManagedStage (thePool, theWorkInstruction, theMinSize, theMaxSize, theTargetLatency));
+  } // addStage
+
+  /**
+   * Method addStage manages the pool of theStage. See addStage (ThreadItPool,
+   * int, int, int, long).
+   */
+  public void addStage (PipelineStage theStage, int theMinSize, int theMaxSize, long theTargetLatency)
+  {
+    addStage (theStage.getPool (), theStage.m_theWorkInstruction, theMinSize, theMaxSize, theTargetLatency);
+  } // addStage
+
+  /**
+   * Method setHysteresis sets how readily pools are resized.<p>
+   * theShrinkRatio    : is the fraction of the target latency below which
+   *                     a pool may shrink.<p>
+   * theSustainCount   : is the number of samples in a row a condition must
+   *                     hold before a pool is resized.<p>
+   * theCooldownCount  : is the number of samples skipped after a resize.
+   */
+  public synchronized void setHysteresis (double theShrinkRatio, int theSustainCount, int theCooldownCount)
+  {
+    m_theShrinkRatio = theShrinkRatio;
+    m_theSustainCount = Math.max (1, theSustainCount);
+    m_theCooldownCount = Math.max (0, theCooldownCount);
+  } // setHysteresis
+
+  /**
+   * Method setUtilisationLimit sets how busy the members of a pool may be
+   * after it shrinks, as a fraction of the time.
+   */
+  public synchronized void setUtilisationLimit (double theUtilisationLimit)
+  {
+    m_theUtilisationLimit = theUtilisationLimit;
+  } // setUtilisationLimit
+
+  /**
+   * Method sample is the periodic method of the controller.
+   */
+  public WorkPackIt sample (WorkPackIt theWorkPack)
+  {
+    evaluate ();
+    return theWorkPack;
+  } // sample
+
+  /**
+   * Method evaluate samples every managed pool and resizes it if required.
+   */
+  public synchronized void evaluate ()
+  {
+    for (int i = 0; i < m_theStages.size (); i++)
+    {
+      evaluate (m_theStages.get (i));
+    } // for
+  } // evaluate
+
+  /**
+   * Method getEvents returns the resize events kept, oldest first.
+   */
+  public List<ResizeEvent> getEvents ()
+  {
+    synchronized (m_theEvents)
+    {
+      return new ArrayList<ResizeEvent> (m_theEvents);
+    } // synchronized
+  } // getEvents
+
+  /**
+   * Method stopIt stops the controller and waits for it to exit. The pools
+   * keep their size.
+   */
+  public void stopIt ()
+  {
+    stopThread ();
+    waitForThreadToStop (m_theStopTime);
+  } // stopIt
+
+  /**
+   * Method evaluate samples theStage and resizes its pool if required.
+   */
+  private void evaluate (ManagedStage theStage)
+  {
+    ThreadItPool thePool = theStage.m_thePool;
+    ThreadIt[] theMembers = thePool.getMembers ();
+    IdentityHashMap<ThreadIt, long[]> theCounts = new IdentityHashMap<ThreadIt, long[]> ();
+    long theNow = System.nanoTime ();
+    long theElapsed = Math.max (1, theNow - theStage.m_theLastSampleTime);
+    long theCount = 0;
+    long theServiceSum = 0;
+    long theEndToEndSum = 0;
+    long theDepth = thePool.getDepth ();
+    int theSize = theMembers.length;
+    double theEndToEnd = 0;
+    double theLatency = 0;
+    double theUtilisation = 0;
+
+    // Work out what the members completed since the last sample.
+    for (int i = 0; i < theMembers.length; i++)
+    {
+      long[] theCurrent = sampleMember (theMembers[i], theStage.m_theWorkInstruction);
+      long[] theLast = theStage.m_theLastCounts.get (theMembers[i]);
+      // A member that is new or whose metrics were reset counts from zero.
+      if ((theLast == null) || (theLast[0] > theCurrent[0]))
+      {
+        theLast = new long[3];
+      } // if
+      theCount += theCurrent[0] - theLast[0];
+      theServiceSum += theCurrent[1] - theLast[1];
+      theEndToEndSum += theCurrent[2] - theLast[2];
+      theCounts.put (theMembers[i], theCurrent);
+    } // for
+    theStage.m_theLastCounts = theCounts;
+    theStage.m_theLastSampleTime = theNow;
+    if (theCount > 0)
+    {
+      theStage.m_theMeanServiceTime = (double) theServiceSum / theCount;
+      theEndToEnd = (double) theEndToEndSum / theCount;
+    } // if
+    theLatency = Math.max (theEndToEnd, theStage.m_theMeanServiceTime * (1.0 + ((double) theDepth / theSize)));
+    theUtilisation = (double) theServiceSum / ((double) theElapsed * theSize);
+    decide (theStage, theSize, theLatency, theDepth, theUtilisation);
+  } // evaluate
+
+  /**
+   * Method decide resizes the pool of theStage from a sample.
+   */
+  private void decide (ManagedStage theStage, int theSize, double theLatency, long theDepth, double theUtilisation)
+  {
+    int theNewSize = theSize;
+    String theReason = null;
+
+    if (theSize < theStage.m_theMinSize)
+    {
+      theNewSize = theStage.m_theMinSize;
+      theReason = "below minimum";
+    }
+    else if (theSize > theStage.m_theMaxSize)
+    {
+      theNewSize = theStage.m_theMaxSize;
+      theReason = "above maximum";
+    }
+    else if (theStage.m_theCooldown > 0)
+    {
+      theStage.m_theCooldown--;
+      theStage.m_theHighCount = 0;
+      theStage.m_theLowCount = 0;
+    }
+    else if ((theLatency > theStage.m_theTargetLatency) && (theDepth > 0) && (theSize < theStage.m_theMaxSize))
+    {
+      theStage.m_theLowCount = 0;
+      if (++theStage.m_theHighCount >= m_theSustainCount)
+      {
+        // Grow in proportion to the overshoot but no more than double.
+        theNewSize = (int) Math.ceil (theSize * theLatency / theStage.m_theTargetLatency);
+        theNewSize = Math.min (theStage.m_theMaxSize, Math.max (theSize + 1, Math.min (theNewSize, theSize * 2)));
+        theReason = "latency above target";
+      } // if
+    }
+    else if (((theLatency < theStage.m_theTargetLatency * m_theShrinkRatio) || (theDepth == 0)) && (theSize > theStage.m_theMinSize) &&
+             ((theUtilisation * theSize / (theSize - 1)) < m_theUtilisationLimit))
+    {
+      theStage.m_theHighCount = 0;
+      if (++theStage.m_theLowCount >= m_theSustainCount)
+      {
+        theNewSize = theSize - 1;
+        theReason = "latency below target or idle";
+      } // if
+    }
+    else
+    {
+      theStage.m_theHighCount = 0;
+      theStage.m_theLowCount = 0;
+    } // if
+    if (theNewSize != theSize)
+    {
+      resize (theStage, theNewSize);
+      theStage.m_theHighCount = 0;
+      theStage.m_theLowCount = 0;
+      theStage.m_theCooldown = m_theCooldownCount;
+      logEvent (new ResizeEvent (theStage.m_thePool.getName (), theSize, theStage.m_thePool.getSize (), theReason,
+                                 (long) (theLatency / 1000), theStage.m_theTargetLatency / 1000,
+                                 (long) (theStage.m_theMeanServiceTime / 1000), theDepth, theUtilisation));
+    } // if
+  } // decide
+
+  /**
+   * Method resize adds or removes members of the pool of theStage until it
+   * has theSize members.
+   */
+  private void resize (ManagedStage theStage, int theSize)
+  {
+    ThreadItPool thePool = theStage.m_thePool;
+
+    try
+    {
+      while (thePool.getSize () < theSize)
+      {
+        thePool.addMember ();
+      } // while
+    } // try
+    catch (IOException anException)
+    {
+      m_theLogger.error ("Unable to add a member to pool " + thePool.getName (), anException);
+    } // catch
+    while ((thePool.getSize () > theSize) && (thePool.removeMember (m_theStopTime) != null))
+    {
+      // Each member is stopped in turn.
+    } // while
+  } // resize
+
+  /**
+   * Method sampleMember returns the number of work packages ptheMember has
+   * completed for theInstruction and the sums of their service and
+   * end-to-end times.
+   */
+  private static long[] sampleMember (ThreadIt ptheMember, int theInstruction)
+  {
+    ThreadItMetrics theMetrics = ptheMember.getMetrics ();
+    LatencyHistogram theServiceTime = theMetrics.getServiceTime (theInstruction);
+    LatencyHistogram theEndToEndTime = theMetrics.getEndToEndTime (theInstruction);
+    long[] theCounts = new long[3];
+
+    if ((theServiceTime != null) && (theEndToEndTime != null))
+    {
+      LatencyHistogram.Snapshot theService = theServiceTime.snapshot ();
+      LatencyHistogram.Snapshot theEndToEnd = theEndToEndTime.snapshot ();
+      theCounts[0] = theService.getCount ();
+      theCounts[1] = theService.getSum ();
+      theCounts[2] = theEndToEnd.getSum ();
+    } // if
+    return theCounts;
+  } // sampleMember
+
+  /**
+   * Method logEvent adds theEvent to the event log.
+   */
+  private void logEvent (ResizeEvent theEvent)
+  {
+    synchronized (m_theEvents)
+    {
+      if (m_theEvents.size () >= m_theEventLogSize)
+      {
+        m_theEvents.removeFirst ();
+      } // if
+      m_theEvents.addLast (theEvent);
+    } // synchronized
+    m_theLogger.info ("Resize " + theEvent);
+  } // logEvent
+
+} // class AdaptiveStageController
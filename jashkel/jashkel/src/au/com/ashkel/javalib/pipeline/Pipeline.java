@@ -0,0 +1,199 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : Pipeline
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class Pipeline is a sequence of stages where the result of each stage is
+ * the work of the next. Work is submitted to the first stage and the results
+ * of the last stage are placed in the output queue. The pipeline reports the
+ * throughput and occupancy of each stage so that the stage limiting the
+ * pipeline can be found.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.pipeline;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class Pipeline is created by a PipelineBuilder. The work instruction of a
+ * work package is set by each stage; the payload in m_Object is passed from
+ * stage to stage and should be replaced by each stage with its output.
+ */
+public class Pipeline
+{
+  /** m_theName is the name of the pipeline. */
+  protected final String m_theName;
+  /** m_theStages are the stages in order. */
+  protected final PipelineStage[] m_theStages;
+  /** m_theOutputQ receives the results of the last stage. */
+  protected final ProtectedQueue m_theOutputQ;
+  /** m_theStartTime is the System.nanoTime at which the pipeline was built. */
+  protected final long m_theStartTime = System.nanoTime ();
+
+  /**
+   * Method Pipeline links theStages in order and sends the results of the
+   * last stage to theOutputQ.
+   */
+  Pipeline (String theName, PipelineStage[] theStages, ProtectedQueue theOutputQ)
+  {
+    m_theName = theName;
+    m_theStages = theStages;
+    m_theOutputQ = theOutputQ;
+    for (int i = 0; i < theStages.length - 1; i++)
+    {
+      theStages[i].m_theNext = theStages[i + 1];
+    } // for
+    theStages[theStages.length - 1].m_theOutputQ = theOutputQ;
+  } // Pipeline
+
+  /**
+   * Method submit sends theData to the first stage in a new work package.
+   * See submit (WorkPackIt, long).
+   */
+  public boolean submit (Object theData, long theWaitTime)
+  {
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.m_Object = theData;
+    return submit (theWorkPack, theWaitTime);
+  } // submit
+
+  /**
+   * Method submit sends theWorkPack to the first stage. The method waits up
+   * to theWaitTime (in milliseconds) for the first stage to accept it and
+   * returns false if it was not accepted.
+   */
+  public boolean submit (WorkPackIt theWorkPack, long theWaitTime)
+  {
+    return m_theStages[0].offer (theWorkPack, theWaitTime);
+  } // submit
+
+  /**
+   * Method getResult waits up to theWaitTime (in milliseconds) for a result
+   * of the last stage. The method returns null if there is none.
+   */
+  public WorkPackIt getResult (long theWaitTime)
+  {
+    return (WorkPackIt) m_theOutputQ.waitItem (theWaitTime);
+  } // getResult
+
+  public ProtectedQueue getOutputQ ()
+  {
+    return m_theOutputQ;
+  } // getOutputQ
+
+  public String getName ()
+  {
+    return m_theName;
+  } // getName
+
+  /**
+   * Method getStages returns a copy of the stage list.
+   */
+  public PipelineStage[] getStages ()
+  {
+    return m_theStages.clone ();
+  } // getStages
+
+  /**
+   * Method getThroughput returns the number of work packages per second
+   * that theStage has completed since the pipeline was built.
+   */
+  public double getThroughput (PipelineStage theStage)
+  {
+    double theElapsed = (System.nanoTime () - m_theStartTime) / 1.0e9;
+
+    return (theElapsed > 0) ? theStage.getCompletedCount () / theElapsed : 0;
+  } // getThroughput
+
+  /**
+   * Method getBottleneck returns the stage limiting the pipeline. This is
+   * the stage with the highest occupancy. When several stages are equally
+   * occupied the last of them is chosen, since the stages before a slow
+   * stage fill up behind it. The method returns null if no stage holds
+   * any work.
+   */
+  public PipelineStage getBottleneck ()
+  {
+    PipelineStage theBottleneck = null;
+    double theHighest = 0;
+
+    for (int i = 0; i < m_theStages.length; i++)
+    {
+      double theRatio = m_theStages[i].getOccupancyRatio ();
+      if ((theRatio > 0) && (theRatio >= theHighest))
+      {
+        theHighest = theRatio;
+        theBottleneck = m_theStages[i];
+      } // if
+    } // for
+    return theBottleneck;
+  } // getBottleneck
+
+  /**
+   * Method getReport returns one line per stage giving its workers,
+   * occupancy, completed work, throughput and the time senders were held
+   * up waiting for it.
+   */
+  public String getReport ()
+  {
+    StringBuilder theReport = new StringBuilder ();
+    PipelineStage theBottleneck = getBottleneck ();
+
+    for (int i = 0; i < m_theStages.length; i++)
+    {
+      PipelineStage theStage = m_theStages[i];
+      theReport.append (String.format ("%s workers=%d occupancy=%d/%d completed=%d throughput=%.1f/s blocked=%d (%d ms)%s%n",
+                                       theStage.getName (), theStage.getPool ().getSize (),
+                                       theStage.getOccupancy (), theStage.getCapacity (),
+                                       theStage.getCompletedCount (), getThroughput (theStage),
+                                       theStage.getBlockedCount (), theStage.getBlockedTime (),
+                                       (theStage == theBottleneck) ? " bottleneck" : ""));
+    } // for
+    return theReport.toString ();
+  } // getReport
+
+  /**
+   * Method stop stops the pools of every stage, waiting up to theWaitTime
+   * (in milliseconds) for each member to exit. Work still in the pipeline
+   * is discarded.
+   */
+  public void stop (long theWaitTime)
+  {
+    for (int i = 0; i < m_theStages.length; i++)
+    {
+      m_theStages[i].m_isStopped = true;
+    } // for
+    for (int i = 0; i < m_theStages.length; i++)
+    {
+      m_theStages[i].getPool ().stopPool (theWaitTime);
+    } // for
+  } // stop
+
+} // class Pipeline
@@ -0,0 +1,120 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : PipelineBuilder
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class PipelineBuilder builds a Pipeline from a sequence of ThreadIt and
+ * ThreadItPool stages.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+
+/**
+ * Class PipelineBuilder collects the stages of a pipeline in order. Each
+ * stage names the work instruction it performs and the number of work
+ * packages it may hold. For example:<p>
+ * <pre>
+ * Pipeline thePipeline = new PipelineBuilder ("orders")
+ *   .addStage (theParser, Parser.PARSE, 16)
+ *   .addStage (thePricers, Pricer.PRICE, 64)
+ *   .addStage (theWriter, Writer.WRITE, 16)
+ *   .build ();
+ * </pre>
+ */
+public class PipelineBuilder
+{
+  /** DEFAULT_CAPACITY is the number of work packages a stage holds by default. */
+  public static final int DEFAULT_CAPACITY = 64;
+
+  /** m_theName is the name of the pipeline. */
+  protected final String m_theName;
+  /** m_theStages are the stages added so far. */
+  protected final List<PipelineStage> m_theStages = new ArrayList<PipelineStage> ();
+  /** m_theOutputQ receives the results or is null for a new queue. */
+  protected ProtectedQueue m_theOutputQ = null;
+
+  public PipelineBuilder (String theName)
+  {
+    m_theName = theName;
+  } // PipelineBuilder
+
+  /**
+   * Method addStage adds a stage performed by the single ThreadIt ptheStage.
+   */
+  public PipelineBuilder addStage (ThreadIt ptheStage, int theWorkInstruction, int theCapacity)
+  {
+    return addStage (new ThreadItPool (ptheStage.getName (), new ThreadIt[] {ptheStage}), theWorkInstruction, theCapacity);
+  } // addStage
+
+  /**
+   * Method addStage adds a stage performed by the members of thePool.<p>
+   * theWorkInstruction : is the work instruction the stage performs.<p>
+   * theCapacity        : is the number of work packages the stage holds
+   *                      before the stage before it is held up.
+   */
+  public PipelineBuilder addStage (ThreadItPool thePool, int theWorkInstruction, int theCapacity)
+  {
+    m_theStages.add (new PipelineStage (thePool.getName (), thePool, theWorkInstruction, theCapacity));
+    return this;
+  } // addStage
+
+  public PipelineBuilder addStage (ThreadItPool thePool, int theWorkInstruction)
+  {
+    return addStage (thePool, theWorkInstruction, DEFAULT_CAPACITY);
+  } // addStage
+
+  /**
+   * Method setOutputQ sets the queue the results of the last stage are
+   * placed in. By default the pipeline creates its own queue.
+   */
+  public PipelineBuilder setOutputQ (ProtectedQueue theOutputQ)
+  {
+    m_theOutputQ = theOutputQ;
+    return this;
+  } // setOutputQ
+
+  /**
+   * Method build creates the pipeline. At least one stage must be added.
+   */
+  public Pipeline build ()
+  {
+    if (m_theStages.isEmpty ())
+    {
+      throw new IllegalStateException ("pipeline " + m_theName + " has no stages");
+    } // if
+    return new Pipeline (m_theName, m_theStages.toArray (new PipelineStage[m_theStages.size ()]),
+                         (m_theOutputQ != null) ? m_theOutputQ : new ProtectedQueue ());
+  } // build
+
+} // class PipelineBuilder
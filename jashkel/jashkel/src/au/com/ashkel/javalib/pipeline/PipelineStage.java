@@ -0,0 +1,272 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : PipelineStage
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class PipelineStage is one stage of a Pipeline. It gives the work packages
+ * it accepts to a ThreadItPool and hands each result directly to the next
+ * stage. The number of work packages a stage holds is bounded by its
+ * credits, so a slow stage holds up the stages before it rather than
+ * letting its queue grow.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.pipeline;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import au.com.ashkel.javalib.threads.ProtectedQueue;
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class PipelineStage accepts a work package when it has a credit for it.
+ * The credit is held until the result has been accepted by the next stage
+ * (or placed in the output queue of the last stage), so the credits of a
+ * stage bound the work packages queued at it, being worked on and waiting
+ * to move on. Results reach the next stage through the outlet of the stage,
+ * which the members of the pool reply to in place of a work done queue.<p>
+ * The worker methods of a stage must reply to every work package they are
+ * given, either by returning a result or by leaving m_SendResult set, or
+ * the credit for the work package is never returned.
+ */
+public class PipelineStage
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (PipelineStage.class);
+
+  /** CREDIT_POLL_TIME is the time (in milliseconds) between checks for a stopped pipeline. */
+  private static final long CREDIT_POLL_TIME = 100;
+
+  /** m_theName is the name of the stage. */
+  protected final String m_theName;
+  /** m_thePool performs the work of the stage. */
+  protected final ThreadItPool m_thePool;
+  /** m_theWorkInstruction is the work instruction given to the pool. */
+  protected final int m_theWorkInstruction;
+  /** m_theCapacity is the number of credits of the stage. */
+  protected final int m_theCapacity;
+  /** m_theCredits are the credits not in use. */
+  private final Semaphore m_theCredits;
+  /** m_theOutlet receives the results of the pool. */
+  private final ProtectedQueue m_theOutlet = new Outlet ();
+  /** m_theNext is the next stage or null for the last stage. */
+  protected PipelineStage m_theNext = null;
+  /** m_theOutputQ receives the results of the last stage. */
+  protected ProtectedQueue m_theOutputQ = null;
+  /** m_isStopped is set once the pipeline is stopped. */
+  protected volatile boolean m_isStopped = false;
+
+  /** m_theAcceptedCount is the number of work packages accepted. */
+  private final AtomicLong m_theAcceptedCount = new AtomicLong ();
+  /** m_theCompletedCount is the number of work packages passed on. */
+  private final AtomicLong m_theCompletedCount = new AtomicLong ();
+  /** m_theBlockedCount is the number of times a sender waited for a credit. */
+  private final AtomicLong m_theBlockedCount = new AtomicLong ();
+  /** m_theBlockedTime is the time (in nanoseconds) senders waited for credits. */
+  private final AtomicLong m_theBlockedTime = new AtomicLong ();
+
+  /**
+   * Class Outlet passes each result it is given to the stage instead of
+   * queuing it.
+   */
+  private class Outlet extends ProtectedQueue
+  {
+    public void insertItem (Object anItem)
+    {
+      complete ((WorkPackIt) anItem);
+    } // insertItem
+
+    public void insertPriorityItem (Object anItem)
+    {
+      complete ((WorkPackIt) anItem);
+    } // insertPriorityItem
+  } // class Outlet
+
+  /**
+   * Method PipelineStage creates a stage.<p>
+   * theName            : is the name of the stage.<p>
+   * thePool            : performs the work of the stage.<p>
+   * theWorkInstruction : is the work instruction performed.<p>
+   * theCapacity        : is the number of work packages the stage holds.
+   */
+  public PipelineStage (String theName, ThreadItPool thePool, int theWorkInstruction, int theCapacity)
+  {
+    if (theCapacity <= 0)
+    {
+      throw new IllegalArgumentException ("capacity must be positive: " + theCapacity);
+    } // if
+    m_theName = theName;
+    m_thePool = thePool;
+    m_theWorkInstruction = theWorkInstruction;
+    m_theCapacity = theCapacity;
+    m_theCredits = new Semaphore (theCapacity);
+  } // PipelineStage
+
+  /**
+   * Method offer gives theWorkPack to the stage once a credit is available.
+   * The method waits up to theWaitTime (in milliseconds) for a credit, or
+   * until the pipeline is stopped when theWaitTime is THREADIT_INFINITE.
+   * The method returns false if the work package was not accepted.
+   */
+  boolean offer (WorkPackIt theWorkPack, long theWaitTime)
+  {
+    boolean isAccepted = acquireCredit (theWaitTime);
+
+    if (isAccepted)
+    {
+      m_theAcceptedCount.incrementAndGet ();
+      theWorkPack.setWorkInstruction (m_theWorkInstruction);
+      theWorkPack.m_SendResult = true;
+      theWorkPack.m_UseDefaultQ = false;
+      theWorkPack.m_WorkDoneQ = m_theOutlet;
+      m_thePool.startWork (theWorkPack);
+    } // if
+    return isAccepted;
+  } // offer
+
+  /**
+   * Method complete passes a result on to the next stage and then returns
+   * the credit the work package held. The last stage returns the credit
+   * before placing the result in the output queue, so a stage is empty by
+   * the time its last result can be retrieved.
+   */
+  private void complete (WorkPackIt theWorkDone)
+  {
+    m_theCompletedCount.incrementAndGet ();
+    if (m_theNext != null)
+    {
+      if (!m_theNext.offer (theWorkDone, ThreadIt.THREADIT_INFINITE))
+      {
+        m_theLogger.warn ("Pipeline stopped, result of stage " + m_theName + " discarded");
+      } // if
+      m_theCredits.release ();
+    }
+    else
+    {
+      m_theCredits.release ();
+      m_theOutputQ.insertItem (theWorkDone);
+    } // if
+  } // complete
+
+  /**
+   * Method acquireCredit takes a credit, counting the wait if none is
+   * available at once.
+   */
+  private boolean acquireCredit (long theWaitTime)
+  {
+    boolean isAcquired = m_theCredits.tryAcquire ();
+    long theStart = 0;
+    long theDeadline = 0;
+
+    if ((!isAcquired) && (theWaitTime > 0))
+    {
+      m_theBlockedCount.incrementAndGet ();
+      theStart = System.nanoTime ();
+      theDeadline = (theWaitTime == ThreadIt.THREADIT_INFINITE) ? Long.MAX_VALUE : theStart + (theWaitTime * 1000000L);
+      try
+      {
+        while ((!isAcquired) && (!m_isStopped) && (System.nanoTime () < theDeadline))
+        {
+          isAcquired = m_theCredits.tryAcquire (Math.min (CREDIT_POLL_TIME, (theDeadline - System.nanoTime () + 999999L) / 1000000L), TimeUnit.MILLISECONDS);
+        } // while
+      } // try
+      catch (InterruptedException anException)
+      {
+        Thread.currentThread ().interrupt ();
+      } // catch
+      m_theBlockedTime.addAndGet (System.nanoTime () - theStart);
+    } // if
+    return isAcquired;
+  } // acquireCredit
+
+  public String getName ()
+  {
+    return m_theName;
+  } // getName
+
+  public ThreadItPool getPool ()
+  {
+    return m_thePool;
+  } // getPool
+
+  public int getCapacity ()
+  {
+    return m_theCapacity;
+  } // getCapacity
+
+  /**
+   * Method getOccupancy returns the number of work packages held by the
+   * stage: queued, being worked on or waiting to move to the next stage.
+   */
+  public int getOccupancy ()
+  {
+    return m_theCapacity - m_theCredits.availablePermits ();
+  } // getOccupancy
+
+  /**
+   * Method getOccupancyRatio returns the occupancy as a fraction of the
+   * capacity.
+   */
+  public double getOccupancyRatio ()
+  {
+    return (double) getOccupancy () / m_theCapacity;
+  } // getOccupancyRatio
+
+  public long getAcceptedCount ()
+  {
+    return m_theAcceptedCount.get ();
+  } // getAcceptedCount
+
+  public long getCompletedCount ()
+  {
+    return m_theCompletedCount.get ();
+  } // getCompletedCount
+
+  /**
+   * Method getBlockedCount returns the number of times a sender had to
+   * wait for a credit of this stage.
+   */
+  public long getBlockedCount ()
+  {
+    return m_theBlockedCount.get ();
+  } // getBlockedCount
+
+  /**
+   * Method getBlockedTime returns the total time (in milliseconds) senders
+   * waited for credits of this stage.
+   */
+  public long getBlockedTime ()
+  {
+    return m_theBlockedTime.get () / 1000000L;
+  } // getBlockedTime
+
+} // class PipelineStage
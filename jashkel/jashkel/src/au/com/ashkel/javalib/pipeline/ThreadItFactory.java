@@ -0,0 +1,54 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItFactory
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface ThreadItFactory creates the ThreadIt instances that make up a
+ * ThreadItPool.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.pipeline;
+
+import java.io.IOException;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+
+/**
+ * Interface ThreadItFactory creates a member of a pool. Every member of a
+ * pool must perform the same work instructions.
+ */
+public interface ThreadItFactory
+{
+
+  /**
+   * Method newThreadIt creates a ThreadIt named theThreadName with its
+   * worker methods set.
+   */
+  public ThreadIt newThreadIt (String theThreadName) throws IOException;
+
+} // interface ThreadItFactory
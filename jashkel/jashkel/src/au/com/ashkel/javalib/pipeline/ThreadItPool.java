@@ -0,0 +1,284 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItPool
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ThreadItPool is a group of ThreadIt instances performing the same
+ * work instructions. Work given to the pool is handed to its members in
+ * turn so the pool executes as many work packages at once as it has
+ * members. A pool is the unit of work of a pipeline stage.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.pipeline;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.com.ashkel.javalib.threads.ThreadIt;
+import au.com.ashkel.javalib.threads.WorkPackIt;
+
+/**
+ * Class ThreadItPool hands the work given to it to its members in turn.
+ * Members either come from a ThreadItFactory or are existing ThreadIt
+ * instances. The member list is replaced rather than modified so work can
+ * be started while the pool is changed. A pool with a factory can be
+ * resized; a member that is removed is stopped and the work waiting for it
+ * is handed to the remaining members. A member that is still busy when it
+ * is removed hands on the work put back in its queue as it stops once it
+ * has stopped.
+ */
+public class ThreadItPool
+{
+  /** m_theName is the name of the pool. Members are named after it. */
+  protected final String m_theName;
+  /** m_theFactory creates the members or is null for a pool of existing members. */
+  protected final ThreadItFactory m_theFactory;
+  /** m_theMembers are the ThreadIt instances in the pool. */
+  protected volatile ThreadIt[] m_theMembers = new ThreadIt[0];
+  /** m_theNext selects the member the next work package is given to. */
+  private final AtomicLong m_theNext = new AtomicLong ();
+  /** m_theCreatedCount is the number of members created, used to name them. */
+  private int m_theCreatedCount = 0;
+
+  /**
+   * Method ThreadItPool creates a pool of theSize members using theFactory.
+   * Members are named theName.n where n is the number of the member.
+   */
+  public ThreadItPool (String theName, ThreadItFactory theFactory, int theSize) throws IOException
+  {
+    ThreadIt[] theMembers = new ThreadIt[theSize];
+
+    m_theName = theName;
+    m_theFactory = theFactory;
+    for (int i = 0; i < theSize; i++)
+    {
+      theMembers[i] = newMember ();
+    } // for
+    m_theMembers = theMembers;
+  } // ThreadItPool
+
+  /**
+   * Method ThreadItPool creates a pool of the existing ThreadIt instances
+   * theMembers.
+   */
+  public ThreadItPool (String theName, ThreadIt[] theMembers)
+  {
+    m_theName = theName;
+    m_theFactory = null;
+    m_theMembers = theMembers.clone ();
+  } // ThreadItPool
+
+  /**
+   * Method startWork gives theWorkPack to the next member of the pool.
+   * The method returns the work package identity given by the member.
+   */
+  public long startWork (WorkPackIt theWorkPack)
+  {
+    ThreadIt[] theMembers = m_theMembers;
+    ThreadIt theMember = theMembers[(int) ((m_theNext.getAndIncrement () & Long.MAX_VALUE) % theMembers.length)];
+    long theWorkPackID = theMember.startWork (theWorkPack);
+
+    // The member may have been removed while the work was being started.
+    if (theMember.exitThread () && (!isMember (theMember)))
+    {
+      startWork (theMember.drainWork ());
+    } // if
+    return theWorkPackID;
+  } // startWork
+
+  /**
+   * Method addMember creates a new member using the factory of the pool.
+   * The method returns the new member.
+   */
+  public synchronized ThreadIt addMember () throws IOException
+  {
+    ThreadIt[] theMembers = m_theMembers;
+    ThreadIt[] theNewMembers = Arrays.copyOf (theMembers, theMembers.length + 1);
+
+    if (m_theFactory == null)
+    {
+      throw new IllegalStateException ("pool " + m_theName + " has no factory");
+    } // if
+    theNewMembers[theMembers.length] = newMember ();
+    m_theMembers = theNewMembers;
+    return theNewMembers[theMembers.length];
+  } // addMember
+
+  /**
+   * Method removeMember removes the newest member, stops it and hands the
+   * work waiting for it to the remaining members. The last member of a pool
+   * is never removed.<p>
+   * theWaitTime : is the time (in milliseconds) to wait for the member to
+   *               finish the work it is performing. If it is still busy
+   *               after that, the work waiting for it is handed on at once
+   *               and the work it puts back as it stops, such as work it
+   *               took after being asked to stop or work waiting to be
+   *               retried, is handed on by a thread that waits for it to
+   *               stop.<p>
+   * The method returns the member removed or null if there is only one.
+   */
+  public synchronized ThreadIt removeMember (long theWaitTime)
+  {
+    ThreadIt[] theMembers = m_theMembers;
+    ThreadIt theMember = null;
+    boolean isStopped = false;
+
+    if (theMembers.length > 1)
+    {
+      theMember = theMembers[theMembers.length - 1];
+      m_theMembers = Arrays.copyOf (theMembers, theMembers.length - 1);
+      theMember.stopThread ();
+      isStopped = theMember.waitForThreadToStop (theWaitTime);
+      startWork (theMember.drainWork ());
+      if (!isStopped)
+      {
+        retire (theMember);
+      } // if
+    } // if
+    return theMember;
+  } // removeMember
+
+  /**
+   * Method retire starts a thread that waits for theMember to stop and then
+   * hands the work left in its queue to the remaining members.
+   */
+  private void retire (final ThreadIt theMember)
+  {
+    Thread theRetirer = new Thread (m_theName + ".Retire")
+    {
+      public void run ()
+      {
+        theMember.waitForThreadToStop (ThreadIt.THREADIT_INFINITE);
+        startWork (theMember.drainWork ());
+      } // run
+    };
+
+    theRetirer.setDaemon (true);
+    theRetirer.start ();
+  } // retire
+
+  /**
+   * Method isResizable returns true if members can be added to the pool.
+   */
+  public boolean isResizable ()
+  {
+    return (m_theFactory != null);
+  } // isResizable
+
+  public String getName ()
+  {
+    return m_theName;
+  } // getName
+
+  /**
+   * Method getSize returns the number of members in the pool.
+   */
+  public int getSize ()
+  {
+    return m_theMembers.length;
+  } // getSize
+
+  /**
+   * Method getMembers returns a copy of the member list.
+   */
+  public ThreadIt[] getMembers ()
+  {
+    return m_theMembers.clone ();
+  } // getMembers
+
+  /**
+   * Method getDepth returns the number of work packages waiting in the
+   * work queues of the members.
+   */
+  public long getDepth ()
+  {
+    ThreadIt[] theMembers = m_theMembers;
+    long theDepth = 0;
+
+    for (int i = 0; i < theMembers.length; i++)
+    {
+      theDepth += theMembers[i].getWorkQ ().getDepth ();
+    } // for
+    return theDepth;
+  } // getDepth
+
+  /**
+   * Method newMember creates a member named after the pool.
+   */
+  private ThreadIt newMember () throws IOException
+  {
+    return m_theFactory.newThreadIt (m_theName + "." + m_theCreatedCount++);
+  } // newMember
+
+  /**
+   * Method isMember returns true if ptheMember is in the member list.
+   */
+  private boolean isMember (ThreadIt ptheMember)
+  {
+    ThreadIt[] theMembers = m_theMembers;
+    boolean isFound = false;
+
+    for (int i = 0; (i < theMembers.length) && (!isFound); i++)
+    {
+      isFound = (theMembers[i] == ptheMember);
+    } // for
+    return isFound;
+  } // isMember
+
+  /**
+   * Method startWork hands theWork to the members of the pool in order.
+   */
+  private void startWork (List<WorkPackIt> theWork)
+  {
+    for (int i = 0; i < theWork.size (); i++)
+    {
+      startWork (theWork.get (i));
+    } // for
+  } // startWork
+
+  /**
+   * Method stopPool stops every member and waits up to theWaitTime (in
+   * milliseconds) for each of them to exit.
+   */
+  public void stopPool (long theWaitTime)
+  {
+    ThreadIt[] theMembers = m_theMembers;
+
+    for (int i = 0; i < theMembers.length; i++)
+    {
+      theMembers[i].stopThread ();
+    } // for
+    for (int i = 0; i < theMembers.length; i++)
+    {
+      theMembers[i].waitForThreadToStop (theWaitTime);
+    } // for
+  } // stopPool
+
+} // class ThreadItPool
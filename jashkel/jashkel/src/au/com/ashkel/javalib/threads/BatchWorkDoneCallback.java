@@ -0,0 +1,55 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : BatchWorkDoneCallback
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface BatchWorkDoneCallback is a WorkDoneCallback that accepts the
+ * completions coalesced by a CallbackDelivery in a single call.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Interface BatchWorkDoneCallback is implemented by a client that would
+ * rather handle a batch of completions at once, for instance to update a
+ * user interface model once for many work items. A CallbackDelivery calls
+ * onWorkDoneBatch instead of calling onWorkDone once per completion.
+ */
+public interface BatchWorkDoneCallback extends WorkDoneCallback
+{
+
+  /**
+   * Method onWorkDoneBatch is called with the completions delivered
+   * together, oldest first.<p>
+   * theThreadNames : are the names of the ThreadIts that did the work.<p>
+   * theWorkItemIds : are the reference numbers of the work completed, in
+   *                  the same order as theThreadNames.
+   */
+  public void onWorkDoneBatch (String[] theThreadNames, long[] theWorkItemIds);
+
+} // interface BatchWorkDoneCallback
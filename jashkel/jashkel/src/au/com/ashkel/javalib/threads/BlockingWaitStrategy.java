@@ -0,0 +1,78 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : BlockingWaitStrategy
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class BlockingWaitStrategy is the default wait strategy of a ThreadIt.
+ * The consumer blocks in the work queue until an item arrives or the wait
+ * times out. It uses no processor time while idle.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Class BlockingWaitStrategy blocks in the queue for the full wait time. The
+ * queue is polled once first so that the strategy can tell the waits that
+ * needed a producer wakeup from the ones satisfied immediately.
+ */
+public class BlockingWaitStrategy extends WaitStrategy
+{
+  /**
+   * Method BlockingWaitStrategy is the constructor for the class.
+   */
+  public BlockingWaitStrategy ()
+  {
+  } // constructor BlockingWaitStrategy
+
+  /**
+   * Method waitItem blocks in theQ until an item arrives or theWaitTime
+   * (in milliseconds) elapses. The method returns the item or null on
+   * time out.
+   */
+  public Object waitItem (ProtectedQueue theQ, long theWaitTime)
+  {
+    Object anItem = null;
+
+    m_theWaitCount.incrementAndGet ();
+    anItem = theQ.pollItem ();
+    if (anItem == null)
+    {
+      anItem = parkItem (theQ, theWaitTime);
+    } // if
+    return anItem;
+  } // waitItem
+
+  /**
+   * Method getName returns the name of the strategy.
+   */
+  public String getName ()
+  {
+    return "block";
+  } // getName
+
+} // class BlockingWaitStrategy
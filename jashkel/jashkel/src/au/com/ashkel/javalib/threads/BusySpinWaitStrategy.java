@@ -0,0 +1,83 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : BusySpinWaitStrategy
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class BusySpinWaitStrategy waits for work by polling the queue in a tight
+ * loop. It gives the lowest wakeup latency at the cost of one processor
+ * dedicated to the ThreadIt while it is idle.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Class BusySpinWaitStrategy never blocks. The consumer polls the queue until
+ * an item arrives or the wait times out so producers never have to wake it.
+ * It should only be used when the ThreadIt can own a processor.
+ */
+public class BusySpinWaitStrategy extends WaitStrategy
+{
+  /**
+   * Method BusySpinWaitStrategy is the constructor for the class.
+   */
+  public BusySpinWaitStrategy ()
+  {
+  } // constructor BusySpinWaitStrategy
+
+  /**
+   * Method waitItem polls theQ until an item arrives or theWaitTime (in
+   * milliseconds) elapses. The method returns the item or null on time out.
+   */
+  public Object waitItem (ProtectedQueue theQ, long theWaitTime)
+  {
+    long theDeadline = toDeadline (theWaitTime);
+    Object anItem = null;
+
+    m_theWaitCount.incrementAndGet ();
+    anItem = theQ.pollItem ();
+    while ((anItem == null) && ((theDeadline == Long.MAX_VALUE) || (System.nanoTime () - theDeadline < 0)))
+    {
+      onSpinWait ();
+      anItem = theQ.pollItem ();
+    } // while
+    if (anItem != null)
+    {
+      m_theSpinCount.incrementAndGet ();
+    } // if
+    return anItem;
+  } // waitItem
+
+  /**
+   * Method getName returns the name of the strategy.
+   */
+  public String getName ()
+  {
+    return "busy-spin";
+  } // getName
+
+} // class BusySpinWaitStrategy
@@ -0,0 +1,409 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : CallbackDelivery
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class CallbackDelivery calls WorkDoneCallbacks on an executor of its own
+ * rather than on the thread of the ThreadIt that completed the work, so a
+ * slow callback does not hold up the work that follows.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import au.com.ashkel.javalib.metrics.LatencyHistogram;
+
+/**
+ * Class CallbackDelivery is given to ThreadIt.setCallbackDelivery. The
+ * ThreadIt then hands each completion to the delivery instead of calling
+ * the callback itself.<p>
+ * Completions for the same callback are coalesced. A completion is added
+ * to the pending batch of its callback, and a delivery task is given to
+ * the executor only when the batch was empty. Completions that arrive
+ * while the task waits join the batch, so a callback that falls behind is
+ * called once for many completions. A BatchWorkDoneCallback receives the
+ * batch in one call, a WorkResultCallback has onWorkResult called for each
+ * completion of the batch in turn and any other callback has onWorkDone
+ * called for each. A batch is forgotten once it has been taken, so the
+ * delivery holds nothing for a callback that has nothing pending.<p>
+ * At most the capacity of the delivery may be pending. The ThreadIt that
+ * completes work beyond that waits until a batch is taken, which slows it
+ * down rather than queue without bound, and the callbacks are still only
+ * called by the executor in the order of the completions. The time from
+ * completion to callback is recorded as the lag. A callback
+ * is only called by one thread at a time if the executor runs one task at
+ * a time, as the thread of the delivery and an event dispatch thread do.
+ */
+public class CallbackDelivery
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (CallbackDelivery.class);
+
+  /** m_theExecutor runs the delivery tasks. */
+  private final Executor m_theExecutor;
+  /** m_theOwnedExecutor is the executor created by the delivery or null. */
+  private final ExecutorService m_theOwnedExecutor;
+  /** m_theCapacity is the most completions that may be pending. */
+  private final int m_theCapacity;
+  /** m_theBatches are the pending batches by callback. */
+  private final ConcurrentHashMap<WorkDoneCallback, Batch> m_theBatches = new ConcurrentHashMap<WorkDoneCallback, Batch> ();
+  /** m_thePendingCount is the number of completions not yet delivered. */
+  private final AtomicInteger m_thePendingCount = new AtomicInteger ();
+  /** m_theRoom has a permit for each completion that may still be pending. */
+  private final Semaphore m_theRoom;
+  /** m_theDeliveredCount is the number of completions delivered. */
+  private final AtomicLong m_theDeliveredCount = new AtomicLong ();
+  /** m_theBatchCount is the number of batches delivered. */
+  private final AtomicLong m_theBatchCount = new AtomicLong ();
+  /** m_theOverflowCount is the number of completions that waited for room. */
+  private final AtomicLong m_theOverflowCount = new AtomicLong ();
+  /** m_theLag is the time from completion to callback. Guarded by itself. */
+  private final LatencyHistogram m_theLag = new LatencyHistogram ();
+
+  /**
+   * Class Completion is one completion waiting to be delivered.
+   */
+  private static class Completion
+  {
+    final ThreadIt m_theSource;
+    final String m_theThreadName;
+    final long m_theWorkItemId;
+    final WorkPackIt m_theWorkDone;
+    final long m_theCompletionTime = System.nanoTime ();
+
+    Completion (ThreadIt theSource, String theThreadName, long theWorkItemId, WorkPackIt theWorkDone)
+    {
+      m_theSource = theSource;
+      m_theThreadName = theThreadName;
+      m_theWorkItemId = theWorkItemId;
+      m_theWorkDone = theWorkDone;
+    } // Completion
+  } // class Completion
+
+  /**
+   * Class Batch holds the pending completions of one callback. Once its
+   * task has taken the completions the batch is retired and removed, and
+   * the next completion for the callback starts a new batch.
+   */
+  private class Batch implements Runnable
+  {
+    final WorkDoneCallback m_theCallback;
+    final List<Completion> m_theCompletions = new ArrayList<Completion> ();
+    boolean m_isRetired = false;
+
+    Batch (WorkDoneCallback theCallback)
+    {
+      m_theCallback = theCallback;
+    } // Batch
+
+    /**
+     * Method start adds theCompletion, the first of the batch, and hands the
+     * batch to the executor. If the executor rejects the batch it is retired
+     * and its room given back before the exception is thrown on, so the
+     * completions that follow start a new batch.
+     */
+    synchronized void start (Completion theCompletion)
+    {
+      m_theCompletions.add (theCompletion);
+      try
+      {
+        m_theExecutor.execute (this);
+      }
+      catch (RuntimeException anException)
+      {
+        m_isRetired = true;
+        m_theBatches.remove (m_theCallback, this);
+        m_theCompletions.clear ();
+        m_thePendingCount.decrementAndGet ();
+        m_theRoom.release ();
+        throw anException;
+      } // catch
+    } // start
+
+    /**
+     * Method add adds theCompletion unless the batch is retired. The method
+     * returns true if it is added.
+     */
+    synchronized boolean add (Completion theCompletion)
+    {
+      if (!m_isRetired)
+      {
+        m_theCompletions.add (theCompletion);
+      } // if
+      return (!m_isRetired);
+    } // add
+
+    /**
+     * Method run takes the pending completions, retires the batch and
+     * delivers them.
+     */
+    public void run ()
+    {
+      synchronized (this)
+      {
+        m_isRetired = true;
+        m_theBatches.remove (m_theCallback, this);
+      } // synchronized
+      m_thePendingCount.addAndGet (-m_theCompletions.size ());
+      m_theRoom.release (m_theCompletions.size ());
+      invoke (m_theCallback, m_theCompletions);
+    } // run
+  } // class Batch
+
+  /**
+   * Method CallbackDelivery creates a delivery with a thread of its own
+   * named theName.<p>
+   * theCapacity : is the most completions that may be pending.
+   */
+  public CallbackDelivery (final String theName, int theCapacity)
+  {
+    m_theOwnedExecutor = Executors.newSingleThreadExecutor (new ThreadFactory ()
+    {
+      public Thread newThread (Runnable theTask)
+      {
+        Thread theThread = new Thread (theTask, theName);
+        theThread.setDaemon (true);
+        return theThread;
+      } // newThread
+    });
+    m_theExecutor = m_theOwnedExecutor;
+    m_theCapacity = Math.max (theCapacity, 1);
+    m_theRoom = new Semaphore (m_theCapacity);
+  } // CallbackDelivery
+
+  /**
+   * Method CallbackDelivery creates a delivery that runs its tasks on
+   * theExecutor, such as the event dispatch thread of a user interface.<p>
+   * theCapacity : is the most completions that may be pending.
+   */
+  public CallbackDelivery (Executor theExecutor, int theCapacity)
+  {
+    m_theOwnedExecutor = null;
+    m_theExecutor = theExecutor;
+    m_theCapacity = Math.max (theCapacity, 1);
+    m_theRoom = new Semaphore (m_theCapacity);
+  } // CallbackDelivery
+
+  /**
+   * Method deliver arranges for theCallback to be told that the work
+   * theWorkItemId was completed by theThreadName.
+   */
+  public void deliver (WorkDoneCallback theCallback, String theThreadName, long theWorkItemId)
+  {
+    deliver (theCallback, new Completion (null, theThreadName, theWorkItemId, null));
+  } // deliver
+
+  /**
+   * Method deliver arranges for theCallback to be given theWorkDone, the
+   * result of work completed by theSource.
+   */
+  public void deliver (WorkDoneCallback theCallback, ThreadIt theSource, WorkPackIt theWorkDone)
+  {
+    deliver (theCallback, new Completion (theSource, theSource.getName (), theWorkDone.m_WorkPackID, theWorkDone));
+  } // deliver
+
+  /**
+   * Method getPendingCount returns the number of completions waiting to be
+   * delivered.
+   */
+  public int getPendingCount ()
+  {
+    return m_thePendingCount.get ();
+  } // getPendingCount
+
+  public int getCapacity ()
+  {
+    return m_theCapacity;
+  } // getCapacity
+
+  /**
+   * Method getDeliveredCount returns the number of completions delivered.
+   */
+  public long getDeliveredCount ()
+  {
+    return m_theDeliveredCount.get ();
+  } // getDeliveredCount
+
+  /**
+   * Method getBatchCount returns the number of times a callback was called
+   * with a batch. Fewer batches than completions means completions were
+   * coalesced.
+   */
+  public long getBatchCount ()
+  {
+    return m_theBatchCount.get ();
+  } // getBatchCount
+
+  /**
+   * Method getOverflowCount returns the number of completions whose
+   * ThreadIt had to wait for room because the delivery was full.
+   */
+  public long getOverflowCount ()
+  {
+    return m_theOverflowCount.get ();
+  } // getOverflowCount
+
+  /**
+   * Method getLag returns the times (in nanoseconds) from completion to
+   * callback.
+   */
+  public LatencyHistogram.Snapshot getLag ()
+  {
+    return m_theLag.snapshot ();
+  } // getLag
+
+  /**
+   * Method shutdown stops the thread of a delivery that created its own.
+   * Pending completions are still delivered, and delivering a completion
+   * that would start a new batch afterwards throws the
+   * RejectedExecutionException of the executor.
+   */
+  public void shutdown ()
+  {
+    if (m_theOwnedExecutor != null)
+    {
+      m_theOwnedExecutor.shutdown ();
+    } // if
+  } // shutdown
+
+  /**
+   * Method deliver adds theCompletion to the batch of theCallback, waiting
+   * for room first if the delivery is full. A delivery task is started for
+   * a new batch, and the exception of an executor that rejects it, such as
+   * one that has been shut down, is thrown on.
+   */
+  private void deliver (WorkDoneCallback theCallback, Completion theCompletion)
+  {
+    Batch theBatch = null;
+    boolean isAdded = false;
+
+    if (!m_theRoom.tryAcquire ())
+    {
+      m_theOverflowCount.incrementAndGet ();
+      m_theRoom.acquireUninterruptibly ();
+    } // if
+    m_thePendingCount.incrementAndGet ();
+    while (!isAdded)
+    {
+      Batch theNewBatch = new Batch (theCallback);
+      theBatch = m_theBatches.putIfAbsent (theCallback, theNewBatch);
+      if (theBatch == null)
+      {
+        isAdded = true;
+        theNewBatch.start (theCompletion);
+      }
+      else
+      {
+        // A batch that has been retired is no longer in the map by the
+        // time add returns, so the next attempt makes a new one.
+        isAdded = theBatch.add (theCompletion);
+      } // if
+    } // while
+  } // deliver
+
+  /**
+   * Method invoke calls theCallback with theCompletions and records their
+   * lag. A failing callback is logged and does not stop the delivery.
+   */
+  private void invoke (WorkDoneCallback theCallback, List<Completion> theCompletions)
+  {
+    long theNow = System.nanoTime ();
+
+    synchronized (m_theLag)
+    {
+      for (int i = 0; i < theCompletions.size (); i++)
+      {
+        m_theLag.record (theNow - theCompletions.get (i).m_theCompletionTime);
+      } // for
+    } // synchronized
+    m_theBatchCount.incrementAndGet ();
+    m_theDeliveredCount.addAndGet (theCompletions.size ());
+    if (theCallback instanceof BatchWorkDoneCallback)
+    {
+      String[] theThreadNames = new String[theCompletions.size ()];
+      long[] theWorkItemIds = new long[theThreadNames.length];
+      for (int i = 0; i < theThreadNames.length; i++)
+      {
+        theThreadNames[i] = theCompletions.get (i).m_theThreadName;
+        theWorkItemIds[i] = theCompletions.get (i).m_theWorkItemId;
+      } // for
+      try
+      {
+        ((BatchWorkDoneCallback) theCallback).onWorkDoneBatch (theThreadNames, theWorkItemIds);
+      }
+      catch (RuntimeException anException)
+      {
+        m_theLogger.warn ("onWorkDoneBatch", anException);
+      } // catch
+    }
+    else
+    {
+      for (int i = 0; i < theCompletions.size (); i++)
+      {
+        invoke (theCallback, theCompletions.get (i));
+      } // for
+    } // if
+  } // invoke
+
+  /**
+   * Method invoke calls theCallback with the result of theCompletion if it
+   * takes results and there is one, or else with its name and identity. A
+   * failing callback is logged so that the rest of the batch is delivered.
+   */
+  private static void invoke (WorkDoneCallback theCallback, Completion theCompletion)
+  {
+    try
+    {
+      if ((theCallback instanceof WorkResultCallback) && (theCompletion.m_theWorkDone != null))
+      {
+        ((WorkResultCallback) theCallback).onWorkResult (theCompletion.m_theSource, theCompletion.m_theWorkDone);
+      }
+      else
+      {
+        theCallback.onWorkDone (theCompletion.m_theThreadName, theCompletion.m_theWorkItemId);
+      } // if
+    }
+    catch (RuntimeException anException)
+    {
+      m_theLogger.warn ("onWorkDone", anException);
+    } // catch
+  } // invoke
+
+} // class CallbackDelivery
@@ -0,0 +1,291 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : CircuitBreaker
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class CircuitBreaker stops a ThreadIt invoking the method of an
+ * instruction that keeps failing until it has had time to recover.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class CircuitBreaker is the circuit breaker of a work instruction, given
+ * to ThreadIt.setCircuitBreaker. The breaker is closed to begin with and
+ * records whether each call of the method failed, that is whether it
+ * threw, replied THREADIT_TIME_OUT or took longer than the slow call time.
+ * Once the calls in its window number at least the minimum and the
+ * fraction that failed reaches the failure rate, the breaker opens.<p>
+ * While the breaker is open the ThreadIt does not invoke the method and
+ * replies THREADIT_CIRCUIT_OPEN at once, so the work queue drains and the
+ * other instructions are not held up. After the open time the breaker is
+ * half open and lets calls through one at a time as probes. It closes after
+ * the given number of probes succeed and opens again if one fails.<p>
+ * The ThreadIt multicasts a CircuitBreaker.StateChange on its circuit
+ * notifier (ThreadIt.getCircuitNotifier) each time the state changes. The
+ * methods are synchronised so a breaker may be shared by the members of a
+ * group that do the same work.
+ */
+public class CircuitBreaker
+{
+  /** CLOSED is the state in which calls are made and recorded. */
+  public static final int CLOSED = 0;
+  /** OPEN is the state in which calls are not made. */
+  public static final int OPEN = 1;
+  /** HALF_OPEN is the state in which calls are made as probes. */
+  public static final int HALF_OPEN = 2;
+
+  /**
+   * Class StateChange is the data of the notification of a change of
+   * state of the breaker of an instruction.
+   */
+  public static final class StateChange
+  {
+    private final int m_theInstruction;
+    private final int m_thePreviousState;
+    private final int m_theState;
+
+    public StateChange (int theInstruction, int thePreviousState, int theState)
+    {
+      m_theInstruction = theInstruction;
+      m_thePreviousState = thePreviousState;
+      m_theState = theState;
+    } // StateChange
+
+    public int getInstruction ()
+    {
+      return m_theInstruction;
+    } // getInstruction
+
+    public int getPreviousState ()
+    {
+      return m_thePreviousState;
+    } // getPreviousState
+
+    public int getState ()
+    {
+      return m_theState;
+    } // getState
+
+    public String toString ()
+    {
+      return "StateChange[" + m_theInstruction + "] " + getName (m_thePreviousState) + " -> " + getName (m_theState);
+    } // toString
+  } // class StateChange
+
+  /** m_theOutcomes is the window of calls, true for a call that failed. */
+  private final boolean[] m_theOutcomes;
+  /** m_theMinimumCalls is the number of calls needed before the breaker opens. */
+  private final int m_theMinimumCalls;
+  /** m_theFailureRate is the fraction of failed calls that opens the breaker. */
+  private final double m_theFailureRate;
+  /** m_theSlowCallTime is the time in nanoseconds after which a call failed or 0. */
+  private final long m_theSlowCallTime;
+  /** m_theOpenTime is the time in nanoseconds the breaker stays open. */
+  private final long m_theOpenTime;
+  /** m_theProbeCount is the number of probes that must succeed to close. */
+  private final int m_theProbeCount;
+  /** m_theState is the state of the breaker. */
+  private volatile int m_theState = CLOSED;
+  /** m_theNext is the position in the window of the next call. */
+  private int m_theNext = 0;
+  /** m_theCallCount is the number of calls in the window. */
+  private int m_theCallCount = 0;
+  /** m_theFailedCount is the number of failed calls in the window. */
+  private int m_theFailedCount = 0;
+  /** m_theOpenedTime is when the breaker last opened (System.nanoTime). */
+  private long m_theOpenedTime = 0;
+  /** m_theProbeSuccessCount is the number of probes that succeeded. */
+  private int m_theProbeSuccessCount = 0;
+  /** m_theOpenCount is the number of times the breaker has opened. */
+  private long m_theOpenCount = 0;
+  /** m_theShortCircuitCount is the number of calls not made. */
+  private long m_theShortCircuitCount = 0;
+
+  /**
+   * Method CircuitBreaker creates a breaker that records the last
+   * theWindowSize calls and opens once theMinimumCalls of them have been
+   * made and theFailureRate of them failed. A call that takes longer than
+   * theSlowCallTime milliseconds, unless it is 0, failed. The breaker stays
+   * open for theOpenTime milliseconds and closes after theProbeCount
+   * probes succeed.
+   */
+  public CircuitBreaker (int theWindowSize, int theMinimumCalls, double theFailureRate, long theSlowCallTime,
+                         long theOpenTime, int theProbeCount)
+  {
+    m_theOutcomes = new boolean[Math.max (theWindowSize, 1)];
+    m_theMinimumCalls = Math.min (Math.max (theMinimumCalls, 1), m_theOutcomes.length);
+    m_theFailureRate = theFailureRate;
+    m_theSlowCallTime = TimeUnit.MILLISECONDS.toNanos (Math.max (theSlowCallTime, 0));
+    m_theOpenTime = TimeUnit.MILLISECONDS.toNanos (Math.max (theOpenTime, 0));
+    m_theProbeCount = Math.max (theProbeCount, 1);
+  } // CircuitBreaker
+
+  /**
+   * Method isCallPermitted returns true if the method may be called. An
+   * open breaker whose open time is up becomes half open and lets the call
+   * through as a probe. A call that is not permitted is counted.
+   */
+  public synchronized boolean isCallPermitted ()
+  {
+    boolean isPermitted = (m_theState != OPEN);
+
+    if ((!isPermitted) && (System.nanoTime () - m_theOpenedTime >= m_theOpenTime))
+    {
+      m_theState = HALF_OPEN;
+      m_theProbeSuccessCount = 0;
+      isPermitted = true;
+    } // if
+    if (!isPermitted)
+    {
+      m_theShortCircuitCount++;
+    } // if
+    return isPermitted;
+  } // isCallPermitted
+
+  /**
+   * Method record records a call that took theServiceTime nanoseconds and
+   * failed if isFailed is true, and changes the state of the breaker if the
+   * call calls for it.
+   */
+  public synchronized void record (boolean isFailed, long theServiceTime)
+  {
+    boolean isCallFailed = (isFailed) || ((m_theSlowCallTime > 0) && (theServiceTime > m_theSlowCallTime));
+
+    if (m_theState == HALF_OPEN)
+    {
+      if (isCallFailed)
+      {
+        open ();
+      }
+      else
+      {
+        m_theProbeSuccessCount++;
+        if (m_theProbeSuccessCount >= m_theProbeCount)
+        {
+          close ();
+        } // if
+      } // if
+    }
+    else if (m_theState == CLOSED)
+    {
+      // The oldest call leaves the window once it is full.
+      if (m_theCallCount == m_theOutcomes.length)
+      {
+        m_theFailedCount = m_theFailedCount - (m_theOutcomes[m_theNext] ? 1 : 0);
+      }
+      else
+      {
+        m_theCallCount++;
+      } // if
+      m_theOutcomes[m_theNext] = isCallFailed;
+      m_theFailedCount = m_theFailedCount + (isCallFailed ? 1 : 0);
+      m_theNext = (m_theNext + 1) % m_theOutcomes.length;
+      if ((m_theCallCount >= m_theMinimumCalls) && (m_theFailedCount >= m_theFailureRate * m_theCallCount))
+      {
+        open ();
+      } // if
+    } // if
+  } // record
+
+  /**
+   * Method getState returns CLOSED, OPEN or HALF_OPEN.
+   */
+  public int getState ()
+  {
+    return m_theState;
+  } // getState
+
+  /**
+   * Method getOpenCount returns the number of times the breaker has opened.
+   */
+  public synchronized long getOpenCount ()
+  {
+    return m_theOpenCount;
+  } // getOpenCount
+
+  /**
+   * Method getShortCircuitCount returns the number of calls the breaker
+   * did not permit.
+   */
+  public synchronized long getShortCircuitCount ()
+  {
+    return m_theShortCircuitCount;
+  } // getShortCircuitCount
+
+  /**
+   * Method getFailureRate returns the fraction of the calls in the window
+   * that failed.
+   */
+  public synchronized double getFailureRate ()
+  {
+    return (m_theCallCount == 0) ? 0.0 : (double) m_theFailedCount / m_theCallCount;
+  } // getFailureRate
+
+  /**
+   * Method getName returns the name of theState.
+   */
+  public static String getName (int theState)
+  {
+    String theName = "CLOSED";
+
+    if (theState == OPEN)
+    {
+      theName = "OPEN";
+    }
+    else if (theState == HALF_OPEN)
+    {
+      theName = "HALF_OPEN";
+    } // if
+    return theName;
+  } // getName
+
+  /**
+   * Method open opens the breaker.
+   */
+  private void open ()
+  {
+    m_theState = OPEN;
+    m_theOpenedTime = System.nanoTime ();
+    m_theOpenCount++;
+  } // open
+
+  /**
+   * Method close closes the breaker with an empty window.
+   */
+  private void close ()
+  {
+    m_theState = CLOSED;
+    m_theNext = 0;
+    m_theCallCount = 0;
+    m_theFailedCount = 0;
+  } // close
+
+} // class CircuitBreaker
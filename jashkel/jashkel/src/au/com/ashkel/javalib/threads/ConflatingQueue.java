@@ -0,0 +1,435 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ConflatingQueue
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ConflatingQueue is a work queue that keeps only the latest of the
+ * pending work packages carrying the same instruction and conflation key.
+ * An active object that falls behind a bursty producer then performs the
+ * latest state once instead of every stale copy of it.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class ConflatingQueue conflates work packages that have a
+ * WorkPackIt.m_theConflationKey. A work package is held in a slot and the
+ * pending slots are found by instruction and key in a hash map, so a work
+ * package that arrives while an earlier one with the same instruction and
+ * an equal key is still pending replaces it in constant time. The
+ * replacement takes the place of the earlier work package in the queue, so
+ * conflated work is not delayed by later work. Events are told apart from
+ * work instructions with the same number.<p>
+ * A work package that is replaced is dropped without a reply, so only work
+ * that asks for no reply and no callback is conflated. Work that does, and
+ * items without a key, including the control packages of ThreadIt, are
+ * queued as they are.<p>
+ * A ThreadIt uses the queue once it is given to ThreadIt.setWorkQ.
+ */
+public class ConflatingQueue extends ProtectedQueue
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (ConflatingQueue.class);
+
+  /** m_theLock guards the items, the slots and the probe. */
+  private final ReentrantLock m_theLock = new ReentrantLock ();
+  /** m_theNotEmpty is signalled when an item is added. */
+  private final Condition m_theNotEmpty = m_theLock.newCondition ();
+  /** m_theItems are the items and slots in the order they are taken. */
+  private final ArrayDeque<Object> m_theItems = new ArrayDeque<Object> ();
+  /** m_theSlots are the pending slots by instruction and key. */
+  private final Map<ConflationKey, Slot> m_theSlots = new HashMap<ConflationKey, Slot> ();
+  /** m_theProbe is reused to look up a slot without allocating a key. */
+  private final ConflationKey m_theProbe = new ConflationKey ();
+  /** m_theConflatedCount is the number of work packages replaced. */
+  private final AtomicLong m_theConflatedCount = new AtomicLong ();
+
+  /**
+   * Class ConflationKey is the instruction and conflation key of a work
+   * package.
+   */
+  private static class ConflationKey
+  {
+    boolean m_isEvent;
+    int m_theInstruction;
+    Object m_theKey;
+
+    ConflationKey ()
+    {
+    } // ConflationKey
+
+    ConflationKey (ConflationKey theOriginal)
+    {
+      m_isEvent = theOriginal.m_isEvent;
+      m_theInstruction = theOriginal.m_theInstruction;
+      m_theKey = theOriginal.m_theKey;
+    } // ConflationKey
+
+    void set (WorkPackIt theWorkPack)
+    {
+      m_isEvent = theWorkPack.isEvent ();
+      m_theInstruction = m_isEvent ? ((EventWorkPackIt) theWorkPack).getEventId () : theWorkPack.getWorkInstruction ();
+      m_theKey = theWorkPack.m_theConflationKey;
+    } // set
+
+    public int hashCode ()
+    {
+      return (31 * m_theInstruction + (m_isEvent ? 1 : 0)) * 31 + m_theKey.hashCode ();
+    } // hashCode
+
+    public boolean equals (Object theOther)
+    {
+      boolean isEqual = false;
+
+      if (theOther instanceof ConflationKey)
+      {
+        ConflationKey theKey = (ConflationKey) theOther;
+        isEqual = (m_isEvent == theKey.m_isEvent) && (m_theInstruction == theKey.m_theInstruction) &&
+                  m_theKey.equals (theKey.m_theKey);
+      } // if
+      return isEqual;
+    } // equals
+  } // class ConflationKey
+
+  /**
+   * Class Slot holds the latest work package for a key while it is pending.
+   */
+  private static class Slot
+  {
+    final ConflationKey m_theKey;
+    WorkPackIt m_theWorkPack;
+
+    Slot (ConflationKey theKey, WorkPackIt theWorkPack)
+    {
+      m_theKey = theKey;
+      m_theWorkPack = theWorkPack;
+    } // Slot
+  } // class Slot
+
+  public ConflatingQueue ()
+  {
+    super (false);
+  } // ConflatingQueue
+
+  /**
+   * Method insertItem adds T to the tail of the queue unless it replaces
+   * a pending work package.
+   */
+  public void insertItem (Object T)
+  {
+    insert (T, false);
+  } // insertItem
+
+  /**
+   * Method insertPriorityItem adds T to the head of the queue unless it
+   * replaces a pending work package, which keeps its place.
+   */
+  public void insertPriorityItem (Object T)
+  {
+    insert (T, true);
+  } // insertPriorityItem
+
+  /**
+   * Method waitItem waits up to WaitTime milliseconds for an item and
+   * removes it from the head of the queue. The method returns null if the
+   * wait times out.
+   */
+  public Object waitItem (long WaitTime)
+  {
+    Object anItem = null;
+    long theRemaining = TimeUnit.MILLISECONDS.toNanos (WaitTime);
+
+    m_theLock.lock ();
+    try
+    {
+      while ((m_theItems.isEmpty ()) && (theRemaining > 0))
+      {
+        theRemaining = m_theNotEmpty.awaitNanos (theRemaining);
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // waitItem
+
+  public Object pollItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      anItem = take ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // pollItem
+
+  /**
+   * Method getItem waits for an item for as long as it takes.
+   */
+  public Object getItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      while (m_theItems.isEmpty ())
+      {
+        m_theNotEmpty.await ();
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // getItem
+
+  public void clear ()
+  {
+    while (pollItem () != null)
+    {
+      // Each removal is counted.
+    } // while
+  } // clear
+
+  public long size ()
+  {
+    long theSize = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theSize = m_theItems.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theSize;
+  } // size
+
+  public boolean isEmpty ()
+  {
+    return (size () == 0);
+  } // isEmpty
+
+  public Object get (int i)
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      Iterator<Object> theItems = m_theItems.iterator ();
+      for (int j = 0; (j <= i) && (theItems.hasNext ()); j++)
+      {
+        anItem = theItems.next ();
+      } // for
+      anItem = ((i >= 0) && (i < m_theItems.size ())) ? unwrap (anItem) : null;
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // get
+
+  public boolean remove (Object o)
+  {
+    boolean isRemoved = false;
+
+    m_theLock.lock ();
+    try
+    {
+      Iterator<Object> theItems = m_theItems.iterator ();
+      while ((theItems.hasNext ()) && (!isRemoved))
+      {
+        Object anItem = theItems.next ();
+        if (unwrap (anItem) == o)
+        {
+          theItems.remove ();
+          release (anItem);
+          countRemove (o);
+          isRemoved = true;
+        } // if
+      } // while
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return isRemoved;
+  } // remove
+
+  /**
+   * Method getConflatedCount returns the number of work packages that were
+   * replaced by a later one before they were taken from the queue.
+   */
+  public long getConflatedCount ()
+  {
+    return m_theConflatedCount.get ();
+  } // getConflatedCount
+
+  /**
+   * Method insert replaces the pending work package with the same
+   * instruction and key as T or adds T to the queue.
+   */
+  private void insert (Object T, boolean isPriority)
+  {
+    Object anItem = T;
+    Slot theSlot = null;
+
+    m_theLock.lock ();
+    try
+    {
+      if (isConflatable (T))
+      {
+        m_theProbe.set ((WorkPackIt) T);
+        theSlot = m_theSlots.get (m_theProbe);
+        if (theSlot != null)
+        {
+          theSlot.m_theWorkPack = (WorkPackIt) T;
+          m_theConflatedCount.incrementAndGet ();
+          anItem = null;
+        }
+        else
+        {
+          theSlot = new Slot (new ConflationKey (m_theProbe), (WorkPackIt) T);
+          m_theSlots.put (theSlot.m_theKey, theSlot);
+          anItem = theSlot;
+        } // if
+        // The probe must not keep the key alive.
+        m_theProbe.m_theKey = null;
+      } // if
+      if (anItem != null)
+      {
+        countInsert ();
+        if (isPriority)
+        {
+          m_theItems.addFirst (anItem);
+        }
+        else
+        {
+          m_theItems.addLast (anItem);
+        } // if
+        m_theNotEmpty.signal ();
+      } // if
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    if (anItem != null)
+    {
+      signalSelectors ();
+    } // if
+  } // insert
+
+  /**
+   * Method isConflatable returns true if anItem is a work package with a
+   * conflation key whose sender does not wait for a reply or a callback,
+   * so that it may be replaced or replace another.
+   */
+  private static boolean isConflatable (Object anItem)
+  {
+    boolean isConflatable = (anItem instanceof WorkPackIt);
+
+    if (isConflatable)
+    {
+      WorkPackIt theWorkPack = (WorkPackIt) anItem;
+      isConflatable = (theWorkPack.m_theConflationKey != null) &&
+                      (!theWorkPack.m_SendResult) && (!theWorkPack.m_NotifyWithCallback);
+    } // if
+    return isConflatable;
+  } // isConflatable
+
+  /**
+   * Method take removes the item at the head of the queue and returns it,
+   * or returns null if the queue is empty. The lock must be held.
+   */
+  private Object take ()
+  {
+    Object anItem = m_theItems.pollFirst ();
+
+    release (anItem);
+    anItem = unwrap (anItem);
+    countRemove (anItem);
+    return anItem;
+  } // take
+
+  /**
+   * Method release forgets the slot anItem if it is one, so that a work
+   * package arriving later is queued again. The lock must be held.
+   */
+  private void release (Object anItem)
+  {
+    if (anItem instanceof Slot)
+    {
+      m_theSlots.remove (((Slot) anItem).m_theKey);
+    } // if
+  } // release
+
+  /**
+   * Method unwrap returns the work package held by anItem if it is a slot,
+   * or anItem itself.
+   */
+  private static Object unwrap (Object anItem)
+  {
+    return (anItem instanceof Slot) ? ((Slot) anItem).m_theWorkPack : anItem;
+  } // unwrap
+
+} // class ConflatingQueue
@@ -0,0 +1,228 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ExpiringQueue
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ExpiringQueue is a work done queue that discards replies whose
+ * deadline has passed, so replies nobody collects do not accumulate.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class ExpiringQueue discards the work packages whose
+ * WorkPackIt.m_ReplyDeadline has passed. ThreadIt sets the deadline of a
+ * reply from the time to live of the work package or of the ThreadIt when
+ * it sends the reply, and uses an ExpiringQueue as its work done queue.<p>
+ * Eviction is spread over the use of the queue rather than done by a scan:
+ * each insert looks at no more than EVICT_PER_INSERT items at the head,
+ * where the oldest replies are, and an expired reply reaching the head is
+ * dropped when it would be taken. A reply that expires behind one that has
+ * not is therefore held until the replies ahead of it leave the queue.
+ * evictExpired scans the whole queue for an occasional clean up.<p>
+ * The replies evicted are counted by work instruction so that the clients
+ * abandoning their requests can be found.
+ */
+public class ExpiringQueue extends ProtectedQueue
+{
+  /** EVICT_PER_INSERT is the number of head items each insert may evict. */
+  public static final int EVICT_PER_INSERT = 2;
+
+  /** m_theEvictedCount is the number of items evicted. */
+  private final AtomicLong m_theEvictedCount = new AtomicLong ();
+  /** m_theEvictedCounts are the numbers of items evicted by instruction. */
+  private final ConcurrentHashMap<Integer, AtomicLong> m_theEvictedCounts = new ConcurrentHashMap<Integer, AtomicLong> ();
+
+  public ExpiringQueue ()
+  {
+    super ();
+  } // ExpiringQueue
+
+  /**
+   * Method insertItem adds T to the tail of the queue and evicts expired
+   * items from the head.
+   */
+  public void insertItem (Object T)
+  {
+    super.insertItem (T);
+    evictHead ();
+  } // insertItem
+
+  public void insertPriorityItem (Object T)
+  {
+    super.insertPriorityItem (T);
+    evictHead ();
+  } // insertPriorityItem
+
+  /**
+   * Method waitItem waits up to WaitTime milliseconds for an item that has
+   * not expired. Expired items taken meanwhile are evicted.
+   */
+  public Object waitItem (long WaitTime)
+  {
+    long theDeadline = WaitStrategy.toDeadline (WaitTime);
+    Object anItem = super.waitItem (WaitTime);
+
+    while ((anItem != null) && (isExpired (anItem, System.nanoTime ())))
+    {
+      recordEviction (anItem);
+      anItem = super.waitItem (Math.max (0, WaitStrategy.remainingTime (theDeadline)));
+    } // while
+    return anItem;
+  } // waitItem
+
+  public Object pollItem ()
+  {
+    Object anItem = super.pollItem ();
+
+    while ((anItem != null) && (isExpired (anItem, System.nanoTime ())))
+    {
+      recordEviction (anItem);
+      anItem = super.pollItem ();
+    } // while
+    return anItem;
+  } // pollItem
+
+  public Object getItem ()
+  {
+    Object anItem = super.getItem ();
+
+    while ((anItem != null) && (isExpired (anItem, System.nanoTime ())))
+    {
+      recordEviction (anItem);
+      anItem = super.getItem ();
+    } // while
+    return anItem;
+  } // getItem
+
+  /**
+   * Method evictExpired scans the queue and evicts every expired item. The
+   * method returns the number of items evicted.
+   */
+  public int evictExpired ()
+  {
+    Iterator<Object> theItems = iterator ();
+    long theNow = System.nanoTime ();
+    int theCount = 0;
+
+    while (theItems.hasNext ())
+    {
+      Object anItem = theItems.next ();
+      if ((isExpired (anItem, theNow)) && (remove (anItem)))
+      {
+        recordEviction (anItem);
+        theCount++;
+      } // if
+    } // while
+    return theCount;
+  } // evictExpired
+
+  /**
+   * Method getEvictedCount returns the number of items evicted.
+   */
+  public long getEvictedCount ()
+  {
+    return m_theEvictedCount.get ();
+  } // getEvictedCount
+
+  /**
+   * Method getEvictedCounts returns the number of items evicted for each
+   * work instruction, in instruction order.
+   */
+  public Map<Integer, Long> getEvictedCounts ()
+  {
+    Map<Integer, Long> theCounts = new TreeMap<Integer, Long> ();
+
+    for (Map.Entry<Integer, AtomicLong> theEntry : m_theEvictedCounts.entrySet ())
+    {
+      theCounts.put (theEntry.getKey (), theEntry.getValue ().get ());
+    } // for
+    return theCounts;
+  } // getEvictedCounts
+
+  /**
+   * Method isExpired returns true if anItem is a work package whose reply
+   * deadline is before theNow.
+   */
+  public static boolean isExpired (Object anItem, long theNow)
+  {
+    boolean isExpired = false;
+
+    if (anItem instanceof WorkPackIt)
+    {
+      long theDeadline = ((WorkPackIt) anItem).m_ReplyDeadline;
+      isExpired = (theDeadline != 0) && (theNow - theDeadline > 0);
+    } // if
+    return isExpired;
+  } // isExpired
+
+  /**
+   * Method evictHead evicts up to EVICT_PER_INSERT expired items from the
+   * head of the queue.
+   */
+  private void evictHead ()
+  {
+    long theNow = System.nanoTime ();
+    boolean isDone = false;
+
+    for (int i = 0; (i < EVICT_PER_INSERT) && (!isDone); i++)
+    {
+      Object anItem = peekItem ();
+      isDone = !isExpired (anItem, theNow);
+      if ((!isDone) && (remove (anItem)))
+      {
+        recordEviction (anItem);
+      } // if
+    } // for
+  } // evictHead
+
+  /**
+   * Method recordEviction counts the eviction of anItem.
+   */
+  private void recordEviction (Object anItem)
+  {
+    Integer theInstruction = ((WorkPackIt) anItem).getWorkInstruction ();
+    AtomicLong theCount = m_theEvictedCounts.get (theInstruction);
+
+    if (theCount == null)
+    {
+      AtomicLong theNewCount = new AtomicLong ();
+      theCount = m_theEvictedCounts.putIfAbsent (theInstruction, theNewCount);
+      theCount = (theCount == null) ? theNewCount : theCount;
+    } // if
+    theCount.incrementAndGet ();
+    m_theEvictedCount.incrementAndGet ();
+  } // recordEviction
+
+} // class ExpiringQueue
@@ -0,0 +1,1012 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : JournaledQueue
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class JournaledQueue is a work queue that records its work in a journal
+ * of memory mapped files so that work not yet done survives a restart.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class JournaledQueue is a work queue that appends each work package it
+ * accepts to a journal before the work is done, and marks the entry done
+ * once the ThreadIt taking the work has sent its response (see
+ * ProtectedQueue.releaseItem). When a queue is created on a directory that
+ * holds the journal of an earlier queue, the work that was not done is
+ * read back and waits in the new queue, so a ThreadIt given the queue with
+ * ThreadIt.setWorkQ does it on startup.<p>
+ * The journal is a series of segment files mapped into memory. An entry is
+ * its state, a CRC32 of the rest of the entry, its sequence number and the
+ * record of the work package (see WorkPackRecord), and the state is written
+ * last. The pages of a mapped file may reach the disk in any order, so
+ * recovery of a segment stops at the first entry whose checksum does not
+ * match rather than replay bytes that were never written. A segment file is deleted once every entry in it is
+ * done and no more is written to it.<p>
+ * The journal is forced to disk by a flusher thread, which commits every
+ * entry written since the last commit in one go. By default insertItem
+ * does not wait and the work written in the last commit interval may be
+ * lost. With a synchronous commit insertItem returns once its entry is on
+ * disk, and the producers waiting at the same time share a commit.<p>
+ * Work is done at least once: work done but not yet marked done in a
+ * commit is done again after a restart. Work taken and inserted again
+ * before it is released, such as work a ThreadIt retries, keeps its entry
+ * and the entry records its retry count. Items that cannot be recorded,
+ * such as work packages with a callback or a done queue, are queued
+ * without being journaled. Neither is a work package that must be taken as
+ * the instance it was queued as, such as the exit and wake-up work of a
+ * ThreadIt, which is never released and would be recovered as work. Work taken other than by a ThreadIt stays in
+ * the journal until releaseItem is called for it. Call close to commit the
+ * journal when the queue is no longer used.
+ */
+public class JournaledQueue extends ProtectedQueue
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (JournaledQueue.class);
+
+  /** DEFAULT_SEGMENT_SIZE is the size of a segment file in bytes. */
+  public static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+  /** DEFAULT_COMMIT_INTERVAL is the time in milliseconds between commits. */
+  public static final long DEFAULT_COMMIT_INTERVAL = 10;
+
+  /** ENTRY_HEADER_SIZE is the size of the state, checksum and sequence of an entry. */
+  private static final int ENTRY_HEADER_SIZE = 4 + 4 + 8;
+  /** STATE_END marks the end of the entries in a segment. */
+  private static final int STATE_END = 0;
+  /** STATE_PENDING marks an entry whose work is not done. */
+  private static final int STATE_PENDING = 1;
+  /** STATE_DONE marks an entry whose work is done. */
+  private static final int STATE_DONE = 2;
+  /** FILE_PREFIX and FILE_SUFFIX make up the name of a segment file. */
+  private static final String FILE_PREFIX = "journal-";
+  private static final String FILE_SUFFIX = ".seg";
+
+  /**
+   * Class Segment is a segment file mapped into memory. It counts the
+   * entries in it that are not done. A segment read back from the journal
+   * is sealed, as what follows its last complete entry is not known, and
+   * is never written to again.
+   */
+  private static class Segment
+  {
+    final File m_theFile;
+    final MappedByteBuffer m_theBuffer;
+    int m_theWritePosition = 0;
+    int m_thePendingCount = 0;
+    boolean m_isDirty = false;
+    boolean m_isSealed = false;
+
+    Segment (File theFile, int theSize) throws IOException
+    {
+      RandomAccessFile theAccess = new RandomAccessFile (theFile, "rw");
+
+      m_theFile = theFile;
+      try
+      {
+        m_theBuffer = theAccess.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, (theSize > 0) ? theSize : theAccess.length ());
+      }
+      finally
+      {
+        theAccess.close ();
+      } // finally
+    } // Segment
+
+    int getRemaining ()
+    {
+      return m_theBuffer.capacity () - m_theWritePosition;
+    } // getRemaining
+  } // class Segment
+
+  /**
+   * Class Entry is the place in the journal of an item that is not done.
+   * An item queued again before it is done has an entry for each time.
+   */
+  private static class Entry
+  {
+    final Segment m_theSegment;
+    final int m_thePosition;
+    Entry m_theNext = null;
+    boolean m_isTaken = false;
+
+    Entry (Segment theSegment, int thePosition)
+    {
+      m_theSegment = theSegment;
+      m_thePosition = thePosition;
+    } // Entry
+  } // class Entry
+
+  /** m_theDirectory is where the segment files are kept. */
+  private final File m_theDirectory;
+  /** m_theSegmentSize is the size of a new segment file. */
+  private final int m_theSegmentSize;
+  /** m_theCommitInterval is the time in milliseconds between commits. */
+  private final long m_theCommitInterval;
+  /** m_isSyncCommit is true if insertItem waits for its entry to be committed. */
+  private final boolean m_isSyncCommit;
+  /** m_theRecord writes and reads the records. */
+  private final WorkPackRecord m_theRecord;
+  /** m_theLock guards everything below. */
+  private final ReentrantLock m_theLock = new ReentrantLock ();
+  /** m_theNotEmpty is signalled when an item is added. */
+  private final Condition m_theNotEmpty = m_theLock.newCondition ();
+  /** m_theCommitNeeded is signalled when a producer waits for a commit. */
+  private final Condition m_theCommitNeeded = m_theLock.newCondition ();
+  /** m_theCommitted is signalled when a commit is done. */
+  private final Condition m_theCommitted = m_theLock.newCondition ();
+  /** m_theItems are the items in the queue. */
+  private final ArrayDeque<Object> m_theItems = new ArrayDeque<Object> ();
+  /** m_thePending are the entries of the items that are not done. */
+  private final IdentityHashMap<Object, Entry> m_thePending = new IdentityHashMap<Object, Entry> ();
+  /** m_theSegments are the segments in use, oldest first. */
+  private final ArrayList<Segment> m_theSegments = new ArrayList<Segment> ();
+  /** m_theDirty are the segments written since the last commit. */
+  private ArrayList<Segment> m_theDirty = new ArrayList<Segment> ();
+  /** m_theNextIndex is the number of the next segment file. */
+  private long m_theNextIndex = 0;
+  /** m_theSequence is the sequence number of the last entry written. */
+  private long m_theSequence = 0;
+  /** m_theCommittedSequence is the sequence number of the last entry committed. */
+  private long m_theCommittedSequence = 0;
+  /** m_theWaiterCount is the number of producers waiting for a commit. */
+  private int m_theWaiterCount = 0;
+  /** m_thePendingCount is the number of entries that are not done. */
+  private long m_thePendingCount = 0;
+  /** m_isClosed is true once the queue is closed. */
+  private boolean m_isClosed = false;
+  /** m_theRecoveredCount is the number of items read back from the journal. */
+  private int m_theRecoveredCount = 0;
+  /** m_theJournaledCount is the number of items journaled since the queue was created. */
+  private final AtomicLong m_theJournaledCount = new AtomicLong ();
+  /** m_theChecksum computes the checksums of the entries. */
+  private final CRC32 m_theChecksum = new CRC32 ();
+  /** m_theCommitCount is the number of commits since the queue was created. */
+  private final AtomicLong m_theCommitCount = new AtomicLong ();
+  /** m_theFlusher is the thread that commits the journal. */
+  private final Thread m_theFlusher;
+
+  /**
+   * Method JournaledQueue creates a queue journaled in theDirectory that
+   * commits every DEFAULT_COMMIT_INTERVAL milliseconds without waiting.
+   * The objects of the work packages are encoded with theCodec.
+   */
+  public JournaledQueue (File theDirectory, PayloadCodec theCodec)
+  {
+    this (theDirectory, theCodec, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL, false);
+  } // JournaledQueue
+
+  /**
+   * Method JournaledQueue creates a queue journaled in theDirectory in
+   * segment files of theSegmentSize bytes, reading back the work that the
+   * journal there holds that is not done. The journal is committed every
+   * theCommitInterval milliseconds and, if isSyncCommit is true, as soon
+   * as a producer waits for its entry. The objects of the work packages are
+   * encoded with theCodec, which may be null.
+   */
+  public JournaledQueue (File theDirectory, PayloadCodec theCodec, int theSegmentSize, long theCommitInterval, boolean isSyncCommit)
+  {
+    super (false);
+    m_theDirectory = theDirectory;
+    m_theSegmentSize = Math.max (theSegmentSize, ENTRY_HEADER_SIZE + WorkPackRecord.LENGTH_SIZE + WorkPackRecord.HEADER_SIZE);
+    m_theCommitInterval = Math.max (theCommitInterval, 1);
+    m_isSyncCommit = isSyncCommit;
+    m_theRecord = new WorkPackRecord (theCodec, m_theSegmentSize - ENTRY_HEADER_SIZE - WorkPackRecord.LENGTH_SIZE - WorkPackRecord.HEADER_SIZE);
+    recover ();
+    m_theFlusher = new Thread ("JournaledQueue.Flusher")
+    {
+      public void run ()
+      {
+        flush ();
+      } // run
+    };
+    m_theFlusher.setDaemon (true);
+    m_theFlusher.start ();
+  } // JournaledQueue
+
+  /**
+   * Method insertItem journals T and adds it to the tail of the queue. With
+   * a synchronous commit the method returns once the entry is committed.
+   * If T was taken and not released its entry is used again.
+   */
+  public void insertItem (Object T)
+  {
+    countInsert ();
+    m_theLock.lock ();
+    try
+    {
+      long theSequence = requeue (T);
+      m_theItems.addLast (T);
+      m_theNotEmpty.signal ();
+      if ((m_isSyncCommit) && (theSequence != 0))
+      {
+        awaitCommit (theSequence);
+      } // if
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    signalSelectors ();
+  } // insertItem
+
+  /**
+   * Method insertPriorityItem journals T and adds it to the head of the
+   * queue. If T was taken and not released its entry is used again, so work
+   * put back by a ThreadIt that is stopping keeps its place in the journal.
+   */
+  public void insertPriorityItem (Object T)
+  {
+    countInsert ();
+    m_theLock.lock ();
+    try
+    {
+      requeue (T);
+      m_theItems.addFirst (T);
+      m_theNotEmpty.signal ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    signalSelectors ();
+  } // insertPriorityItem
+
+  /**
+   * Method waitItem waits up to WaitTime milliseconds for an item and
+   * removes it from the head of the queue. The method returns null if the
+   * wait times out.
+   */
+  public Object waitItem (long WaitTime)
+  {
+    Object anItem = null;
+    long theRemaining = TimeUnit.MILLISECONDS.toNanos (WaitTime);
+
+    m_theLock.lock ();
+    try
+    {
+      while ((m_theItems.isEmpty ()) && (theRemaining > 0))
+      {
+        theRemaining = m_theNotEmpty.awaitNanos (theRemaining);
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    countRemove (anItem);
+    return anItem;
+  } // waitItem
+
+  public Object pollItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      anItem = take ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    countRemove (anItem);
+    return anItem;
+  } // pollItem
+
+  /**
+   * Method getItem waits for an item for as long as it takes.
+   */
+  public Object getItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      while (m_theItems.isEmpty ())
+      {
+        m_theNotEmpty.await ();
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    countRemove (anItem);
+    return anItem;
+  } // getItem
+
+  /**
+   * Method releaseItem marks the oldest entry of anItem that is taken and
+   * not done as done.
+   */
+  public void releaseItem (Object anItem)
+  {
+    m_theLock.lock ();
+    try
+    {
+      release (anItem, true);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+  } // releaseItem
+
+  /**
+   * Method clear removes every item and marks its entry done.
+   */
+  public void clear ()
+  {
+    Object anItem = pollItem ();
+
+    while (anItem != null)
+    {
+      releaseItem (anItem);
+      anItem = pollItem ();
+    } // while
+  } // clear
+
+  /**
+   * Method close stops the flusher and commits the journal. The items in
+   * the queue stay in the journal for the next queue on the directory.
+   */
+  public void close ()
+  {
+    m_theLock.lock ();
+    try
+    {
+      m_isClosed = true;
+      m_theCommitNeeded.signal ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    try
+    {
+      m_theFlusher.join ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    } // catch
+  } // close
+
+  public long size ()
+  {
+    long theSize = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theSize = m_theItems.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theSize;
+  } // size
+
+  public boolean isEmpty ()
+  {
+    return (size () == 0);
+  } // isEmpty
+
+  public Object get (int i)
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      Iterator<Object> theItems = m_theItems.iterator ();
+      for (int j = 0; (j <= i) && (theItems.hasNext ()); j++)
+      {
+        anItem = theItems.next ();
+      } // for
+      anItem = ((i >= 0) && (i < m_theItems.size ())) ? anItem : null;
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // get
+
+  /**
+   * Method remove removes o from the queue and marks its entry done.
+   */
+  public boolean remove (Object o)
+  {
+    boolean isRemoved = false;
+
+    m_theLock.lock ();
+    try
+    {
+      isRemoved = m_theItems.removeFirstOccurrence (o);
+      if (isRemoved)
+      {
+        release (o, false);
+      } // if
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    if (isRemoved)
+    {
+      countRemove (o);
+    } // if
+    return isRemoved;
+  } // remove
+
+  /**
+   * Method getPendingCount returns the number of entries in the journal
+   * that are not done.
+   */
+  public long getPendingCount ()
+  {
+    long theCount = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theCount = m_thePendingCount;
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theCount;
+  } // getPendingCount
+
+  /**
+   * Method getRecoveredCount returns the number of items read back from the
+   * journal when the queue was created.
+   */
+  public int getRecoveredCount ()
+  {
+    return m_theRecoveredCount;
+  } // getRecoveredCount
+
+  /**
+   * Method getJournaledCount returns the number of items journaled since
+   * the queue was created.
+   */
+  public long getJournaledCount ()
+  {
+    return m_theJournaledCount.get ();
+  } // getJournaledCount
+
+  /**
+   * Method getCommitCount returns the number of times the journal has been
+   * forced to disk since the queue was created.
+   */
+  public long getCommitCount ()
+  {
+    return m_theCommitCount.get ();
+  } // getCommitCount
+
+  /**
+   * Method getSegmentCount returns the number of segment files in use.
+   */
+  public int getSegmentCount ()
+  {
+    int theCount = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theCount = m_theSegments.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theCount;
+  } // getSegmentCount
+
+  /**
+   * Method journal writes an entry for anItem to the last segment unless
+   * anItem keeps its identity. The method returns the sequence number of
+   * the entry or 0 if anItem is not journaled.
+   */
+  private long journal (Object anItem)
+  {
+    long theSequence = 0;
+    Segment theSegment = null;
+    int theSize = 0;
+    int thePosition = 0;
+
+    if ((!m_isClosed) && (!isIdentityKept (anItem)) && (m_theRecord.prepare (anItem)))
+    {
+      theSize = ENTRY_HEADER_SIZE + m_theRecord.getSize ();
+      theSegment = getSegment (theSize);
+    } // if
+    if (theSegment != null)
+    {
+      thePosition = theSegment.m_theWritePosition;
+      theSequence = ++m_theSequence;
+      m_theRecord.write (theSegment.m_theBuffer, thePosition + ENTRY_HEADER_SIZE);
+      theSegment.m_theBuffer.putLong (thePosition + 8, theSequence);
+      theSegment.m_theBuffer.putInt (thePosition + 4, checksum (theSegment.m_theBuffer, thePosition));
+      theSegment.m_theBuffer.putInt (thePosition, STATE_PENDING);
+      theSegment.m_theWritePosition = thePosition + theSize;
+      addPending (anItem, new Entry (theSegment, thePosition));
+      markDirty (theSegment);
+      m_theJournaledCount.incrementAndGet ();
+    } // if
+    return theSequence;
+  } // journal
+
+  /**
+   * Method checksum returns the CRC32 of the sequence and record of the
+   * entry in theBuffer at thePosition.
+   */
+  private int checksum (ByteBuffer theBuffer, int thePosition)
+  {
+    ByteBuffer theSequence = theBuffer.duplicate ();
+
+    theSequence.limit (thePosition + ENTRY_HEADER_SIZE).position (thePosition + 8);
+    m_theChecksum.reset ();
+    m_theChecksum.update (theSequence);
+    WorkPackRecord.checksum (m_theChecksum, theBuffer, thePosition + ENTRY_HEADER_SIZE);
+    return (int) m_theChecksum.getValue ();
+  } // checksum
+
+  /**
+   * Method requeue uses the entry of anItem again if it was taken and not
+   * released, writing its retry count, or else journals it. The method
+   * returns the sequence number to commit or 0 if anItem is not journaled.
+   */
+  private long requeue (Object anItem)
+  {
+    long theSequence = 0;
+    Entry theEntry = findEntry (anItem, true);
+
+    if (theEntry != null)
+    {
+      theEntry.m_isTaken = false;
+      WorkPackRecord.setRetryCount (theEntry.m_theSegment.m_theBuffer, theEntry.m_thePosition + ENTRY_HEADER_SIZE,
+                                    ((WorkPackIt) anItem).m_RetryCount);
+      markDirty (theEntry.m_theSegment);
+      theSequence = ++m_theSequence;
+    }
+    else
+    {
+      theSequence = journal (anItem);
+    } // if
+    return theSequence;
+  } // requeue
+
+  /**
+   * Method take removes the item at the head of the queue and marks its
+   * oldest entry that is not taken as taken. The method returns null if the
+   * queue is empty.
+   */
+  private Object take ()
+  {
+    Object anItem = m_theItems.pollFirst ();
+    Entry theEntry = findEntry (anItem, false);
+
+    if (theEntry != null)
+    {
+      theEntry.m_isTaken = true;
+    } // if
+    return anItem;
+  } // take
+
+  /**
+   * Method findEntry returns the oldest entry of anItem that is taken if
+   * isTaken is true, or that is not taken otherwise. The method returns
+   * null if there is none.
+   */
+  private Entry findEntry (Object anItem, boolean isTaken)
+  {
+    Entry theEntry = (anItem != null) ? m_thePending.get (anItem) : null;
+
+    while ((theEntry != null) && (theEntry.m_isTaken != isTaken))
+    {
+      theEntry = theEntry.m_theNext;
+    } // while
+    return theEntry;
+  } // findEntry
+
+  /**
+   * Method isIdentityKept returns true if anItem is a work package that
+   * must be taken as the instance it was queued as.
+   */
+  private static boolean isIdentityKept (Object anItem)
+  {
+    return (anItem instanceof WorkPackIt) && (((WorkPackIt) anItem).isIdentityKept ());
+  } // isIdentityKept
+
+  /**
+   * Method getSegment returns the last segment if it has room for theSize
+   * bytes or a new segment. The method returns null if a segment file
+   * could not be created.
+   */
+  private Segment getSegment (int theSize)
+  {
+    Segment theSegment = m_theSegments.isEmpty () ? null : m_theSegments.get (m_theSegments.size () - 1);
+    Segment theLast = theSegment;
+
+    if ((theSegment == null) || (theSegment.m_isSealed) || (theSegment.getRemaining () < theSize))
+    {
+      theSegment = null;
+      try
+      {
+        theSegment = new Segment (new File (m_theDirectory, getFileName (m_theNextIndex)), Math.max (m_theSegmentSize, theSize));
+        m_theNextIndex++;
+        m_theSegments.add (theSegment);
+        // The last segment is no longer written to so it may be finished.
+        if (theLast != null)
+        {
+          retire (theLast);
+        } // if
+      }
+      catch (IOException anException)
+      {
+        m_theLogger.error ("Unable to create a segment file in " + m_theDirectory, anException);
+      } // catch
+    } // if
+    return theSegment;
+  } // getSegment
+
+  /**
+   * Method addPending adds theEntry to the entries of anItem.
+   */
+  private void addPending (Object anItem, Entry theEntry)
+  {
+    Entry theFirst = m_thePending.get (anItem);
+
+    if (theFirst == null)
+    {
+      m_thePending.put (anItem, theEntry);
+    }
+    else
+    {
+      while (theFirst.m_theNext != null)
+      {
+        theFirst = theFirst.m_theNext;
+      } // while
+      theFirst.m_theNext = theEntry;
+    } // if
+    theEntry.m_theSegment.m_thePendingCount++;
+    m_thePendingCount++;
+  } // addPending
+
+  /**
+   * Method release marks the oldest entry of anItem that is taken if
+   * isTaken is true, or that is not taken otherwise, done. An item that has
+   * entries but none in that state is left alone, so a copy of it that is
+   * still queued keeps its entry.
+   */
+  private void release (Object anItem, boolean isTaken)
+  {
+    Entry theFirst = (anItem != null) ? m_thePending.get (anItem) : null;
+    Entry theEntry = findEntry (anItem, isTaken);
+    Entry thePrevious = theFirst;
+
+    if ((theEntry == null) && (theFirst != null))
+    {
+      m_theLogger.warn ("Released work that has no " + (isTaken ? "taken" : "queued") + " journal entry");
+    }
+    else if (theEntry != null)
+    {
+      if ((theEntry == theFirst) && (theEntry.m_theNext == null))
+      {
+        m_thePending.remove (anItem);
+      }
+      else if (theEntry == theFirst)
+      {
+        m_thePending.put (anItem, theEntry.m_theNext);
+      }
+      else
+      {
+        while (thePrevious.m_theNext != theEntry)
+        {
+          thePrevious = thePrevious.m_theNext;
+        } // while
+        thePrevious.m_theNext = theEntry.m_theNext;
+      } // if
+      theEntry.m_theSegment.m_theBuffer.putInt (theEntry.m_thePosition, STATE_DONE);
+      theEntry.m_theSegment.m_thePendingCount--;
+      m_thePendingCount--;
+      markDirty (theEntry.m_theSegment);
+      retire (theEntry.m_theSegment);
+    } // if
+  } // release
+
+  /**
+   * Method retire deletes the file of theSegment if every entry in it is
+   * done and no more is written to it.
+   */
+  private void retire (Segment theSegment)
+  {
+    if ((theSegment.m_thePendingCount == 0) &&
+        ((theSegment.m_isSealed) || (theSegment != m_theSegments.get (m_theSegments.size () - 1))))
+    {
+      m_theSegments.remove (theSegment);
+      m_theDirty.remove (theSegment);
+      theSegment.m_isDirty = false;
+      delete (theSegment.m_theFile);
+    } // if
+  } // retire
+
+  /**
+   * Method markDirty adds theSegment to the segments to commit.
+   */
+  private void markDirty (Segment theSegment)
+  {
+    if (!theSegment.m_isDirty)
+    {
+      theSegment.m_isDirty = true;
+      m_theDirty.add (theSegment);
+    } // if
+  } // markDirty
+
+  /**
+   * Method awaitCommit waits until the entry numbered theSequence is
+   * committed or the queue is closed.
+   */
+  private void awaitCommit (long theSequence)
+  {
+    m_theWaiterCount++;
+    m_theCommitNeeded.signal ();
+    try
+    {
+      while ((m_theCommittedSequence < theSequence) && (!m_isClosed))
+      {
+        m_theCommitted.await ();
+      } // while
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theWaiterCount--;
+    } // finally
+  } // awaitCommit
+
+  /**
+   * Method flush is run by the flusher. Each time round it waits for the
+   * commit interval, or until a producer waits for a commit, and forces the
+   * segments written since the last commit to disk. The entries written
+   * while the segments are forced are committed the next time round.
+   */
+  private void flush ()
+  {
+    boolean isDone = false;
+    ArrayList<Segment> theDirty = new ArrayList<Segment> ();
+    long theSequence = 0;
+
+    while (!isDone)
+    {
+      m_theLock.lock ();
+      try
+      {
+        if ((m_theWaiterCount == 0) && (!m_isClosed))
+        {
+          m_theCommitNeeded.await (m_theCommitInterval, TimeUnit.MILLISECONDS);
+        } // if
+        isDone = m_isClosed;
+        theSequence = m_theSequence;
+        // Swap the lists so that the producers carry on with an empty one.
+        ArrayList<Segment> theSwap = m_theDirty;
+        m_theDirty = theDirty;
+        theDirty = theSwap;
+        for (Segment theSegment : theDirty)
+        {
+          theSegment.m_isDirty = false;
+        } // for
+      }
+      catch (InterruptedException anInterruptedException)
+      {
+        m_theLogger.debug ("InterruptedException", anInterruptedException);
+      }
+      finally
+      {
+        m_theLock.unlock ();
+      } // finally
+      for (Segment theSegment : theDirty)
+      {
+        theSegment.m_theBuffer.force ();
+      } // for
+      if (!theDirty.isEmpty ())
+      {
+        m_theCommitCount.incrementAndGet ();
+      } // if
+      theDirty.clear ();
+      m_theLock.lock ();
+      try
+      {
+        m_theCommittedSequence = theSequence;
+        m_theCommitted.signalAll ();
+      }
+      finally
+      {
+        m_theLock.unlock ();
+      } // finally
+    } // while
+  } // flush
+
+  /**
+   * Method recover reads back the work that is not done from the segment
+   * files in the directory, oldest first, and queues it. Segment files
+   * whose work is all done are deleted and the others are kept until it is.
+   */
+  private void recover ()
+  {
+    File[] theFiles = m_theDirectory.listFiles ();
+    Segment theSegment = null;
+
+    if (theFiles == null)
+    {
+      theFiles = new File[0];
+      m_theLogger.error ("Unable to list the journal in " + m_theDirectory);
+    } // if
+    // The index is fixed width so the names sort in the order written.
+    Arrays.sort (theFiles);
+    for (File theFile : theFiles)
+    {
+      String theName = theFile.getName ();
+      if ((theName.startsWith (FILE_PREFIX)) && (theName.endsWith (FILE_SUFFIX)))
+      {
+        try
+        {
+          m_theNextIndex = Long.parseLong (theName.substring (FILE_PREFIX.length (), theName.length () - FILE_SUFFIX.length ())) + 1;
+          theSegment = new Segment (theFile, 0);
+          recover (theSegment);
+          if (theSegment.m_thePendingCount > 0)
+          {
+            m_theSegments.add (theSegment);
+          }
+          else
+          {
+            delete (theFile);
+          } // if
+        }
+        catch (IOException anException)
+        {
+          m_theLogger.error ("Unable to read the segment file " + theFile, anException);
+        }
+        catch (NumberFormatException anException)
+        {
+          m_theLogger.warn ("Ignoring the file " + theFile);
+        } // catch
+      } // if
+    } // for
+    m_theCommittedSequence = m_theSequence;
+  } // recover
+
+  /**
+   * Method recover queues the work of the entries in theSegment that are
+   * not done. It stops at the first entry that is not complete or whose
+   * checksum does not match.
+   */
+  private void recover (Segment theSegment)
+  {
+    MappedByteBuffer theBuffer = theSegment.m_theBuffer;
+    int thePosition = 0;
+    int theState = STATE_END;
+    int theSize = 0;
+    WorkPackIt theWorkPack = null;
+    boolean isDone = false;
+
+    while (!isDone)
+    {
+      isDone = (thePosition + ENTRY_HEADER_SIZE + WorkPackRecord.LENGTH_SIZE > theBuffer.capacity ());
+      if (!isDone)
+      {
+        theState = theBuffer.getInt (thePosition);
+        theSize = ENTRY_HEADER_SIZE + WorkPackRecord.getSize (theBuffer, thePosition + ENTRY_HEADER_SIZE);
+        isDone = ((theState != STATE_PENDING) && (theState != STATE_DONE)) ||
+                 (theSize < ENTRY_HEADER_SIZE + WorkPackRecord.LENGTH_SIZE + WorkPackRecord.HEADER_SIZE) ||
+                 (thePosition + theSize > theBuffer.capacity ());
+      } // if
+      if ((!isDone) && (theBuffer.getInt (thePosition + 4) != checksum (theBuffer, thePosition)))
+      {
+        m_theLogger.warn ("Journal entry at " + thePosition + " of " + theSegment.m_theFile + " is damaged");
+        isDone = true;
+      } // if
+      if (!isDone)
+      {
+        m_theSequence = Math.max (m_theSequence, theBuffer.getLong (thePosition + 8));
+        if (theState == STATE_PENDING)
+        {
+          theWorkPack = m_theRecord.read (theBuffer, thePosition + ENTRY_HEADER_SIZE);
+          // The time it was queued means nothing to this process.
+          theWorkPack.m_EnqueueTime = 0;
+          addPending (theWorkPack, new Entry (theSegment, thePosition));
+          m_theItems.addLast (theWorkPack);
+          countInsert ();
+          m_theRecoveredCount++;
+        } // if
+        thePosition = thePosition + theSize;
+      } // if
+    } // while
+    theSegment.m_theWritePosition = thePosition;
+    theSegment.m_isSealed = true;
+  } // recover
+
+  /**
+   * Method getFileName returns the name of the segment file numbered
+   * theIndex.
+   */
+  private static String getFileName (long theIndex)
+  {
+    return FILE_PREFIX + String.format ("%08d", theIndex) + FILE_SUFFIX;
+  } // getFileName
+
+  /**
+   * Method delete deletes theFile.
+   */
+  private void delete (File theFile)
+  {
+    if (!theFile.delete ())
+    {
+      m_theLogger.warn ("Unable to delete the segment file " + theFile);
+    } // if
+  } // delete
+
+} // class JournaledQueue
@@ -0,0 +1,485 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : OffHeapQueue
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class OffHeapQueue is a work queue that holds its work packages in
+ * direct memory in a compact binary form, so that a large backlog does not
+ * grow the heap.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class OffHeapQueue encodes the work packages inserted into it as records
+ * in segments of direct memory and decodes each into a new WorkPackIt when
+ * it is taken. A backlog of millions of work packages then costs direct
+ * memory rather than heap, and the garbage collector does not trace it.<p>
+ * A record holds the instruction, identity, flags, times and reply
+ * instruction of the work package, and m_Object encoded by the
+ * PayloadCodec. Only a plain WorkPackIt whose other fields are not set can
+ * be recorded in full: a work package with a callback, a work done queue,
+ * a source, a conflation key or an object the codec cannot encode is held
+ * on the heap with a record marking its place, so the order is kept. So is
+ * a work package that must be taken as the instance it was queued as,
+ * such as the control work of ThreadIt, which the ThreadIt recognises by
+ * identity. Priority items, such as events, are held on the heap ahead of
+ * the records.<p>
+ * Segments that have been read are used again, one is kept spare, and the
+ * rest are left to the garbage collector to free. get and remove only see
+ * the priority items.<p>
+ * A ThreadIt uses the queue once it is given to ThreadIt.setWorkQ.
+ */
+public class OffHeapQueue extends ProtectedQueue
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (OffHeapQueue.class);
+
+  /** DEFAULT_SEGMENT_SIZE is the size of a segment in bytes. */
+  public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+  /**
+   * Class Segment is a block of direct memory holding records from its read
+   * position to its write position.
+   */
+  private static class Segment
+  {
+    final ByteBuffer m_theBuffer;
+    int m_theReadPosition = 0;
+    int m_theWritePosition = 0;
+
+    Segment (int theSize)
+    {
+      m_theBuffer = ByteBuffer.allocateDirect (theSize);
+    } // Segment
+
+    int getRemaining ()
+    {
+      return m_theBuffer.capacity () - m_theWritePosition;
+    } // getRemaining
+
+    boolean isRead ()
+    {
+      return (m_theReadPosition == m_theWritePosition);
+    } // isRead
+  } // class Segment
+
+  /** m_theRecord writes and reads the records. */
+  private final WorkPackRecord m_theRecord;
+  /** m_theSegmentSize is the size of a new segment. */
+  private final int m_theSegmentSize;
+  /** m_theLock guards everything below. */
+  private final ReentrantLock m_theLock = new ReentrantLock ();
+  /** m_theNotEmpty is signalled when an item is added. */
+  private final Condition m_theNotEmpty = m_theLock.newCondition ();
+  /** m_thePriorityItems are taken before the records. */
+  private final ArrayDeque<Object> m_thePriorityItems = new ArrayDeque<Object> ();
+  /** m_theReferences are the items held on the heap, in record order. */
+  private final ArrayDeque<Object> m_theReferences = new ArrayDeque<Object> ();
+  /** m_theSegments hold the records, oldest first. */
+  private final ArrayDeque<Segment> m_theSegments = new ArrayDeque<Segment> ();
+  /** m_theSpare is a segment kept for reuse or null. */
+  private Segment m_theSpare = null;
+  /** m_theRecordCount is the number of records. */
+  private long m_theRecordCount = 0;
+  /** m_theOffHeapBytes is the number of bytes of records not yet taken. */
+  private volatile long m_theOffHeapBytes = 0;
+
+  public OffHeapQueue (PayloadCodec theCodec)
+  {
+    this (theCodec, DEFAULT_SEGMENT_SIZE);
+  } // OffHeapQueue
+
+  /**
+   * Method OffHeapQueue creates a queue that encodes the objects of the
+   * work packages with theCodec, or holds work packages with an object on
+   * the heap if theCodec is null, in segments of theSegmentSize bytes.
+   */
+  public OffHeapQueue (PayloadCodec theCodec, int theSegmentSize)
+  {
+    super (false);
+    m_theSegmentSize = Math.max (theSegmentSize, WorkPackRecord.LENGTH_SIZE + WorkPackRecord.HEADER_SIZE);
+    m_theRecord = new WorkPackRecord (theCodec, m_theSegmentSize - WorkPackRecord.LENGTH_SIZE - WorkPackRecord.HEADER_SIZE);
+  } // OffHeapQueue
+
+  /**
+   * Method insertItem records T at the tail of the queue.
+   */
+  public void insertItem (Object T)
+  {
+    countInsert ();
+    m_theLock.lock ();
+    try
+    {
+      record (T);
+      m_theNotEmpty.signal ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    signalSelectors ();
+  } // insertItem
+
+  /**
+   * Method insertPriorityItem adds T to the head of the queue. It is held
+   * on the heap.
+   */
+  public void insertPriorityItem (Object T)
+  {
+    countInsert ();
+    m_theLock.lock ();
+    try
+    {
+      m_thePriorityItems.addFirst (T);
+      m_theNotEmpty.signal ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    signalSelectors ();
+  } // insertPriorityItem
+
+  /**
+   * Method waitItem waits up to WaitTime milliseconds for an item and
+   * removes it from the head of the queue. The method returns null if the
+   * wait times out.
+   */
+  public Object waitItem (long WaitTime)
+  {
+    Object anItem = null;
+    long theRemaining = TimeUnit.MILLISECONDS.toNanos (WaitTime);
+
+    m_theLock.lock ();
+    try
+    {
+      while ((isEmptyLocked ()) && (theRemaining > 0))
+      {
+        theRemaining = m_theNotEmpty.awaitNanos (theRemaining);
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // waitItem
+
+  public Object pollItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      anItem = take ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // pollItem
+
+  /**
+   * Method getItem waits for an item for as long as it takes.
+   */
+  public Object getItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      while (isEmptyLocked ())
+      {
+        m_theNotEmpty.await ();
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // getItem
+
+  public void clear ()
+  {
+    while (pollItem () != null)
+    {
+      // Each removal is counted.
+    } // while
+  } // clear
+
+  public long size ()
+  {
+    long theSize = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theSize = m_thePriorityItems.size () + m_theRecordCount;
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theSize;
+  } // size
+
+  public boolean isEmpty ()
+  {
+    return (size () == 0);
+  } // isEmpty
+
+  public Object get (int i)
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      Iterator<Object> theItems = m_thePriorityItems.iterator ();
+      for (int j = 0; (j <= i) && (theItems.hasNext ()); j++)
+      {
+        anItem = theItems.next ();
+      } // for
+      anItem = ((i >= 0) && (i < m_thePriorityItems.size ())) ? anItem : null;
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // get
+
+  public boolean remove (Object o)
+  {
+    boolean isRemoved = false;
+
+    m_theLock.lock ();
+    try
+    {
+      isRemoved = m_thePriorityItems.removeFirstOccurrence (o);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    if (isRemoved)
+    {
+      countRemove (o);
+    } // if
+    return isRemoved;
+  } // remove
+
+  /**
+   * Method getOffHeapBytes returns the number of bytes of direct memory
+   * used by the records not yet taken.
+   */
+  public long getOffHeapBytes ()
+  {
+    return m_theOffHeapBytes;
+  } // getOffHeapBytes
+
+  /**
+   * Method getSegmentCount returns the number of segments holding records.
+   */
+  public int getSegmentCount ()
+  {
+    int theCount = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theCount = m_theSegments.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theCount;
+  } // getSegmentCount
+
+  /**
+   * Method getHeapCount returns the number of items held on the heap,
+   * including the priority items.
+   */
+  public int getHeapCount ()
+  {
+    int theCount = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theCount = m_thePriorityItems.size () + m_theReferences.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theCount;
+  } // getHeapCount
+
+  /**
+   * Method record writes the record of anItem to the tail segment.
+   */
+  private void record (Object anItem)
+  {
+    Segment theSegment = null;
+    int theSize = 0;
+
+    if (!m_theRecord.prepare (anItem))
+    {
+      m_theReferences.add (anItem);
+    } // if
+    theSize = m_theRecord.getSize ();
+    theSegment = getTailSegment (theSize);
+    m_theRecord.write (theSegment.m_theBuffer, theSegment.m_theWritePosition);
+    theSegment.m_theWritePosition = theSegment.m_theWritePosition + theSize;
+    m_theRecordCount++;
+    m_theOffHeapBytes = m_theOffHeapBytes + theSize;
+  } // record
+
+  /**
+   * Method getTailSegment returns the segment to write a record of
+   * theSize bytes to, adding a segment if the tail segment is full.
+   */
+  private Segment getTailSegment (int theSize)
+  {
+    Segment theSegment = m_theSegments.peekLast ();
+
+    if ((theSegment == null) || (theSegment.getRemaining () < theSize))
+    {
+      if ((m_theSpare != null) && (m_theSpare.m_theBuffer.capacity () >= theSize))
+      {
+        theSegment = m_theSpare;
+        m_theSpare = null;
+      }
+      else
+      {
+        theSegment = new Segment (Math.max (m_theSegmentSize, theSize));
+      } // if
+      m_theSegments.addLast (theSegment);
+    } // if
+    return theSegment;
+  } // getTailSegment
+
+  /**
+   * Method isEmptyLocked returns true if there are no items.
+   */
+  private boolean isEmptyLocked ()
+  {
+    return (m_thePriorityItems.isEmpty ()) && (m_theRecordCount == 0);
+  } // isEmptyLocked
+
+  /**
+   * Method take removes the first item, decoding it if it is recorded. The
+   * method returns null if there are no items.
+   */
+  private Object take ()
+  {
+    Object anItem = m_thePriorityItems.pollFirst ();
+
+    if ((anItem == null) && (m_theRecordCount > 0))
+    {
+      anItem = decode (m_theSegments.peekFirst ());
+    } // if
+    countRemove (anItem);
+    return anItem;
+  } // take
+
+  /**
+   * Method decode reads the record at the read position of theSegment and
+   * moves past it, recycling the segment once it has been read.
+   */
+  private Object decode (Segment theSegment)
+  {
+    ByteBuffer theBuffer = theSegment.m_theBuffer;
+    int thePosition = theSegment.m_theReadPosition;
+    int theSize = WorkPackRecord.getSize (theBuffer, thePosition);
+    Object anItem = null;
+
+    if (WorkPackRecord.isReference (theBuffer, thePosition))
+    {
+      anItem = m_theReferences.pollFirst ();
+    }
+    else
+    {
+      anItem = m_theRecord.read (theBuffer, thePosition);
+    } // if
+    theSegment.m_theReadPosition = thePosition + theSize;
+    m_theRecordCount--;
+    m_theOffHeapBytes = m_theOffHeapBytes - theSize;
+    if (theSegment.isRead ())
+    {
+      recycle (theSegment);
+    } // if
+    return anItem;
+  } // decode
+
+  /**
+   * Method recycle empties theSegment once it has been read. The tail
+   * segment is written from the start again; another segment is kept spare
+   * if it is of the usual size and there is no spare yet.
+   */
+  private void recycle (Segment theSegment)
+  {
+    theSegment.m_theReadPosition = 0;
+    theSegment.m_theWritePosition = 0;
+    if (theSegment != m_theSegments.peekLast ())
+    {
+      m_theSegments.pollFirst ();
+      if ((m_theSpare == null) && (theSegment.m_theBuffer.capacity () == m_theSegmentSize))
+      {
+        m_theSpare = theSegment;
+      } // if
+    } // if
+  } // recycle
+
+} // class OffHeapQueue
@@ -0,0 +1,62 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : PayloadCodec
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface PayloadCodec converts the object of a work package to bytes and
+ * back so that the work package can be held off the heap.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface PayloadCodec encodes WorkPackIt.m_Object for an OffHeapQueue
+ * and decodes it when the work package is taken. A codec is called by one
+ * thread at a time.
+ */
+public interface PayloadCodec
+{
+
+  /**
+   * Method encode writes theObject to theBuffer from its position. It
+   * throws a BufferOverflowException if theBuffer is too small, in which
+   * case it is called again with a larger buffer, and any other
+   * RuntimeException if it cannot encode theObject, in which case the work
+   * package is held on the heap.
+   */
+  public void encode (Object theObject, ByteBuffer theBuffer);
+
+  /**
+   * Method decode reads the object written by encode from the bytes of
+   * theBuffer between its position and its limit.
+   */
+  public Object decode (ByteBuffer theBuffer);
+
+} // interface PayloadCodec
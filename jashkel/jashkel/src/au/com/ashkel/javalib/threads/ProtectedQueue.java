@@ -54,13 +54,14 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 /**
  * Class ProtectedQueue provides insert and remove methods for items in a queue. The queue is protected for access by mulitiple threads.
  */
-public class ProtectedQueue
+public class ProtectedQueue implements SelectableQueue
 {
   /** Logger for this class */
   private static final Logger m_theLogger = Logger.getLogger (ProtectedQueue.class);
@@ -68,6 +69,15 @@ public class ProtectedQueue
   /** m_Q is the queue of elements. */
   private LinkedBlockingDeque<Object>  m_Q = null;
 
+  /** m_theInsertCount is the number of items inserted into the queue. */
+  private final AtomicLong m_theInsertCount = new AtomicLong ();
+  /** m_theRemoveCount is the number of items removed from the queue. */
+  private final AtomicLong m_theRemoveCount = new AtomicLong ();
+  /** m_theHighWaterMark is the largest depth of the queue since the last reset. */
+  private final AtomicLong m_theHighWaterMark = new AtomicLong ();
+  /** m_theSelectors are told when an item is added. */
+  private final QueueSelector.Registry m_theSelectors = new QueueSelector.Registry ();
+
   /**
    * Method ProtectedQueue is the constructor  that initializes the
    * critical section and creates the Semaphore.
@@ -77,6 +87,16 @@ public class ProtectedQueue
     m_Q = new LinkedBlockingDeque<Object> ();
   } // ProtectedQueue
 
+  /**
+   * Method ProtectedQueue is the constructor used by subclasses that hold
+   * the items in a structure of their own. Such a subclass must override
+   * every method that accesses the items.
+   */
+  protected ProtectedQueue (boolean isBacked)
+  {
+    m_Q = isBacked ? new LinkedBlockingDeque<Object> () : null;
+  } // ProtectedQueue
+
   /**
    * Method insertItem acquires a critical section before adding an item to
    * the tail of the queue. After it leaves the critical section, it
@@ -85,7 +105,9 @@ public class ProtectedQueue
    */
   public void insertItem (Object T)
   {
+    countInsert ();
     m_Q.add (T);
+    signalSelectors ();
   } // insertItem
   
   /**
@@ -96,7 +118,9 @@ public class ProtectedQueue
    */
   public void insertPriorityItem (Object T)
   {
+    countInsert ();
     m_Q.addFirst (T);
+    signalSelectors ();
   } // insertItem
   
 
@@ -116,6 +140,7 @@ public class ProtectedQueue
     try
      {
 	  anItem = m_Q.poll (WaitTime, TimeUnit.MILLISECONDS);
+	  countRemove (anItem);
     }
     catch (InterruptedException anInterruptedException)
     {
@@ -125,6 +150,20 @@ public class ProtectedQueue
     return anItem;
   } // waitItem
 
+  /**
+   * Method pollItem gets and removes the first item in the queue if the queue
+   * is not empty. The method does not wait and returns null immediately if
+   * the queue is empty. It is the building block used by the spinning wait
+   * strategies that poll the queue rather than block on it.
+   */
+  public Object pollItem ()
+  {
+    Object anItem = m_Q.poll ();
+
+    countRemove (anItem);
+    return anItem;
+  } // pollItem
+
   /**
    * Method getItem method enters a critical section where it gets and then
    * removes the first item in the  queue if the queue is not empty. The
@@ -137,6 +176,7 @@ public class ProtectedQueue
     try
     {
 	  anItem = m_Q.take ();
+	  countRemove (anItem);
     }
     catch (InterruptedException anInterruptedException)
     {
@@ -151,7 +191,11 @@ public class ProtectedQueue
    */
   public void clear()
   {
-    m_Q.clear ();
+    // Drain the queue item by item so that the removals are counted.
+    while (m_Q.poll () != null)
+    {
+      m_theRemoveCount.incrementAndGet ();
+    } // while
   } // clear
 
   /**
@@ -195,7 +239,131 @@ public class ProtectedQueue
   
   public boolean remove(Object o) {
 	
-	  return m_Q.remove(o);
+	  boolean isRemoved = m_Q.remove(o);
+	  if (isRemoved)
+	  {
+	    m_theRemoveCount.incrementAndGet ();
+	  } // if
+	  return isRemoved;
   }
+
+  /**
+   * Method peekItem returns the first item in the queue without removing
+   * it, or null if the queue is empty.
+   */
+  protected Object peekItem ()
+  {
+    return m_Q.peek ();
+  } // peekItem
+
+  /**
+   * Method iterator returns an iterator over the items from the head of the
+   * queue to the tail. It does not fail if the queue changes meanwhile.
+   * Items must be removed with remove so that the removal is counted.
+   */
+  protected Iterator<Object> iterator ()
+  {
+    return m_Q.iterator ();
+  } // iterator
+
+  /**
+   * Method releaseItem is called by the ThreadIt taking work from the queue
+   * once it has done anItem and sent the response. A queue that keeps a
+   * record of the work it hands out, such as a JournaledQueue, overrides
+   * it. The method does nothing here.
+   */
+  public void releaseItem (Object anItem)
+  {
+  } // releaseItem
+
+  /**
+   * Method getInsertCount returns the number of items inserted into the
+   * queue since it was created.
+   */
+  public long getInsertCount ()
+  {
+    return m_theInsertCount.get ();
+  } // getInsertCount
+
+  /**
+   * Method getRemoveCount returns the number of items removed from the
+   * queue since it was created.
+   */
+  public long getRemoveCount ()
+  {
+    return m_theRemoveCount.get ();
+  } // getRemoveCount
+
+  /**
+   * Method getDepth returns the number of items in the queue as derived from
+   * the insert and remove counts. Unlike size it does not lock the queue.
+   */
+  public long getDepth ()
+  {
+    return Math.max (0, m_theInsertCount.get () - m_theRemoveCount.get ());
+  } // getDepth
+
+  /**
+   * Method getHighWaterMark returns the largest depth of the queue since it
+   * was created or since the last call to resetHighWaterMark.
+   */
+  public long getHighWaterMark ()
+  {
+    return m_theHighWaterMark.get ();
+  } // getHighWaterMark
+
+  /**
+   * Method resetHighWaterMark sets the high water mark to the current depth.
+   */
+  public void resetHighWaterMark ()
+  {
+    m_theHighWaterMark.set (getDepth ());
+  } // resetHighWaterMark
+
+  public void addSelector (QueueSelector theSelector)
+  {
+    m_theSelectors.add (theSelector);
+  } // addSelector
+
+  public void removeSelector (QueueSelector theSelector)
+  {
+    m_theSelectors.remove (theSelector);
+  } // removeSelector
+
+  /**
+   * Method signalSelectors tells the selectors waiting on the queue that an
+   * item has been added. A subclass calls it once the item can be taken.
+   */
+  protected void signalSelectors ()
+  {
+    m_theSelectors.signal ();
+  } // signalSelectors
+
+  /**
+   * Method countInsert records an insert and raises the high water mark if
+   * the queue is now deeper than it has been. It is called before the item
+   * is added so that a consumer cannot count the removal of the item first.
+   */
+  protected void countInsert ()
+  {
+    long theDepth = m_theInsertCount.incrementAndGet () - m_theRemoveCount.get ();
+    long theHighWater = m_theHighWaterMark.get ();
+
+    while ((theDepth > theHighWater) && (!m_theHighWaterMark.compareAndSet (theHighWater, theDepth)))
+    {
+      theHighWater = m_theHighWaterMark.get ();
+    } // while
+  } // countInsert
+
+  /**
+   * Method countRemove records the removal of anItem if one was removed.
+   */
+  protected void countRemove (Object anItem)
+  {
+    if (anItem != null)
+    {
+      m_theRemoveCount.incrementAndGet ();
+    } // if
+  } // countRemove
   
 } // class ProtectedQueue
\ No newline at end of file
@@ -0,0 +1,223 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : QueueSelector
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class QueueSelector waits on several queues at once and returns the first
+ * of them that has an item, in the manner of a select over file descriptors.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class QueueSelector registers with each of its queues when it is created.
+ * A thread calling select parks until a queue it selects on has an item or
+ * the wait times out. A queue unparks the selecting thread after an item is
+ * published, so no helper thread or semaphore stands between the queue and
+ * the waiter, and an insert that no selector is waiting for costs one read
+ * of a volatile field.<p>
+ * Queues are looked at in the order given to the constructor, so an
+ * earlier queue takes priority over a later one. The selector does not
+ * take the item; the caller takes it from the queue returned, usually with
+ * pollItem. One thread at a time may select, and close must be called
+ * when the selector is no longer needed so that the queues forget it.
+ */
+public class QueueSelector
+{
+  /** SELECT_TIMEDOUT is returned by select if no queue has an item in time. */
+  public static final int SELECT_TIMEDOUT = -1;
+
+  /** m_theQueues are the queues selected on. */
+  private final SelectableQueue[] m_theQueues;
+  /** m_theWaiter is the thread parked in select or null. */
+  private volatile Thread m_theWaiter = null;
+  /** m_theParkCount is the number of times select parked. */
+  private final AtomicLong m_theParkCount = new AtomicLong ();
+
+  /**
+   * Method QueueSelector creates a selector over theQueues and registers
+   * with each of them.
+   */
+  public QueueSelector (SelectableQueue... theQueues)
+  {
+    m_theQueues = theQueues.clone ();
+    for (int i = 0; i < m_theQueues.length; i++)
+    {
+      m_theQueues[i].addSelector (this);
+    } // for
+  } // QueueSelector
+
+  /**
+   * Method select waits up to theWaitTime milliseconds for one of the
+   * queues to have an item. The method returns the index of the first
+   * queue with an item, or SELECT_TIMEDOUT. A wait of
+   * ThreadIt.THREADIT_INFINITE does not time out.
+   */
+  public int select (long theWaitTime)
+  {
+    int theIndex = selectNow ();
+    long theDeadline = 0;
+    long theRemaining = 0;
+
+    if ((theIndex == SELECT_TIMEDOUT) && (theWaitTime > 0))
+    {
+      theDeadline = WaitStrategy.toDeadline (theWaitTime);
+      m_theWaiter = Thread.currentThread ();
+      // Look again once the waiter is published so an insert cannot be missed.
+      theIndex = selectNow ();
+      while (theIndex == SELECT_TIMEDOUT)
+      {
+        theRemaining = (theDeadline == Long.MAX_VALUE) ? Long.MAX_VALUE : theDeadline - System.nanoTime ();
+        if ((theRemaining <= 0) || (Thread.interrupted ()))
+        {
+          break;
+        } // if
+        m_theParkCount.incrementAndGet ();
+        LockSupport.parkNanos (this, theRemaining);
+        theIndex = selectNow ();
+      } // while
+      m_theWaiter = null;
+    } // if
+    return theIndex;
+  } // select
+
+  /**
+   * Method selectNow returns the index of the first queue with an item, or
+   * SELECT_TIMEDOUT, without waiting.
+   */
+  public int selectNow ()
+  {
+    int theIndex = SELECT_TIMEDOUT;
+
+    for (int i = 0; (i < m_theQueues.length) && (theIndex == SELECT_TIMEDOUT); i++)
+    {
+      if (!m_theQueues[i].isEmpty ())
+      {
+        theIndex = i;
+      } // if
+    } // for
+    return theIndex;
+  } // selectNow
+
+  /**
+   * Method getQueue returns the queue numbered theIndex.
+   */
+  public SelectableQueue getQueue (int theIndex)
+  {
+    return m_theQueues[theIndex];
+  } // getQueue
+
+  /**
+   * Method getParkCount returns the number of times select parked waiting
+   * for an item.
+   */
+  public long getParkCount ()
+  {
+    return m_theParkCount.get ();
+  } // getParkCount
+
+  /**
+   * Method close removes the selector from each of its queues.
+   */
+  public void close ()
+  {
+    for (int i = 0; i < m_theQueues.length; i++)
+    {
+      m_theQueues[i].removeSelector (this);
+    } // for
+  } // close
+
+  /**
+   * Method signal is called by a queue after an item is added. It unparks
+   * the selecting thread if there is one.
+   */
+  void signal ()
+  {
+    Thread theWaiter = m_theWaiter;
+
+    if (theWaiter != null)
+    {
+      LockSupport.unpark (theWaiter);
+    } // if
+  } // signal
+
+  /**
+   * Class Registry is the list of selectors registered with a queue. The
+   * list is copied on change so that telling the selectors never locks.
+   */
+  static final class Registry
+  {
+    private static final QueueSelector[] NO_SELECTORS = new QueueSelector[0];
+
+    private volatile QueueSelector[] m_theSelectors = NO_SELECTORS;
+
+    synchronized void add (QueueSelector theSelector)
+    {
+      QueueSelector[] theSelectors = Arrays.copyOf (m_theSelectors, m_theSelectors.length + 1);
+
+      theSelectors[theSelectors.length - 1] = theSelector;
+      m_theSelectors = theSelectors;
+    } // add
+
+    synchronized void remove (QueueSelector theSelector)
+    {
+      QueueSelector[] theSelectors = m_theSelectors;
+      int theIndex = -1;
+
+      for (int i = 0; (i < theSelectors.length) && (theIndex < 0); i++)
+      {
+        theIndex = (theSelectors[i] == theSelector) ? i : -1;
+      } // for
+      if (theIndex >= 0)
+      {
+        QueueSelector[] theRemaining = new QueueSelector[theSelectors.length - 1];
+        System.arraycopy (theSelectors, 0, theRemaining, 0, theIndex);
+        System.arraycopy (theSelectors, theIndex + 1, theRemaining, theIndex, theRemaining.length - theIndex);
+        m_theSelectors = theRemaining;
+      } // if
+    } // remove
+
+    /**
+     * Method signal tells every registered selector of an insert.
+     */
+    void signal ()
+    {
+      QueueSelector[] theSelectors = m_theSelectors;
+
+      for (int i = 0; i < theSelectors.length; i++)
+      {
+        theSelectors[i].signal ();
+      } // for
+    } // signal
+  } // class Registry
+
+} // class QueueSelector
@@ -0,0 +1,112 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : RetryPolicy
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class RetryPolicy says how often and how soon a ThreadIt retries work
+ * that failed.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class RetryPolicy is the retry policy of a work instruction, given to
+ * ThreadIt.setRetryPolicy. Work whose method throws is tried again, up to
+ * the maximum number of attempts, after a backoff that doubles with each
+ * retry from the initial backoff up to the maximum backoff. The backoff is
+ * reduced by a random amount of up to the jitter fraction of it, so that
+ * work that failed together is not all retried at once.<p>
+ * Work that has used its attempts is put in the dead letter queue of the
+ * ThreadIt and the reply is sent with the last failure. A policy holds no
+ * state and may be shared.
+ */
+public class RetryPolicy
+{
+  /** m_theMaxAttempts is the number of attempts including the first. */
+  private final int m_theMaxAttempts;
+  /** m_theInitialBackoff is the backoff before the first retry in milliseconds. */
+  private final long m_theInitialBackoff;
+  /** m_theMaxBackoff is the largest backoff in milliseconds. */
+  private final long m_theMaxBackoff;
+  /** m_theJitter is the fraction of the backoff that is random. */
+  private final double m_theJitter;
+
+  /**
+   * Method RetryPolicy creates a policy of theMaxAttempts, including the
+   * first, with a backoff from theInitialBackoff up to theMaxBackoff
+   * milliseconds of which theJitter, between 0 and 1, is random.
+   */
+  public RetryPolicy (int theMaxAttempts, long theInitialBackoff, long theMaxBackoff, double theJitter)
+  {
+    m_theMaxAttempts = Math.max (theMaxAttempts, 1);
+    m_theInitialBackoff = Math.max (theInitialBackoff, 0);
+    m_theMaxBackoff = Math.max (theMaxBackoff, m_theInitialBackoff);
+    m_theJitter = Math.min (Math.max (theJitter, 0.0), 1.0);
+  } // RetryPolicy
+
+  /**
+   * Method getMaxAttempts returns the number of attempts including the
+   * first.
+   */
+  public int getMaxAttempts ()
+  {
+    return m_theMaxAttempts;
+  } // getMaxAttempts
+
+  /**
+   * Method isRetryAllowed returns true if work that has been retried
+   * theRetryCount times may be retried again.
+   */
+  public boolean isRetryAllowed (int theRetryCount)
+  {
+    return (theRetryCount + 1 < m_theMaxAttempts);
+  } // isRetryAllowed
+
+  /**
+   * Method getBackoff returns the time in milliseconds to wait before the
+   * retry that follows theRetryCount retries.
+   */
+  public long getBackoff (int theRetryCount)
+  {
+    long theBackoff = m_theInitialBackoff;
+
+    for (int i = 0; (i < theRetryCount) && (theBackoff < m_theMaxBackoff); i++)
+    {
+      theBackoff = theBackoff * 2;
+    } // for
+    theBackoff = Math.min (theBackoff, m_theMaxBackoff);
+    if (m_theJitter > 0)
+    {
+      theBackoff = theBackoff - (long) (theBackoff * m_theJitter * ThreadLocalRandom.current ().nextDouble ());
+    } // if
+    return theBackoff;
+  } // getBackoff
+
+} // class RetryPolicy
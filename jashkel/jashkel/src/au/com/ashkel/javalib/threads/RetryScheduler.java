@@ -0,0 +1,226 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : RetryScheduler
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class RetryScheduler holds the work a ThreadIt retries until it is due
+ * and keeps the failure counts of each instruction.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class RetryScheduler decides what happens to work whose method threw. If
+ * the instruction has a RetryPolicy that allows another attempt, the work
+ * is held until its backoff is up and then put at the tail of the work
+ * queue. If the policy does not, the work is put in the dead letter queue.
+ * Work for an instruction with no policy is only counted.<p>
+ * The work held for a retry is only touched by the thread of the ThreadIt,
+ * which puts the work that is due back in its queue each time round and
+ * waits no longer than the next retry is due, so nothing blocks while a
+ * backoff runs. The policies and the counts may be used from any thread.
+ */
+class RetryScheduler
+{
+  /**
+   * Class Retry is work held until it is due.
+   */
+  private static class Retry implements Comparable<Retry>
+  {
+    final long m_theDueTime;
+    final long m_theSequence;
+    final WorkPackIt m_theWorkPack;
+
+    Retry (long theDueTime, long theSequence, WorkPackIt theWorkPack)
+    {
+      m_theDueTime = theDueTime;
+      m_theSequence = theSequence;
+      m_theWorkPack = theWorkPack;
+    } // Retry
+
+    public int compareTo (Retry theOther)
+    {
+      int theOrder = Long.signum (m_theDueTime - theOther.m_theDueTime);
+
+      if (theOrder == 0)
+      {
+        theOrder = Long.signum (m_theSequence - theOther.m_theSequence);
+      } // if
+      return theOrder;
+    } // compareTo
+  } // class Retry
+
+  /** m_thePolicies are the retry policies by instruction. */
+  private final AtomicReferenceArray<RetryPolicy> m_thePolicies;
+  /** m_theFailureCounts are the failures by instruction. */
+  private final AtomicLongArray m_theFailureCounts;
+  /** m_theRetryCounts are the retries by instruction. */
+  private final AtomicLongArray m_theRetryCounts;
+  /** m_theDeadLetterCounts are the work packages dead lettered by instruction. */
+  private final AtomicLongArray m_theDeadLetterCounts;
+  /** m_theRetries is the work held for a retry, the next due first. */
+  private final PriorityQueue<Retry> m_theRetries = new PriorityQueue<Retry> ();
+  /** m_theSequence orders retries due at the same time. */
+  private long m_theSequence = 0;
+  /** m_thePendingCount is the number of work packages held for a retry. */
+  private volatile int m_thePendingCount = 0;
+  /** m_theDeadLetterQ receives the work that has used its attempts. */
+  private volatile ProtectedQueue m_theDeadLetterQ = new ProtectedQueue ();
+
+  /**
+   * Method RetryScheduler creates a scheduler for theInstructionCount
+   * instructions.
+   */
+  RetryScheduler (int theInstructionCount)
+  {
+    m_thePolicies = new AtomicReferenceArray<RetryPolicy> (theInstructionCount);
+    m_theFailureCounts = new AtomicLongArray (theInstructionCount);
+    m_theRetryCounts = new AtomicLongArray (theInstructionCount);
+    m_theDeadLetterCounts = new AtomicLongArray (theInstructionCount);
+  } // RetryScheduler
+
+  void setPolicy (int theInstruction, RetryPolicy thePolicy)
+  {
+    m_thePolicies.set (theInstruction, thePolicy);
+  } // setPolicy
+
+  RetryPolicy getPolicy (int theInstruction)
+  {
+    return m_thePolicies.get (theInstruction);
+  } // getPolicy
+
+  void setDeadLetterQ (ProtectedQueue theDeadLetterQ)
+  {
+    m_theDeadLetterQ = theDeadLetterQ;
+  } // setDeadLetterQ
+
+  ProtectedQueue getDeadLetterQ ()
+  {
+    return m_theDeadLetterQ;
+  } // getDeadLetterQ
+
+  /**
+   * Method onFailure counts the failure of theWorkPack for theInstruction
+   * and holds it for a retry or puts it in the dead letter queue as its
+   * policy says. A work package that is reused is copied. The method
+   * returns true if the work is to be retried, in which case there is no
+   * reply yet.
+   */
+  boolean onFailure (int theInstruction, WorkPackIt theWorkPack)
+  {
+    boolean isRetried = false;
+    RetryPolicy thePolicy = m_thePolicies.get (theInstruction);
+    WorkPackIt theCopy = null;
+
+    m_theFailureCounts.incrementAndGet (theInstruction);
+    if (thePolicy != null)
+    {
+      theCopy = theWorkPack.isReused () ? (WorkPackIt) theWorkPack.clone () : theWorkPack;
+      if (thePolicy.isRetryAllowed (theWorkPack.m_RetryCount))
+      {
+        theCopy.m_RetryCount++;
+        m_theRetries.add (new Retry (System.nanoTime () + thePolicy.getBackoff (theWorkPack.m_RetryCount) * 1000000L,
+                                     m_theSequence++, theCopy));
+        m_thePendingCount = m_theRetries.size ();
+        m_theRetryCounts.incrementAndGet (theInstruction);
+        isRetried = true;
+      }
+      else
+      {
+        m_theDeadLetterCounts.incrementAndGet (theInstruction);
+        m_theDeadLetterQ.insertItem (theCopy);
+      } // if
+    } // if
+    return isRetried;
+  } // onFailure
+
+  /**
+   * Method getWaitTime returns theTimeOut or, if it is sooner, the time in
+   * milliseconds until the next retry is due.
+   */
+  long getWaitTime (long theTimeOut)
+  {
+    long theWaitTime = theTimeOut;
+    Retry theNext = m_theRetries.peek ();
+
+    if (theNext != null)
+    {
+      theWaitTime = Math.min (theTimeOut, Math.max ((theNext.m_theDueTime - System.nanoTime () + 999999L) / 1000000L, 1));
+    } // if
+    return theWaitTime;
+  } // getWaitTime
+
+  /**
+   * Method requeue puts the work that is due, or all of the work held if
+   * isAll is true, at the tail of theWorkQ.
+   */
+  void requeue (ProtectedQueue theWorkQ, boolean isAll)
+  {
+    long theNow = 0;
+    Retry theNext = m_theRetries.peek ();
+
+    if (theNext != null)
+    {
+      theNow = System.nanoTime ();
+      while ((theNext != null) && ((isAll) || (theNext.m_theDueTime - theNow <= 0)))
+      {
+        m_theRetries.poll ();
+        theNext.m_theWorkPack.m_Failure = null;
+        theNext.m_theWorkPack.m_EnqueueTime = System.nanoTime ();
+        theWorkQ.insertItem (theNext.m_theWorkPack);
+        theNext = m_theRetries.peek ();
+      } // while
+      m_thePendingCount = m_theRetries.size ();
+    } // if
+  } // requeue
+
+  int getPendingCount ()
+  {
+    return m_thePendingCount;
+  } // getPendingCount
+
+  long getFailureCount (int theInstruction)
+  {
+    return m_theFailureCounts.get (theInstruction);
+  } // getFailureCount
+
+  long getRetryCount (int theInstruction)
+  {
+    return m_theRetryCounts.get (theInstruction);
+  } // getRetryCount
+
+  long getDeadLetterCount (int theInstruction)
+  {
+    return m_theDeadLetterCounts.get (theInstruction);
+  } // getDeadLetterCount
+
+} // class RetryScheduler
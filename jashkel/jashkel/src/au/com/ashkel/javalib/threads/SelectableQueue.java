@@ -0,0 +1,59 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : SelectableQueue
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface SelectableQueue is a queue that a QueueSelector can wait on
+ * together with other queues.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Interface SelectableQueue is implemented by the queues a QueueSelector
+ * waits on. A queue tells each selector registered with it after an item
+ * has been added, so the selector needs no thread of its own per queue.
+ */
+public interface SelectableQueue
+{
+  /**
+   * Method isEmpty returns true if the queue has no items.
+   */
+  public boolean isEmpty ();
+
+  /**
+   * Method addSelector registers theSelector to be told of inserts.
+   */
+  public void addSelector (QueueSelector theSelector);
+
+  /**
+   * Method removeSelector stops telling theSelector of inserts.
+   */
+  public void removeSelector (QueueSelector theSelector);
+
+} // interface SelectableQueue
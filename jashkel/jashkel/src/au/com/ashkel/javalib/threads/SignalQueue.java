@@ -49,127 +49,20 @@
 /** Package */
 package au.com.ashkel.javalib.threads;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
-
-import org.apache.log4j.Logger;
-
 /**
  * Class SignalQueue provides insert and remove methods for items in a queue. The queue is protected for access by mulitiple threads.
+ * Inserting an item both publishes it and wakes a thread waiting for it in
+ * the one blocking queue, and a thread can wait on the queue together with
+ * other queues through a QueueSelector.
  */
-public class SignalQueue
+public class SignalQueue extends ProtectedQueue
 {
-  /** Logger for this class */
-  private static final Logger m_theLogger = Logger.getLogger (SignalQueue.class);
-
-  /** m_Q is the queue of elements. */
-  private BlockingQueue<Object>  m_Q = null;
-  private Semaphore m_theSignal = new Semaphore (0);
-
   /**
-   * Method ProtectedQueue is the constructor  that initializes the
-   * critical section and creates the Semaphore.
+   * Method SignalQueue is the constructor that creates the queue.
    */
   public SignalQueue ()
   {
-    m_Q = new LinkedBlockingQueue<Object> ();
-  } // ProtectedQueue
-  
-  public Semaphore getSignal ()
-  {
-    return m_theSignal;
-  } // getSignal
-
-  /**
-   * Method insertItem acquires a critical section before adding an item to
-   * the tail of the queue. After it leaves the critical section, it
-   * releases a semaphore to indicate that an item has been added to the queue.
-   * T : The item to be added to the queue.
-   */
-  public void insertItem (Object T)
-  {
-    m_Q.add (T);
-    m_theSignal.release ();
-  } // insertItem
-
-  /**
-   * Method waitItem waits for a single object and then enters a critical section
-   * where it gets and then removes the first item in the queue if the
-   * queue is not empty.<p>
-   * The method returns the object retrieved if one is available otherwise
-   * a null value is returned if the method times out.<p>
-   * WaitTime : The time (in milliseconds) to wait for an object to arrive in the queue.
-   */
-  public Object waitItem (long WaitTime)
-  {
-    Object anItem = null;
-
-    // wait for an item to arrive
-    try
-    {
-      anItem = m_Q.poll (WaitTime, TimeUnit.MILLISECONDS);
-//      m_theSignal.acquire ();	  
-    } // try
-    catch (InterruptedException anInterruptedException)
-    {
-      m_theLogger.debug ("InterruptedException", anInterruptedException);
-    } // catch
-    
-    // Return the retreived item.
-    return anItem;
-  } // waitItem
-
-  /**
-   * Method getItem method enters a critical section where it gets and then
-   * removes the first item in the  queue if the queue is not empty. The
-   * method does not wait for an item to be placed in an empty queue.
-   */
-  public Object getItem ()
-  {
-    Object anItem = null;
-
-    try
-    {
-      anItem = m_Q.take ();
-//      m_theSignal.acquire ();      
-    }
-    catch (InterruptedException anInterruptedException)
-    {
-      m_theLogger.debug ("InterruptedException", anInterruptedException);
-    } // catch
-    return anItem;
-  } // getItem
-
-  /**
-   * Method clear enters a critical section before it removes all objects
-   * from the queue.
-   */
-  public void clear()
-  {
-    m_Q.clear ();
-    m_theSignal.drainPermits ();
-  } // clear
-
-  /**
-   * Method size enters a critical section before it returns
-   * the number of items in the queue.
-   */
-  public long size()
-  {
-    int qSize = m_Q.size();
-    return qSize;
-  } // size
-
-  /**
-   * Method isEmpty enters a critical section before it tests to see if the
-   * queue is empty and returns the result.
-   */
-  public boolean isEmpty()
-  {
-    boolean bEmpty = m_Q.isEmpty();
-    return bEmpty;
-  } // isEmpty
+    super ();
+  } // SignalQueue
 
-} // class ProtectedQueue
\ No newline at end of file
+} // class SignalQueue
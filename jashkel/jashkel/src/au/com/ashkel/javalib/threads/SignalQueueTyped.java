@@ -51,47 +51,43 @@ package au.com.ashkel.javalib.threads;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 /**
  * Class SignalQueue provides insert and remove methods for items in a queue. The queue is protected for access by mulitiple threads.
+ * Inserting an item both publishes it and wakes a thread waiting for it in
+ * the one blocking queue, and a thread can wait on the queue together with
+ * other queues through a QueueSelector.
  */
-public class SignalQueueTyped<T>
+public class SignalQueueTyped<T> implements SelectableQueue
 {
   /** Logger for this class */
   private static final Logger m_theLogger = Logger.getLogger (SignalQueueTyped.class);
 
   /** m_Q is the queue of elements. */
   private BlockingQueue<T>  m_Q = null;
-  private Semaphore m_theSignal = new Semaphore (0);
+  /** m_theSelectors are told when an item is added. */
+  private final QueueSelector.Registry m_theSelectors = new QueueSelector.Registry ();
 
   /**
-   * Method ProtectedQueue is the constructor  that initializes the
-   * critical section and creates the Semaphore.
+   * Method ProtectedQueue is the constructor that creates the queue.
    */
   public SignalQueueTyped ()
   {
     m_Q = new LinkedBlockingQueue<T> ();
   } // ProtectedQueue
-  
-  public Semaphore getSignal ()
-  {
-    return m_theSignal;
-  } // getSignal
 
   /**
-   * Method insertItem acquires a critical section before adding an item to
-   * the tail of the queue. After it leaves the critical section, it
-   * releases a semaphore to indicate that an item has been added to the queue.
+   * Method insertItem adds an item to the tail of the queue, which wakes a
+   * thread waiting in the queue, and then tells any selectors waiting on it.
    * T : The item to be added to the queue.
    */
   public void insertItem (T T)
   {
     m_Q.add (T);
-    m_theSignal.release ();
+    m_theSelectors.signal ();
   } // insertItem
 
   /**
@@ -110,7 +106,6 @@ public class SignalQueueTyped<T>
     try
     {
       anItem = m_Q.poll (WaitTime, TimeUnit.MILLISECONDS);
-//      m_theSignal.acquire ();	  
     } // try
     catch (InterruptedException anInterruptedException)
     {
@@ -133,7 +128,6 @@ public class SignalQueueTyped<T>
     try
     {
       anItem = m_Q.take ();
-//      m_theSignal.acquire ();      
     }
     catch (InterruptedException anInterruptedException)
     {
@@ -149,7 +143,6 @@ public class SignalQueueTyped<T>
   public void clear()
   {
     m_Q.clear ();
-    m_theSignal.drainPermits ();
   } // clear
 
   /**
@@ -172,4 +165,23 @@ public class SignalQueueTyped<T>
     return bEmpty;
   } // isEmpty
 
+  /**
+   * Method pollItem gets and removes the first item in the queue or returns
+   * null immediately if the queue is empty.
+   */
+  public T pollItem ()
+  {
+    return m_Q.poll ();
+  } // pollItem
+
+  public void addSelector (QueueSelector theSelector)
+  {
+    m_theSelectors.add (theSelector);
+  } // addSelector
+
+  public void removeSelector (QueueSelector theSelector)
+  {
+    m_theSelectors.remove (theSelector);
+  } // removeSelector
+
 } // class ProtectedQueue
\ No newline at end of file
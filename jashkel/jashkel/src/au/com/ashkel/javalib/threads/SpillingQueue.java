@@ -0,0 +1,578 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : SpillingQueue
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class SpillingQueue is a work queue that keeps its head in memory and
+ * spills its tail to memory mapped files once it holds too much.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class SpillingQueue is an unbounded work queue that does not hold an
+ * unbounded number of work packages on the heap. Work is held in memory
+ * until the queue holds the configured number of items, or bytes, in
+ * memory. From then on work is written as records (see OffHeapQueue) to
+ * segment files mapped into memory, until the consumer has read every
+ * record back. The records are read in the order they were written and a
+ * segment file is deleted as soon as it has been read.<p>
+ * Items that cannot be recorded, such as work packages with a callback,
+ * are held on the heap and keep their place through a reference record.
+ * If a segment file cannot be created the queue holds the rest of the
+ * work on the heap, after the records, until it has caught up. Priority
+ * items are always held in memory at the head of the queue. So is a work
+ * package that must be taken as the instance it was queued as, such as
+ * the control work of ThreadIt, which is never spilled and is added to the
+ * end of the items in memory, ahead of any spilled work. get and remove
+ * only see the items in memory.<p>
+ * The byte threshold is measured on the records the items in memory would
+ * be written as, so each item is encoded when it is inserted and taken
+ * while the threshold is set.<p>
+ * A ThreadIt uses the queue once it is given to ThreadIt.setWorkQ. Call
+ * close to delete the segment files of a queue that is no longer used.
+ */
+public class SpillingQueue extends ProtectedQueue
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (SpillingQueue.class);
+
+  /** DEFAULT_SEGMENT_SIZE is the size of a segment file in bytes. */
+  public static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+
+  /**
+   * Class Segment is a segment file mapped into memory. It holds records
+   * from its read position to its write position.
+   */
+  private static class Segment
+  {
+    final File m_theFile;
+    final MappedByteBuffer m_theBuffer;
+    int m_theReadPosition = 0;
+    int m_theWritePosition = 0;
+
+    Segment (File theFile, int theSize) throws IOException
+    {
+      RandomAccessFile theAccess = new RandomAccessFile (theFile, "rw");
+
+      m_theFile = theFile;
+      try
+      {
+        m_theBuffer = theAccess.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, theSize);
+      }
+      finally
+      {
+        theAccess.close ();
+      } // finally
+    } // Segment
+
+    int getRemaining ()
+    {
+      return m_theBuffer.capacity () - m_theWritePosition;
+    } // getRemaining
+  } // class Segment
+
+  /** m_theDirectory is where the segment files are created. */
+  private final File m_theDirectory;
+  /** m_theSegmentSize is the size of a new segment file. */
+  private final int m_theSegmentSize;
+  /** m_theMaxItems is the number of items held in memory before spilling. */
+  private final int m_theMaxItems;
+  /** m_theMaxBytes is the number of bytes held in memory before spilling or 0. */
+  private final long m_theMaxBytes;
+  /** m_theRecord writes and reads the records. */
+  private final WorkPackRecord m_theRecord;
+  /** m_theLock guards everything below. */
+  private final ReentrantLock m_theLock = new ReentrantLock ();
+  /** m_theNotEmpty is signalled when an item is added. */
+  private final Condition m_theNotEmpty = m_theLock.newCondition ();
+  /** m_theMemory are the items at the head of the queue. */
+  private final ArrayDeque<Object> m_theMemory = new ArrayDeque<Object> ();
+  /** m_theMemoryBytes is the size of the items in memory if it is measured. */
+  private long m_theMemoryBytes = 0;
+  /** m_theSegments hold the records, oldest first. */
+  private final ArrayDeque<Segment> m_theSegments = new ArrayDeque<Segment> ();
+  /** m_theReferences are the items of the reference records, in order. */
+  private final ArrayDeque<Object> m_theReferences = new ArrayDeque<Object> ();
+  /** m_theTail are the items after the records that could not be spilled. */
+  private final ArrayDeque<Object> m_theTail = new ArrayDeque<Object> ();
+  /** m_theRecordCount is the number of records not yet read. */
+  private long m_theRecordCount = 0;
+  /** m_theSpilledCount is the number of items spilled since the queue was created. */
+  private final AtomicLong m_theSpilledCount = new AtomicLong ();
+
+  /**
+   * Method SpillingQueue creates a queue that spills to theDirectory once
+   * theMaxItems are held in memory, encoding the objects of the work
+   * packages with theCodec.
+   */
+  public SpillingQueue (File theDirectory, PayloadCodec theCodec, int theMaxItems)
+  {
+    this (theDirectory, theCodec, theMaxItems, 0, DEFAULT_SEGMENT_SIZE);
+  } // SpillingQueue
+
+  /**
+   * Method SpillingQueue creates a queue that spills to theDirectory once
+   * theMaxItems or, if it is not 0, theMaxBytes are held in memory. The
+   * objects of the work packages are encoded with theCodec, which may be
+   * null, and the segment files are theSegmentSize bytes.
+   */
+  public SpillingQueue (File theDirectory, PayloadCodec theCodec, int theMaxItems, long theMaxBytes, int theSegmentSize)
+  {
+    super (false);
+    m_theDirectory = theDirectory;
+    m_theSegmentSize = Math.max (theSegmentSize, WorkPackRecord.LENGTH_SIZE + WorkPackRecord.HEADER_SIZE);
+    m_theMaxItems = theMaxItems;
+    m_theMaxBytes = theMaxBytes;
+    m_theRecord = new WorkPackRecord (theCodec, m_theSegmentSize - WorkPackRecord.LENGTH_SIZE - WorkPackRecord.HEADER_SIZE);
+  } // SpillingQueue
+
+  /**
+   * Method insertItem adds T to the tail of the queue, in memory or in a
+   * segment file. A work package whose identity is kept is always added to
+   * the items in memory.
+   */
+  public void insertItem (Object T)
+  {
+    countInsert ();
+    m_theLock.lock ();
+    try
+    {
+      if ((T instanceof WorkPackIt) && (((WorkPackIt) T).isIdentityKept ()))
+      {
+        m_theMemoryBytes = m_theMemoryBytes + measure (T);
+        m_theMemory.addLast (T);
+      }
+      else if ((m_theRecordCount == 0) && (m_theTail.isEmpty ()) && (hasRoom (T)))
+      {
+        m_theMemory.addLast (T);
+      }
+      else if ((!m_theTail.isEmpty ()) || (!spill (T)))
+      {
+        m_theTail.addLast (T);
+      } // if
+      m_theNotEmpty.signal ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    signalSelectors ();
+  } // insertItem
+
+  /**
+   * Method insertPriorityItem adds T to the head of the queue in memory.
+   */
+  public void insertPriorityItem (Object T)
+  {
+    countInsert ();
+    m_theLock.lock ();
+    try
+    {
+      m_theMemoryBytes = m_theMemoryBytes + measure (T);
+      m_theMemory.addFirst (T);
+      m_theNotEmpty.signal ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    signalSelectors ();
+  } // insertPriorityItem
+
+  /**
+   * Method waitItem waits up to WaitTime milliseconds for an item and
+   * removes it from the head of the queue. The method returns null if the
+   * wait times out.
+   */
+  public Object waitItem (long WaitTime)
+  {
+    Object anItem = null;
+    long theRemaining = TimeUnit.MILLISECONDS.toNanos (WaitTime);
+
+    m_theLock.lock ();
+    try
+    {
+      while ((isEmptyLocked ()) && (theRemaining > 0))
+      {
+        theRemaining = m_theNotEmpty.awaitNanos (theRemaining);
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // waitItem
+
+  public Object pollItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      anItem = take ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // pollItem
+
+  /**
+   * Method getItem waits for an item for as long as it takes.
+   */
+  public Object getItem ()
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      while (isEmptyLocked ())
+      {
+        m_theNotEmpty.await ();
+      } // while
+      anItem = take ();
+    }
+    catch (InterruptedException anInterruptedException)
+    {
+      m_theLogger.debug ("InterruptedException", anInterruptedException);
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // getItem
+
+  public void clear ()
+  {
+    while (pollItem () != null)
+    {
+      // Each removal is counted.
+    } // while
+  } // clear
+
+  /**
+   * Method close empties the queue and deletes its segment files.
+   */
+  public void close ()
+  {
+    clear ();
+    m_theLock.lock ();
+    try
+    {
+      while (!m_theSegments.isEmpty ())
+      {
+        delete (m_theSegments.pollFirst ());
+      } // while
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+  } // close
+
+  public long size ()
+  {
+    long theSize = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theSize = m_theMemory.size () + m_theRecordCount + m_theTail.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theSize;
+  } // size
+
+  public boolean isEmpty ()
+  {
+    return (size () == 0);
+  } // isEmpty
+
+  public Object get (int i)
+  {
+    Object anItem = null;
+
+    m_theLock.lock ();
+    try
+    {
+      Iterator<Object> theItems = m_theMemory.iterator ();
+      for (int j = 0; (j <= i) && (theItems.hasNext ()); j++)
+      {
+        anItem = theItems.next ();
+      } // for
+      anItem = ((i >= 0) && (i < m_theMemory.size ())) ? anItem : null;
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return anItem;
+  } // get
+
+  public boolean remove (Object o)
+  {
+    boolean isRemoved = false;
+
+    m_theLock.lock ();
+    try
+    {
+      isRemoved = m_theMemory.removeFirstOccurrence (o);
+      if (isRemoved)
+      {
+        m_theMemoryBytes = m_theMemoryBytes - measure (o);
+      } // if
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    if (isRemoved)
+    {
+      countRemove (o);
+    } // if
+    return isRemoved;
+  } // remove
+
+  /**
+   * Method getMemoryCount returns the number of items held in memory,
+   * including those that could not be spilled.
+   */
+  public int getMemoryCount ()
+  {
+    int theCount = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theCount = m_theMemory.size () + m_theTail.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theCount;
+  } // getMemoryCount
+
+  /**
+   * Method getSpilledCount returns the number of items written to segment
+   * files since the queue was created.
+   */
+  public long getSpilledCount ()
+  {
+    return m_theSpilledCount.get ();
+  } // getSpilledCount
+
+  /**
+   * Method getSegmentCount returns the number of segment files.
+   */
+  public int getSegmentCount ()
+  {
+    int theCount = 0;
+
+    m_theLock.lock ();
+    try
+    {
+      theCount = m_theSegments.size ();
+    }
+    finally
+    {
+      m_theLock.unlock ();
+    } // finally
+    return theCount;
+  } // getSegmentCount
+
+  /**
+   * Method hasRoom returns true if anItem can be held in memory without
+   * crossing a threshold.
+   */
+  private boolean hasRoom (Object anItem)
+  {
+    long theSize = measure (anItem);
+    boolean hasRoom = (m_theMemory.size () < m_theMaxItems) &&
+                      ((m_theMaxBytes == 0) || (m_theMemoryBytes + theSize <= m_theMaxBytes));
+
+    if (hasRoom)
+    {
+      m_theMemoryBytes = m_theMemoryBytes + theSize;
+    } // if
+    return hasRoom;
+  } // hasRoom
+
+  /**
+   * Method measure returns the size of the record of anItem if the bytes in
+   * memory are measured and 0 otherwise.
+   */
+  private long measure (Object anItem)
+  {
+    long theSize = 0;
+
+    if (m_theMaxBytes != 0)
+    {
+      m_theRecord.prepare (anItem);
+      theSize = m_theRecord.getSize ();
+    } // if
+    return theSize;
+  } // measure
+
+  /**
+   * Method spill writes the record of anItem to the last segment file. The
+   * method returns false if a segment file could not be created.
+   */
+  private boolean spill (Object anItem)
+  {
+    boolean isSpilled = false;
+    boolean isRecorded = m_theRecord.prepare (anItem);
+    int theSize = m_theRecord.getSize ();
+    Segment theSegment = m_theSegments.peekLast ();
+
+    try
+    {
+      if ((theSegment == null) || (theSegment.getRemaining () < theSize))
+      {
+        theSegment = new Segment (File.createTempFile ("spill", ".seg", m_theDirectory), Math.max (m_theSegmentSize, theSize));
+        m_theSegments.addLast (theSegment);
+      } // if
+      m_theRecord.write (theSegment.m_theBuffer, theSegment.m_theWritePosition);
+      theSegment.m_theWritePosition = theSegment.m_theWritePosition + theSize;
+      if (!isRecorded)
+      {
+        m_theReferences.addLast (anItem);
+      } // if
+      m_theRecordCount++;
+      m_theSpilledCount.incrementAndGet ();
+      isSpilled = true;
+    }
+    catch (IOException anException)
+    {
+      m_theLogger.error ("Unable to create a segment file in " + m_theDirectory, anException);
+    } // catch
+    return isSpilled;
+  } // spill
+
+  /**
+   * Method isEmptyLocked returns true if there are no items.
+   */
+  private boolean isEmptyLocked ()
+  {
+    return (m_theMemory.isEmpty ()) && (m_theRecordCount == 0) && (m_theTail.isEmpty ());
+  } // isEmptyLocked
+
+  /**
+   * Method take removes the first item from memory, the segment files or
+   * the items that could not be spilled, in that order. The method returns
+   * null if there are no items.
+   */
+  private Object take ()
+  {
+    Object anItem = m_theMemory.pollFirst ();
+
+    if (anItem != null)
+    {
+      m_theMemoryBytes = m_theMemoryBytes - measure (anItem);
+    }
+    else if (m_theRecordCount > 0)
+    {
+      anItem = read (m_theSegments.peekFirst ());
+    }
+    else
+    {
+      anItem = m_theTail.pollFirst ();
+    } // if
+    countRemove (anItem);
+    return anItem;
+  } // take
+
+  /**
+   * Method read reads the record at the read position of theSegment and
+   * moves past it, deleting the segment file once it has been read.
+   */
+  private Object read (Segment theSegment)
+  {
+    int thePosition = theSegment.m_theReadPosition;
+    Object anItem = null;
+
+    if (WorkPackRecord.isReference (theSegment.m_theBuffer, thePosition))
+    {
+      anItem = m_theReferences.pollFirst ();
+    }
+    else
+    {
+      anItem = m_theRecord.read (theSegment.m_theBuffer, thePosition);
+    } // if
+    theSegment.m_theReadPosition = thePosition + WorkPackRecord.getSize (theSegment.m_theBuffer, thePosition);
+    m_theRecordCount--;
+    // A segment is finished with once it is read and no more is written to
+    // it, that is once it is not the last or the queue has caught up.
+    if ((theSegment.m_theReadPosition == theSegment.m_theWritePosition) &&
+        ((theSegment != m_theSegments.peekLast ()) || (m_theRecordCount == 0)))
+    {
+      delete (m_theSegments.pollFirst ());
+    } // if
+    return anItem;
+  } // read
+
+  /**
+   * Method delete deletes the file of theSegment.
+   */
+  private void delete (Segment theSegment)
+  {
+    if (!theSegment.m_theFile.delete ())
+    {
+      m_theLogger.warn ("Unable to delete the segment file " + theSegment.m_theFile);
+    } // if
+  } // delete
+
+} // class SpillingQueue
@@ -0,0 +1,149 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : SpinParkWaitStrategy
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class SpinParkWaitStrategy waits for work by first spinning on the queue,
+ * then yielding the processor and finally blocking in the queue. Work that
+ * arrives within the spin or yield phase is picked up without the consumer
+ * being parked and without the producer having to wake it.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Class SpinParkWaitStrategy spins, then yields and then parks. The number
+ * of spin and yield attempts are tunable so that the idle processor cost can
+ * be balanced against the wakeup latency.
+ */
+public class SpinParkWaitStrategy extends WaitStrategy
+{
+  /** DEFAULT_SPIN_TRIES is the default number of polls made while spinning. */
+  public static final int DEFAULT_SPIN_TRIES = 1000;
+  /** DEFAULT_YIELD_TRIES is the default number of polls made while yielding. */
+  public static final int DEFAULT_YIELD_TRIES = 100;
+
+  /** m_theSpinTries is the number of polls made while spinning. */
+  private final int m_theSpinTries;
+  /** m_theYieldTries is the number of polls made while yielding. */
+  private final int m_theYieldTries;
+
+  /**
+   * Method SpinParkWaitStrategy is the constructor for the class and uses
+   * the default spin and yield thresholds.
+   */
+  public SpinParkWaitStrategy ()
+  {
+    this (DEFAULT_SPIN_TRIES, DEFAULT_YIELD_TRIES);
+  } // constructor SpinParkWaitStrategy
+
+  /**
+   * Method SpinParkWaitStrategy is the constructor for the class.<p>
+   * theSpinTries  : is the number of polls made while spinning.<p>
+   * theYieldTries : is the number of polls made while yielding before the
+   *                 consumer blocks in the queue.
+   */
+  public SpinParkWaitStrategy (int theSpinTries, int theYieldTries)
+  {
+    m_theSpinTries = Math.max (0, theSpinTries);
+    m_theYieldTries = Math.max (0, theYieldTries);
+  } // constructor SpinParkWaitStrategy
+
+  /**
+   * Method waitItem waits for an item in theQ spinning, then yielding and
+   * then blocking for the remainder of theWaitTime (in milliseconds). The
+   * method returns the item or null on time out.
+   */
+  public Object waitItem (ProtectedQueue theQ, long theWaitTime)
+  {
+    int theCount = 0;
+    long theDeadline = toDeadline (theWaitTime);
+    long theRemaining = 0;
+    Object anItem = null;
+
+    m_theWaitCount.incrementAndGet ();
+    // Spin on the queue.
+    for (theCount = 0; (anItem == null) && (theCount < m_theSpinTries); theCount++)
+    {
+      anItem = theQ.pollItem ();
+      if (anItem == null)
+      {
+        onSpinWait ();
+      }
+      else
+      {
+        m_theSpinCount.incrementAndGet ();
+      } // if
+    } // for
+    // Yield the processor between polls.
+    for (theCount = 0; (anItem == null) && (theCount < m_theYieldTries); theCount++)
+    {
+      Thread.yield ();
+      anItem = theQ.pollItem ();
+      if (anItem != null)
+      {
+        m_theYieldCount.incrementAndGet ();
+      } // if
+    } // for
+    // Block for whatever time is left.
+    if (anItem == null)
+    {
+      theRemaining = remainingTime (theDeadline);
+      if (theRemaining > 0)
+      {
+        anItem = parkItem (theQ, theRemaining);
+      } // if
+    } // if
+    return anItem;
+  } // waitItem
+
+  /**
+   * Method getSpinTries returns the number of polls made while spinning.
+   */
+  public int getSpinTries ()
+  {
+    return m_theSpinTries;
+  } // getSpinTries
+
+  /**
+   * Method getYieldTries returns the number of polls made while yielding.
+   */
+  public int getYieldTries ()
+  {
+    return m_theYieldTries;
+  } // getYieldTries
+
+  /**
+   * Method getName returns the name of the strategy.
+   */
+  public String getName ()
+  {
+    return "spin-park(" + m_theSpinTries + "," + m_theYieldTries + ")";
+  } // getName
+
+} // class SpinParkWaitStrategy
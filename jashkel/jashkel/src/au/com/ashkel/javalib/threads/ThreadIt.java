@@ -82,13 +82,17 @@ package au.com.ashkel.javalib.threads;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import org.apache.log4j.Logger;
 
 import java.lang.reflect.Method;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.lang.reflect.InvocationTargetException;
 
+import au.com.ashkel.javalib.management.ThreadItRegistry;
+
 
 /**
  * Class ThreadIt supports the execution of work packages on request from
@@ -131,6 +135,12 @@ public class ThreadIt extends java.lang.Thread
    */
   static final public long THREADIT_THREADIT_PERIOD_TIMER = -1;
 
+  /**
+   * THREADIT_IDLE_INSTRUCTION is returned by getCurrentInstruction when the
+   * thread is not executing a work instruction or the periodic method.
+   */
+  static final public int THREADIT_IDLE_INSTRUCTION = Integer.MIN_VALUE;
+
   /**
    * THREADIT_USER_STATUS_START indicates values that apply to the status
    * parameter of the WorkPackIt class. Values above this are user defined.
@@ -222,7 +232,11 @@ public class ThreadIt extends java.lang.Thread
 
   private static final int THREADIT_STATUS_PARAM_OBJECT_NULL = THREADIT_STATUS_START + 9;
 
-  private static final int THREADIT_STATUS_OK = THREADIT_STATUS_START + 10;
+  /**
+   * THREADIT_STATUS_OK is returned by the validateParams methods when the
+   * input parameters to a worker method check out ok.
+   */
+  static final public int THREADIT_STATUS_OK = THREADIT_STATUS_START + 10;
 
   private static final int THREADIT_STATUS_PARAM_WORK_PACK_NULL = THREADIT_STATUS_START + 11;
 
@@ -242,7 +256,18 @@ public class ThreadIt extends java.lang.Thread
 
   private static final int THREADIT_PAYLOAD_NOT_EXPECTED = THREADIT_STATUS_START + 19;
 
-  private static final int THREADIT_STATUS_LAST = THREADIT_STATUS_START + 20;
+  private static final int THREADIT_PAYLOAD_WRONG_TYPE = THREADIT_STATUS_START + 20;
+
+  /**
+   * THREADIT_CIRCUIT_OPEN indicates that the work was not done because the
+   * circuit breaker of the work instruction is open (see CircuitBreaker).
+   */
+  static final public int THREADIT_CIRCUIT_OPEN = THREADIT_STATUS_START + 21;
+
+  private static final int THREADIT_STATUS_LAST = THREADIT_STATUS_START + 22;
+
+  /** THREADIT_NO_PERIOD_REQUEST indicates that no period change is pending. */
+  private static final long THREADIT_NO_PERIOD_REQUEST = Long.MIN_VALUE;
 
 
 
@@ -252,6 +277,19 @@ public class ThreadIt extends java.lang.Thread
   // Type Definitions for use in the ThreadIt class.
   // ---------------------------------------------------------------------------
 
+  /**
+   * Class ControlPack is the work package used internally to wake the
+   * thread of execution. It is recognised by identity, so a queue that
+   * encodes work keeps it on the heap.
+   */
+  private static class ControlPack extends WorkPackIt
+  {
+    boolean isIdentityKept ()
+    {
+      return true;
+    } // isIdentityKept
+  } // class ControlPack
+
   /**
    * Class MethodType is the base class for supporting the various method
    * types that do work on behalf of incoming work packages. The class
@@ -312,7 +350,8 @@ public class ThreadIt extends java.lang.Thread
      * successfully and returns the WorkPackIt that describes the work
      * performed as is required. The method returns null if associated work
      * method is not invoked successfully or the WorkPackIt containing the
-     * work done is returned as null.
+     * work done is returned as null. If the method throws, the exception
+     * is recorded in m_Failure of the work package passed to it.
      */
     public WorkPackIt invoke (Object theObject, Object[] theParameters)
     {
@@ -321,6 +360,7 @@ public class ThreadIt extends java.lang.Thread
       // Check if the method to invoke has been specified.
       if (m_Method != null)
       {
+        setFailure (theParameters, null);
         try
         {
           // Invoke the method and pass it the parameters.
@@ -330,23 +370,38 @@ public class ThreadIt extends java.lang.Thread
         {
           m_theLogger.error ("invoke", ex);
           theReturnObject = null;
+          setFailure (theParameters, ex.getCause ());
         } // catch
         catch (IllegalAccessException ex)
         {
           theReturnObject = null;
           m_theLogger.error ("IllegalAccessException", ex);
+          setFailure (theParameters, ex);
         } // catch
         //  Do a catch all.
         catch (Exception ex)
         {
           theReturnObject = null;
           m_theLogger.warn ("Exception", ex);
+          setFailure (theParameters, ex);
         } // catch
       } // if
       // Return the method status.
       return (WorkPackIt) theReturnObject;
     } // method invoke
 
+    /**
+     * Method setFailure records theFailure in the work package passed to
+     * the method, if there is one, so that it reaches the reply.
+     */
+    protected void setFailure (Object[] theParameters, Throwable theFailure)
+    {
+      if ((theParameters != null) && (theParameters.length > 0) && (theParameters[0] instanceof WorkPackIt))
+      {
+        ((WorkPackIt) theParameters[0]).m_Failure = theFailure;
+      } // if
+    } // setFailure
+
   } // class MethodType
 
   /**
@@ -387,6 +442,88 @@ public class ThreadIt extends java.lang.Thread
 
   } // class PeriodicMethodType
 
+  /**
+   * Class TypedWorkerMethodType invokes a TypedWorkerMethod without
+   * reflection. The input is checked with validateParams and the work
+   * package is returned as the reply with the output set, so the work is
+   * done without creating a PayLoad, a copy or a boxed value.
+   */
+  private class TypedWorkerMethodType<I, O> extends WorkerMethodType
+  {
+    /** m_theInputType is the type of the input or Void for no input. */
+    private final Class<I> m_theInputType;
+    /** m_theOutputType is the type the output is checked against or null. */
+    private final Class<O> m_theOutputType;
+    /** m_theWorker does the work. */
+    private final TypedWorkerMethod<I, O> m_theWorker;
+
+    public TypedWorkerMethodType (Class<I> theInputType, Class<O> theOutputType, TypedWorkerMethod<I, O> theWorker)
+    {
+      m_theInputType = theInputType;
+      m_theOutputType = theOutputType;
+      m_theWorker = theWorker;
+    } // TypedWorkerMethodType
+
+    /**
+     * Method invoke checks the work package in theParameters and has the
+     * worker do the work if it checks out. The output is set in the work
+     * package, in m_Object unless it is a WorkPackItTyped. If there is an
+     * output type and the output is not of it, the output is not set and
+     * the status is THREADIT_PAYLOAD_WRONG_TYPE. The method
+     * returns the work package, or null if the worker throws, in which case
+     * the exception is recorded in m_Failure.
+     */
+    public WorkPackIt invoke (Object theObject, Object[] theParameters)
+    {
+      WorkPackIt theWorkPack = (WorkPackIt) theParameters[0];
+      WorkPackIt theWorkDone = theWorkPack;
+      int theStatus = 0;
+      O theOutput = null;
+
+      if (m_theInputType == Void.class)
+      {
+        theStatus = validateParamsNoData (theWorkPack);
+      }
+      else
+      {
+        theStatus = validateParams (theWorkPack, m_theInputType);
+      } // if
+      if (theWorkPack != null)
+      {
+        theWorkPack.m_Status = theStatus;
+        theWorkPack.m_Failure = null;
+      } // if
+      if (theStatus == THREADIT_STATUS_OK)
+      {
+        try
+        {
+          theOutput = m_theWorker.doWork (m_theInputType.cast (theWorkPack.m_Object), theWorkPack);
+          if ((m_theOutputType != null) && (theOutput != null) && (!m_theOutputType.isInstance (theOutput)))
+          {
+            m_theLogger.error ("Status error: ThreadIt: output is not of type " + m_theOutputType.getName ());
+            theWorkPack.m_Status = THREADIT_PAYLOAD_WRONG_TYPE;
+          }
+          else if (theWorkPack instanceof WorkPackItTyped)
+          {
+            ((WorkPackItTyped<?, ?>) theWorkPack).setResult (theOutput);
+          }
+          else
+          {
+            theWorkPack.m_Object = theOutput;
+          } // if
+        }
+        catch (Exception ex)
+        {
+          m_theLogger.error ("invoke", ex);
+          theWorkDone = null;
+          theWorkPack.m_Failure = ex;
+        } // catch
+      } // if
+      return theWorkDone;
+    } // invoke
+
+  } // class TypedWorkerMethodType
+
 
 
 
@@ -413,7 +550,7 @@ public class ThreadIt extends java.lang.Thread
    * queue (by semaphore) that will deliver a work request to the thread
    * in terms of a WorkPackIt instance.
    */
-  protected ProtectedQueue m_WorkQ = null;
+  protected volatile ProtectedQueue m_WorkQ = null;
 
   /**
    * m_DoneQ receives work done packages for return to the initiators of work.
@@ -466,7 +603,7 @@ public class ThreadIt extends java.lang.Thread
    * m_TimePeriod is the time period at which periodic work is expected
    * to occur.
    */
-  protected long m_TimePeriod = 0;
+  protected volatile long m_TimePeriod = 0;
 
   /**
    * m_TimeOut is used while delaying for an event.
@@ -487,6 +624,82 @@ public class ThreadIt extends java.lang.Thread
   private WorkDoneCallback m_thePeriodicMethodCallback = null;
 
   private Semaphore m_theExitSignal = new Semaphore (0);
+
+  /**
+   * m_theWaitStrategy determines how the thread of execution waits for work
+   * to arrive in the work queue. The default strategy blocks in the queue.
+   */
+  protected volatile WaitStrategy m_theWaitStrategy = null;
+
+  /**
+   * m_theMetrics records the queue wait, service and end-to-end times of
+   * the work performed and reports on the work and work done queues.
+   */
+  protected ThreadItMetrics m_theMetrics = null;
+
+  /**
+   * m_theRouter forwards the work instructions this instance has no method
+   * for to other ThreadIts or is null if such work is not forwarded.
+   */
+  protected volatile ThreadItRouter m_theRouter = null;
+
+  /**
+   * m_theCallbackDelivery calls the work done callbacks on a thread of its
+   * own or is null if they are called on the thread of this instance.
+   */
+  protected volatile CallbackDelivery m_theCallbackDelivery = null;
+
+  /**
+   * m_theReplyTimeToLive is the number of milliseconds a reply waits in the
+   * work done queue before it is discarded, or 0 if replies never expire.
+   * A work package overrides it with WorkPackIt.m_ReplyTimeToLive.
+   */
+  protected volatile long m_theReplyTimeToLive = 0;
+
+  /**
+   * m_theRetries holds the work that failed until it is retried and counts
+   * the failures of each instruction (see setRetryPolicy).
+   */
+  private final RetryScheduler m_theRetries = new RetryScheduler (THREADIT_MAX_WORK_METHODS);
+
+  /**
+   * m_theBreakers are the circuit breakers by work instruction and
+   * m_theCircuitStates the state of each last seen by the thread of
+   * execution, which notifies m_theCircuitNotifier of each change.
+   */
+  private final AtomicReferenceArray<CircuitBreaker> m_theBreakers = new AtomicReferenceArray<CircuitBreaker> (THREADIT_MAX_WORK_METHODS);
+  private final int[] m_theCircuitStates = new int[THREADIT_MAX_WORK_METHODS];
+  private final ThreadItNotifier m_theCircuitNotifier = new ThreadItNotifier (this);
+
+  /**
+   * m_theCurrentInstruction is the work instruction being executed or
+   * THREADIT_IDLE_INSTRUCTION. It is published for monitoring purposes.
+   */
+  private volatile int m_theCurrentInstruction = THREADIT_IDLE_INSTRUCTION;
+
+  /**
+   * m_theCurrentStartTime is the System.nanoTime at which execution of the
+   * current work instruction started.
+   */
+  private volatile long m_theCurrentStartTime = 0;
+
+  /**
+   * m_thePendingPeriod is a period requested by another thread that is yet
+   * to be applied by the thread of execution or THREADIT_NO_PERIOD_REQUEST.
+   */
+  private volatile long m_thePendingPeriod = THREADIT_NO_PERIOD_REQUEST;
+
+  /**
+   * m_theWakeUpPack is placed in the work queue to wake the thread of
+   * execution without doing any work.
+   */
+  private final WorkPackIt m_theWakeUpPack = new ControlPack ();
+
+  /**
+   * m_theExitPack is placed in the work queue to wake the thread of
+   * execution when it is asked to exit.
+   */
+  private final WorkPackIt m_theExitPack = new ControlPack ();
   
   protected String m_theThreadName = null;
 
@@ -588,9 +801,14 @@ public class ThreadIt extends java.lang.Thread
     m_PeriodicMethod = null;
     // Create the work queues.
     m_WorkQ = new ProtectedQueue ();
-    m_DoneQ = new ProtectedQueue ();
+    m_DoneQ = new ExpiringQueue ();
+    m_theMetrics = new ThreadItMetrics (m_WorkQ, m_DoneQ);
     // Create an instance that manages timing.
     m_Period = new TimeIt ();
+    // Block in the work queue until a different strategy is selected.
+    m_theWaitStrategy = new BlockingWaitStrategy ();
+    // Make the instance visible to management tools.
+    ThreadItRegistry.register (this);
   } // method threadItInit
 
   // ===========================================================================
@@ -631,12 +849,24 @@ public class ThreadIt extends java.lang.Thread
     WorkPackID = m_WorkPackID;
     // Setup the work package identity.
     WorkPack.m_WorkPackID = WorkPackID;
+    WorkPack.m_EnqueueTime = System.nanoTime ();
     // Now send the work package on for execution.
     m_WorkQ.insertItem (WorkPack);
     // Return the method status.
     return WorkPackID;
   } // method startWork
 
+  /**
+   * Method forwardWork queues theWorkPack, which was started at another
+   * ThreadIt and forwarded here, without giving it a new identity so that
+   * its reply can still be matched by the requester.
+   */
+  synchronized void forwardWork (WorkPackIt theWorkPack)
+  {
+    theWorkPack.m_EnqueueTime = System.nanoTime ();
+    m_WorkQ.insertItem (theWorkPack);
+  } // forwardWork
+
   /**
    * Method getWork waits for work processing to be completed and returns
    * a WorkPackIt package that describes the work performed. This method
@@ -674,12 +904,40 @@ public class ThreadIt extends java.lang.Thread
     return m_WorkQ;
   } // method getWorkQ
 
+  /**
+   * Method setWorkQ replaces the work queue with theWorkQ, which may be a
+   * subclass of ProtectedQueue that orders or stores work differently. Work
+   * waiting in the current queue is moved to theWorkQ and the thread of
+   * execution is woken so that it waits on theWorkQ from then on. The
+   * method should be called before work is sent to the instance, as events
+   * sent while the queue is being replaced may be lost.
+   */
+  public synchronized void setWorkQ (ProtectedQueue theWorkQ)
+  {
+    ProtectedQueue theOldQ = m_WorkQ;
+    Object anItem = null;
+
+    m_WorkQ = theWorkQ;
+    m_theMetrics.setWorkQ (theWorkQ);
+    anItem = theOldQ.pollItem ();
+    while (anItem != null)
+    {
+      if (anItem != m_theWakeUpPack)
+      {
+        theWorkQ.insertItem (anItem);
+      } // if
+      anItem = theOldQ.pollItem ();
+    } // while
+    theOldQ.insertPriorityItem (m_theWakeUpPack);
+  } // setWorkQ
+
   /**
    * Method notifyEvent
    */
   public void notifyEvent (int theEventHandler)
   {
     EventWorkPackIt theEvent = new EventWorkPackIt (theEventHandler);
+    theEvent.m_EnqueueTime = System.nanoTime ();
     // Now send the work package on for execution.
     m_WorkQ.insertPriorityItem (theEvent);
   } // method notifyEvent
@@ -688,6 +946,23 @@ public class ThreadIt extends java.lang.Thread
   {
     EventWorkPackIt theEvent = new EventWorkPackIt (theEventHandler);
     theEvent.m_Object = theData;
+    theEvent.m_EnqueueTime = System.nanoTime ();
+    // Now send the work package on for execution.
+    m_WorkQ.insertPriorityItem (theEvent);
+  } // method notifyEvent
+
+  /**
+   * Method notifyEvent notifies the event with theData and theConflationKey.
+   * If the work queue is a ConflatingQueue and a notification of the same
+   * event with an equal key is still pending, theData replaces the data of
+   * the pending notification.
+   */
+  public void notifyEvent (int theEventHandler, Object theData, Object theConflationKey)
+  {
+    EventWorkPackIt theEvent = new EventWorkPackIt (theEventHandler);
+    theEvent.m_Object = theData;
+    theEvent.m_theConflationKey = theConflationKey;
+    theEvent.m_EnqueueTime = System.nanoTime ();
     // Now send the work package on for execution.
     m_WorkQ.insertPriorityItem (theEvent);
   } // method notifyEvent
@@ -695,10 +970,217 @@ public class ThreadIt extends java.lang.Thread
   public void notifyEvent (int theEventHandler, WorkPackIt theWork)
   {
     EventWorkPackIt theEvent = new EventWorkPackIt (theEventHandler, theWork);
+    theEvent.m_EnqueueTime = System.nanoTime ();
     // Now send the work package on for execution.
     m_WorkQ.insertPriorityItem (theEvent);
   } // method notifyEvent
 
+  /**
+   * Method setWaitStrategy selects how the thread of execution waits for
+   * work to arrive in the work queue. The change takes effect from the next
+   * wait. A strategy instance must not be shared between ThreadIt instances.<p>
+   * theWaitStrategy : is the strategy to use. A null value restores the
+   *                   default blocking strategy.
+   */
+  public void setWaitStrategy (WaitStrategy theWaitStrategy)
+  {
+    if (theWaitStrategy == null)
+    {
+      theWaitStrategy = new BlockingWaitStrategy ();
+    } // if
+    m_theWaitStrategy = theWaitStrategy;
+  } // setWaitStrategy
+
+  /**
+   * Method getWaitStrategy returns the strategy used to wait for work. The
+   * strategy provides the statistics of how waits were satisfied including
+   * the number of producer wakeups required.
+   */
+  public WaitStrategy getWaitStrategy ()
+  {
+    return m_theWaitStrategy;
+  } // getWaitStrategy
+
+  /**
+   * Method getMetrics returns the metrics kept for this instance. These
+   * include per work instruction histograms of the queue wait, service and
+   * end-to-end times and the statistics of the work and work done queues.
+   */
+  public ThreadItMetrics getMetrics ()
+  {
+    return m_theMetrics;
+  } // getMetrics
+
+  /**
+   * Method setRouter sets the router used to forward the work instructions
+   * that this instance has no method for. Work that is forwarded is answered
+   * by the destination. Setting null stops work being forwarded.
+   */
+  public void setRouter (ThreadItRouter theRouter)
+  {
+    m_theRouter = theRouter;
+  } // setRouter
+
+  public ThreadItRouter getRouter ()
+  {
+    return m_theRouter;
+  } // getRouter
+
+  /**
+   * Method setCallbackDelivery hands the work done callbacks of this
+   * instance to theDelivery, so that a slow callback does not hold up the
+   * work that follows. Setting null calls the callbacks on the thread of
+   * this instance again.
+   */
+  public void setCallbackDelivery (CallbackDelivery theDelivery)
+  {
+    m_theCallbackDelivery = theDelivery;
+  } // setCallbackDelivery
+
+  public CallbackDelivery getCallbackDelivery ()
+  {
+    return m_theCallbackDelivery;
+  } // getCallbackDelivery
+
+  /**
+   * Method setReplyTimeToLive sets the number of milliseconds the replies
+   * of this instance wait to be collected before they are discarded. It
+   * bounds the results of periodic work and the replies of requests their
+   * issuer has given up on. Setting 0 keeps the replies until collected.
+   */
+  public void setReplyTimeToLive (long theTimeToLive)
+  {
+    m_theReplyTimeToLive = theTimeToLive;
+  } // setReplyTimeToLive
+
+  public long getReplyTimeToLive ()
+  {
+    return m_theReplyTimeToLive;
+  } // getReplyTimeToLive
+
+  /**
+   * Method getExpiredReplyCount returns the number of replies discarded from
+   * the work done queue because they expired before they were collected.
+   */
+  public long getExpiredReplyCount ()
+  {
+    long theCount = 0;
+
+    if (m_DoneQ instanceof ExpiringQueue)
+    {
+      theCount = ((ExpiringQueue) m_DoneQ).getEvictedCount ();
+    } // if
+    return theCount;
+  } // getExpiredReplyCount
+
+  /**
+   * Method setRetryPolicy has the work for theInstruction retried as
+   * thePolicy says when its method throws, and put in the dead letter queue
+   * once it has used its attempts. The reply is only sent after the last
+   * attempt. Setting null stops retrying the instruction. The method returns
+   * false if theInstruction is not valid.
+   */
+  public boolean setRetryPolicy (int theInstruction, RetryPolicy thePolicy)
+  {
+    boolean Success = false;
+
+    if ((theInstruction >= 0) && (theInstruction < THREADIT_MAX_WORK_METHODS))
+    {
+      m_theRetries.setPolicy (theInstruction, thePolicy);
+      Success = true;
+    } // if
+    return Success;
+  } // setRetryPolicy
+
+  public RetryPolicy getRetryPolicy (int theInstruction)
+  {
+    return m_theRetries.getPolicy (theInstruction);
+  } // getRetryPolicy
+
+  /**
+   * Method setDeadLetterQ sets the queue that receives the work packages
+   * that failed on their last attempt, so that several instances may share
+   * one. Each instance has a queue of its own to begin with.
+   */
+  public void setDeadLetterQ (ProtectedQueue theDeadLetterQ)
+  {
+    m_theRetries.setDeadLetterQ (theDeadLetterQ);
+  } // setDeadLetterQ
+
+  public ProtectedQueue getDeadLetterQ ()
+  {
+    return m_theRetries.getDeadLetterQ ();
+  } // getDeadLetterQ
+
+  /**
+   * Method getFailureCount returns the number of times the method of
+   * theInstruction has thrown.
+   */
+  public long getFailureCount (int theInstruction)
+  {
+    return m_theRetries.getFailureCount (theInstruction);
+  } // getFailureCount
+
+  /**
+   * Method getRetryCount returns the number of times work for
+   * theInstruction has been held for a retry.
+   */
+  public long getRetryCount (int theInstruction)
+  {
+    return m_theRetries.getRetryCount (theInstruction);
+  } // getRetryCount
+
+  /**
+   * Method getDeadLetterCount returns the number of work packages for
+   * theInstruction put in the dead letter queue.
+   */
+  public long getDeadLetterCount (int theInstruction)
+  {
+    return m_theRetries.getDeadLetterCount (theInstruction);
+  } // getDeadLetterCount
+
+  /**
+   * Method getPendingRetryCount returns the number of work packages held
+   * until their retry is due.
+   */
+  public int getPendingRetryCount ()
+  {
+    return m_theRetries.getPendingCount ();
+  } // getPendingRetryCount
+
+  /**
+   * Method setCircuitBreaker has theBreaker decide whether the method of
+   * theInstruction is invoked. Work the breaker does not let through is
+   * answered with THREADIT_CIRCUIT_OPEN. Setting null removes the breaker.
+   * The method returns false if theInstruction is not valid.
+   */
+  public boolean setCircuitBreaker (int theInstruction, CircuitBreaker theBreaker)
+  {
+    boolean Success = false;
+
+    if ((theInstruction >= 0) && (theInstruction < THREADIT_MAX_WORK_METHODS))
+    {
+      m_theBreakers.set (theInstruction, theBreaker);
+      Success = true;
+    } // if
+    return Success;
+  } // setCircuitBreaker
+
+  public CircuitBreaker getCircuitBreaker (int theInstruction)
+  {
+    return m_theBreakers.get (theInstruction);
+  } // getCircuitBreaker
+
+  /**
+   * Method getCircuitNotifier returns the notifier that multicasts a
+   * CircuitBreaker.StateChange whenever the breaker of an instruction
+   * changes state. Attach an observer to it to be told.
+   */
+  public ThreadItNotifier getCircuitNotifier ()
+  {
+    return m_theCircuitNotifier;
+  } // getCircuitNotifier
+
   public synchronized void setPeriodicMethodCallback (WorkDoneCallback theCallback)
   {
     m_thePeriodicMethodCallback = theCallback;
@@ -730,12 +1212,16 @@ public class ThreadIt extends java.lang.Thread
     boolean theSuccess = false;
     boolean IsWorkToDo = false;
     boolean isExitThread = false;
+    boolean isRetried = false;
+    long theDequeueTime = 0;
+    long theServiceTime = 0;
     // Establish the method parameters.
     Object args[] = new Object[1];
     Method aMethod = null;
     WorkPackIt WorkPack = null;
     WorkPackIt theWorkDone = null;
     WorkPackIt TimedWork = null;
+    ProtectedQueue theWorkQ = null;
 
     // Start a timing operation.
     m_Period.StartTiming (m_TimePeriod);
@@ -744,13 +1230,15 @@ public class ThreadIt extends java.lang.Thread
     // Perform the data processing.
     do
     {
+      // Apply any period change requested by another thread.
+      applyPendingPeriod ();
       // Establish the method parameters.
       args[0] = null;
       aMethod = null;
       // Initialise the work packages.
       WorkPack = null;
-      TimedWork = new WorkPackIt ();
       theWorkDone = null;
+      isRetried = false;
 
       // Wait for for a work instruction to arrive, an event to occur or for a time out.
       // Process the outcome of the wait.
@@ -758,10 +1246,25 @@ public class ThreadIt extends java.lang.Thread
       {
         // Wait for for a work instruction to arrive or for a time out.
         // Get the instruction associated with the incoming work request.
-        WorkPack = (WorkPackIt) m_WorkQ.waitItem (m_TimeOut);
+        // Work that is due to be retried joins the tail of the queue and
+        // the wait ends in time for the next retry.
+        theWorkQ = m_WorkQ;
+        m_theRetries.requeue (theWorkQ, false);
+        WorkPack = (WorkPackIt) m_theWaitStrategy.waitItem (theWorkQ, m_theRetries.getWaitTime (m_TimeOut));
+        // Work taken after the thread was asked to exit is returned to the
+        // head of the queue so that it can be recovered with drainWork. A
+        // reused work package is returned as a copy and released.
+        if ((m_ExitThread) && (WorkPack != null) && (!isControlPack (WorkPack)))
+        {
+          m_WorkQ.insertPriorityItem (takeWorkPack (WorkPack));
+          WorkPack = null;
+        } // if
         // If no work package is retrieved then we do nothing.
-        if ((!m_ExitThread) && (WorkPack != null))
+        if ((!m_ExitThread) && (WorkPack != null) && (WorkPack != m_theWakeUpPack))
         {
+          // Record when the work is picked up.
+          theDequeueTime = System.nanoTime ();
+          theServiceTime = -1;
           // Set the work instruction status.
           theSuccess = false;
           if (WorkPack.isEvent ())
@@ -773,28 +1276,62 @@ public class ThreadIt extends java.lang.Thread
             // Perform the work according to the work instruction given.
             WorkInstruction = WorkPack.getWorkInstruction ();
           } // if
+          // Forward work this instance has no method for if a route exists.
+          // The destination replies so there is no result to send here.
+          if (routeWork (WorkPack, WorkInstruction))
+          {
+            theWorkDone = null;
+          }
           // Check that a valid work instruction has been given.
-          if ((WorkInstruction >= 0) && (WorkInstruction < THREADIT_MAX_WORK_METHODS))
+          else if ((WorkInstruction >= 0) && (WorkInstruction < THREADIT_MAX_WORK_METHODS))
           {
             // Make sure that a method has been provided to perform the work
             // instruction.
-            if (m_WorkerMethod[WorkInstruction] != null)
+            if ((m_WorkerMethod[WorkInstruction] != null) && (!isCallPermitted (WorkInstruction)))
+            {
+              // The circuit is open so the work is answered at once.
+              theWorkDone = isResponseRequired (WorkPack) ? (WorkPackIt) WorkPack.clone () : null;
+              if (theWorkDone != null)
+              {
+                theWorkDone.m_Status = THREADIT_CIRCUIT_OPEN;
+              } // if
+            }
+            else if (m_WorkerMethod[WorkInstruction] != null)
             {
               // Measure the execution time of this work.
               startTiming (WorkPack.m_TimeAllowed);
+              setCurrentInstruction (WorkInstruction, theDequeueTime);
               // Establish the work package.
               args[0] = WorkPack;
               // Invoke the method with argument.
               theWorkDone = m_WorkerMethod[WorkInstruction].invoke (this, args);
-              // Ensure that a work package result is returned.
-              if (theWorkDone == null)
+              // Work that failed and is to be retried has no reply yet.
+              // Otherwise ensure that a work package result is returned if
+              // anyone is to receive it. A reused work package is copied as
+              // it cannot outlive the work.
+              isRetried = (WorkPack.m_Failure != null) && (m_theRetries.onFailure (WorkInstruction, WorkPack));
+              if (isRetried)
+              {
+                theWorkDone = null;
+              }
+              else if ((theWorkDone == null) && (isResponseRequired (WorkPack)))
               {
                 // Initialise the work done information.
                 theWorkDone = (WorkPackIt) WorkPack.clone ();
                 theWorkDone.m_Status = THREADIT_NO_RESULT;
+              }
+              else if ((theWorkDone != null) && (theWorkDone.isReused ()))
+              {
+                theWorkDone = isResponseRequired (theWorkDone) ? (WorkPackIt) theWorkDone.clone () : null;
               } // if
               // Get the time to completion.
-              theWorkDone.m_TimeElapsed = stopTiming ();
+              Elapsed = stopTiming ();
+              if (theWorkDone != null)
+              {
+                theWorkDone.m_TimeElapsed = Elapsed;
+              } // if
+              theServiceTime = System.nanoTime () - theDequeueTime;
+              recordCall (WorkInstruction, WorkPack, theWorkDone, theServiceTime);
             }
             else
             {
@@ -815,6 +1352,17 @@ public class ThreadIt extends java.lang.Thread
           } // if ((WorkInstruction >= 0) && (WorkInstruction < MAX_WORK_METHODS))
           // Now that the work is done. Send a response back the issuer.
           sendResponse (theWorkDone, WorkInstruction, false);
+          recordMetrics (WorkInstruction, WorkPack.m_EnqueueTime, theDequeueTime, theServiceTime);
+          setCurrentInstruction (THREADIT_IDLE_INSTRUCTION, 0);
+          // The work package may now be used again if it is reused, and
+          // the queue it came from is told that it is done. Work to be
+          // retried is not done until its last attempt, so the queue keeps
+          // it, for instance in a journal, while it waits.
+          WorkPack.release ();
+          if (!isRetried)
+          {
+            theWorkQ.releaseItem (WorkPack);
+          } // if
         }
       } // if (!m_ExitThread)
       // Check if periodic processing is required.
@@ -824,10 +1372,12 @@ public class ThreadIt extends java.lang.Thread
           // There is a time out waiting for an incoming message or
           // the threads period timer has expired. Execute the periodic method.
           // Setup the work request.
-          TimedWork.initialise ();
+          TimedWork = new WorkPackIt ();
           TimedWork.setWorkInstruction (0);
           // Measure the execution time of this work.
           startTiming (m_TimePeriod);
+          theDequeueTime = System.nanoTime ();
+          setCurrentInstruction ((int) THREADIT_THREADIT_PERIOD_TIMER, theDequeueTime);
           // Establish the work argument.
           args[0] = TimedWork;
           // Execute the work according to the work instruction.
@@ -839,10 +1389,13 @@ public class ThreadIt extends java.lang.Thread
           } // if
           // Get the time to completion.
           theWorkDone.m_TimeElapsed = stopTiming ();
+          theServiceTime = System.nanoTime () - theDequeueTime;
           // The period method requires a result to be returned.
           WorkInstruction = TimedWork.getWorkInstruction ();
           // Now that the work is done. Send a response back the issuer.
           sendResponse (theWorkDone, WorkInstruction, true);
+          m_theMetrics.record (ThreadItMetrics.PERIODIC_INDEX, -1, theServiceTime, System.nanoTime () - theDequeueTime);
+          setCurrentInstruction (THREADIT_IDLE_INSTRUCTION, 0);
           // Start timing again.
           m_Period.StartTiming (m_TimePeriod);
           m_TimeOut = m_TimePeriod;
@@ -858,10 +1411,146 @@ public class ThreadIt extends java.lang.Thread
       isExitThread = m_ExitThread;
       // Continue until we need to exit the thread.
     } while (!isExitThread);
+    // Work waiting to be retried is returned to the queue so that it can be
+    // recovered with drainWork.
+    m_theRetries.requeue (m_WorkQ, true);
+    // The instance is no longer of interest to management tools.
+    ThreadItRegistry.unregister (this);
     // Signal anyone waiting for the release of this thread.
     m_theExitSignal.release ();
   } // method run
 
+  /**
+   * Method setCurrentInstruction publishes the work instruction being
+   * executed and the time its execution started.
+   */
+  private void setCurrentInstruction (int theInstruction, long theStartTime)
+  {
+    m_theCurrentStartTime = theStartTime;
+    m_theCurrentInstruction = theInstruction;
+  } // setCurrentInstruction
+
+  /**
+   * Method applyPendingPeriod applies a period change requested with
+   * requestPeriod. It is called by the thread of execution only.
+   */
+  private void applyPendingPeriod ()
+  {
+    long thePeriod = m_thePendingPeriod;
+
+    if (thePeriod != THREADIT_NO_PERIOD_REQUEST)
+    {
+      m_thePendingPeriod = THREADIT_NO_PERIOD_REQUEST;
+      setPeriod (thePeriod);
+    } // if
+  } // applyPendingPeriod
+
+  /**
+   * Method recordMetrics records the timing of a work package once its
+   * response has been sent.<p>
+   * theInstruction  : is the work instruction performed.<p>
+   * theEnqueueTime  : is the System.nanoTime the package was queued or zero
+   *                   if this is not known.<p>
+   * theDequeueTime  : is the System.nanoTime the package was taken from the
+   *                   work queue.<p>
+   * theServiceTime  : is the time taken by the worker method or a negative
+   *                   value if no worker method was invoked.
+   */
+  private void recordMetrics (int theInstruction, long theEnqueueTime, long theDequeueTime, long theServiceTime)
+  {
+    long theWaitTime = -1;
+    long theEndToEndTime = -1;
+
+    if (theEnqueueTime != 0)
+    {
+      theWaitTime = theDequeueTime - theEnqueueTime;
+      theEndToEndTime = System.nanoTime () - theEnqueueTime;
+    } // if
+    m_theMetrics.record (theInstruction, theWaitTime, theServiceTime, theEndToEndTime);
+  } // recordMetrics
+
+  /**
+   * Method isCallPermitted returns true if theInstruction has no circuit
+   * breaker or its breaker lets the call through.
+   */
+  private boolean isCallPermitted (int theInstruction)
+  {
+    CircuitBreaker theBreaker = m_theBreakers.get (theInstruction);
+    boolean isPermitted = true;
+
+    if (theBreaker != null)
+    {
+      isPermitted = theBreaker.isCallPermitted ();
+      checkCircuitState (theInstruction, theBreaker);
+    } // if
+    return isPermitted;
+  } // isCallPermitted
+
+  /**
+   * Method recordCall records the outcome of the call of the method of
+   * theInstruction with the breaker of the instruction, if there is one.
+   * The call failed if the method threw or the work timed out.
+   */
+  private void recordCall (int theInstruction, WorkPackIt theWorkPack, WorkPackIt theWorkDone, long theServiceTime)
+  {
+    CircuitBreaker theBreaker = m_theBreakers.get (theInstruction);
+
+    if (theBreaker != null)
+    {
+      theBreaker.record ((theWorkPack.m_Failure != null) ||
+                         ((theWorkDone != null) && (theWorkDone.m_Status == THREADIT_TIME_OUT)), theServiceTime);
+      checkCircuitState (theInstruction, theBreaker);
+    } // if
+  } // recordCall
+
+  /**
+   * Method checkCircuitState notifies the circuit notifier if the state of
+   * theBreaker of theInstruction has changed since it was last seen.
+   */
+  private void checkCircuitState (int theInstruction, CircuitBreaker theBreaker)
+  {
+    int theState = theBreaker.getState ();
+
+    if (theState != m_theCircuitStates[theInstruction])
+    {
+      m_theCircuitNotifier.multicast (new CircuitBreaker.StateChange (theInstruction, m_theCircuitStates[theInstruction], theState));
+      m_theCircuitStates[theInstruction] = theState;
+    } // if
+  } // checkCircuitState
+
+  /**
+   * Method isResponseRequired returns true if theWorkPack asks for a reply
+   * or a callback, so that sendResponse has something to do.
+   */
+  private static boolean isResponseRequired (WorkPackIt theWorkPack)
+  {
+    return (theWorkPack.m_SendResult) || (theWorkPack.m_NotifyWithCallback);
+  } // isResponseRequired
+
+  /**
+   * Method routeWork forwards theWorkPack using the router if there is no
+   * method for theWorkInstruction. A reply to the default work done queue
+   * is returned to the work done queue of this instance. Events are not
+   * forwarded.<p>
+   * The method returns true if the work package was forwarded.
+   */
+  private boolean routeWork (WorkPackIt theWorkPack, int theWorkInstruction)
+  {
+    ThreadItRouter theRouter = m_theRouter;
+    boolean isRouted = false;
+
+    if ((theRouter != null) && (!theWorkPack.isEvent ()))
+    {
+      if ((theWorkInstruction < 0) || (theWorkInstruction >= THREADIT_MAX_WORK_METHODS) ||
+          (m_WorkerMethod[theWorkInstruction] == null))
+      {
+        // A reused work package is copied as it is released once routed.
+        isRouted = theRouter.route (theWorkPack.isReused () ? (WorkPackIt) theWorkPack.clone () : theWorkPack, this);
+      } // if
+    } // if
+    return isRouted;
+  } // routeWork
+
   /**
    * Method sendResponse checks if a response to work is required and then
    * interprets the work done settings to send off the response. This method
@@ -879,6 +1568,8 @@ public class ThreadIt extends java.lang.Thread
   {
     boolean Success = true;
     String theThreadName = null;
+    CallbackDelivery theDelivery = null;
+    long theTimeToLive = 0;
 
     if (WorkDone == null) { return false; };
     // Send a result to the user if requested.
@@ -886,6 +1577,9 @@ public class ThreadIt extends java.lang.Thread
     {
       // Return a reference to this instance of CThreadIt
       WorkDone.m_ptheSource = this;
+      // Give the reply its deadline for collection.
+      theTimeToLive = (WorkDone.m_ReplyTimeToLive > 0) ? WorkDone.m_ReplyTimeToLive : m_theReplyTimeToLive;
+      WorkDone.m_ReplyDeadline = (theTimeToLive > 0) ? System.nanoTime () + (theTimeToLive * 1000000L) : 0;
       // Insert it into the queue for the issuer to pick up.
       // Check if the default work done queue is to be used.
       if (WorkDone.m_UseDefaultQ)
@@ -913,11 +1607,24 @@ public class ThreadIt extends java.lang.Thread
       // is available.
       if (WorkDone.m_Callback != null)
       {
-        // Invoke the method used to callback into the issuer.
-        theThreadName = getName ();
+        // Invoke the method used to callback into the issuer. A callback
+        // that takes results is given the work done itself.
+        theDelivery = m_theCallbackDelivery;
         try
         {
-          WorkDone.m_Callback.onWorkDone (theThreadName, WorkDone.m_WorkPackID);
+          if (theDelivery != null)
+          {
+            theDelivery.deliver (WorkDone.m_Callback, this, WorkDone);
+          }
+          else if (WorkDone.m_Callback instanceof WorkResultCallback)
+          {
+            ((WorkResultCallback) WorkDone.m_Callback).onWorkResult (this, WorkDone);
+          }
+          else
+          {
+            theThreadName = getName ();
+            WorkDone.m_Callback.onWorkDone (theThreadName, WorkDone.m_WorkPackID);
+          } // if
         } // try
         catch (Exception anException)
         {
@@ -966,6 +1673,7 @@ public class ThreadIt extends java.lang.Thread
         aMethodType = new WorkerMethodType ();
         aMethodType.setMethod (aMethod);
         m_WorkerMethod[Instruction] = aMethodType;
+        m_theMetrics.register (Instruction);
       }
       catch (Exception e)
       {
@@ -977,6 +1685,50 @@ public class ThreadIt extends java.lang.Thread
     return Success;
   } // setWorkerMethod
 
+  /**
+   * Method setWorkerMethod associates theWorker with a work instruction.
+   * Unlike the method name variant the worker is called without reflection
+   * and is given an input of theInputType, so it needs no casts and no
+   * checkParams call. Work with a missing input or an input of another type
+   * is replied to with the status of the check and the worker is not
+   * called.<p>
+   * Instruction  : The work instruction that the worker is to be associated
+   *                with. Values range from 1 to THREADIT_MAX_WORK_METHODS.<p>
+   * theInputType : The type of the input in WorkPackIt.m_Object, or
+   *                Void.class if the work has no input.<p>
+   * theWorker    : The worker that does the work.<p>
+   * The output is not checked: it is cast to the output type of a
+   * WorkPackItTyped without a check. Use the variant that takes the output
+   * type to have it checked.<p>
+   * Method setWorkerMethod returns true if the worker is associated with the
+   * work instruction.
+   */
+  public <I, O> boolean setWorkerMethod (int Instruction, Class<I> theInputType, TypedWorkerMethod<I, O> theWorker)
+  {
+    return setWorkerMethod (Instruction, theInputType, null, theWorker);
+  } // setWorkerMethod
+
+  /**
+   * Method setWorkerMethod associates theWorker with a work instruction as
+   * the variant above does, and checks that each output of the worker is of
+   * theOutputType. Work whose output is not is replied to with the status
+   * THREADIT_PAYLOAD_WRONG_TYPE and without the output, so a worker used
+   * through a raw type cannot put an output of the wrong type in a
+   * WorkPackItTyped. theOutputType may be null to skip the check.
+   */
+  public <I, O> boolean setWorkerMethod (int Instruction, Class<I> theInputType, Class<O> theOutputType, TypedWorkerMethod<I, O> theWorker)
+  {
+    boolean Success = false;
+
+    if ((Instruction >= 0) && (Instruction < THREADIT_MAX_WORK_METHODS) && (theInputType != null) && (theWorker != null))
+    {
+      m_WorkerMethod[Instruction] = new TypedWorkerMethodType<I, O> (theInputType, theOutputType, theWorker);
+      m_theMetrics.register (Instruction);
+      Success = true;
+    } // if
+    return Success;
+  } // setWorkerMethod
+
   /**
    * Method setPeriodicMethod associates the method of a derived class
    * with the periodic method. This implies that when a time period
@@ -1004,6 +1756,7 @@ public class ThreadIt extends java.lang.Thread
       aMethodType = new PeriodicMethodType ();
       aMethodType.setMethod (aMethod);
       m_PeriodicMethod = aMethodType;
+      m_theMetrics.register (ThreadItMetrics.PERIODIC_INDEX);
       Success = true;
     }
     catch (Exception e)
@@ -1043,6 +1796,70 @@ public class ThreadIt extends java.lang.Thread
     } // if
   } // setPeriod
 
+  /**
+   * Method requestPeriod asks the thread of execution to change the rate at
+   * which the periodic method is invoked. Unlike setPeriod it may be called
+   * from any thread. The thread is woken so that the change takes effect
+   * immediately.<p>
+   * Period : The timer period in milliseconds. A value of zero turns off
+   *          period timing.
+   */
+  public void requestPeriod (long Period)
+  {
+    m_thePendingPeriod = Period;
+    m_WorkQ.insertPriorityItem (m_theWakeUpPack);
+  } // requestPeriod
+
+  /**
+   * Method getPeriod returns the period in milliseconds at which the
+   * periodic method is invoked.
+   */
+  public long getPeriod ()
+  {
+    return m_TimePeriod;
+  } // getPeriod
+
+  /**
+   * Method isPeriodicMethodSet returns true if a periodic method has been
+   * associated with this instance.
+   */
+  public boolean isPeriodicMethodSet ()
+  {
+    return (m_PeriodicMethod != null);
+  } // isPeriodicMethodSet
+
+  /**
+   * Method getCurrentInstruction returns the work instruction being executed,
+   * THREADIT_THREADIT_PERIOD_TIMER while the periodic method is executing or
+   * THREADIT_IDLE_INSTRUCTION when no work is being executed.
+   */
+  public int getCurrentInstruction ()
+  {
+    return m_theCurrentInstruction;
+  } // getCurrentInstruction
+
+  /**
+   * Method getCurrentInstructionTime returns the time in milliseconds that
+   * the current work instruction has been executing or zero if no work
+   * is being executed.
+   */
+  public long getCurrentInstructionTime ()
+  {
+    long theElapsed = 0;
+    long theStartTime = 0;
+
+    if (m_theCurrentInstruction != THREADIT_IDLE_INSTRUCTION)
+    {
+      // The start time is cleared when the work completes.
+      theStartTime = m_theCurrentStartTime;
+      if (theStartTime != 0)
+      {
+        theElapsed = (System.nanoTime () - theStartTime) / 1000000L;
+      } // if
+    } // if
+    return theElapsed;
+  } // getCurrentInstructionTime
+
   /**
    * Method isAvailableTime is provided for use in the WorkerMethodType function
    * to determine if the time allowed for processing has elapsed or not. If
@@ -1159,16 +1976,63 @@ public class ThreadIt extends java.lang.Thread
    */
   public synchronized void stopThread ()
   {
-    WorkPackIt theExitWorkPack = new WorkPackIt ();
-
     // Indicate that the thread must now terminate execution.
     m_ExitThread = true;
     // In future send an out of band message to the worker thread and ask it to exit.
-    theExitWorkPack.m_Instruction = -1;
-    theExitWorkPack.m_SendResult = false;
-    startWork (theExitWorkPack);
+    m_theExitPack.m_Instruction = -1;
+    m_theExitPack.m_SendResult = false;
+    startWork (m_theExitPack);
   } // stopThread
 
+  /**
+   * Method drainWork removes the work packages waiting in the work queue
+   * and returns them in the order they would have been performed. It is
+   * used to hand work on once the thread has been stopped. Work started
+   * while the thread is being stopped is not performed and is returned by
+   * this method. A reused work package is returned as a copy and released.
+   */
+  public synchronized List<WorkPackIt> drainWork ()
+  {
+    List<WorkPackIt> theWork = new ArrayList<WorkPackIt> ();
+    WorkPackIt aWorkPack = (WorkPackIt) m_WorkQ.pollItem ();
+
+    while (aWorkPack != null)
+    {
+      if (!isControlPack (aWorkPack))
+      {
+        theWork.add (takeWorkPack (aWorkPack));
+      } // if
+      aWorkPack = (WorkPackIt) m_WorkQ.pollItem ();
+    } // while
+    return theWork;
+  } // drainWork
+
+  /**
+   * Method takeWorkPack returns theWorkPack, or a copy of it if it is
+   * reused, in which case theWorkPack is released so that it can be used
+   * again.
+   */
+  private static WorkPackIt takeWorkPack (WorkPackIt theWorkPack)
+  {
+    WorkPackIt theTaken = theWorkPack;
+
+    if (theWorkPack.isReused ())
+    {
+      theTaken = (WorkPackIt) theWorkPack.clone ();
+      theWorkPack.release ();
+    } // if
+    return theTaken;
+  } // takeWorkPack
+
+  /**
+   * Method isControlPack returns true if theWorkPack is used internally to
+   * wake the thread of execution rather than to describe work.
+   */
+  private boolean isControlPack (WorkPackIt theWorkPack)
+  {
+    return ((theWorkPack == m_theWakeUpPack) || (theWorkPack == m_theExitPack));
+  } // isControlPack
+
   /**
    * Method exittThread is called internally to check if the thread of
    * execution is required to stop. The method indicates if the thread
@@ -1220,22 +2084,11 @@ public class ThreadIt extends java.lang.Thread
     Object ptheObj = null;
     Integer theStatus = null;
 
-    if (ptheWorkPack != null)
+    theStatus = validateParams (ptheWorkPack);
+    isSuccess = (theStatus == THREADIT_STATUS_OK);
+    if (isSuccess)
     {
       ptheObj = ptheWorkPack.m_Object;
-      if (ptheObj != null)
-      {
-        theStatus = THREADIT_STATUS_OK;
-        isSuccess = true;
-      }
-      else
-      {
-        theStatus = THREADIT_STATUS_PARAM_OBJECT_NULL;
-      } // if
-    }
-    else
-    {
-      theStatus = THREADIT_STATUS_PARAM_WORK_PACK_NULL;
     } // if
     if ((ptheWorkPack != null) && (isCopy))
     {
@@ -1247,10 +2100,6 @@ public class ThreadIt extends java.lang.Thread
     } // if
     // Return the operating status at this point.
     ptheWorkDone.m_Status = theStatus;
-    if (!isSuccess)
-    {
-      logParameterError (theStatus);
-    } // if
     theLoad.m_theData = ptheObj;
     theLoad.m_theWorkDone = ptheWorkDone;
     theLoad.m_theStatus = theStatus;
@@ -1283,22 +2132,8 @@ public class ThreadIt extends java.lang.Thread
 
     ptheWorkDone = null;
 
-    if (ptheWorkPack != null)
-    {
-      if (ptheWorkPack.m_Object == null)
-      {
-        theStatus = THREADIT_STATUS_OK;
-        isSuccess = true;
-      }
-      else
-      {
-        theStatus = THREADIT_PAYLOAD_NOT_EXPECTED;
-      } // if
-    }
-    else
-    {
-      theStatus = THREADIT_STATUS_PARAM_WORK_PACK_NULL;
-    } // if
+    theStatus = validateParamsNoData (ptheWorkPack);
+    isSuccess = (theStatus == THREADIT_STATUS_OK);
     if ((ptheWorkPack != null) && (isCopy))
     {
       ptheWorkDone = (WorkPackIt)ptheWorkPack.clone ();
@@ -1309,10 +2144,6 @@ public class ThreadIt extends java.lang.Thread
     } // if
     // Return the operating status at this point.
     ptheWorkDone.m_Status = theStatus;
-    if (!isSuccess)
-    {
-      logParameterError (theStatus);
-    } // if
     theLoad.m_theData = null;
     theLoad.m_theWorkDone = ptheWorkDone;
     theLoad.m_theStatus = theStatus;
@@ -1320,6 +2151,78 @@ public class ThreadIt extends java.lang.Thread
     return theLoad;
   } // checkParams
 
+  /**
+   * Method validateParams checks the input parameters to a worker method as
+   * checkParams does but creates nothing: the worker reads
+   * ptheWorkPack.m_Object itself and may return ptheWorkPack as the reply.
+   * The check costs no more than the comparisons it makes.<p>
+   * ptheWorkPack : is checked that it is not null and that it contains an
+   *                object.<p>
+   * The method returns THREADIT_STATUS_OK if the parameters check out ok,
+   * or the status that checkParams would set. A failure is logged.
+   */
+  public int validateParams (WorkPackIt ptheWorkPack)
+  {
+    int theStatus = THREADIT_STATUS_OK;
+
+    if (ptheWorkPack == null)
+    {
+      theStatus = THREADIT_STATUS_PARAM_WORK_PACK_NULL;
+    }
+    else if (ptheWorkPack.m_Object == null)
+    {
+      theStatus = THREADIT_STATUS_PARAM_OBJECT_NULL;
+    } // if
+    if (theStatus != THREADIT_STATUS_OK)
+    {
+      logParameterError (theStatus);
+    } // if
+    return theStatus;
+  } // validateParams
+
+  /**
+   * Method validateParams checks the input parameters to a worker method as
+   * validateParams does and also that the object is of theType.
+   */
+  public int validateParams (WorkPackIt ptheWorkPack, Class<?> theType)
+  {
+    int theStatus = validateParams (ptheWorkPack);
+
+    if ((theStatus == THREADIT_STATUS_OK) && (!theType.isInstance (ptheWorkPack.m_Object)))
+    {
+      theStatus = THREADIT_PAYLOAD_WRONG_TYPE;
+      logParameterError (theStatus);
+    } // if
+    return theStatus;
+  } // validateParams
+
+  /**
+   * Method validateParamsNoData checks the input parameters to a worker
+   * method as checkParamsNoData does but creates nothing.<p>
+   * ptheWorkPack : is checked that it is not null and that it does not
+   *                contain an object.<p>
+   * The method returns THREADIT_STATUS_OK if the parameters check out ok,
+   * or the status that checkParamsNoData would set. A failure is logged.
+   */
+  public int validateParamsNoData (WorkPackIt ptheWorkPack)
+  {
+    int theStatus = THREADIT_STATUS_OK;
+
+    if (ptheWorkPack == null)
+    {
+      theStatus = THREADIT_STATUS_PARAM_WORK_PACK_NULL;
+    }
+    else if (ptheWorkPack.m_Object != null)
+    {
+      theStatus = THREADIT_PAYLOAD_NOT_EXPECTED;
+    } // if
+    if (theStatus != THREADIT_STATUS_OK)
+    {
+      logParameterError (theStatus);
+    } // if
+    return theStatus;
+  } // validateParamsNoData
+
   /**
    * Method logParameterError is called to log the error string in the log as an error
    * that represents theStatus. These are the enum StatusIds values.
@@ -1380,6 +2283,9 @@ public class ThreadIt extends java.lang.Thread
       case THREADIT_PAYLOAD_NOT_EXPECTED :
         theStr = "ThreadIt: object supplied when it is not expected";
         break;
+      case THREADIT_PAYLOAD_WRONG_TYPE :
+        theStr = "ThreadIt: input work object is not of the expected type";
+        break;
       case THREADIT_STATUS_LAST :
         theStr = "ThreadIt: status last";
         break;
@@ -193,6 +193,33 @@ public class ThreadItMessage
     return aPackId;
   } // sendTo
 
+  /**
+   * Method sendWithCallbackTo sends the message to theMessageDestination
+   * without a reply to a work done queue. The client is told of the
+   * completion through the callback of the message only; a
+   * WorkResultCallback is given the result itself.<p>
+   * theMessageDestination : is the instance that will perform the work
+   *                         in response to this message.
+   */
+  public long sendWithCallbackTo (ThreadIt theMessageDestination)
+  {
+    long aPackId = -1;
+
+    _theWorkPack.m_Instruction = _theInstruction;
+    _theWorkPack.m_SendResult = false;
+    _theWorkPack.m_NotifyWithCallback = (_theCallback != null);
+    _theWorkPack.m_ptheSource = m_ptheSource;
+    _theWorkPack.m_wptheSource = m_wptheSource;
+    _theWorkPack.m_Callback = _theCallback;
+    _theWorkPack.m_theReplyInstructionId = m_theReplyInstruction;
+    // Start doing the work.
+    if (theMessageDestination != null)
+    {
+      aPackId = theMessageDestination.startWork (_theWorkPack);
+    } // if
+    return aPackId;
+  } // sendWithCallbackTo
+
   //  NOTE: This message will be setup not to return a reply.
   public long sendWithNoReplyTo (ThreadIt theMessageDestination)
   {
@@ -0,0 +1,421 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItMetrics
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ThreadItMetrics holds the metrics that every ThreadIt keeps about
+ * the work it performs. For each work instruction the time a work package
+ * waited in the work queue, the time its worker method took (service time)
+ * and the time from being queued to the response being sent (end-to-end)
+ * are recorded in latency histograms. The work queue and work done queue
+ * provide their insert and remove counts and depth from which rates and
+ * high water marks are reported.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import au.com.ashkel.javalib.metrics.LatencyHistogram;
+
+/**
+ * Class ThreadItMetrics is the set of metrics kept for one ThreadIt. The
+ * histograms for an instruction are created when a method is associated
+ * with the instruction so that recording never allocates. Recording is
+ * performed by the thread of the ThreadIt only.
+ */
+public class ThreadItMetrics
+{
+  /**
+   * PERIODIC_INDEX is the index used for the metrics of the periodic method.
+   */
+  public static final int PERIODIC_INDEX = ThreadIt.THREADIT_MAX_WORK_METHODS;
+
+  /** m_theInstructions holds the metrics of each work instruction. */
+  private final InstructionMetrics[] m_theInstructions = new InstructionMetrics[PERIODIC_INDEX + 1];
+  /** m_theWorkQ is the work queue of the ThreadIt. */
+  private volatile ProtectedQueue m_theWorkQ;
+  /** m_theDoneQ is the work done queue of the ThreadIt. */
+  private final ProtectedQueue m_theDoneQ;
+  /** m_theResetTime is the System.nanoTime of the last reset. */
+  private volatile long m_theResetTime = 0;
+  /** m_theWorkQInserts is the work queue insert count at the last reset. */
+  private volatile long m_theWorkQInserts = 0;
+  /** m_theWorkQRemoves is the work queue remove count at the last reset. */
+  private volatile long m_theWorkQRemoves = 0;
+  /** m_theDoneQInserts is the work done queue insert count at the last reset. */
+  private volatile long m_theDoneQInserts = 0;
+  /** m_theDoneQRemoves is the work done queue remove count at the last reset. */
+  private volatile long m_theDoneQRemoves = 0;
+  /** m_theRecentServiceTime is a moving average of the work service time. */
+  private volatile long m_theRecentServiceTime = 0;
+
+  /**
+   * Method ThreadItMetrics is the constructor for the class.<p>
+   * theWorkQ : is the work queue of the ThreadIt.<p>
+   * theDoneQ : is the work done queue of the ThreadIt.
+   */
+  public ThreadItMetrics (ProtectedQueue theWorkQ, ProtectedQueue theDoneQ)
+  {
+    m_theWorkQ = theWorkQ;
+    m_theDoneQ = theDoneQ;
+    m_theResetTime = System.nanoTime ();
+  } // constructor ThreadItMetrics
+
+  /**
+   * Method setWorkQ replaces the work queue reported on when the ThreadIt
+   * changes its work queue. The queue counts start again from theWorkQ.
+   */
+  synchronized void setWorkQ (ProtectedQueue theWorkQ)
+  {
+    m_theWorkQInserts = theWorkQ.getInsertCount ();
+    m_theWorkQRemoves = theWorkQ.getRemoveCount ();
+    m_theWorkQ = theWorkQ;
+  } // setWorkQ
+
+  /**
+   * Method register creates the histograms for theInstruction. It is called
+   * when a method is associated with the instruction.
+   */
+  synchronized void register (int theInstruction)
+  {
+    if ((theInstruction >= 0) && (theInstruction <= PERIODIC_INDEX) && (m_theInstructions[theInstruction] == null))
+    {
+      m_theInstructions[theInstruction] = new InstructionMetrics ();
+    } // if
+  } // register
+
+  /**
+   * Method record records the timing of one work package. Values that are
+   * negative are not recorded.<p>
+   * theInstruction : is the work instruction or PERIODIC_INDEX.<p>
+   * theWaitTime    : is the time the package waited in the work queue.<p>
+   * theServiceTime : is the time taken by the worker method.<p>
+   * theEndToEndTime: is the time from queueing to the response being sent.
+   */
+  void record (int theInstruction, long theWaitTime, long theServiceTime, long theEndToEndTime)
+  {
+    InstructionMetrics theMetrics = null;
+
+    if ((theInstruction >= 0) && (theInstruction <= PERIODIC_INDEX))
+    {
+      if ((theInstruction != PERIODIC_INDEX) && (theServiceTime >= 0))
+      {
+        recordRecent (theServiceTime);
+      } // if
+      theMetrics = m_theInstructions[theInstruction];
+      if (theMetrics != null)
+      {
+        if (theWaitTime >= 0)
+        {
+          theMetrics.m_theWaitTime.record (theWaitTime);
+        } // if
+        if (theServiceTime >= 0)
+        {
+          theMetrics.m_theServiceTime.record (theServiceTime);
+        } // if
+        if (theEndToEndTime >= 0)
+        {
+          theMetrics.m_theEndToEndTime.record (theEndToEndTime);
+        } // if
+      } // if
+    } // if
+  } // record
+
+  /**
+   * Method recordRecent moves the average service time an eighth of the
+   * way towards theServiceTime. The first value is taken as it is.
+   */
+  private void recordRecent (long theServiceTime)
+  {
+    long theRecent = m_theRecentServiceTime;
+
+    m_theRecentServiceTime = (theRecent == 0) ? Math.max (1, theServiceTime) :
+                             theRecent + ((theServiceTime - theRecent) >> 3);
+  } // recordRecent
+
+  /**
+   * Method getRecentServiceTime returns a moving average of the time (in
+   * nanoseconds) taken by the worker methods, weighted towards the most
+   * recent work. It returns 0 before any work is performed. Unlike the
+   * histograms it is a single field and is cheap to read from any thread.
+   */
+  public long getRecentServiceTime ()
+  {
+    return m_theRecentServiceTime;
+  } // getRecentServiceTime
+
+  /**
+   * Method getWaitTime returns the histogram of queue wait times for
+   * theInstruction or null if no method is associated with it.
+   */
+  public LatencyHistogram getWaitTime (int theInstruction)
+  {
+    InstructionMetrics theMetrics = getInstruction (theInstruction);
+    return (theMetrics == null) ? null : theMetrics.m_theWaitTime;
+  } // getWaitTime
+
+  /**
+   * Method getServiceTime returns the histogram of worker method execution
+   * times for theInstruction or null if no method is associated with it.
+   */
+  public LatencyHistogram getServiceTime (int theInstruction)
+  {
+    InstructionMetrics theMetrics = getInstruction (theInstruction);
+    return (theMetrics == null) ? null : theMetrics.m_theServiceTime;
+  } // getServiceTime
+
+  /**
+   * Method getEndToEndTime returns the histogram of the times from queueing
+   * to the response being sent for theInstruction or null if no method is
+   * associated with it.
+   */
+  public LatencyHistogram getEndToEndTime (int theInstruction)
+  {
+    InstructionMetrics theMetrics = getInstruction (theInstruction);
+    return (theMetrics == null) ? null : theMetrics.m_theEndToEndTime;
+  } // getEndToEndTime
+
+  /**
+   * Method getWorkQStats returns the statistics of the work queue since the
+   * last reset.
+   */
+  public QueueStats getWorkQStats ()
+  {
+    return new QueueStats (m_theWorkQ, m_theWorkQInserts, m_theWorkQRemoves, m_theResetTime);
+  } // getWorkQStats
+
+  /**
+   * Method getDoneQStats returns the statistics of the work done queue since
+   * the last reset.
+   */
+  public QueueStats getDoneQStats ()
+  {
+    return new QueueStats (m_theDoneQ, m_theDoneQInserts, m_theDoneQRemoves, m_theResetTime);
+  } // getDoneQStats
+
+  /**
+   * Method snapshot returns a copy of all the metrics recorded since the
+   * last reset.<p>
+   * isReset : if true the metrics are reset once the snapshot is taken.
+   */
+  public synchronized Snapshot snapshot (boolean isReset)
+  {
+    Snapshot theSnapshot = new Snapshot ();
+    InstructionMetrics theMetrics = null;
+
+    theSnapshot.m_theWorkQ = getWorkQStats ();
+    theSnapshot.m_theDoneQ = getDoneQStats ();
+    for (int i = 0; i <= PERIODIC_INDEX; i++)
+    {
+      theMetrics = m_theInstructions[i];
+      if (theMetrics != null)
+      {
+        theSnapshot.m_theWaitTime[i] = isReset ? theMetrics.m_theWaitTime.snapshotAndReset () : theMetrics.m_theWaitTime.snapshot ();
+        theSnapshot.m_theServiceTime[i] = isReset ? theMetrics.m_theServiceTime.snapshotAndReset () : theMetrics.m_theServiceTime.snapshot ();
+        theSnapshot.m_theEndToEndTime[i] = isReset ? theMetrics.m_theEndToEndTime.snapshotAndReset () : theMetrics.m_theEndToEndTime.snapshot ();
+      } // if
+    } // for
+    if (isReset)
+    {
+      resetQueues ();
+    } // if
+    return theSnapshot;
+  } // snapshot
+
+  /**
+   * Method reset discards all metrics recorded so far.
+   */
+  public synchronized void reset ()
+  {
+    InstructionMetrics theMetrics = null;
+
+    for (int i = 0; i <= PERIODIC_INDEX; i++)
+    {
+      theMetrics = m_theInstructions[i];
+      if (theMetrics != null)
+      {
+        theMetrics.m_theWaitTime.reset ();
+        theMetrics.m_theServiceTime.reset ();
+        theMetrics.m_theEndToEndTime.reset ();
+      } // if
+    } // for
+    resetQueues ();
+  } // reset
+
+  /**
+   * Method resetQueues starts a new measurement interval for the queues.
+   */
+  private void resetQueues ()
+  {
+    m_theWorkQInserts = m_theWorkQ.getInsertCount ();
+    m_theWorkQRemoves = m_theWorkQ.getRemoveCount ();
+    m_theDoneQInserts = m_theDoneQ.getInsertCount ();
+    m_theDoneQRemoves = m_theDoneQ.getRemoveCount ();
+    m_theWorkQ.resetHighWaterMark ();
+    m_theDoneQ.resetHighWaterMark ();
+    m_theResetTime = System.nanoTime ();
+  } // resetQueues
+
+  /**
+   * Method getInstruction returns the metrics of theInstruction or null.
+   */
+  private InstructionMetrics getInstruction (int theInstruction)
+  {
+    InstructionMetrics theMetrics = null;
+
+    if ((theInstruction >= 0) && (theInstruction <= PERIODIC_INDEX))
+    {
+      theMetrics = m_theInstructions[theInstruction];
+    } // if
+    return theMetrics;
+  } // getInstruction
+
+  /**
+   * Class InstructionMetrics holds the histograms of one instruction.
+   */
+  private static class InstructionMetrics
+  {
+    final LatencyHistogram m_theWaitTime = new LatencyHistogram ();
+    final LatencyHistogram m_theServiceTime = new LatencyHistogram ();
+    final LatencyHistogram m_theEndToEndTime = new LatencyHistogram ();
+  } // class InstructionMetrics
+
+  /**
+   * Class QueueStats is a copy of the statistics of a queue over the
+   * interval since the metrics were last reset.
+   */
+  public static class QueueStats
+  {
+    private final long m_theInserts;
+    private final long m_theRemoves;
+    private final long m_theDepth;
+    private final long m_theHighWaterMark;
+    private final long m_theInterval;
+
+    /**
+     * Method QueueStats is the constructor for the class.
+     */
+    QueueStats (ProtectedQueue theQ, long theBaseInserts, long theBaseRemoves, long theResetTime)
+    {
+      m_theInserts = theQ.getInsertCount () - theBaseInserts;
+      m_theRemoves = theQ.getRemoveCount () - theBaseRemoves;
+      m_theDepth = theQ.getDepth ();
+      m_theHighWaterMark = theQ.getHighWaterMark ();
+      m_theInterval = Math.max (1, System.nanoTime () - theResetTime);
+    } // constructor QueueStats
+
+    /** Method getEnqueueCount returns the number of items enqueued in the interval. */
+    public long getEnqueueCount ()
+    {
+      return m_theInserts;
+    } // getEnqueueCount
+
+    /** Method getDequeueCount returns the number of items dequeued in the interval. */
+    public long getDequeueCount ()
+    {
+      return m_theRemoves;
+    } // getDequeueCount
+
+    /** Method getEnqueueRate returns the items enqueued per second in the interval. */
+    public double getEnqueueRate ()
+    {
+      return (m_theInserts * 1.0e9) / m_theInterval;
+    } // getEnqueueRate
+
+    /** Method getDequeueRate returns the items dequeued per second in the interval. */
+    public double getDequeueRate ()
+    {
+      return (m_theRemoves * 1.0e9) / m_theInterval;
+    } // getDequeueRate
+
+    /** Method getDepth returns the depth of the queue when the copy was made. */
+    public long getDepth ()
+    {
+      return m_theDepth;
+    } // getDepth
+
+    /** Method getHighWaterMark returns the largest depth in the interval. */
+    public long getHighWaterMark ()
+    {
+      return m_theHighWaterMark;
+    } // getHighWaterMark
+
+    /** Method toString returns a one line summary of the statistics. */
+    public String toString ()
+    {
+      return "in=" + m_theInserts + " out=" + m_theRemoves + " depth=" + m_theDepth + " high=" + m_theHighWaterMark
+           + " in/s=" + (long) getEnqueueRate () + " out/s=" + (long) getDequeueRate ();
+    } // toString
+
+  } // class QueueStats
+
+  /**
+   * Class Snapshot is a copy of all the metrics of a ThreadIt. The arrays
+   * are indexed by work instruction with PERIODIC_INDEX holding the
+   * periodic method. Entries are null for instructions without a method.
+   */
+  public static class Snapshot
+  {
+    QueueStats m_theWorkQ = null;
+    QueueStats m_theDoneQ = null;
+    final LatencyHistogram.Snapshot[] m_theWaitTime = new LatencyHistogram.Snapshot[PERIODIC_INDEX + 1];
+    final LatencyHistogram.Snapshot[] m_theServiceTime = new LatencyHistogram.Snapshot[PERIODIC_INDEX + 1];
+    final LatencyHistogram.Snapshot[] m_theEndToEndTime = new LatencyHistogram.Snapshot[PERIODIC_INDEX + 1];
+
+    /** Method getWorkQStats returns the work queue statistics. */
+    public QueueStats getWorkQStats ()
+    {
+      return m_theWorkQ;
+    } // getWorkQStats
+
+    /** Method getDoneQStats returns the work done queue statistics. */
+    public QueueStats getDoneQStats ()
+    {
+      return m_theDoneQ;
+    } // getDoneQStats
+
+    /** Method getWaitTime returns the queue wait times of theInstruction. */
+    public LatencyHistogram.Snapshot getWaitTime (int theInstruction)
+    {
+      return m_theWaitTime[theInstruction];
+    } // getWaitTime
+
+    /** Method getServiceTime returns the service times of theInstruction. */
+    public LatencyHistogram.Snapshot getServiceTime (int theInstruction)
+    {
+      return m_theServiceTime[theInstruction];
+    } // getServiceTime
+
+    /** Method getEndToEndTime returns the end-to-end times of theInstruction. */
+    public LatencyHistogram.Snapshot getEndToEndTime (int theInstruction)
+    {
+      return m_theEndToEndTime[theInstruction];
+    } // getEndToEndTime
+
+  } // class Snapshot
+
+} // class ThreadItMetrics
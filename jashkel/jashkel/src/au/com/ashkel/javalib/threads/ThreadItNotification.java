@@ -0,0 +1,121 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItNotification
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ThreadItNotification is the payload delivered to observers by
+ * ThreadItNotifier.multicast. A single instance is created for each
+ * notification and shared by every observer it is delivered to, so the
+ * instance is immutable and the data it carries must not be modified by
+ * the observers.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Class ThreadItNotification describes a change published by a
+ * ThreadItNotifier. It is found in the m_Object field of the work package
+ * received by each observer.
+ */
+public final class ThreadItNotification
+{
+  /** m_theSequence is the position of the notification in the notifier's sequence. */
+  private final long m_theSequence;
+  /** m_theTime is the time (System.nanoTime) the notification was published. */
+  private final long m_theTime;
+  /** m_wptheSource is the ThreadIt that published the notification or null. */
+  private final WeakReference<ThreadIt> m_wptheSource;
+  /** m_theData is the data describing the change or null. */
+  private final Object m_theData;
+  /** m_theTopic is the topic the notification was published on or null. */
+  private final String m_theTopic;
+
+  /**
+   * Method ThreadItNotification is the constructor for the instance.<p>
+   * theSequence : is the position of the notification in the notifier's sequence.<p>
+   * ptheSource  : is the ThreadIt publishing the notification or null.<p>
+   * theData     : is the data describing the change or null.
+   */
+  public ThreadItNotification (long theSequence, ThreadIt ptheSource, Object theData)
+  {
+    this (theSequence, null, ptheSource, theData);
+  } // ThreadItNotification
+
+  /**
+   * Method ThreadItNotification is the constructor for the instance.<p>
+   * theSequence : is the position of the notification in the notifier's sequence.<p>
+   * theTopic    : is the topic the notification is published on or null.<p>
+   * ptheSource  : is the ThreadIt publishing the notification or null.<p>
+   * theData     : is the data describing the change or null.
+   */
+  public ThreadItNotification (long theSequence, String theTopic, ThreadIt ptheSource, Object theData)
+  {
+    m_theSequence = theSequence;
+    m_theTime = System.nanoTime ();
+    m_wptheSource = (ptheSource == null) ? null : new WeakReference<ThreadIt> (ptheSource);
+    m_theData = theData;
+    m_theTopic = theTopic;
+  } // ThreadItNotification
+
+  public long getSequence ()
+  {
+    return m_theSequence;
+  } // getSequence
+
+  public long getTime ()
+  {
+    return m_theTime;
+  } // getTime
+
+  /**
+   * Method getSource returns the ThreadIt that published the notification.
+   * It returns null if there is no source or the source no longer exists.
+   */
+  public ThreadIt getSource ()
+  {
+    return (m_wptheSource == null) ? null : m_wptheSource.get ();
+  } // getSource
+
+  public Object getData ()
+  {
+    return m_theData;
+  } // getData
+
+  public String getTopic ()
+  {
+    return m_theTopic;
+  } // getTopic
+
+  public String toString ()
+  {
+    return "ThreadItNotification[" + ((m_theTopic == null) ? "" : m_theTopic + ":") + m_theSequence + "] " + m_theData;
+  } // toString
+
+} // class ThreadItNotification
@@ -10,8 +10,10 @@
  * representing the change is transferred to the observer. This is similar to the 
  * java approach.
  * See the CObserver class for the partner class in this pattern.
- * This class uses critical sections to ensure that there are no concurency issues
- * when modifying the observer lists and when updates are presented to observers.
+ * The observers are held in an array that is replaced, never modified, when
+ * observers attach or detach. Notifications iterate over the array current
+ * when they start so no locks are taken and observers may attach or detach
+ * while notifications are being sent.
  *
  * Copyright: Copyright (c) 2008 Ashkel Software 
  * @author Ari Edinburg
@@ -22,157 +24,236 @@
 
 package au.com.ashkel.javalib.threads;
 
-import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class ThreadItNotifier represents the information being monitored for any changes or 
  * updates. Observers can register interest in the subject and will be notified
- * of updates and changes. 
+ * of updates and changes. Observers whose target ThreadIt no longer exists
+ * are removed when a notification finds them.
  */
-class ThreadItNotifier
+public class ThreadItNotifier
 {
-  //typedef std::list<CThreadItObserver> ThreadItObserverList;
+  /** NO_OBSERVERS is the observer array of a notifier with no observers. */
+  private static final ThreadItObserver[] NO_OBSERVERS = new ThreadItObserver[0];
+
   // Attributes
-  /** m_theObserverList is a list of observers that have registered thier interest
+  /** m_theObservers is the array of observers that have registered thier interest
    * in being notified when the subject (information) of interest is changed */
-  protected List<ThreadItObserver> m_theObserverList;
+  private final AtomicReference<ThreadItObserver[]> m_theObservers = new AtomicReference<ThreadItObserver[]> (NO_OBSERVERS);
+  /** m_theSequence is the sequence number of the last multicast notification. */
+  private final AtomicLong m_theSequence = new AtomicLong ();
+  /** m_ptheSource is the ThreadIt reported as the source of multicast notifications. */
+  protected ThreadIt m_ptheSource = null;
+  /** m_theTopic is the topic reported in multicast notifications or null. */
+  protected String m_theTopic = null;
+
+  /** 
+   * Method ThreadItNotifier is the constructor for the instance.
+   */
+  public ThreadItNotifier ()
+  {
+  } // constructor ThreadItNotifier
+
+  /** 
+   * Method ThreadItNotifier is the constructor for the instance.
+   * ptheSource is the ThreadIt reported as the source of multicast notifications.
+   */
+  public ThreadItNotifier (ThreadIt ptheSource)
+  {
+    m_ptheSource = ptheSource;
+  } // constructor ThreadItNotifier
 
   /** 
-   * Method ThreadItNotifier is the constructor for the instance. This implementation creates
-   * a critical section to ensure that there are no concurrency issues when attaching or
-   * detaching or when notifications are sent to interested observers. 
+   * Method ThreadItNotifier is the constructor for the instance.
+   * theTopic is the topic reported in multicast notifications.
    */
-  public ThreadItNotifier()
+  public ThreadItNotifier (String theTopic)
   {
+    m_theTopic = theTopic;
   } // constructor ThreadItNotifier
 
+  /**
+   * Method getTopic returns the topic reported in multicast notifications.
+   */
+  public String getTopic ()
+  {
+    return m_theTopic;
+  } // getTopic
 
   /**
    * Method attach allows an oberver to register it's intent to monitor changes or updates to the 
    * Subject under consideration. While the observer is attached to the subject it will receive
    * update / change notifications. 
-   * ptheObserver is a reference to the observer that wishes to register it's intent to monitor 
-   * changes to the subject. Note that if the ptheObserver is already in the list then the 
-   * ptheObserver observer will not be added again.
+   * theObserver is a reference to the observer that wishes to register it's intent to monitor 
+   * changes to the subject. Note that if theObserver is already in the list then the 
+   * observer will not be added again.
    */
   public void attach (ThreadItObserver theObserver) 
   {
-    // Add the observer to the list if it is not already in the list.
-    boolean isInList = false;
+    ThreadItObserver[] theCurrent = null;
+    ThreadItObserver[] theNext = null;
 
-    Iterator<ThreadItObserver> theIterator = m_theObserverList.iterator ();
-
-    // Check and see if the observer is already in the list or not. 
-    while (theIterator.hasNext ()) 
+    if (theObserver == null)
     {
-      if ((theIterator) == theObserver)
-      {
-        isInList = true;
-        break;
-      } // if 
-    } // for
-    if (!isInList)
+      return;
+    } // if
+    do
     {
-      m_theObserverList.add (theObserver);
-    } // if 
+      theCurrent = m_theObservers.get ();
+      if (indexOf (theCurrent, theObserver) >= 0)
+      {
+        return;
+      } // if
+      theNext = new ThreadItObserver[theCurrent.length + 1];
+      System.arraycopy (theCurrent, 0, theNext, 0, theCurrent.length);
+      theNext[theCurrent.length] = theObserver;
+    } while (!m_theObservers.compareAndSet (theCurrent, theNext));
+  } // attach
+
+  /**
+   * Method attach creates an observer that invokes theWorkInstruction on
+   * ptheThreadIt for each notification, attaches it and returns it.
+   */
+  public ThreadItObserver attach (ThreadIt ptheThreadIt, int theWorkInstruction)
+  {
+    ThreadItObserver theObserver = new ThreadItObserver (m_ptheSource, ptheThreadIt, theWorkInstruction);
+
+    attach (theObserver);
+    return theObserver;
   } // attach
 
   /**
    * Method detach allows an oberver to register it's intent to no longer monitor changes or 
    * updates to the Subject under consideration. 
-   * ptheObserver is a reference to the observer that wishes to register it's intent to stop
+   * theObserver is a reference to the observer that wishes to register it's intent to stop
    * monitoring changes to the subject.
    */
   public void detach (ThreadItObserver theObserver)
   {
-    boolean isInList = false;
-    Iterator<ThreadItObserver> theIterator = m_theObserverList.iterator ();
+    ThreadItObserver[] theCurrent = null;
+    ThreadItObserver[] theNext = null;
+    int theIndex = 0;
 
-    // Find and remove all the observers from the list
     do
     {
-      isInList = false;
-      while (theIterator.hasNext ()) 
-      {
-        if ((theIterator) == theObserver)
-        {
-          isInList = true;
-          break;
-        } // if 
-      } // for
-      if (isInList)
+      theCurrent = m_theObservers.get ();
+      theIndex = indexOf (theCurrent, theObserver);
+      if (theIndex < 0)
       {
-        m_theObserverList.remove (theIterator);
-      } // if 
-    } while (isInList);
+        return;
+      } // if
+      theNext = new ThreadItObserver[theCurrent.length - 1];
+      System.arraycopy (theCurrent, 0, theNext, 0, theIndex);
+      System.arraycopy (theCurrent, theIndex + 1, theNext, theIndex, theNext.length - theIndex);
+    } while (!m_theObservers.compareAndSet (theCurrent, theNext));
   } // detach
 
   /**
    * Method removeObservers removes all observers that have attached to this subject.
    */
-  void removeObservers ()
+  public void removeObservers ()
   {
-    // Find and remove the observer from the list
-    m_theObserverList.clear ();
+    m_theObservers.set (NO_OBSERVERS);
   } // removeObservers
 
   /**
    * Method cleanExpiredObservers removes all observers that have expired. 
+   * The method returns the number of observers removed.
    */
-  public void cleanExpiredObservers ()
+  public int cleanExpiredObservers ()
   {
-    boolean isExpired = false;
-    Iterator<ThreadItObserver> theIterator = m_theObserverList.iterator ();
+    ThreadItObserver[] theCurrent = null;
+    ThreadItObserver[] theNext = null;
+    int theValidCount = 0;
 
-    // Find and remove all the observers from the list
     do
     {
-      isExpired = false;
-      while (theIterator.hasNext ()) 
+      theCurrent = m_theObservers.get ();
+      theNext = new ThreadItObserver[theCurrent.length];
+      theValidCount = 0;
+      for (int i = 0; i < theCurrent.length; i++)
       {
-        if (((ThreadItObserver) theIterator).isValid () == false)
+        if (theCurrent[i].isValid ())
         {
-          isExpired = true;
-          break;
-        } // if 
+          theNext[theValidCount++] = theCurrent[i];
+        } // if
       } // for
-      if (isExpired)
+      if (theValidCount == theCurrent.length)
       {
-        detach ((ThreadItObserver)theIterator);
-      } // if 
-    } while (isExpired);
+        return 0;
+      } // if
+      theNext = trim (theNext, theValidCount);
+    } while (!m_theObservers.compareAndSet (theCurrent, theNext));
+    return theCurrent.length - theValidCount;
   } // cleanExpiredObservers
 
   /**
-   * Method notifyOnUpdate is used to notify all interestd observers of updates to this subject.
-   * When this method is called observers are notified by the OnUpdate method that they have 
-   * implemented being invoked. This method will supply a reference to this subject that has changed.
-   * This approach is normally used to provide a reference to instances that extend from ThreadItNotifier.
-   * NOTE: as this method is called within a critical section no calls to attach or detach should be
-   * made.
+   * Method doNotify is used to notify all interested observers of updates to this subject.
+   * Each observer receives its work instruction with no data. The method
+   * returns the number of observers notified.
    */ 
-  public void doNotify ()
+  public int doNotify ()
   {
-    Iterator<ThreadItObserver> theIterator = m_theObserverList.iterator ();
+    ThreadItObserver[] theObservers = m_theObservers.get ();
+    int theCount = 0;
 
     // Notify all the observers to update themselves
-    while (theIterator.hasNext ()) 
+    for (int i = 0; i < theObservers.length; i++)
     {
-      ((ThreadItObserver)theIterator).notify ();
+      if (theObservers[i].doNotify ())
+      {
+        theCount++;
+      } // if
     } // for
+    pruneIfExpired (theObservers.length, theCount);
+    return theCount;
+  } // doNotify
+
+  /**
+   * Method notify sends theObject to all interested observers. See multicast.
+   */
+  public int notify (Cloneable theObject)
+  {
+    return multicast (theObject);
   } // notify
 
-  public void notify (Cloneable theObject)
+  /**
+   * Method multicast sends theData to all interested observers. A single
+   * ThreadItNotification carrying theData is created and shared by all the
+   * observers so theData must not be modified once it has been sent. The
+   * method returns the number of observers notified.
+   */
+  public int multicast (Object theData)
   {
-    Iterator<ThreadItObserver> theIterator = m_theObserverList.iterator ();
+    return multicast (m_ptheSource, theData);
+  } // multicast
 
-    // Notify all the observers to update themselves
-    while (theIterator.hasNext ()) 
+  /**
+   * Method multicast sends theData to all interested observers reporting
+   * ptheSource as the source of the notification. See multicast (Object).
+   */
+  public int multicast (ThreadIt ptheSource, Object theData)
+  {
+    ThreadItObserver[] theObservers = m_theObservers.get ();
+    ThreadItNotification theNotification = null;
+    int theCount = 0;
+
+    if (theObservers.length > 0)
     {
-      ((ThreadItObserver)theIterator).notify ();
-    } // for
-  } // notify
+      theNotification = new ThreadItNotification (m_theSequence.incrementAndGet (), m_theTopic, ptheSource, theData);
+      for (int i = 0; i < theObservers.length; i++)
+      {
+        if (theObservers[i].deliver (theNotification))
+        {
+          theCount++;
+        } // if
+      } // for
+      pruneIfExpired (theObservers.length, theCount);
+    } // if
+    return theCount;
+  } // multicast
 
   /**
    * Method getNumberOfObservers returns the number of observers currently interested in updates
@@ -180,8 +261,61 @@ class ThreadItNotifier
    */
   public int getNumberOfObservers ()
   {
-    return (int)m_theObserverList.size ();
+    return m_theObservers.get ().length;
   } // getNumberOfObservers
 
-} // class ThreadItNotifier
+  /**
+   * Method getObservers returns the observers currently attached. The array
+   * returned is a snapshot and must not be modified.
+   */
+  public ThreadItObserver[] getObservers ()
+  {
+    return m_theObservers.get ();
+  } // getObservers
 
+  /**
+   * Method pruneIfExpired removes expired observers when a notification
+   * reached fewer observers than were attached.
+   */
+  private void pruneIfExpired (int theObserverCount, int theNotifiedCount)
+  {
+    if (theNotifiedCount < theObserverCount)
+    {
+      cleanExpiredObservers ();
+    } // if
+  } // pruneIfExpired
+
+  /**
+   * Method indexOf returns the position of theObserver in theObservers or -1.
+   */
+  private static int indexOf (ThreadItObserver[] theObservers, ThreadItObserver theObserver)
+  {
+    int theIndex = -1;
+
+    for (int i = 0; i < theObservers.length; i++)
+    {
+      if (theObservers[i] == theObserver)
+      {
+        theIndex = i;
+        break;
+      } // if
+    } // for
+    return theIndex;
+  } // indexOf
+
+  /**
+   * Method trim returns the first theLength observers in theObservers.
+   */
+  private static ThreadItObserver[] trim (ThreadItObserver[] theObservers, int theLength)
+  {
+    ThreadItObserver[] theResult = NO_OBSERVERS;
+
+    if (theLength > 0)
+    {
+      theResult = new ThreadItObserver[theLength];
+      System.arraycopy (theObservers, 0, theResult, 0, theLength);
+    } // if
+    return theResult;
+  } // trim
+
+} // class ThreadItNotifier
@@ -45,178 +45,191 @@ import java.lang.ref.WeakReference;
  * being observed. The inheriting class registers its interest by 
  * by attaching to a subject. When the subject or information relating to
  * the subject changes the onUpdate or onChange methods are invoked asynchronously.
+ * The target is held by a weak reference so an observer does not keep its
+ * target alive. Once the target has been collected the observer is no longer
+ * valid and is pruned by the ThreadItNotifier it is attached to.
  */
-class ThreadItObserver
+public class ThreadItObserver
 {
-	// Protected member variables
-	
-		/** m_theWorkInstruction is the work instruction at the target. */
+  // Protected member variables
+
+  /** m_theWorkInstruction is the work instruction at the target. */
   protected int m_theWorkInstruction;
-		/** m_wptheThreadIt is the target for the notification. */ 
+  /** m_wptheThreadIt is the target for the notification. */ 
   protected WeakReference<ThreadIt> m_wptheThreadIt;
-		/** m_wptheSource is the source - the initiator of the notification. */ 
+  /** m_wptheSource is the source - the initiator of the notification. */ 
   protected WeakReference<ThreadIt> m_wptheSource;
 
-		/** 
-  	 * Method CThreadItObserver is the constructor for the instance. This is an empty
-	   * implementation.
-		 */
-	  public ThreadItObserver ()
-	  {
-	    m_theWorkInstruction = 0;
-	  } // constructor ThreadItObserver
-		/** 
-  	 * Method CThreadItObserver is the constructor for the instance. 
-		 * ptheSource specifies the source of the notification. If this is set then
-		 * the work request to the target will have this information attached. 
-		 */
-		public ThreadItObserver (ThreadIt ptheSource)
-		{
-		  m_wptheSource = new WeakReference (ptheSource);		  
-		}
-		/** 
-		 * Method CThreadItObserver is the constructor for the instance. 
-		 * ptheThreadIt is the target CThreadIt 
-		 * theWorkInstruction is the work instruction at the target CThreadIt
-		 */
-		public ThreadItObserver (ThreadIt ptheThreadIt, int theWorkInstruction)
-		{
-		  m_theWorkInstruction = theWorkInstruction;
-		  m_wptheThreadIt = new WeakReference (ptheThreadIt);;
-		}
-		/** 
-		 * Method CThreadItObserver is the constructor for the instance. 
-		 * ptheSource specifies the source of the notification. If this is set then
-		 * the work request to the target will have this information attached. 
-		 * ptheThreadIt is the target CThreadIt 
-		 * theWorkInstruction is the work instruction at the target CThreadIt
-		 */
-		public ThreadItObserver (ThreadIt ptheSource, ThreadIt ptheThreadIt, int theWorkInstruction)
-		{
-		  m_theWorkInstruction = theWorkInstruction;
-      m_wptheThreadIt = new WeakReference (ptheThreadIt);;
-      m_wptheSource = new WeakReference (ptheSource);     
-		}
-
-		
-	// Methods
-		/**
-			// Do something about loosely held memory. This should be a shared pointer or weakref.
-		 */
-	  public boolean getTarget (ThreadIt ptheThreadIt, int theWorkInstruction)
-	  {
-
-	    boolean isGood = false;
-
-	    theWorkInstruction = m_theWorkInstruction;
-	    ptheThreadIt = m_wptheThreadIt.get ();
-	    isGood = (ptheThreadIt != null);
-	    return isGood;
-
-	  }// getTarget
-	  
-  
-	  public boolean isEqual (ThreadItObserver theOther)
-	  {
-	    boolean isEqual = false;
-
-
-	    ThreadIt sptheThreadIt = m_wptheThreadIt.get ();
-	    ThreadIt sptheThreadItOther = theOther.m_wptheThreadIt.get ();
-  if ((sptheThreadIt != null) && (sptheThreadItOther != null))
+  /** 
+   * Method CThreadItObserver is the constructor for the instance. This is an empty
+   * implementation.
+   */
+  public ThreadItObserver ()
+  {
+    m_theWorkInstruction = 0;
+  } // constructor ThreadItObserver
+
+  /** 
+   * Method CThreadItObserver is the constructor for the instance. 
+   * ptheSource specifies the source of the notification. If this is set then
+   * the work request to the target will have this information attached. 
+   */
+  public ThreadItObserver (ThreadIt ptheSource)
+  {
+    m_wptheSource = new WeakReference<ThreadIt> (ptheSource);
+  } // constructor ThreadItObserver
+
+  /** 
+   * Method CThreadItObserver is the constructor for the instance. 
+   * ptheThreadIt is the target CThreadIt 
+   * theWorkInstruction is the work instruction at the target CThreadIt
+   */
+  public ThreadItObserver (ThreadIt ptheThreadIt, int theWorkInstruction)
+  {
+    m_theWorkInstruction = theWorkInstruction;
+    m_wptheThreadIt = new WeakReference<ThreadIt> (ptheThreadIt);
+  } // constructor ThreadItObserver
+
+  /** 
+   * Method CThreadItObserver is the constructor for the instance. 
+   * ptheSource specifies the source of the notification. If this is set then
+   * the work request to the target will have this information attached. 
+   * ptheThreadIt is the target CThreadIt 
+   * theWorkInstruction is the work instruction at the target CThreadIt
+   */
+  public ThreadItObserver (ThreadIt ptheSource, ThreadIt ptheThreadIt, int theWorkInstruction)
+  {
+    m_theWorkInstruction = theWorkInstruction;
+    m_wptheThreadIt = new WeakReference<ThreadIt> (ptheThreadIt);
+    m_wptheSource = new WeakReference<ThreadIt> (ptheSource);
+  } // constructor ThreadItObserver
+
+  // Methods
+
+  /**
+   * Method getTarget returns true if the target of the observer still exists.
+   * Java passes parameters by value so ptheThreadIt and theWorkInstruction
+   * are not updated. Use getTarget () and getWorkInstruction () instead.
+   */
+  public boolean getTarget (ThreadIt ptheThreadIt, int theWorkInstruction)
+  {
+    return isValid ();
+  } // getTarget
+
+  /**
+   * Method isEqual returns true if theOther observer has the same target as
+   * this observer.
+   */
+  public boolean isEqual (ThreadItObserver theOther)
   {
-    if (sptheThreadIt == sptheThreadItOther)
+    boolean isEqual = false;
+    ThreadIt sptheThreadIt = getTarget ();
+    ThreadIt sptheThreadItOther = theOther.getTarget ();
+
+    if ((sptheThreadIt != null) && (sptheThreadItOther != null))
     {
-      isEqual = true;
+      if (sptheThreadIt == sptheThreadItOther)
+      {
+        isEqual = true;
+      } // if 
     } // if 
-  } // if 
-  return isEqual;
-	  }// isEqual
-
-	  
-		public ThreadIt getTarget ()
-		{
-		  return m_wptheThreadIt.get ();		  
-		}
-		
-		public boolean doNotify ()
-    {
-		  boolean isSuccess = false;
-
-		  ThreadIt sptheThreadIt = m_wptheThreadIt.get ();
-		  if (sptheThreadIt != null)
-		  {
-		    ThreadItMessage aWorkMessage = new ThreadItMessage (m_theWorkInstruction);
-		    aWorkMessage.setSourceInfo(m_wptheSource, 0);
-		    aWorkMessage.sendWithNoReplyTo (sptheThreadIt);
-		    isSuccess = true;
-		  } // if 
-		  return isSuccess;
+    return isEqual;
+  } // isEqual
+
+  /**
+   * Method getTarget returns the target of the notifications or null if the
+   * target no longer exists.
+   */
+  public ThreadIt getTarget ()
+  {
+    return (m_wptheThreadIt == null) ? null : m_wptheThreadIt.get ();
+  } // getTarget
+
+  /**
+   * Method getWorkInstruction returns the work instruction invoked at the
+   * target by a notification.
+   */
+  public int getWorkInstruction ()
+  {
+    return m_theWorkInstruction;
+  } // getWorkInstruction
+
+  /**
+   * Method doNotify sends a notification without data to the target.
+   * The method returns false if the target no longer exists.
+   */
+  public boolean doNotify ()
+  {
+    return send (m_theWorkInstruction, null);
+  } // doNotify
+
+  /**
+   * Method notify sends ptheObject to the target. The object is not copied.
+   * The method returns false if the target no longer exists.
+   */
+  public boolean notify (Cloneable ptheObject)
+  {
+    return send (m_theWorkInstruction, ptheObject);
+  } // notify
+
+  /**
+   * Method notify sends a notification without data to the target using
+   * theWorkInstruction. The method returns false if the target no longer exists.
+   */
+  public boolean notify (int theWorkInstruction)
+  {
+    return send (theWorkInstruction, null);
+  } // notify
+
+  /**
+   * Method notify sends ptheObject to the target using theWorkInstruction.
+   * The object is not copied. The method returns false if the target no
+   * longer exists.
+   */
+  public boolean notify (Cloneable ptheObject, int theWorkInstruction)
+  {
+    return send (theWorkInstruction, ptheObject);
+  } // notify
+
+  /**
+   * Method deliver sends theNotification to the target. The notification is
+   * shared with every other observer it is delivered to. The method returns
+   * false if the target no longer exists.
+   */
+  public boolean deliver (ThreadItNotification theNotification)
+  {
+    return send (m_theWorkInstruction, theNotification);
+  } // deliver
 
-    }
+  /**
+   * Method isValid returns true if the target of the observer still exists.
+   */
+  public boolean isValid ()
+  {
+    return (getTarget () != null);
+  } // isValid
+
+  /**
+   * Method send starts theWorkInstruction at the target with theData as the
+   * work package object. No reply is requested. The method returns false if
+   * the target no longer exists.
+   */
+  protected boolean send (int theWorkInstruction, Object theData)
+  {
+    boolean isSuccess = false;
+    WorkPackIt theWorkPack = null;
+    ThreadIt sptheThreadIt = getTarget ();
 
-		public boolean notify (Cloneable ptheObject)
-    {
-		  boolean isSuccess = false;
-
-		  ThreadIt sptheThreadIt = m_wptheThreadIt.get ();
-		  if (sptheThreadIt != null)
-		  {
-		    ThreadItMessage aWorkMessage = new ThreadItMessage (m_theWorkInstruction);
-		    aWorkMessage.getWork ().m_ptheObject = null; //ptheObject.clone ();
-		    aWorkMessage.setSourceInfo(m_wptheSource, 0);
-		    aWorkMessage.sendWithNoReplyTo (sptheThreadIt);
-		    isSuccess = true;
-		  } // if 
-		  return isSuccess;
-      
-    }
-		
-		public boolean notify (int theWorkInstruction)
-    {
-		  boolean notify = false;
-
-		  ThreadIt sptheThreadIt = m_wptheThreadIt.get ();
-		  if (sptheThreadIt != null)
-		  {
-		    ThreadItMessage aWorkMessage = new ThreadItMessage (theWorkInstruction);
-		    aWorkMessage.setSourceInfo(m_wptheSource, 0);
-		    aWorkMessage.sendWithNoReplyTo (sptheThreadIt);
-		    notify = true;
-		  } // if 
-		  return notify;      
-    }
-		
-		public boolean notify (Cloneable ptheObject, int theWorkInstruction)
+    if (sptheThreadIt != null)
     {
-		  boolean notify = false;
-
-		  ThreadIt sptheThreadIt = m_wptheThreadIt.get ();
-		  if (sptheThreadIt != null)
-		  {
-		    ThreadItMessage aWorkMessage = new ThreadItMessage (theWorkInstruction);
-		    aWorkMessage.getWork ().m_ptheObject = null; // ptheObject.clone ();
-		    aWorkMessage.setSourceInfo(m_wptheSource, 0);
-		    aWorkMessage.sendWithNoReplyTo (sptheThreadIt);
-		    notify = true;
-		  } // if 
-		  return notify;
-      
-    }
-		
-		public boolean isValid () //  returns if the reference held is good.
-    {
-		  boolean isGood = false;
-		  ThreadIt thePtr = null;
-
-		  thePtr = m_wptheThreadIt.get (); 
-		  if (thePtr != null)
-		  {
-		    isGood = true;
-		  } // if 
-		  return isGood;
-      
-    }
-		
+      theWorkPack = new WorkPackIt ();
+      theWorkPack.m_Instruction = theWorkInstruction;
+      theWorkPack.m_Object = theData;
+      theWorkPack.m_wptheSource = m_wptheSource;
+      sptheThreadIt.startWork (theWorkPack);
+      isSuccess = true;
+    } // if 
+    return isSuccess;
+  } // send
 
 } // class ThreadItObserver
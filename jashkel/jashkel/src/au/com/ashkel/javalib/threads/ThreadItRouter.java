@@ -0,0 +1,173 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : ThreadItRouter
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class ThreadItRouter forwards work packages to the ThreadIt and work
+ * instruction that their work instruction is routed to in a
+ * ThreadItWorkTargets route table. The work package is forwarded as it is,
+ * with only its work instruction changed, so routing a message allocates
+ * nothing and the reply carries the identity the requester was given. The route table in use is replaced atomically, so routes can be
+ * changed while messages are being routed.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class ThreadItRouter routes work packages using a route table. Lookups
+ * read the current table without locking. Changes are made to a copy of
+ * the table which then replaces the current one, so a table in use is
+ * never modified. A router can be given to a ThreadIt with setRouter to
+ * forward the work instructions the ThreadIt has no method for.
+ */
+public class ThreadItRouter
+{
+  /** m_theRoutes is the route table in use. It is never modified. */
+  private volatile ThreadItWorkTargets m_theRoutes = new ThreadItWorkTargets ();
+  /** m_theRoutedCount is the number of work packages forwarded. */
+  private final AtomicLong m_theRoutedCount = new AtomicLong ();
+  /** m_theUnroutedCount is the number of work packages that had no route. */
+  private final AtomicLong m_theUnroutedCount = new AtomicLong ();
+
+  public ThreadItRouter ()
+  {
+  } // ThreadItRouter
+
+  /**
+   * Method ThreadItRouter creates a router using a copy of theRoutes.
+   */
+  public ThreadItRouter (ThreadItWorkTargets theRoutes)
+  {
+    setRoutes (theRoutes);
+  } // ThreadItRouter
+
+  /**
+   * Method setRoutes replaces the route table with a copy of theRoutes.
+   * Work packages routed after the call use the new table. The table is
+   * swapped under the same lock as setRoute and removeRoute so that no
+   * change is lost.
+   */
+  public synchronized void setRoutes (ThreadItWorkTargets theRoutes)
+  {
+    m_theRoutes = new ThreadItWorkTargets (theRoutes);
+  } // setRoutes
+
+  /**
+   * Method getRoutes returns a copy of the route table in use.
+   */
+  public ThreadItWorkTargets getRoutes ()
+  {
+    return new ThreadItWorkTargets (m_theRoutes);
+  } // getRoutes
+
+  /**
+   * Method setRoute routes theSelectorInstruction to theDestinationInstruction
+   * at ptheDestination. The route table is copied, changed and swapped in.
+   */
+  public synchronized void setRoute (long theSelectorInstruction, long theDestinationInstruction, ThreadIt ptheDestination)
+  {
+    ThreadItWorkTargets theRoutes = new ThreadItWorkTargets (m_theRoutes);
+
+    theRoutes.setWorkTarget (theSelectorInstruction, theDestinationInstruction, ptheDestination);
+    m_theRoutes = theRoutes;
+  } // setRoute
+
+  /**
+   * Method removeRoute removes the route for theSelectorInstruction. The
+   * route table is copied, changed and swapped in.
+   */
+  public synchronized void removeRoute (long theSelectorInstruction)
+  {
+    ThreadItWorkTargets theRoutes = new ThreadItWorkTargets (m_theRoutes);
+
+    if (theRoutes.removeWorkTarget (theSelectorInstruction))
+    {
+      m_theRoutes = theRoutes;
+    } // if
+  } // removeRoute
+
+  /**
+   * Method route forwards theWorkPack to the destination of its work
+   * instruction. The work instruction of theWorkPack is changed to the
+   * destination work instruction and its identity and reply settings are
+   * left as they are, so the destination replies to the original requester.
+   * Events are not routed. The method returns false if there is no route.
+   */
+  public boolean route (WorkPackIt theWorkPack)
+  {
+    return route (theWorkPack, null);
+  } // route
+
+  /**
+   * Method route forwards theWorkPack, which was started at ptheOrigin, to
+   * the destination of its work instruction. A reply to the default work
+   * done queue is redirected to the work done queue of ptheOrigin so that
+   * it reaches the requester waiting there. The method returns false if
+   * there is no route.
+   */
+  public boolean route (WorkPackIt theWorkPack, ThreadIt ptheOrigin)
+  {
+    ThreadItWorkTargets.WorkTargetType theWorkTarget = null;
+    boolean isRouted = false;
+
+    if (!theWorkPack.isEvent ())
+    {
+      theWorkTarget = m_theRoutes.getWorkTarget (theWorkPack.m_Instruction);
+    } // if
+    if ((theWorkTarget != null) && (theWorkTarget.m_ptheDestination != null))
+    {
+      theWorkPack.m_Instruction = (int) theWorkTarget.m_theDestWorkInstruction;
+      if ((ptheOrigin != null) && (theWorkPack.m_UseDefaultQ))
+      {
+        theWorkPack.m_UseDefaultQ = false;
+        theWorkPack.m_WorkDoneQ = ptheOrigin.getWorkDoneQ ();
+      } // if
+      theWorkTarget.m_ptheDestination.forwardWork (theWorkPack);
+      m_theRoutedCount.incrementAndGet ();
+      isRouted = true;
+    }
+    else
+    {
+      m_theUnroutedCount.incrementAndGet ();
+    } // if
+    return isRouted;
+  } // route
+
+  public long getRoutedCount ()
+  {
+    return m_theRoutedCount.get ();
+  } // getRoutedCount
+
+  public long getUnroutedCount ()
+  {
+    return m_theUnroutedCount.get ();
+  } // getUnroutedCount
+
+} // class ThreadItRouter
@@ -19,195 +19,304 @@
 /** Package */
 package au.com.ashkel.javalib.threads;
 
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
+import java.util.Arrays;
 
 /**
- * class ThreadItWorkTargets 
+ * Class ThreadItWorkTargets is a route table that maps a selector work
+ * instruction to a destination ThreadIt and the work instruction to invoke
+ * at the destination. The selectors are kept in a primitive long array
+ * using open addressing with linear probing, so a lookup neither boxes the
+ * selector nor allocates. The entries themselves are immutable and can be
+ * shared between tables. A table is not safe for concurrent modification;
+ * see ThreadItRouter for a table that is swapped atomically while in use.
  */
-class ThreadItWorkTargets
+public class ThreadItWorkTargets
 {
-	public class WorkTargetType
-	{
-		long m_theSelectWorkInstruction;
-		long m_theDestWorkInstruction;
-		ThreadIt m_ptheDestination;
-	} // class WorkTargetType;
+  /** DEFAULT_CAPACITY is the initial number of slots in a table. */
+  private static final int DEFAULT_CAPACITY = 16;
+  /** HASH_MULTIPLIER spreads the selector bits over the slot index. */
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  /**
+   * Class WorkTargetType is a single route. It is immutable.
+   */
+  public static class WorkTargetType
+  {
+    final long m_theSelectWorkInstruction;
+    final long m_theDestWorkInstruction;
+    final ThreadIt m_ptheDestination;
+
+    public WorkTargetType (long theSelectorInstruction, long theDestinationInstruction, ThreadIt ptheDestination)
+    {
+      m_theSelectWorkInstruction = theSelectorInstruction;
+      m_theDestWorkInstruction = theDestinationInstruction;
+      m_ptheDestination = ptheDestination;
+    } // constructor WorkTargetType
+
+    public long getSelectorInstruction ()
+    {
+      return m_theSelectWorkInstruction;
+    } // getSelectorInstruction
+
+    public long getDestinationInstruction ()
+    {
+      return m_theDestWorkInstruction;
+    } // getDestinationInstruction
 
-	Map<Long, WorkTargetType> m_theWorkTargets;
+    public ThreadIt getDestination ()
+    {
+      return m_ptheDestination;
+    } // getDestination
+  } // class WorkTargetType
+
+  /** m_theSelectors is the selector held in each slot. */
+  private long[] m_theSelectors;
+  /** m_theWorkTargets is the route held in each slot or null for an empty slot. */
+  private WorkTargetType[] m_theWorkTargets;
+  /** m_theSize is the number of routes in the table. */
+  private int m_theSize = 0;
 
   public ThreadItWorkTargets ()
-	{
-	} // constructor CThreadItWorkTargets
-
-	public ThreadItWorkTargets (long theSelectorInstruction, long theDestinationInstruction, ThreadIt ptheDestination)
-	{
-		WorkTargetType pWorkTarget = new WorkTargetType ();
-		pWorkTarget.m_theSelectWorkInstruction = theSelectorInstruction;
-		pWorkTarget.m_theDestWorkInstruction = theDestinationInstruction;
-		pWorkTarget.m_ptheDestination = ptheDestination;
-		m_theWorkTargets.put (new Long (theSelectorInstruction), pWorkTarget);
-	} // constructor CThreadItWorkTargets
-
-	public void setWorkTarget (long theSelectorInstruction, long theDestinationInstruction, ThreadIt ptheDestination)
-	{
-		WorkTargetType pWorkTarget = null;
-		
-		pWorkTarget =	 m_theWorkTargets.get (new Long (theSelectorInstruction));
-		if (pWorkTarget != null)
-		{
-			pWorkTarget = null;
-		} // if 
-		pWorkTarget = new WorkTargetType ();
-		pWorkTarget.m_theSelectWorkInstruction = theSelectorInstruction;
-		pWorkTarget.m_theDestWorkInstruction = theDestinationInstruction;
-		pWorkTarget.m_ptheDestination = ptheDestination;
-		m_theWorkTargets.put(new Long (theSelectorInstruction), pWorkTarget);
-	} // setWorkTarget
-
-	public void setWorkTarget (WorkTargetType theWorkTarget)
-	{
-		m_theWorkTargets.put(new Long (theWorkTarget.m_theSelectWorkInstruction), theWorkTarget);
-	} // setWorkTarget
-
-	public void getWorkTarget (long theSelectorInstruction, long theDestinationInstruction, ThreadIt ptheDestination)
-	{
-		WorkTargetType pWorkTarget = null;
-		
-		pWorkTarget =	 m_theWorkTargets.get(new Long (theSelectorInstruction));
-		if (pWorkTarget != null)
-		{
-			theDestinationInstruction = pWorkTarget.m_theDestWorkInstruction;
-			ptheDestination = pWorkTarget.m_ptheDestination;
-		} // if 
-	} // getWorkTarget
-
-	public WorkTargetType getWorkTarget (long theSelectorInstruction)
-	{
-		WorkTargetType pWorkTarget = null;
-		WorkTargetType pWorkTargetResult = null;
-		
-		pWorkTarget =	 m_theWorkTargets.get(new Long (theSelectorInstruction)); 
-		if (pWorkTarget != null)
-		{
-			pWorkTargetResult = pWorkTarget;
-		} // if 
-		return pWorkTargetResult;
-	} // getWorkTarget
-
-		/**
-		 * Method operator+ supports the concatenation of two data buffers.
-		 * The data sequence of the second buffer is added to the data
-		 * sequence of the first buffer.
-		 * theBuffer is the data buffer whose bytes are to be added.
-		 * The method returns the combination of the byte sequence in the
-		 * two buffers.
-		 */
-	public ThreadItWorkTargets plus (ThreadItWorkTargets theWorkTargets)
-	{
-		WorkTargetType aWorkTarget = null;
-		ThreadItWorkTargets ptheTargets = new ThreadItWorkTargets ();
-
-		// Copy the bytes in the current buffer to the new buffer.
-		if (!m_theWorkTargets.isEmpty ())
-		{
-		  Iterator<Long> theIter = m_theWorkTargets.keySet().iterator();
-			while (theIter.hasNext ())
-			{
-			  Long aKey = theIter.next ();
-				aWorkTarget = m_theWorkTargets.get (aKey);
-				if (aWorkTarget != null)
-				{
-					ptheTargets.setWorkTarget (aWorkTarget);
-				} // if 
-			} // for
-		} // if 
-			// Add the bytes from the supplied buffer into the new buffer.
-		if (!theWorkTargets.m_theWorkTargets.isEmpty ())
-		{
-      Iterator<Long> theIter = theWorkTargets.m_theWorkTargets.keySet().iterator();
-      while (theIter.hasNext ())
+  {
+    this (DEFAULT_CAPACITY);
+  } // constructor CThreadItWorkTargets
+
+  /**
+   * Method ThreadItWorkTargets creates a table with room for theCapacity
+   * routes before it grows.
+   */
+  public ThreadItWorkTargets (int theCapacity)
+  {
+    int theSlots = DEFAULT_CAPACITY;
+
+    while (theSlots < (theCapacity * 2))
+    {
+      theSlots <<= 1;
+    } // while
+    m_theSelectors = new long[theSlots];
+    m_theWorkTargets = new WorkTargetType[theSlots];
+  } // constructor CThreadItWorkTargets
+
+  public ThreadItWorkTargets (long theSelectorInstruction, long theDestinationInstruction, ThreadIt ptheDestination)
+  {
+    this ();
+    setWorkTarget (theSelectorInstruction, theDestinationInstruction, ptheDestination);
+  } // constructor CThreadItWorkTargets
+
+  /**
+   * Method ThreadItWorkTargets creates a copy of theWorkTargets.
+   */
+  public ThreadItWorkTargets (ThreadItWorkTargets theWorkTargets)
+  {
+    m_theSelectors = theWorkTargets.m_theSelectors.clone ();
+    m_theWorkTargets = theWorkTargets.m_theWorkTargets.clone ();
+    m_theSize = theWorkTargets.m_theSize;
+  } // constructor CThreadItWorkTargets
+
+  /**
+   * Method setWorkTarget routes theSelectorInstruction to
+   * theDestinationInstruction at ptheDestination, replacing any existing
+   * route for the selector.
+   */
+  public void setWorkTarget (long theSelectorInstruction, long theDestinationInstruction, ThreadIt ptheDestination)
+  {
+    setWorkTarget (new WorkTargetType (theSelectorInstruction, theDestinationInstruction, ptheDestination));
+  } // setWorkTarget
+
+  public void setWorkTarget (WorkTargetType theWorkTarget)
+  {
+    int theSlot = 0;
+
+    if ((m_theSize + 1) * 2 > m_theSelectors.length)
+    {
+      resize (m_theSelectors.length * 2);
+    } // if
+    theSlot = find (theWorkTarget.m_theSelectWorkInstruction);
+    if (m_theWorkTargets[theSlot] == null)
+    {
+      m_theSize++;
+    } // if
+    m_theSelectors[theSlot] = theWorkTarget.m_theSelectWorkInstruction;
+    m_theWorkTargets[theSlot] = theWorkTarget;
+  } // setWorkTarget
+
+  /**
+   * Method getWorkTarget returns the route for theSelectorInstruction or
+   * null if there is none. The lookup does not allocate.
+   */
+  public WorkTargetType getWorkTarget (long theSelectorInstruction)
+  {
+    return m_theWorkTargets[find (theSelectorInstruction)];
+  } // getWorkTarget
+
+  /**
+   * Method getDestination returns the destination for theSelectorInstruction
+   * or null if there is no route.
+   */
+  public ThreadIt getDestination (long theSelectorInstruction)
+  {
+    WorkTargetType theWorkTarget = getWorkTarget (theSelectorInstruction);
+
+    return (theWorkTarget == null) ? null : theWorkTarget.m_ptheDestination;
+  } // getDestination
+
+  /**
+   * Method getDestinationInstruction returns the work instruction at the
+   * destination for theSelectorInstruction or -1 if there is no route.
+   */
+  public long getDestinationInstruction (long theSelectorInstruction)
+  {
+    WorkTargetType theWorkTarget = getWorkTarget (theSelectorInstruction);
+
+    return (theWorkTarget == null) ? -1 : theWorkTarget.m_theDestWorkInstruction;
+  } // getDestinationInstruction
+
+  /**
+   * Method removeWorkTarget removes the route for theSelectorInstruction.
+   * The method returns true if there was a route to remove.
+   */
+  public boolean removeWorkTarget (long theSelectorInstruction)
+  {
+    int theMask = m_theSelectors.length - 1;
+    int theFree = find (theSelectorInstruction);
+    int theNext = 0;
+    int theHome = 0;
+
+    if (m_theWorkTargets[theFree] == null)
+    {
+      return false;
+    } // if
+    // Shift back the entries that follow in the probe sequence so that no
+    // entry is left behind the empty slot.
+    theNext = (theFree + 1) & theMask;
+    while (m_theWorkTargets[theNext] != null)
+    {
+      theHome = slotOf (m_theSelectors[theNext], theMask);
+      if (((theNext - theHome) & theMask) >= ((theNext - theFree) & theMask))
       {
-        Long aKey = theIter.next ();
-        aWorkTarget = m_theWorkTargets.get (aKey);        
-				if (aWorkTarget != null)
-				{
-					ptheTargets.setWorkTarget (aWorkTarget);
-				} // if 
-			} // for
-		} // if 
-			// Return the concatenated work targets.
-		return ptheTargets;
-	} // operator+
-
-		/**
-		 * Method operator= supports the assignment of the specified data
-		 * buffer to the target data buffer. All data bytes associated with the
-		 * target data buffer will be lost.
-		 * theBuffer is the data buffer whose bytes are to be assigned to the
-		 * target buffer.
-		 */
-	public ThreadItWorkTargets setEqualTo (ThreadItWorkTargets theWorkTargets)
-		{
-			WorkTargetType aWorkTarget = null;
-
-			// Clear all the data from the target buffer.
-			m_theWorkTargets.clear ();
-			// Copy all the data from the supplied buffer into the target buffer.
-			if (!theWorkTargets.m_theWorkTargets.isEmpty ())
-			{
-	      Iterator<Long> theIter = theWorkTargets.m_theWorkTargets.keySet().iterator();
-	      while (theIter.hasNext ())
-	      {
-	        Long aKey = theIter.next ();
-	        aWorkTarget = theWorkTargets.m_theWorkTargets.get (aKey);
-					if (aWorkTarget != null)
-					{
-						setWorkTarget (aWorkTarget);
-					} // if 
-				} // for
-			} // if 
-			return this;
-		} // operator=
-
-	/**
-	 * Method size is called to return the number of bytes currently
-	 * contained in the data buffer.
-	 */
-
-	public int size ()
-	{
-		return m_theWorkTargets.size ();
-	} // size
-
-	/**
-	 * Method reset is called to clear the data buffer of all elements. This allows
-	 * the data buffer to be re-used without having to be re-created.
-	 */
-	public void reset ()
-	{
-		WorkTargetType pWorkTarget = null;
-
-		if (!m_theWorkTargets.isEmpty ())
-		{
-      Iterator<Long> theIter = m_theWorkTargets.keySet().iterator();
-      while (theIter.hasNext ())
+        m_theSelectors[theFree] = m_theSelectors[theNext];
+        m_theWorkTargets[theFree] = m_theWorkTargets[theNext];
+        theFree = theNext;
+      } // if
+      theNext = (theNext + 1) & theMask;
+    } // while
+    m_theWorkTargets[theFree] = null;
+    m_theSelectors[theFree] = 0;
+    m_theSize--;
+    return true;
+  } // removeWorkTarget
+
+  /**
+   * Method getWorkTargets returns the routes in the table.
+   */
+  public WorkTargetType[] getWorkTargets ()
+  {
+    WorkTargetType[] theResult = new WorkTargetType[m_theSize];
+    int theCount = 0;
+
+    for (int i = 0; i < m_theWorkTargets.length; i++)
+    {
+      if (m_theWorkTargets[i] != null)
       {
-        Long aKey = theIter.next ();
-        pWorkTarget = m_theWorkTargets.get (aKey);
-				if (pWorkTarget != null)
-				{
-					pWorkTarget = null;
-				} // if 
-			} // for
-			m_theWorkTargets.clear ();
-		} // if 
-	} // reset;
+        theResult[theCount++] = m_theWorkTargets[i];
+      } // if
+    } // for
+    return theResult;
+  } // getWorkTargets
 
-} // class ThreadItWorkTargets
+  /**
+   * Method plus returns a new table holding the routes of this table and
+   * those of theWorkTargets. Where both tables route the same selector the
+   * route in theWorkTargets is used.
+   */
+  public ThreadItWorkTargets plus (ThreadItWorkTargets theWorkTargets)
+  {
+    ThreadItWorkTargets ptheTargets = new ThreadItWorkTargets (this);
+    WorkTargetType[] theOthers = theWorkTargets.getWorkTargets ();
+
+    for (int i = 0; i < theOthers.length; i++)
+    {
+      ptheTargets.setWorkTarget (theOthers[i]);
+    } // for
+    return ptheTargets;
+  } // plus
+
+  /**
+   * Method setEqualTo replaces the routes in this table with those of
+   * theWorkTargets.
+   */
+  public ThreadItWorkTargets setEqualTo (ThreadItWorkTargets theWorkTargets)
+  {
+    if (theWorkTargets != this)
+    {
+      m_theSelectors = theWorkTargets.m_theSelectors.clone ();
+      m_theWorkTargets = theWorkTargets.m_theWorkTargets.clone ();
+      m_theSize = theWorkTargets.m_theSize;
+    } // if
+    return this;
+  } // setEqualTo
+
+  /**
+   * Method size returns the number of routes in the table.
+   */
+  public int size ()
+  {
+    return m_theSize;
+  } // size
 
+  /**
+   * Method reset removes all the routes from the table.
+   */
+  public void reset ()
+  {
+    Arrays.fill (m_theWorkTargets, null);
+    Arrays.fill (m_theSelectors, 0);
+    m_theSize = 0;
+  } // reset
 
+  /**
+   * Method find returns the slot holding theSelector or the empty slot
+   * where it would be placed.
+   */
+  private int find (long theSelector)
+  {
+    int theMask = m_theSelectors.length - 1;
+    int theSlot = slotOf (theSelector, theMask);
+
+    while ((m_theWorkTargets[theSlot] != null) && (m_theSelectors[theSlot] != theSelector))
+    {
+      theSlot = (theSlot + 1) & theMask;
+    } // while
+    return theSlot;
+  } // find
+
+  /**
+   * Method slotOf returns the first slot probed for theSelector.
+   */
+  private static int slotOf (long theSelector, int theMask)
+  {
+    long theHash = theSelector * HASH_MULTIPLIER;
+
+    return (int) (theHash ^ (theHash >>> 32)) & theMask;
+  } // slotOf
+
+  /**
+   * Method resize moves the routes into a table of theSlots slots.
+   */
+  private void resize (int theSlots)
+  {
+    WorkTargetType[] theOld = m_theWorkTargets;
+
+    m_theSelectors = new long[theSlots];
+    m_theWorkTargets = new WorkTargetType[theSlots];
+    m_theSize = 0;
+    for (int i = 0; i < theOld.length; i++)
+    {
+      if (theOld[i] != null)
+      {
+        setWorkTarget (theOld[i]);
+      } // if
+    } // for
+  } // resize
+
+} // class ThreadItWorkTargets
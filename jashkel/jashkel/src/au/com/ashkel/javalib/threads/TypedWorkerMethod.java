@@ -0,0 +1,56 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : TypedWorkerMethod
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface TypedWorkerMethod is a worker method with a typed input and
+ * output that is registered with a ThreadIt without reflection.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Interface TypedWorkerMethod does the work for a work instruction
+ * registered with ThreadIt.setWorkerMethod (int, Class, TypedWorkerMethod).
+ * The ThreadIt checks the input before the method is called, so the method
+ * is only given an input of type I. It is called on the thread of the
+ * ThreadIt like any other worker method.
+ */
+public interface TypedWorkerMethod<I, O>
+{
+
+  /**
+   * Method doWork does the work and returns its result.<p>
+   * theInput    : is the input of the work. It is null only for a method
+   *               registered with an input type of Void.<p>
+   * theWorkPack : is the work package being done. The method may set its
+   *               m_Status; it is returned as the reply.
+   */
+  public O doWork (I theInput, WorkPackIt theWorkPack);
+
+} // interface TypedWorkerMethod
@@ -0,0 +1,234 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WaitStrategy
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class WaitStrategy is the base class for the strategies a ThreadIt uses
+ * to wait for the next work package to arrive in its work queue. Blocking
+ * in the queue costs a park on the consumer side and an unpark on the
+ * producer side for every message that arrives after an idle gap. The
+ * spinning strategies trade processor time for lower latency by polling
+ * the queue before (or instead of) blocking on it.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class WaitStrategy defines how the consumer thread of a ThreadIt waits on
+ * a ProtectedQueue. An instance keeps statistics of how the waits were
+ * satisfied so that the cost of the strategy can be observed. An instance
+ * should be used by a single ThreadIt only.
+ */
+public abstract class WaitStrategy
+{
+  /**
+   * ON_SPIN_WAIT is the handle to Thread.onSpinWait when the runtime
+   * provides it (Java 9 onwards) and null otherwise.
+   */
+  private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait ();
+
+  /** m_theWaitCount is the number of waits requested of the strategy. */
+  protected final AtomicLong m_theWaitCount = new AtomicLong ();
+  /** m_theSpinCount is the number of waits satisfied while spinning. */
+  protected final AtomicLong m_theSpinCount = new AtomicLong ();
+  /** m_theYieldCount is the number of waits satisfied while yielding. */
+  protected final AtomicLong m_theYieldCount = new AtomicLong ();
+  /** m_theParkCount is the number of times the consumer blocked in the queue. */
+  protected final AtomicLong m_theParkCount = new AtomicLong ();
+  /**
+   * m_theWakeupCount is the number of blocking waits that ended with an
+   * item. Each one required a producer to wake the parked consumer.
+   */
+  protected final AtomicLong m_theWakeupCount = new AtomicLong ();
+
+  /**
+   * Method waitItem waits for an item to arrive in theQ and removes it.<p>
+   * theQ        : is the queue to wait on.<p>
+   * theWaitTime : is the time (in milliseconds) to wait for an item.<p>
+   * The method returns the item retrieved or null if the wait timed out.
+   */
+  public abstract Object waitItem (ProtectedQueue theQ, long theWaitTime);
+
+  /**
+   * Method getName returns a short description of the strategy used for
+   * logging and management purposes.
+   */
+  public abstract String getName ();
+
+  /**
+   * Method getWaitCount returns the number of waits requested.
+   */
+  public long getWaitCount ()
+  {
+    return m_theWaitCount.get ();
+  } // getWaitCount
+
+  /**
+   * Method getSpinCount returns the number of waits that were satisfied
+   * while the consumer was spinning.
+   */
+  public long getSpinCount ()
+  {
+    return m_theSpinCount.get ();
+  } // getSpinCount
+
+  /**
+   * Method getYieldCount returns the number of waits that were satisfied
+   * while the consumer was yielding the processor.
+   */
+  public long getYieldCount ()
+  {
+    return m_theYieldCount.get ();
+  } // getYieldCount
+
+  /**
+   * Method getParkCount returns the number of times the consumer blocked
+   * in the queue.
+   */
+  public long getParkCount ()
+  {
+    return m_theParkCount.get ();
+  } // getParkCount
+
+  /**
+   * Method getProducerWakeupCount returns the number of times a producer
+   * had to wake the parked consumer to deliver an item. This is the
+   * producer side cost of the strategy: each wakeup is an unpark of the
+   * consumer thread performed on the thread inserting the item.
+   */
+  public long getProducerWakeupCount ()
+  {
+    return m_theWakeupCount.get ();
+  } // getProducerWakeupCount
+
+  /**
+   * Method resetCounts clears the statistics kept by the strategy.
+   */
+  public void resetCounts ()
+  {
+    m_theWaitCount.set (0);
+    m_theSpinCount.set (0);
+    m_theYieldCount.set (0);
+    m_theParkCount.set (0);
+    m_theWakeupCount.set (0);
+  } // resetCounts
+
+  /**
+   * Method parkItem blocks in theQ for the time remaining and records the
+   * park and any wakeup that results from it.<p>
+   * theWaitTime : is the time (in milliseconds) to block for.
+   */
+  protected Object parkItem (ProtectedQueue theQ, long theWaitTime)
+  {
+    Object anItem = null;
+
+    m_theParkCount.incrementAndGet ();
+    anItem = theQ.waitItem (theWaitTime);
+    if (anItem != null)
+    {
+      m_theWakeupCount.incrementAndGet ();
+    } // if
+    return anItem;
+  } // parkItem
+
+  /**
+   * Method toDeadline converts a wait time in milliseconds to a deadline
+   * measured against System.nanoTime. Wait times too large to represent
+   * (such as ThreadIt.THREADIT_INFINITE) return Long.MAX_VALUE.
+   */
+  protected static long toDeadline (long theWaitTime)
+  {
+    long theDeadline = Long.MAX_VALUE;
+
+    if (theWaitTime < (Long.MAX_VALUE / 2000000L))
+    {
+      theDeadline = System.nanoTime () + (theWaitTime * 1000000L);
+    } // if
+    return theDeadline;
+  } // toDeadline
+
+  /**
+   * Method remainingTime returns the number of milliseconds to theDeadline
+   * rounded up so that a short remainder still results in a wait.
+   */
+  protected static long remainingTime (long theDeadline)
+  {
+    long theRemaining = ThreadIt.THREADIT_INFINITE;
+
+    if (theDeadline != Long.MAX_VALUE)
+    {
+      theRemaining = (theDeadline - System.nanoTime () + 999999L) / 1000000L;
+    } // if
+    return theRemaining;
+  } // remainingTime
+
+  /**
+   * Method onSpinWait hints to the processor that the caller is in a spin
+   * loop. It calls Thread.onSpinWait when available and does nothing on
+   * runtimes that do not provide it.
+   */
+  protected static void onSpinWait ()
+  {
+    if (ON_SPIN_WAIT != null)
+    {
+      try
+      {
+        ON_SPIN_WAIT.invokeExact ();
+      } // try
+      catch (Throwable anException)
+      {
+        // The hint has no failure modes. Nothing to do.
+      } // catch
+    } // if
+  } // onSpinWait
+
+  /**
+   * Method findOnSpinWait looks up Thread.onSpinWait so that the library
+   * still runs on a Java 8 runtime.
+   */
+  private static MethodHandle findOnSpinWait ()
+  {
+    MethodHandle theHandle = null;
+
+    try
+    {
+      theHandle = MethodHandles.lookup ().findStatic (Thread.class, "onSpinWait", MethodType.methodType (void.class));
+    } // try
+    catch (Exception anException)
+    {
+      theHandle = null;
+    } // catch
+    return theHandle;
+  } // findOnSpinWait
+
+} // class WaitStrategy
@@ -127,6 +127,12 @@ public class WorkPackIt implements Cloneable
    * automatically. The value returned is in milliseconds.
    */
   public long m_TimeElapsed;
+  /**
+   * m_EnqueueTime is the System.nanoTime value recorded when the work
+   * package was placed in the work queue of a ThreadIt. It is used to
+   * measure the time the package waited before its work was started.
+   */
+  public long m_EnqueueTime;
   /**
    * m_Status returns the operation status of the work performed.
    */
@@ -136,6 +142,42 @@ public class WorkPackIt implements Cloneable
   public ThreadIt m_ptheSource;
   public int m_theReplyInstructionId;
   protected boolean m_isEvent = false;
+  /**
+   * m_isStealable is set to true if the work package may be performed by
+   * another member of a work stealing group than the one it was sent to.
+   * Only work that does not need to be performed in order should be marked
+   * as stealable.
+   */
+  public boolean m_isStealable;
+  /**
+   * m_theConflationKey is set to conflate the work package in a
+   * ConflatingQueue. A pending work package with the same instruction and
+   * an equal key is replaced by this one. A null key is never conflated.
+   */
+  public Object m_theConflationKey;
+  /**
+   * m_ReplyTimeToLive is the time (in milliseconds) the reply to the work
+   * package may wait in a work done queue before it is discarded. A value
+   * of zero uses the time to live of the ThreadIt, if it has one.
+   */
+  public long m_ReplyTimeToLive;
+  /**
+   * m_ReplyDeadline is the System.nanoTime value after which the reply is
+   * discarded by an ExpiringQueue. It is set when the reply is sent. A
+   * value of zero means the reply does not expire.
+   */
+  public long m_ReplyDeadline;
+  /**
+   * m_Failure is the exception thrown by the work method the last time it
+   * did the work, or null if it did not throw. It is set on the work
+   * package and so on the reply a ThreadIt sends when the work fails.
+   */
+  public Throwable m_Failure;
+  /**
+   * m_RetryCount is the number of times a ThreadIt has retried the work
+   * after it failed (see RetryPolicy).
+   */
+  public int m_RetryCount;
 
   /**
    * Method WorkPackIt is the constructor for the class. The method sets the
@@ -161,6 +203,7 @@ public class WorkPackIt implements Cloneable
     m_Object       = theOriginal.m_Object;
     m_TimeAllowed  = theOriginal.m_TimeAllowed;
     m_TimeElapsed  = theOriginal.m_TimeElapsed;
+    m_EnqueueTime  = theOriginal.m_EnqueueTime;
     m_Status       = theOriginal.m_Status;
     m_NotifyWithCallback = theOriginal.m_NotifyWithCallback;
     
@@ -169,6 +212,12 @@ public class WorkPackIt implements Cloneable
     m_ptheSource = theOriginal.m_ptheSource;
     m_theReplyInstructionId = theOriginal.m_theReplyInstructionId;
     m_isEvent = theOriginal.m_isEvent;
+    m_isStealable = theOriginal.m_isStealable;
+    m_theConflationKey = theOriginal.m_theConflationKey;
+    m_ReplyTimeToLive = theOriginal.m_ReplyTimeToLive;
+    m_ReplyDeadline = theOriginal.m_ReplyDeadline;
+    m_Failure = theOriginal.m_Failure;
+    m_RetryCount = theOriginal.m_RetryCount;
   } // method WorkPackIt
 
   /**
@@ -186,6 +235,7 @@ public class WorkPackIt implements Cloneable
     m_Object       = null;
     m_TimeAllowed  = 0;
     m_TimeElapsed  = 0;
+    m_EnqueueTime  = 0;
     m_Status       = 0;
     m_NotifyWithCallback = false;
     
@@ -194,6 +244,12 @@ public class WorkPackIt implements Cloneable
     m_ptheSource = null;
     m_theReplyInstructionId = 0;
     m_isEvent = false;
+    m_isStealable = false;
+    m_theConflationKey = null;
+    m_ReplyTimeToLive = 0;
+    m_ReplyDeadline = 0;
+    m_Failure = null;
+    m_RetryCount = 0;
   } // method initialise
 
   /**
@@ -213,6 +269,7 @@ public class WorkPackIt implements Cloneable
     theClone.m_Object             = m_Object;
     theClone.m_TimeAllowed        = m_TimeAllowed;
     theClone.m_TimeElapsed        = m_TimeElapsed;
+    theClone.m_EnqueueTime        = m_EnqueueTime;
     theClone.m_Status             = m_Status;
     theClone.m_NotifyWithCallback = m_NotifyWithCallback;
     
@@ -221,6 +278,12 @@ public class WorkPackIt implements Cloneable
     theClone.m_ptheSource = m_ptheSource;
     theClone.m_theReplyInstructionId  = m_theReplyInstructionId;
     theClone.m_isEvent = m_isEvent;
+    theClone.m_isStealable = m_isStealable;
+    theClone.m_theConflationKey = m_theConflationKey;
+    theClone.m_ReplyTimeToLive = m_ReplyTimeToLive;
+    theClone.m_ReplyDeadline = m_ReplyDeadline;
+    theClone.m_Failure = m_Failure;
+    theClone.m_RetryCount = m_RetryCount;
     // Return the results of the copy operation.
     return theClone;
   } // method initialise
@@ -259,4 +322,33 @@ public class WorkPackIt implements Cloneable
     return (m_Object != null);
   } // hasObj
 
+  /**
+   * Method isReused returns true if the work package is a slot of a
+   * WorkPackRing, which is used again once the work is done. Such a work
+   * package is copied before it is kept beyond the work.
+   */
+  public boolean isReused ()
+  {
+    return false;
+  } // isReused
+
+  /**
+   * Method isIdentityKept returns true if the work package must be taken
+   * from a queue as the instance it was queued as, such as a reused work
+   * package or the control work of a ThreadIt. A queue that encodes work
+   * keeps such a work package on the heap.
+   */
+  boolean isIdentityKept ()
+  {
+    return isReused ();
+  } // isIdentityKept
+
+  /**
+   * Method release is called by the ThreadIt once it is done with the work
+   * package so that a reused work package can be used again.
+   */
+  void release ()
+  {
+  } // release
+
 } // class WorkPackIt
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WorkPackItTyped
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class WorkPackItTyped is a work package whose input and output have
+ * declared types, so that they are read without casts.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Class WorkPackItTyped is a WorkPackIt with an input of type I and an
+ * output of type O. The input is held in m_Object, so the work package is
+ * queued, conflated and checked as any other. The output is held apart from
+ * the input so the issuer can read both from the reply.<p>
+ * A work package sent to a TypedWorkerMethod is returned as its own reply,
+ * so neither the work package nor a copy of it is created for the reply.
+ */
+public class WorkPackItTyped<I, O> extends WorkPackIt
+{
+  /** m_theOutput is the result of the work or null until it is done. */
+  private O m_theOutput = null;
+
+  public WorkPackItTyped ()
+  {
+    super ();
+  } // WorkPackItTyped
+
+  /**
+   * Method WorkPackItTyped creates a work package for theInstruction with
+   * theInput that returns its result to the default work done queue.
+   */
+  public WorkPackItTyped (int theInstruction, I theInput)
+  {
+    super ();
+    setWorkInstruction (theInstruction);
+    m_Object = theInput;
+    m_SendResult = true;
+  } // WorkPackItTyped
+
+  public WorkPackItTyped (WorkPackIt theOriginal)
+  {
+    super (theOriginal);
+  } // WorkPackItTyped
+
+  /**
+   * Method getInput returns the input of the work. The input is the
+   * m_Object of the work package, which must only be set to an I.
+   */
+  @SuppressWarnings ("unchecked")
+  public I getInput ()
+  {
+    return (I) m_Object;
+  } // getInput
+
+  public void setInput (I theInput)
+  {
+    m_Object = theInput;
+  } // setInput
+
+  public O getOutput ()
+  {
+    return m_theOutput;
+  } // getOutput
+
+  public void setOutput (O theOutput)
+  {
+    m_theOutput = theOutput;
+  } // setOutput
+
+  /**
+   * Method setResult sets the output from a TypedWorkerMethod. The cast is
+   * unchecked: the output is only checked if the worker was registered with
+   * an output type, and the O of the work package itself cannot be checked
+   * once erased, so the issuer must send work of the type the worker
+   * returns.
+   */
+  @SuppressWarnings ("unchecked")
+  void setResult (Object theOutput)
+  {
+    m_theOutput = (O) theOutput;
+  } // setResult
+
+  public void initialise ()
+  {
+    super.initialise ();
+    m_theOutput = null;
+  } // initialise
+
+  public Object clone ()
+  {
+    WorkPackItTyped<I, O> theClone = new WorkPackItTyped<I, O> ((WorkPackIt) super.clone ());
+    theClone.m_theOutput = m_theOutput;
+    // Return the results of the copy operation.
+    return theClone;
+  } // clone
+
+} // class WorkPackItTyped
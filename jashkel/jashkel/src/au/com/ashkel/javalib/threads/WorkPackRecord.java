@@ -0,0 +1,297 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WorkPackRecord
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class WorkPackRecord writes work packages as compact binary records and
+ * reads them back.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class WorkPackRecord is the binary form of a work package used by the
+ * queues that hold work outside the heap. A record is the length of the
+ * rest of the record, the flags, the instruction, the reply instruction,
+ * the identity, the enqueue time, the time allowed, the reply time to live,
+ * the number of times the work has been retried and the bytes of m_Object
+ * written by a PayloadCodec.<p>
+ * Only a plain WorkPackIt whose other fields are not set can be recorded.
+ * Anything else is written as a reference record, which marks the place
+ * of an item the queue holds on the heap.<p>
+ * An instance encodes one record at a time: prepare the item and then
+ * write it. It is not thread safe.
+ */
+class WorkPackRecord
+{
+  /** Logger for this class */
+  private static final Logger m_theLogger = Logger.getLogger (WorkPackRecord.class);
+
+  /** LENGTH_SIZE is the size of the length that starts a record. */
+  static final int LENGTH_SIZE = 4;
+  /** HEADER_SIZE is the size of a record without its length and payload. */
+  static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 8 + 8 + 4;
+  /** RETRY_COUNT_OFFSET is where the retry count is in a record. */
+  private static final int RETRY_COUNT_OFFSET = 48;
+
+  private static final int FLAG_SEND_RESULT = 1;
+  private static final int FLAG_USE_DEFAULT_Q = 2;
+  private static final int FLAG_NOTIFY = 4;
+  private static final int FLAG_STEALABLE = 8;
+  private static final int FLAG_PAYLOAD = 16;
+  private static final int FLAG_REFERENCE = 32;
+
+  /** m_theCodec encodes the objects of the work packages or is null. */
+  private final PayloadCodec m_theCodec;
+  /** m_theMaxPayload is the largest payload in bytes. */
+  private final int m_theMaxPayload;
+  /** m_theScratch is the buffer a payload is encoded into. */
+  private ByteBuffer m_theScratch = ByteBuffer.allocate (256);
+  /** m_theWorkPack is the prepared work package or null for a reference. */
+  private WorkPackIt m_theWorkPack = null;
+  /** m_theFlags are the flags of the prepared record. */
+  private int m_theFlags = 0;
+
+  /**
+   * Method WorkPackRecord creates records whose objects are encoded with
+   * theCodec, which may be null, into no more than theMaxPayload bytes.
+   */
+  WorkPackRecord (PayloadCodec theCodec, int theMaxPayload)
+  {
+    m_theCodec = theCodec;
+    m_theMaxPayload = theMaxPayload;
+  } // WorkPackRecord
+
+  /**
+   * Method prepare encodes anItem ready to be written. The method returns
+   * true if anItem is recorded in full and false if it is prepared as a
+   * reference record.
+   */
+  boolean prepare (Object anItem)
+  {
+    m_theWorkPack = isEncodable (anItem) ? (WorkPackIt) anItem : null;
+    m_theFlags = FLAG_REFERENCE;
+    if ((m_theWorkPack != null) && (m_theWorkPack.m_Object != null) && (!encodePayload (m_theWorkPack.m_Object)))
+    {
+      m_theWorkPack = null;
+    } // if
+    if (m_theWorkPack != null)
+    {
+      m_theFlags = (m_theWorkPack.m_Object != null) ? FLAG_PAYLOAD : 0;
+      m_theFlags |= m_theWorkPack.m_SendResult ? FLAG_SEND_RESULT : 0;
+      m_theFlags |= m_theWorkPack.m_UseDefaultQ ? FLAG_USE_DEFAULT_Q : 0;
+      m_theFlags |= m_theWorkPack.m_NotifyWithCallback ? FLAG_NOTIFY : 0;
+      m_theFlags |= m_theWorkPack.m_isStealable ? FLAG_STEALABLE : 0;
+    } // if
+    return (m_theWorkPack != null);
+  } // prepare
+
+  /**
+   * Method getSize returns the size in bytes of the prepared record
+   * including its length.
+   */
+  int getSize ()
+  {
+    return LENGTH_SIZE + HEADER_SIZE + (((m_theFlags & FLAG_PAYLOAD) != 0) ? m_theScratch.remaining () : 0);
+  } // getSize
+
+  /**
+   * Method write writes the prepared record to theBuffer at thePosition.
+   * The position of theBuffer is changed.
+   */
+  void write (ByteBuffer theBuffer, int thePosition)
+  {
+    theBuffer.putInt (thePosition, getSize () - LENGTH_SIZE);
+    theBuffer.putInt (thePosition + 4, m_theFlags);
+    if (m_theWorkPack != null)
+    {
+      theBuffer.putInt (thePosition + 8, m_theWorkPack.m_Instruction);
+      theBuffer.putInt (thePosition + 12, m_theWorkPack.m_theReplyInstructionId);
+      theBuffer.putLong (thePosition + 16, m_theWorkPack.m_WorkPackID);
+      theBuffer.putLong (thePosition + 24, m_theWorkPack.m_EnqueueTime);
+      theBuffer.putLong (thePosition + 32, m_theWorkPack.m_TimeAllowed);
+      theBuffer.putLong (thePosition + 40, m_theWorkPack.m_ReplyTimeToLive);
+      theBuffer.putInt (thePosition + RETRY_COUNT_OFFSET, m_theWorkPack.m_RetryCount);
+      if ((m_theFlags & FLAG_PAYLOAD) != 0)
+      {
+        theBuffer.position (thePosition + LENGTH_SIZE + HEADER_SIZE);
+        theBuffer.put (m_theScratch.duplicate ());
+      } // if
+    } // if
+  } // write
+
+  /**
+   * Method getSize returns the size in bytes, including its length, of the
+   * record in theBuffer at thePosition.
+   */
+  static int getSize (ByteBuffer theBuffer, int thePosition)
+  {
+    return LENGTH_SIZE + theBuffer.getInt (thePosition);
+  } // getSize
+
+  /**
+   * Method setRetryCount sets the retry count of the record in theBuffer at
+   * thePosition, which must not be a reference record, to theRetryCount.
+   */
+  static void setRetryCount (ByteBuffer theBuffer, int thePosition, int theRetryCount)
+  {
+    theBuffer.putInt (thePosition + RETRY_COUNT_OFFSET, theRetryCount);
+  } // setRetryCount
+
+  /**
+   * Method checksum adds the bytes of the record in theBuffer at
+   * thePosition to theChecksum, leaving out the retry count, which is
+   * written again in place (see setRetryCount).
+   */
+  static void checksum (CRC32 theChecksum, ByteBuffer theBuffer, int thePosition)
+  {
+    ByteBuffer theBytes = theBuffer.duplicate ();
+
+    theBytes.limit (thePosition + RETRY_COUNT_OFFSET).position (thePosition);
+    theChecksum.update (theBytes);
+    theBytes.limit (thePosition + getSize (theBuffer, thePosition)).position (thePosition + RETRY_COUNT_OFFSET + 4);
+    theChecksum.update (theBytes);
+  } // checksum
+
+  /**
+   * Method isReference returns true if the record in theBuffer at
+   * thePosition is a reference record.
+   */
+  static boolean isReference (ByteBuffer theBuffer, int thePosition)
+  {
+    return ((theBuffer.getInt (thePosition + 4) & FLAG_REFERENCE) != 0);
+  } // isReference
+
+  /**
+   * Method read returns a new work package decoded from the record in
+   * theBuffer at thePosition, which must not be a reference record. The
+   * position and limit of theBuffer are changed.
+   */
+  WorkPackIt read (ByteBuffer theBuffer, int thePosition)
+  {
+    int theFlags = theBuffer.getInt (thePosition + 4);
+    WorkPackIt theWorkPack = new WorkPackIt ();
+
+    theWorkPack.m_Instruction = theBuffer.getInt (thePosition + 8);
+    theWorkPack.m_theReplyInstructionId = theBuffer.getInt (thePosition + 12);
+    theWorkPack.m_WorkPackID = theBuffer.getLong (thePosition + 16);
+    theWorkPack.m_EnqueueTime = theBuffer.getLong (thePosition + 24);
+    theWorkPack.m_TimeAllowed = theBuffer.getLong (thePosition + 32);
+    theWorkPack.m_ReplyTimeToLive = theBuffer.getLong (thePosition + 40);
+    theWorkPack.m_RetryCount = theBuffer.getInt (thePosition + RETRY_COUNT_OFFSET);
+    theWorkPack.m_SendResult = ((theFlags & FLAG_SEND_RESULT) != 0);
+    theWorkPack.m_UseDefaultQ = ((theFlags & FLAG_USE_DEFAULT_Q) != 0);
+    theWorkPack.m_NotifyWithCallback = ((theFlags & FLAG_NOTIFY) != 0);
+    theWorkPack.m_isStealable = ((theFlags & FLAG_STEALABLE) != 0);
+    if ((theFlags & FLAG_PAYLOAD) != 0)
+    {
+      theBuffer.limit (thePosition + getSize (theBuffer, thePosition));
+      theBuffer.position (thePosition + LENGTH_SIZE + HEADER_SIZE);
+      try
+      {
+        theWorkPack.m_Object = m_theCodec.decode (theBuffer);
+      }
+      catch (RuntimeException anException)
+      {
+        m_theLogger.error ("decode", anException);
+      }
+      finally
+      {
+        theBuffer.clear ();
+      } // finally
+    } // if
+    return theWorkPack;
+  } // read
+
+  /**
+   * Method isEncodable returns true if anItem is a plain work package
+   * whose fields that are set can all be recorded and that need not be
+   * taken as the same instance.
+   */
+  private boolean isEncodable (Object anItem)
+  {
+    boolean isEncodable = (anItem != null) && (anItem.getClass () == WorkPackIt.class);
+
+    if (isEncodable)
+    {
+      WorkPackIt theWorkPack = (WorkPackIt) anItem;
+      isEncodable = (!theWorkPack.isIdentityKept ()) &&
+                    (theWorkPack.m_Callback == null) && (theWorkPack.m_WorkDoneQ == null) &&
+                    (theWorkPack.m_ptheSource == null) && (theWorkPack.m_wptheSource == null) &&
+                    (theWorkPack.m_ptheObject == null) && (theWorkPack.m_theConflationKey == null) &&
+                    (theWorkPack.m_Status == 0) && (theWorkPack.m_TimeElapsed == 0) &&
+                    (theWorkPack.m_ReplyDeadline == 0) && (theWorkPack.m_Failure == null) &&
+                    ((theWorkPack.m_Object == null) || (m_theCodec != null));
+    } // if
+    return isEncodable;
+  } // isEncodable
+
+  /**
+   * Method encodePayload encodes theObject into the scratch buffer, which it
+   * grows as needed up to the largest payload. The method returns false if
+   * theObject cannot be encoded.
+   */
+  private boolean encodePayload (Object theObject)
+  {
+    boolean isEncoded = false;
+    boolean isDone = false;
+
+    while (!isDone)
+    {
+      m_theScratch.clear ();
+      try
+      {
+        m_theCodec.encode (theObject, m_theScratch);
+        m_theScratch.flip ();
+        isEncoded = true;
+        isDone = true;
+      }
+      catch (BufferOverflowException anException)
+      {
+        isDone = (m_theScratch.capacity () >= m_theMaxPayload);
+        if (!isDone)
+        {
+          m_theScratch = ByteBuffer.allocate (Math.min (m_theScratch.capacity () * 2, m_theMaxPayload));
+        } // if
+      }
+      catch (RuntimeException anException)
+      {
+        m_theLogger.debug ("encode", anException);
+        isDone = true;
+      } // catch
+    } // while
+    return isEncoded;
+  } // encodePayload
+
+} // class WorkPackRecord
@@ -0,0 +1,439 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WorkPackRing
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class WorkPackRing is a work queue of preallocated work package slots
+ * that producers fill in place, so that messages are sent without
+ * allocation.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class WorkPackRing is a work queue for high rate messaging. It holds a
+ * ring of work packages that are allocated once and used again. Work is
+ * sent in three steps:<p>
+ * <pre>
+ *   long theSequence = theRing.claim ();
+ *   WorkPackIt theSlot = theRing.getSlot (theSequence);
+ *   theSlot.setWorkInstruction (...); theSlot.m_Object = ...;
+ *   theRing.publish (theSequence);
+ * </pre>
+ * The slot is reset when it is claimed, so it asks for no reply unless the
+ * producer sets m_SendResult or m_NotifyWithCallback. The ThreadIt using
+ * the ring as its work queue (see ThreadIt.setWorkQ) takes the slots in
+ * sequence order and releases each once the work is done. A reply or a
+ * routed work package is a copy of the slot, so only work that asks for
+ * neither is sent without allocation.<p>
+ * Any number of threads may produce. A producer claiming a slot that has
+ * not been released waits for the consumer, spinning, then yielding and
+ * then parking, so the consumer must never claim from its own ring. A
+ * claim with a wait time gives up with -1 once it has waited that long.
+ * There must be one consumer only. A slot released ahead of the slots
+ * taken before it is held until they are released too, and a slot
+ * released twice is rejected. The ThreadIt releases the slots it leaves
+ * in the ring when it is stopped or drained, returning copies of them.
+ * Work inserted with insertItem or insertPriorityItem, such as the control
+ * work of the ThreadIt, is held in the queue this class extends and is
+ * taken before the slots. get, remove and the iterator only see that work.
+ */
+public class WorkPackRing extends ProtectedQueue
+{
+  /**
+   * Class Slot is a work package of the ring. It knows its ring so that it
+   * is released to it.
+   */
+  static final class Slot extends WorkPackIt
+  {
+    /** m_theRing is the ring the slot belongs to. */
+    private final WorkPackRing m_theRing;
+
+    /** m_theSequence is the sequence the slot was last claimed for. */
+    long m_theSequence = -1;
+
+    Slot (WorkPackRing theRing)
+    {
+      super ();
+      m_theRing = theRing;
+    } // Slot
+
+    public boolean isReused ()
+    {
+      return true;
+    } // isReused
+
+    void release ()
+    {
+      m_theRing.release (this);
+    } // release
+
+  } // class Slot
+
+  /** CLAIM_SPINS is the number of spins of a waiting claim before it yields. */
+  private static final int CLAIM_SPINS = 100;
+  /** CLAIM_YIELDS is the number of yields of a waiting claim before it parks. */
+  private static final int CLAIM_YIELDS = 100;
+  /** CLAIM_PARK_NANOS is the longest a waiting claim parks before it looks again. */
+  private static final long CLAIM_PARK_NANOS = 1000000L;
+
+  /** m_theSlots are the work packages of the ring. */
+  private final Slot[] m_theSlots;
+  /** m_theMask maps a sequence to its slot. */
+  private final int m_theMask;
+  /** m_thePublished holds the sequence last published in each slot. */
+  private final AtomicLongArray m_thePublished;
+  /** m_theClaimSequence is the next sequence to be claimed. */
+  private final AtomicLong m_theClaimSequence = new AtomicLong ();
+  /** m_theReleaseSequence is the next sequence to be released. */
+  private volatile long m_theReleaseSequence = 0;
+  /** m_theReadSequence is the next sequence to be taken by the consumer. */
+  private long m_theReadSequence = 0;
+  /** m_theReleased holds the sequence last released in each slot. */
+  private final long[] m_theReleased;
+  /** m_theQueuedCount is the number of items inserted rather than published. */
+  private final AtomicLong m_theQueuedCount = new AtomicLong ();
+  /** m_theWaiter is the consumer while it is parked, or null. */
+  private volatile Thread m_theWaiter = null;
+  /** m_theClaimWaitCount is the number of claims that waited for a slot. */
+  private final AtomicLong m_theClaimWaitCount = new AtomicLong ();
+
+  /**
+   * Method WorkPackRing creates a ring of at least theCapacity slots. The
+   * capacity is rounded up to a power of two.
+   */
+  public WorkPackRing (int theCapacity)
+  {
+    super ();
+    int theSize = 2;
+
+    while (theSize < theCapacity)
+    {
+      theSize <<= 1;
+    } // while
+    m_theSlots = new Slot[theSize];
+    m_theMask = theSize - 1;
+    m_thePublished = new AtomicLongArray (theSize);
+    m_theReleased = new long[theSize];
+    for (int i = 0; i < theSize; i++)
+    {
+      m_theSlots[i] = new Slot (this);
+      m_thePublished.set (i, -1);
+      m_theReleased[i] = -1;
+    } // for
+  } // WorkPackRing
+
+  /**
+   * Method claim claims the next slot, waiting for the consumer to release
+   * it if the ring is full. The method returns the sequence of the slot.
+   */
+  public long claim ()
+  {
+    return claim (ThreadIt.THREADIT_INFINITE);
+  } // claim
+
+  /**
+   * Method claim claims the next slot, waiting up to WaitTime milliseconds
+   * for the consumer to release one if the ring is full. The method returns
+   * the sequence of the slot, or -1 if none was released in time.
+   */
+  public long claim (long WaitTime)
+  {
+    long theDeadline = WaitStrategy.toDeadline (WaitTime);
+    long theParkTime = 1000L;
+    int theAttempts = 0;
+    long theSequence = tryClaim ();
+
+    if (theSequence < 0)
+    {
+      m_theClaimWaitCount.incrementAndGet ();
+    } // if
+    while ((theSequence < 0) && (WaitStrategy.remainingTime (theDeadline) > 0))
+    {
+      if (theAttempts < CLAIM_SPINS)
+      {
+        WaitStrategy.onSpinWait ();
+      }
+      else if (theAttempts < CLAIM_SPINS + CLAIM_YIELDS)
+      {
+        Thread.yield ();
+      }
+      else
+      {
+        // The consumer does not know of waiting producers, so park for a
+        // while and look again.
+        LockSupport.parkNanos (this, Math.min (theParkTime, theDeadline - System.nanoTime ()));
+        theParkTime = Math.min (theParkTime * 2, CLAIM_PARK_NANOS);
+      } // if
+      theAttempts++;
+      theSequence = tryClaim ();
+    } // while
+    return theSequence;
+  } // claim
+
+  /**
+   * Method tryClaim claims the next slot if the ring is not full. The
+   * method returns the sequence of the slot, or -1 if the ring is full.
+   */
+  public long tryClaim ()
+  {
+    long theSequence = m_theClaimSequence.get ();
+    boolean isClaimed = false;
+    Slot theSlot = null;
+
+    while ((!isClaimed) && (theSequence - m_theReleaseSequence < m_theSlots.length))
+    {
+      isClaimed = m_theClaimSequence.compareAndSet (theSequence, theSequence + 1);
+      if (!isClaimed)
+      {
+        theSequence = m_theClaimSequence.get ();
+      } // if
+    } // while
+    if (isClaimed)
+    {
+      theSlot = m_theSlots[(int) (theSequence & m_theMask)];
+      theSlot.initialise ();
+      theSlot.m_theSequence = theSequence;
+    }
+    else
+    {
+      theSequence = -1;
+    } // if
+    return theSequence;
+  } // tryClaim
+
+  /**
+   * Method getSlot returns the slot of theSequence for the producer that
+   * claimed it to fill in.
+   */
+  public WorkPackIt getSlot (long theSequence)
+  {
+    return m_theSlots[(int) (theSequence & m_theMask)];
+  } // getSlot
+
+  /**
+   * Method publish makes the slot of theSequence available to the consumer.
+   * The slot is given a work package identity of theSequence + 1 and is
+   * stamped with the time it was queued. The producer must not touch the
+   * slot once it is published.
+   */
+  public void publish (long theSequence)
+  {
+    int theIndex = (int) (theSequence & m_theMask);
+    Slot theSlot = m_theSlots[theIndex];
+
+    theSlot.m_WorkPackID = theSequence + 1;
+    theSlot.m_EnqueueTime = System.nanoTime ();
+    countInsert ();
+    m_thePublished.set (theIndex, theSequence);
+    signalSelectors ();
+    wakeConsumer ();
+  } // publish
+
+  /**
+   * Method send claims a slot, fills in theInstruction and theObject and
+   * publishes it. The work asks for no reply. The method returns the
+   * sequence of the slot.
+   */
+  public long send (int theInstruction, Object theObject)
+  {
+    long theSequence = claim ();
+    WorkPackIt theSlot = getSlot (theSequence);
+
+    theSlot.setWorkInstruction (theInstruction);
+    theSlot.m_Object = theObject;
+    publish (theSequence);
+    return theSequence;
+  } // send
+
+  public void insertItem (Object T)
+  {
+    m_theQueuedCount.incrementAndGet ();
+    super.insertItem (T);
+    wakeConsumer ();
+  } // insertItem
+
+  public void insertPriorityItem (Object T)
+  {
+    m_theQueuedCount.incrementAndGet ();
+    super.insertPriorityItem (T);
+    wakeConsumer ();
+  } // insertPriorityItem
+
+  /**
+   * Method pollItem takes the next inserted item or, if there is none, the
+   * next published slot. The method returns null if there is neither.
+   */
+  public Object pollItem ()
+  {
+    Object anItem = null;
+    int theIndex = 0;
+
+    if (m_theQueuedCount.get () > 0)
+    {
+      anItem = super.pollItem ();
+      if (anItem != null)
+      {
+        m_theQueuedCount.decrementAndGet ();
+      } // if
+    } // if
+    if (anItem == null)
+    {
+      theIndex = (int) (m_theReadSequence & m_theMask);
+      if (m_thePublished.get (theIndex) == m_theReadSequence)
+      {
+        anItem = m_theSlots[theIndex];
+        m_theReadSequence++;
+        countRemove (anItem);
+      } // if
+    } // if
+    return anItem;
+  } // pollItem
+
+  /**
+   * Method waitItem waits up to WaitTime milliseconds for an item. The
+   * consumer parks while it waits and a producer unparks it.
+   */
+  public Object waitItem (long WaitTime)
+  {
+    long theDeadline = WaitStrategy.toDeadline (WaitTime);
+    long theRemaining = WaitTime;
+    Object anItem = pollItem ();
+
+    while ((anItem == null) && (theRemaining > 0))
+    {
+      // Check again once the producers can see the waiter so that a
+      // publish in between is not missed.
+      m_theWaiter = Thread.currentThread ();
+      anItem = pollItem ();
+      if (anItem == null)
+      {
+        if (theDeadline == Long.MAX_VALUE)
+        {
+          LockSupport.park (this);
+        }
+        else
+        {
+          LockSupport.parkNanos (this, theDeadline - System.nanoTime ());
+        } // if
+        anItem = pollItem ();
+        theRemaining = Thread.interrupted () ? 0 : WaitStrategy.remainingTime (theDeadline);
+      } // if
+      m_theWaiter = null;
+    } // while
+    return anItem;
+  } // waitItem
+
+  public Object getItem ()
+  {
+    return waitItem (ThreadIt.THREADIT_INFINITE);
+  } // getItem
+
+  /**
+   * Method clear takes and releases every item. Only the consumer may call
+   * it.
+   */
+  public void clear ()
+  {
+    Object anItem = pollItem ();
+
+    while (anItem != null)
+    {
+      ((WorkPackIt) anItem).release ();
+      anItem = pollItem ();
+    } // while
+  } // clear
+
+  public long size ()
+  {
+    return getDepth ();
+  } // size
+
+  public boolean isEmpty ()
+  {
+    return (getDepth () == 0);
+  } // isEmpty
+
+  /**
+   * Method getCapacity returns the number of slots in the ring.
+   */
+  public int getCapacity ()
+  {
+    return m_theSlots.length;
+  } // getCapacity
+
+  /**
+   * Method getClaimWaitCount returns the number of claims that waited for
+   * the consumer because the ring was full.
+   */
+  public long getClaimWaitCount ()
+  {
+    return m_theClaimWaitCount.get ();
+  } // getClaimWaitCount
+
+  /**
+   * Method release releases theSlot. The slots are given back to the
+   * producers in sequence order, so a slot released early is held until
+   * the slots before it are released. Only the consumer may call it.
+   */
+  void release (Slot theSlot)
+  {
+    long theSequence = theSlot.m_theSequence;
+    long theNext = m_theReleaseSequence;
+
+    if ((theSequence < theNext) || (theSequence >= m_theReadSequence)
+        || (m_theReleased[(int) (theSequence & m_theMask)] == theSequence))
+    {
+      throw new IllegalStateException ("Slot " + theSequence + " is not held by the consumer");
+    } // if
+    m_theReleased[(int) (theSequence & m_theMask)] = theSequence;
+    while (m_theReleased[(int) (theNext & m_theMask)] == theNext)
+    {
+      theNext++;
+    } // while
+    m_theReleaseSequence = theNext;
+  } // release
+
+  /**
+   * Method wakeConsumer unparks the consumer if it is waiting.
+   */
+  private void wakeConsumer ()
+  {
+    Thread theWaiter = m_theWaiter;
+
+    if (theWaiter != null)
+    {
+      LockSupport.unpark (theWaiter);
+    } // if
+  } // wakeConsumer
+
+} // class WorkPackRing
@@ -0,0 +1,58 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WorkResultCallback
+ * --------------------------------------------------------------------------
+ * Description :
+ * Interface WorkResultCallback is a WorkDoneCallback that is given the
+ * result of the work rather than only its identity.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+/**
+ * Interface WorkResultCallback is implemented by a client that wants the
+ * completed work package itself when it is notified. The client does not
+ * have to take the result from a work done queue, and with
+ * WorkPackIt.m_SendResult set to false the result is never queued at all,
+ * as ThreadItMessage.sendWithCallbackTo arranges.<p>
+ * If the result is also sent to a queue the same work package is given to
+ * the callback, so one of them must not change it.
+ */
+public interface WorkResultCallback extends WorkDoneCallback
+{
+
+  /**
+   * Method onWorkResult is called with the result of the work instead of
+   * onWorkDone.<p>
+   * theSource   : is the ThreadIt that did the work.<p>
+   * theWorkDone : is the result of the work. Its m_WorkPackID is the
+   *               reference number of the work.
+   */
+  public void onWorkResult (ThreadIt theSource, WorkPackIt theWorkDone);
+
+} // interface WorkResultCallback
@@ -0,0 +1,261 @@
+/*-------------------------------------------------------------------------*/
+/* Copyright (C) 2008 by Ashkel Software                                   */
+/* ari@ashkel.com.au                                                       */
+/*                                                                         */
+/* This file is part of the threadit library.                              */
+/*                                                                         */
+/* The threadit library is free software; you can redistribute it and/or   */
+/* modify it under the terms of The Code Project Open License (CPOL) 1.02  */
+/*                                                                         */
+/* The threadit library is distributed in the hope that it will be useful, */
+/* but WITHOUT ANY WARRANTY; without even the implied warranty of          */
+/* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the CPOL       */
+/* License for more details.                                               */
+/*                                                                         */
+/* You should have received a copy of the CPOL License along with this     */
+/* software.                                                               */
+/*-------------------------------------------------------------------------*/
+
+/**
+ * --------------------------------------------------------------------------
+ * Title : WorkStealingDeque
+ * --------------------------------------------------------------------------
+ * Description :
+ * Class WorkStealingDeque is a work queue whose owner takes work from the
+ * head while other threads steal stealable work from the tail. Both ends
+ * are served by a lock-free deque, so the owner and the thieves never wait
+ * on a lock held by the other.
+ * --------------------------------------------------------------------------
+ * Copyright: Copyright (c) 2008
+ * Company:   Ashkel Software
+ * @author    Ari Edinburg
+ * @version   1.0
+ * --------------------------------------------------------------------------
+ */
+
+/** Package */
+package au.com.ashkel.javalib.threads;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class WorkStealingDeque holds its items in a ConcurrentLinkedDeque. An
+ * item is removed by compare-and-set, so when the owner and a thief reach
+ * for the same work package exactly one of them gets it. The owner is the
+ * one thread that waits on the queue; it parks when the queue is empty and
+ * is unparked by the next insert. Only WorkPackIt items with m_isStealable
+ * set are stolen, and a thief looks at no more than the last
+ * STEAL_SCAN_LIMIT items so that a steal costs the same however long the
+ * queue is.
+ */
+public class WorkStealingDeque extends ProtectedQueue
+{
+  /** STEAL_SCAN_LIMIT is the number of items from the tail a thief looks at. */
+  public static final int STEAL_SCAN_LIMIT = 64;
+
+  /** m_theDeque holds the items. */
+  private final ConcurrentLinkedDeque<Object> m_theDeque = new ConcurrentLinkedDeque<Object> ();
+  /** m_theWaiter is the thread parked waiting for an item or null. */
+  private volatile Thread m_theWaiter = null;
+  /** m_isWoken is set by wake to end a wait without an item. */
+  private volatile boolean m_isWoken = false;
+  /** m_theBacklogListener is told when an insert leaves work waiting. */
+  private volatile BacklogListener m_theBacklogListener = null;
+  /** m_theStolenCount is the number of items stolen from the queue. */
+  private final AtomicLong m_theStolenCount = new AtomicLong ();
+
+  /**
+   * Interface BacklogListener is told when an insert leaves more than one
+   * item waiting, which means the owner is busy and a thief could help.
+   */
+  public interface BacklogListener
+  {
+    public void onBacklog (WorkStealingDeque theDeque);
+  } // interface BacklogListener
+
+  public WorkStealingDeque ()
+  {
+    super (false);
+  } // WorkStealingDeque
+
+  public void insertItem (Object T)
+  {
+    BacklogListener theListener = m_theBacklogListener;
+
+    countInsert ();
+    m_theDeque.offerLast (T);
+    signal ();
+    signalSelectors ();
+    if ((theListener != null) && (getDepth () > 1))
+    {
+      theListener.onBacklog (this);
+    } // if
+  } // insertItem
+
+  public void insertPriorityItem (Object T)
+  {
+    countInsert ();
+    m_theDeque.offerFirst (T);
+    signal ();
+    signalSelectors ();
+  } // insertPriorityItem
+
+  /**
+   * Method waitItem waits up to WaitTime milliseconds for an item and
+   * removes it from the head. The wait also ends without an item when wake
+   * is called. Only the owner of the queue should wait on it.
+   */
+  public Object waitItem (long WaitTime)
+  {
+    Object anItem = pollItem ();
+    long theDeadline = 0;
+    long theRemaining = 0;
+
+    if ((anItem == null) && (WaitTime > 0))
+    {
+      theDeadline = WaitStrategy.toDeadline (WaitTime);
+      m_theWaiter = Thread.currentThread ();
+      // Check again once the waiter is published so an insert cannot be missed.
+      anItem = pollItem ();
+      while ((anItem == null) && (!m_isWoken))
+      {
+        theRemaining = (theDeadline == Long.MAX_VALUE) ? Long.MAX_VALUE : theDeadline - System.nanoTime ();
+        if ((theRemaining <= 0) || (Thread.interrupted ()))
+        {
+          break;
+        } // if
+        LockSupport.parkNanos (this, theRemaining);
+        anItem = pollItem ();
+      } // while
+      m_theWaiter = null;
+      m_isWoken = false;
+    } // if
+    return anItem;
+  } // waitItem
+
+  public Object pollItem ()
+  {
+    Object anItem = m_theDeque.pollFirst ();
+
+    countRemove (anItem);
+    return anItem;
+  } // pollItem
+
+  public Object getItem ()
+  {
+    return waitItem (ThreadIt.THREADIT_INFINITE);
+  } // getItem
+
+  /**
+   * Method stealItem removes the stealable work package nearest the tail.
+   * The method returns null if none of the last STEAL_SCAN_LIMIT items is
+   * stealable.
+   */
+  public WorkPackIt stealItem ()
+  {
+    Iterator<Object> theItems = m_theDeque.descendingIterator ();
+    WorkPackIt theStolen = null;
+
+    for (int i = 0; (i < STEAL_SCAN_LIMIT) && (theStolen == null) && (theItems.hasNext ()); i++)
+    {
+      Object anItem = theItems.next ();
+      if ((anItem instanceof WorkPackIt) && (((WorkPackIt) anItem).m_isStealable) &&
+          (m_theDeque.removeLastOccurrence (anItem)))
+      {
+        theStolen = (WorkPackIt) anItem;
+        countRemove (theStolen);
+        m_theStolenCount.incrementAndGet ();
+      } // if
+    } // for
+    return theStolen;
+  } // stealItem
+
+  /**
+   * Method wake ends the wait of the owner without an item, for instance
+   * so that it can look for work to steal.
+   */
+  public void wake ()
+  {
+    m_isWoken = true;
+    signal ();
+  } // wake
+
+  /**
+   * Method isWaiting returns true if the owner is parked waiting for work.
+   */
+  public boolean isWaiting ()
+  {
+    return (m_theWaiter != null);
+  } // isWaiting
+
+  public void setBacklogListener (BacklogListener theBacklogListener)
+  {
+    m_theBacklogListener = theBacklogListener;
+  } // setBacklogListener
+
+  /**
+   * Method getStolenCount returns the number of items stolen from the queue.
+   */
+  public long getStolenCount ()
+  {
+    return m_theStolenCount.get ();
+  } // getStolenCount
+
+  public void clear ()
+  {
+    while (pollItem () != null)
+    {
+      // Each removal is counted.
+    } // while
+  } // clear
+
+  public long size ()
+  {
+    return m_theDeque.size ();
+  } // size
+
+  public boolean isEmpty ()
+  {
+    return m_theDeque.isEmpty ();
+  } // isEmpty
+
+  public Object get (int i)
+  {
+    Iterator<Object> theItems = m_theDeque.iterator ();
+    Object anItem = null;
+
+    for (int j = 0; (j <= i) && (theItems.hasNext ()); j++)
+    {
+      anItem = theItems.next ();
+    } // for
+    return ((i >= 0) && (i < m_theDeque.size ())) ? anItem : null;
+  } // get
+
+  public boolean remove (Object o)
+  {
+    boolean isRemoved = m_theDeque.remove (o);
+
+    if (isRemoved)
+    {
+      countRemove (o);
+    } // if
+    return isRemoved;
+  } // remove
+
+  /**
+   * Method signal unparks the owner if it is waiting.
+   */
+  private void signal ()
+  {
+    Thread theWaiter = m_theWaiter;
+
+    if (theWaiter != null)
+    {
+      LockSupport.unpark (theWaiter);
+    } // if
+  } // signal
+
+} // class WorkStealingDeque